@@ -0,0 +1,430 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.Answers;
+import org.mockito.Mockito;
+import sonia.scm.cache.MapCacheManager;
+import sonia.scm.config.ScmConfiguration;
+import sonia.scm.repository.Branch;
+import sonia.scm.repository.Branches;
+import sonia.scm.repository.PostReceiveRepositoryHookEvent;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.api.BranchesCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.repository.api.RepositoryServiceFactory;
+import sonia.scm.repository.api.ScmProtocol;
+import sonia.scm.store.InMemoryConfigurationStoreFactory;
+import sonia.scm.store.InMemoryDataStore;
+import sonia.scm.store.InMemoryDataStoreFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Drives synthetic pushes through {@link ArgoCDWebhookSpecification#createExecutor} against a {@link FakeArgoCD}
+ * and reports the throughput, the latency from the push to the response of Argo CD and the time the hook threads
+ * are blocked by the plugin. All components of the plugin are wired as in SCM-Manager, only the repository
+ * services, the hook events and the dead letter store are mocks.
+ * <p>
+ * Run with <code>./gradlew loadTest -PloadTest="events=10000 latency=exponential:50 errorRate=0.05"</code>, see
+ * {@link Options} for all options.
+ */
+public final class ArgoCDLoadTest {
+
+  private static final String HOOK_BLOCKING = "loadtest.hook.blocking";
+  private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+  private static final String REPOSITORY_URL = "https://scm.example.com/repo/load-test/repository";
+
+  private final Options options;
+  private final FakeArgoCD argoCD;
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+  private ArgoCDLoadTest(Options options, FakeArgoCD argoCD) {
+    this.options = options;
+    this.argoCD = argoCD;
+    registry.config().meterFilter(new MeterFilter() {
+      @Override
+      public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+        // the percentiles have to cover the whole run
+        return DistributionStatisticConfig.builder()
+          .percentiles(PERCENTILES)
+          .expiry(Duration.ofDays(1))
+          .bufferLength(1)
+          .build()
+          .merge(config);
+      }
+    });
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Options options = Options.parse(args);
+    try (FakeArgoCD argoCD = FakeArgoCD.start(options.getInt("receiverThreads"))) {
+      argoCD
+        .withSecret(options.getBoolean("secret") ? "load-test-secret" : null)
+        .withLatency(FakeArgoCD.Latency.parse(options.get("latency")))
+        .withErrorRate(options.getDouble("errorRate"))
+        .withResetRate(options.getDouble("resetRate"));
+      // every tenth application belongs to the repository of the pushes, the others to unrelated repositories
+      for (int i = 0; i < options.getInt("applications"); i++) {
+        argoCD.withApplication("application-" + i, i % 10 == 0 ? REPOSITORY_URL : "https://scm.example.com/repo/other/repository-" + i, "main");
+      }
+      new ArgoCDLoadTest(options, argoCD).run();
+    }
+  }
+
+  private void run() throws InterruptedException {
+    InMemoryConfigurationStoreFactory storeFactory = new InMemoryConfigurationStoreFactory();
+    ArgoCDConfigurationStore configurationStore = new ArgoCDConfigurationStore(storeFactory);
+    ArgoCDConfiguration configuration = configurationStore.get();
+    // the advanced http client is only available in SCM-Manager
+    configuration.setPooledTransport(true);
+    configuration.setDeliveryThreads(options.getInt("deliveryThreads"));
+    configuration.setQueueCapacity(options.getInt("queueCapacity"));
+    configuration.setDebounceMillis(options.getInt("debounceMillis"));
+    configuration.setRateLimitPerSecond(options.getInt("rateLimit"));
+
+    ArgoCDMetrics metrics = new ArgoCDMetrics(registry);
+    ArgoCDPayloadSigner signer = new ArgoCDPayloadSigner();
+    ArgoCDDeadLetterStore deadLetters = mock(ArgoCDDeadLetterStore.class);
+    AtomicReference<ArgoCDDeliveryQueue> queueReference = new AtomicReference<>();
+    ArgoCDRetryScheduler retryScheduler = new ArgoCDRetryScheduler(queueReference::get, deadLetters);
+    ArgoCDRefStateStore refStateStore = new ArgoCDRefStateStore(storeFactory, configurationStore);
+    ArgoCDHttpTransport transport = new ArgoCDHttpTransport(configurationStore, new ScmConfiguration());
+    ArgoCDDeliveryDeduplicator deduplicator = new ArgoCDDeliveryDeduplicator(
+      new ArgoCDDataStoreIdempotencyStore(new InMemoryDataStoreFactory(new InMemoryDataStore<ArgoCDIdempotencyKey>())),
+      configurationStore,
+      metrics
+    );
+    ArgoCDApiClient apiClient = new ArgoCDApiClient(
+      () -> {
+        throw new IllegalStateException("the pooled transport is used");
+      },
+      transport,
+      configurationStore,
+      metrics
+    );
+    ArgoCDDeliveryQueue queue = new ArgoCDDeliveryQueue(
+      configurationStore,
+      new ArgoCDWebhookSender(
+        () -> {
+          throw new IllegalStateException("the pooled transport is used");
+        },
+        transport,
+        new ArgoCDApplicationRefresher(new ArgoCDApplicationIndex(apiClient, configurationStore), apiClient),
+        configurationStore,
+        new ArgoCDPayloadEncoder(),
+        signer,
+        metrics
+      ),
+      retryScheduler,
+      new ArgoCDCircuitBreaker(configurationStore),
+      metrics,
+      new ArgoCDDeliveryHistoryStore(storeFactory, configurationStore),
+      refStateStore,
+      new ArgoCDRateLimiter(configurationStore, metrics),
+      deduplicator
+    );
+    queueReference.set(queue);
+    ArgoCDRefreshDebouncer debouncer = new ArgoCDRefreshDebouncer(configurationStore, queue);
+    RepositoryServiceFactory serviceFactory = repositoryServiceFactory();
+    ArgoCDWebhookSpecification specification = new ArgoCDWebhookSpecification(
+      new ArgoCDPushContextCache(serviceFactory, new ArgoCDRepositoryMetadataCache(new MapCacheManager(), serviceFactory, metrics, new ScmConfiguration())),
+      debouncer,
+      signer,
+      new ArgoCDPathFilter(),
+      new ArgoCDBranchMatcherCache(),
+      new ArgoCDChangesCollector(configurationStore),
+      refStateStore,
+      deduplicator
+    );
+
+    HookImplementation implementation = HookImplementation.valueOf(options.get("implementation"));
+    ArgoCDWebhook webhook = new ArgoCDWebhook(
+      implementation,
+      implementation.isPushEvent() ? argoCD.getUrl() : argoCD.getApiUrl(),
+      options.getBoolean("secret") ? "load-test-secret" : "",
+      false
+    );
+    webhook.setBatch(options.getBoolean("batch"));
+    webhook.setMaxRetries(options.getInt("maxRetries"));
+    webhook.setRetryBackoffMillis(options.getInt("retryBackoffMillis"));
+
+    List<Push> pushes = createPushes();
+    System.out.printf("sending %d pushes to %s%n", pushes.size(), argoCD.getUrl());
+
+    Timer hookBlocking = Timer.builder(HOOK_BLOCKING).register(registry);
+    ExecutorService hookThreads = Executors.newFixedThreadPool(options.getInt("hookThreads"));
+    long start = System.nanoTime();
+    for (Push push : pushes) {
+      hookThreads.execute(() -> {
+        long hookStart = System.nanoTime();
+        try {
+          specification.createExecutor(webhook, push.repository, push.event).run();
+        } catch (RuntimeException e) {
+          System.err.println("executor failed: " + e);
+        } finally {
+          hookBlocking.record(System.nanoTime() - hookStart, TimeUnit.NANOSECONDS);
+        }
+      });
+    }
+    hookThreads.shutdown();
+    hookThreads.awaitTermination(1, TimeUnit.HOURS);
+    long hooksDone = System.nanoTime();
+
+    long end = awaitDeliveries(queue, debouncer, deadLetters);
+    report(pushes.size(), start, hooksDone, end, queue, deadLetters, hookBlocking);
+
+    debouncer.close();
+    retryScheduler.close();
+    queue.close();
+  }
+
+  /**
+   * Waits until the queue is drained and no request has been received for the configured quiet period, which has
+   * to be longer than the retry backoff.
+   *
+   * @return time of the last received request
+   */
+  private long awaitDeliveries(ArgoCDDeliveryQueue queue, ArgoCDRefreshDebouncer debouncer, ArgoCDDeadLetterStore deadLetters) throws InterruptedException {
+    long quietNanos = TimeUnit.MILLISECONDS.toNanos(options.getInt("quietMillis"));
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.getInt("timeoutSeconds"));
+    long lastProgress = System.nanoTime();
+    long lastCount = -1;
+    while (System.nanoTime() < deadline) {
+      long count = argoCD.getRequests() + deadLetterCount(deadLetters);
+      long now = System.nanoTime();
+      if (count != lastCount) {
+        lastCount = count;
+        lastProgress = now;
+      } else if (queue.getDepth() == 0 && debouncer.getPendingDeliveries() == 0 && now - lastProgress >= quietNanos) {
+        return lastProgress;
+      }
+      TimeUnit.MILLISECONDS.sleep(50);
+    }
+    System.err.println("timeout while waiting for deliveries, results are incomplete");
+    return System.nanoTime();
+  }
+
+  private void report(int events, long start, long hooksDone, long end, ArgoCDDeliveryQueue queue, ArgoCDDeadLetterStore deadLetters, Timer hookBlocking) {
+    double seconds = (end - start) / 1e9;
+    Timer latency = registry.find(ArgoCDMetrics.DELIVERY_LATENCY).timer();
+    long delivered = latency != null ? latency.count() : 0;
+
+    System.out.println();
+    System.out.printf("events               %d in %.1fs, hooks done after %.1fs%n", events, seconds, (hooksDone - start) / 1e9);
+    System.out.printf(
+      "requests             %d (accepted %d, 503 %d, closed %d, invalid signature %d)%n",
+      argoCD.getRequests(), argoCD.getAccepted(), argoCD.getErrors(), argoCD.getResets(), argoCD.getInvalidSignatures()
+    );
+    System.out.printf(
+      "deliveries           %d successful, %d dead letters, %d dropped%n",
+      delivered, deadLetterCount(deadLetters), queue.getDroppedDeliveries()
+    );
+    System.out.printf("throughput           %.1f events/s, %.1f successful deliveries/s%n", events / seconds, delivered / seconds);
+    if (latency != null) {
+      System.out.println("push to argo cd      " + percentiles(latency.takeSnapshot()));
+    }
+    System.out.println("hook thread blocked  " + percentiles(hookBlocking.takeSnapshot()));
+  }
+
+  private static String percentiles(HistogramSnapshot snapshot) {
+    StringBuilder builder = new StringBuilder();
+    for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+      builder.append(String.format("p%s %.1fms  ", percentile.percentile() * 100, percentile.value(TimeUnit.MILLISECONDS)));
+    }
+    return builder.append(String.format("max %.1fms", snapshot.max(TimeUnit.MILLISECONDS))).toString();
+  }
+
+  private static long deadLetterCount(ArgoCDDeadLetterStore deadLetters) {
+    return Mockito.mockingDetails(deadLetters).getInvocations().stream()
+      .filter(invocation -> invocation.getMethod().getName().equals("add"))
+      .count();
+  }
+
+  /**
+   * Creates the pushes up front, so that the creation of the mocks is not measured. Every tenth push contains the
+   * default branch.
+   */
+  private List<Push> createPushes() {
+    int repositoryCount = options.getInt("repositories");
+    int refs = options.getInt("refs");
+    List<Repository> repositories = new ArrayList<>();
+    for (int i = 0; i < repositoryCount; i++) {
+      repositories.add(new Repository("load-" + i, "git", "load-test", "repository-" + i));
+    }
+    List<Push> pushes = new ArrayList<>();
+    for (int i = 0; i < options.getInt("events"); i++) {
+      List<String> branches = new ArrayList<>();
+      for (int j = 0; j < refs; j++) {
+        branches.add(i % 10 == 0 && j == 0 ? "main" : "feature/push-" + i + "-" + j);
+      }
+      PostReceiveRepositoryHookEvent event = mock(PostReceiveRepositoryHookEvent.class, Answers.RETURNS_DEEP_STUBS);
+      when(event.getContext().getBranchProvider().getCreatedOrModified()).thenReturn(branches);
+      when(event.getContext().getBranchProvider().getDeletedOrClosed()).thenReturn(Collections.emptyList());
+      pushes.add(new Push(repositories.get(i % repositoryCount), event));
+    }
+    return pushes;
+  }
+
+  private static RepositoryServiceFactory repositoryServiceFactory() {
+    RepositoryServiceFactory serviceFactory = mock(RepositoryServiceFactory.class);
+    RepositoryService service = mock(RepositoryService.class);
+    BranchesCommandBuilder branchesCommand = mock(BranchesCommandBuilder.class);
+    when(serviceFactory.create(any(Repository.class))).thenReturn(service);
+    when(service.getBranchesCommand()).thenReturn(branchesCommand);
+    try {
+      when(branchesCommand.getBranches()).thenReturn(new Branches(Branch.defaultBranch("main", "revision", 0L)));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    when(service.getSupportedProtocols()).thenAnswer(invocation -> Stream.of(new ScmProtocol() {
+      @Override
+      public String getType() {
+        return "http";
+      }
+
+      @Override
+      public String getUrl() {
+        return REPOSITORY_URL;
+      }
+    }));
+    return serviceFactory;
+  }
+
+  private static class Push {
+    private final Repository repository;
+    private final PostReceiveRepositoryHookEvent event;
+
+    Push(Repository repository, PostReceiveRepositoryHookEvent event) {
+      this.repository = repository;
+      this.event = event;
+    }
+  }
+
+  /**
+   * Options of the load test as <code>name=value</code> arguments:
+   * <ul>
+   *   <li>events: number of pushes (2000)</li>
+   *   <li>repositories: number of repositories the pushes are spread over (50)</li>
+   *   <li>refs: branches per push (1)</li>
+   *   <li>hookThreads: threads executing the hooks like the hook threads of SCM-Manager (8)</li>
+   *   <li>implementation: payload type, SCMM, GITHUB or API (SCMM)</li>
+   *   <li>applications: applications of the fake argo cd for the API implementation, a tenth of them uses the
+   *   pushed repository (200)</li>
+   *   <li>secret: sign the payloads (true)</li>
+   *   <li>batch: batch mode of the webhook (false)</li>
+   *   <li>maxRetries, retryBackoffMillis: retries of the webhook (3, 100)</li>
+   *   <li>deliveryThreads, queueCapacity, debounceMillis, rateLimit: global configuration (4, 10000, 0, 0)</li>
+   *   <li>latency: response time of argo cd, see {@link FakeArgoCD.Latency#parse(String)} (exponential:20)</li>
+   *   <li>errorRate, resetRate: share of 503 responses and closed connections (0.01, 0.005)</li>
+   *   <li>receiverThreads: threads of the fake argo cd (16)</li>
+   *   <li>quietMillis, timeoutSeconds: wait for retries after the last request and overall (2000, 600)</li>
+   * </ul>
+   */
+  static class Options {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+      DEFAULTS.put("events", "2000");
+      DEFAULTS.put("repositories", "50");
+      DEFAULTS.put("refs", "1");
+      DEFAULTS.put("hookThreads", "8");
+      DEFAULTS.put("implementation", "SCMM");
+      DEFAULTS.put("applications", "200");
+      DEFAULTS.put("secret", "true");
+      DEFAULTS.put("batch", "false");
+      DEFAULTS.put("maxRetries", "3");
+      DEFAULTS.put("retryBackoffMillis", "100");
+      DEFAULTS.put("deliveryThreads", "4");
+      DEFAULTS.put("queueCapacity", "10000");
+      DEFAULTS.put("debounceMillis", "0");
+      DEFAULTS.put("rateLimit", "0");
+      DEFAULTS.put("latency", "exponential:20");
+      DEFAULTS.put("errorRate", "0.01");
+      DEFAULTS.put("resetRate", "0.005");
+      DEFAULTS.put("receiverThreads", "16");
+      DEFAULTS.put("quietMillis", "2000");
+      DEFAULTS.put("timeoutSeconds", "600");
+    }
+
+    private final Map<String, String> values;
+
+    private Options(Map<String, String> values) {
+      this.values = values;
+    }
+
+    static Options parse(String[] args) {
+      Map<String, String> values = new LinkedHashMap<>(DEFAULTS);
+      for (String arg : args) {
+        String[] parts = arg.split("=", 2);
+        if (parts.length != 2 || !DEFAULTS.containsKey(parts[0])) {
+          throw new IllegalArgumentException("unknown option " + arg + ", known options are " + DEFAULTS.keySet());
+        }
+        values.put(parts[0], parts[1]);
+      }
+      System.out.println(values.entrySet().stream().map(Map.Entry::toString).collect(Collectors.joining(" ")));
+      return new Options(values);
+    }
+
+    String get(String name) {
+      return values.get(name);
+    }
+
+    int getInt(String name) {
+      return Integer.parseInt(get(name));
+    }
+
+    double getDouble(String name) {
+      return Double.parseDouble(get(name));
+    }
+
+    boolean getBoolean(String name) {
+      return Boolean.parseBoolean(get(name));
+    }
+  }
+}
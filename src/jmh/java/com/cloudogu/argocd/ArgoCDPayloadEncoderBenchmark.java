@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the serialization of the payloads of a push with many branches (e.g. a mirror push) using the payload
+ * dtos with jackson and using the {@link ArgoCDPayloadEncoder}. Run with <code>./gradlew jmh</code> and use
+ * <code>-prof gc</code> to compare the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArgoCDPayloadEncoderBenchmark {
+
+  @Param({"1", "100", "500"})
+  private int branchCount;
+
+  @Param({"GITHUB", "SCMM"})
+  private String hookImplementation;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final ArgoCDPayloadEncoder encoder = new ArgoCDPayloadEncoder();
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+  private List<ArgoCDDelivery> deliveries;
+
+  @Setup
+  public void setUp() {
+    ArgoCDWebhook webhook = new ArgoCDWebhook(HookImplementation.valueOf(hookImplementation), "https://argocd.example.com/api/webhook", "", false);
+    List<String> branches = new ArrayList<>();
+    for (int i = 0; i < branchCount; i++) {
+      branches.add("feature/branch-" + i);
+    }
+    deliveries = new ArgoCDDelivery(
+      webhook, "42", "hitchhiker/heart-of-gold", "https://scm.example.com/repo/hitchhiker/heart-of-gold", "main", branches
+    ).split();
+  }
+
+  @Benchmark
+  public void dto(Blackhole blackhole) throws IOException {
+    for (ArgoCDDelivery delivery : deliveries) {
+      blackhole.consume(objectMapper.writeValueAsBytes(delivery.createPayload()));
+    }
+  }
+
+  @Benchmark
+  public void encoder(Blackhole blackhole) {
+    for (ArgoCDDelivery delivery : deliveries) {
+      buffer.reset();
+      encoder.encode(delivery, buffer);
+      blackhole.consume(buffer.size());
+    }
+  }
+}
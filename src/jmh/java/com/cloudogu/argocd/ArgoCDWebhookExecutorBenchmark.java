@@ -0,0 +1,284 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.Answers;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import sonia.scm.cache.MapCacheManager;
+import sonia.scm.config.ScmConfiguration;
+import sonia.scm.repository.Branch;
+import sonia.scm.repository.Branches;
+import sonia.scm.repository.PostReceiveRepositoryHookEvent;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.api.BranchesCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.repository.api.RepositoryServiceFactory;
+import sonia.scm.repository.api.ScmProtocol;
+import sonia.scm.store.InMemoryConfigurationStoreFactory;
+import sonia.scm.store.InMemoryDataStore;
+import sonia.scm.store.InMemoryDataStoreFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures what a push costs from {@link ArgoCDWebhookExecutor#run()} to the response of a {@link FakeArgoCD},
+ * including the payload encoding, signing, the delivery history and the pooled http transport. The
+ * delivery workers run on the benchmark thread, so that each invocation includes all requests of the push.
+ * <p>
+ * The hook event and the repository service are mocks, their overhead is the same for all parameters. Run with
+ * <code>./gradlew jmh</code>, store the results with <code>./gradlew jmhBaseline</code> and compare later runs with
+ * <code>./gradlew jmhCheck</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArgoCDWebhookExecutorBenchmark {
+
+  private static final String HTML_URL = "https://scm.example.com/repo/hitchhiker/heart-of-gold";
+
+  @State(Scope.Benchmark)
+  public static class Receiver {
+
+    private FakeArgoCD argoCD;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+      argoCD = FakeArgoCD.start(4);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+      argoCD.close();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Push {
+
+    /**
+     * Number of refs pushed at once, 10000 is a typical initial push of a mirror.
+     */
+    @Param({"1", "100", "10000"})
+    private int refCount;
+
+    @Param({"SCMM", "GITHUB"})
+    private String hookImplementation;
+
+    @Param({"false", "true"})
+    private boolean secret;
+
+    private ArgoCDWebhookExecutor executor;
+    private ArgoCDRetryScheduler retryScheduler;
+
+    @Setup(Level.Trial)
+    public void setUp(Receiver receiver) throws IOException {
+      Repository repository = RepositoryTestData.createHeartOfGold();
+      Pipeline pipeline = new Pipeline(repository, 10);
+      retryScheduler = pipeline.retryScheduler;
+
+      List<String> branches = new ArrayList<>();
+      for (int i = 0; i < refCount; i++) {
+        branches.add(i == 0 ? "main" : "feature/branch-" + i);
+      }
+      PostReceiveRepositoryHookEvent event = mock(PostReceiveRepositoryHookEvent.class, Answers.RETURNS_DEEP_STUBS);
+      when(event.getContext().getBranchProvider().getCreatedOrModified()).thenReturn(branches);
+      when(event.getContext().getBranchProvider().getDeletedOrClosed()).thenReturn(Collections.emptyList());
+
+      ArgoCDWebhook webhook = new ArgoCDWebhook(
+        HookImplementation.valueOf(hookImplementation), receiver.argoCD.getUrl(), secret ? "secret-for-argo-cd" : "", false
+      );
+      executor = pipeline.executor(webhook, event);
+    }
+
+    /**
+     * Failed deliveries would be measured as much cheaper than sent ones, so the benchmark fails instead.
+     */
+    @TearDown(Level.Iteration)
+    public void verifyDelivered() {
+      if (!Mockito.mockingDetails(retryScheduler).getInvocations().isEmpty()) {
+        throw new IllegalStateException("deliveries to the argo cd stub failed");
+      }
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class LargeRepository {
+
+    /**
+     * Number of branches of the repository, which are listed to find the default branch.
+     */
+    @Param({"10", "1000", "10000"})
+    private int branchCount;
+
+    private Repository repository;
+    private ArgoCDRepositoryMetadataCache metadataCache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+      repository = RepositoryTestData.createHeartOfGold();
+      metadataCache = new Pipeline(repository, branchCount).metadataCache;
+    }
+  }
+
+  @Benchmark
+  public void run(Push push) {
+    push.executor.run();
+  }
+
+  /**
+   * Lookup of the default branch and the http url without the cache, as after a push to the default branch.
+   */
+  @Benchmark
+  public void findDefaultBranch(LargeRepository largeRepository, Blackhole blackhole) {
+    largeRepository.metadataCache.invalidate(largeRepository.repository);
+    blackhole.consume(largeRepository.metadataCache.get(largeRepository.repository));
+  }
+
+  /**
+   * The components of the plugin wired as in SCM-Manager, but with synchronous delivery workers.
+   */
+  private static class Pipeline {
+
+    private final ArgoCDConfigurationStore configurationStore;
+    private final ArgoCDMetrics metrics = new ArgoCDMetrics(new SimpleMeterRegistry());
+    private final ArgoCDRetryScheduler retryScheduler = mock(ArgoCDRetryScheduler.class);
+    private final RepositoryServiceFactory serviceFactory;
+    private final ArgoCDRepositoryMetadataCache metadataCache;
+    private final ArgoCDRefStateStore refStateStore;
+    private final ArgoCDDeliveryDeduplicator deduplicator;
+    private final ArgoCDDeliveryQueue queue;
+    private final Repository repository;
+
+    Pipeline(Repository repository, int branchCount) throws IOException {
+      this.repository = repository;
+      InMemoryConfigurationStoreFactory storeFactory = new InMemoryConfigurationStoreFactory();
+      configurationStore = new ArgoCDConfigurationStore(storeFactory);
+      // the jdk http client is used instead of the advanced http client of SCM-Manager
+      configurationStore.get().setPooledTransport(true);
+
+      serviceFactory = mock(RepositoryServiceFactory.class);
+      RepositoryService service = mock(RepositoryService.class);
+      BranchesCommandBuilder branchesCommand = mock(BranchesCommandBuilder.class);
+      when(serviceFactory.create(repository)).thenReturn(service);
+      when(service.getBranchesCommand()).thenReturn(branchesCommand);
+      when(branchesCommand.getBranches()).thenReturn(branches(branchCount));
+      when(service.getSupportedProtocols()).thenAnswer(invocation -> Stream.of(protocol("ssh"), protocol("http")));
+
+      metadataCache = new ArgoCDRepositoryMetadataCache(new MapCacheManager(), serviceFactory, metrics, new ScmConfiguration());
+      refStateStore = new ArgoCDRefStateStore(storeFactory, configurationStore);
+      deduplicator = new ArgoCDDeliveryDeduplicator(
+        new ArgoCDDataStoreIdempotencyStore(new InMemoryDataStoreFactory(new InMemoryDataStore<ArgoCDIdempotencyKey>())),
+        configurationStore,
+        metrics
+      );
+      queue = new ArgoCDDeliveryQueue(
+        configurationStore,
+        new ArgoCDWebhookSender(
+          () -> {
+            throw new IllegalStateException("the pooled transport is used");
+          },
+          new ArgoCDHttpTransport(configurationStore, new ScmConfiguration()),
+          // the benchmark uses push events only
+          null,
+          configurationStore,
+          new ArgoCDPayloadEncoder(),
+          new ArgoCDPayloadSigner(),
+          metrics
+        ),
+        retryScheduler,
+        new ArgoCDCircuitBreaker(configurationStore),
+        metrics,
+        new ArgoCDDeliveryHistoryStore(storeFactory, configurationStore),
+        refStateStore,
+        new ArgoCDRateLimiter(configurationStore, metrics),
+        deduplicator,
+        Runnable::run,
+        Runnable::run
+      );
+    }
+
+    ArgoCDWebhookExecutor executor(ArgoCDWebhook webhook, PostReceiveRepositoryHookEvent event) {
+      return new ArgoCDWebhookExecutor(
+        new ArgoCDRefreshDebouncer(configurationStore, queue, null),
+        new ArgoCDPathFilter(),
+        new ArgoCDBranchMatcherCache().get(webhook),
+        new ArgoCDChangesCollector(configurationStore),
+        refStateStore,
+        deduplicator,
+        webhook,
+        new ArgoCDPushContext(repository, event, serviceFactory, metadataCache)
+      );
+    }
+
+    private static Branches branches(int count) {
+      List<Branch> branches = new ArrayList<>();
+      for (int i = 1; i < count; i++) {
+        branches.add(Branch.normalBranch("feature/branch-" + i, "revision-" + i, 0L));
+      }
+      // the default branch is listed last, which is the worst case for the lookup
+      branches.add(Branch.defaultBranch("main", "revision-0", 0L));
+      return new Branches(branches);
+    }
+
+    private static ScmProtocol protocol(String type) {
+      return new ScmProtocol() {
+        @Override
+        public String getType() {
+          return type;
+        }
+
+        @Override
+        public String getUrl() {
+          return "http".equals(type) ? HTML_URL : "ssh://scm.example.com/repo/hitchhiker/heart-of-gold";
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import sonia.scm.net.ahc.AdvancedHttpClient;
+import sonia.scm.net.ahc.AdvancedHttpRequest;
+import sonia.scm.net.ahc.AdvancedHttpResponse;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Client for the rest api of Argo CD, used by webhooks with {@link HookImplementation#API}. Like the push events,
+ * requests are sent with the {@link ArgoCDHttpTransport} if enabled and with the {@link AdvancedHttpClient} otherwise.
+ */
+@Singleton
+public class ArgoCDApiClient {
+
+  // only the fields needed for the application index are requested, which keeps the response small
+  private static final String LIST_FIELDS = "items.metadata.name,items.metadata.namespace,items.spec.source,items.spec.sources";
+
+  private final Provider<AdvancedHttpClient> clientProvider;
+  private final ArgoCDHttpTransport transport;
+  private final ArgoCDConfigurationStore configurationStore;
+  private final ArgoCDMetrics metrics;
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  @Inject
+  public ArgoCDApiClient(Provider<AdvancedHttpClient> clientProvider,
+                         ArgoCDHttpTransport transport,
+                         ArgoCDConfigurationStore configurationStore,
+                         ArgoCDMetrics metrics) {
+    this.clientProvider = clientProvider;
+    this.transport = transport;
+    this.configurationStore = configurationStore;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the applications of the Argo CD server of the webhook with one entry per source.
+   *
+   * @throws ArgoCDHookExecutionException if the applications could not be read
+   */
+  public List<ArgoCDApplication> listApplications(ArgoCDWebhook webhook) {
+    Response response = get(webhook, baseUrl(webhook) + "/api/v1/applications?fields=" + encode(LIST_FIELDS));
+    if (!response.isSuccessful()) {
+      throw new ArgoCDHookExecutionException("Argo CD responded with status " + response.status + " to list applications", response.status);
+    }
+    try {
+      return parseApplications(response.body);
+    } catch (IOException e) {
+      throw new ArgoCDHookExecutionException("Could not parse applications of Argo CD", e);
+    }
+  }
+
+  /**
+   * Asks Argo CD to refresh the application, which compares the application with the latest revision of its sources.
+   *
+   * @return <code>false</code> if the application does not exist anymore
+   * @throws ArgoCDHookExecutionException if the application could not be refreshed
+   */
+  public boolean refresh(ArgoCDWebhook webhook, ArgoCDApplication application) {
+    StringBuilder url = new StringBuilder(baseUrl(webhook))
+      .append("/api/v1/applications/")
+      .append(encode(application.getName()))
+      .append("?refresh=normal");
+    if (application.getNamespace() != null) {
+      url.append("&appNamespace=").append(encode(application.getNamespace()));
+    }
+    Response response = get(webhook, url.toString());
+    if (response.status == 404) {
+      return false;
+    }
+    if (!response.isSuccessful()) {
+      throw new ArgoCDHookExecutionException("Argo CD responded with status " + response.status + " to refresh application " + application.getName(), response.status);
+    }
+    return true;
+  }
+
+  List<ArgoCDApplication> parseApplications(byte[] body) throws IOException {
+    List<ArgoCDApplication> applications = new ArrayList<>();
+    for (JsonNode item : mapper.readTree(body).path("items")) {
+      String name = item.path("metadata").path("name").asText();
+      String namespace = item.path("metadata").path("namespace").asText(null);
+      JsonNode spec = item.path("spec");
+      JsonNode sources = spec.path("sources");
+      if (sources.isArray() && sources.size() > 0) {
+        for (JsonNode source : sources) {
+          applications.add(application(name, namespace, source));
+        }
+      } else if (spec.has("source")) {
+        applications.add(application(name, namespace, spec.path("source")));
+      }
+    }
+    return applications;
+  }
+
+  private static ArgoCDApplication application(String name, String namespace, JsonNode source) {
+    return new ArgoCDApplication(name, namespace, source.path("repoURL").asText(""), source.path("targetRevision").asText(""));
+  }
+
+  private Response get(ArgoCDWebhook webhook, String url) {
+    Map<String, String> headers = Map.of("Authorization", "Bearer " + webhook.getSecret());
+    long start = System.nanoTime();
+    try {
+      Response response;
+      if (configurationStore.get().isPooledTransport()) {
+        HttpResponse<byte[]> httpResponse = transport.get(webhook, URI.create(url), headers);
+        response = new Response(httpResponse.statusCode(), httpResponse.body());
+      } else {
+        response = getWithClient(webhook, url, headers);
+      }
+      metrics.request(webhook, String.valueOf(response.status), response.isSuccessful(), System.nanoTime() - start);
+      return response;
+    } catch (IOException e) {
+      metrics.request(webhook, ArgoCDMetrics.STATUS_IO_ERROR, false, System.nanoTime() - start);
+      throw new ArgoCDHookExecutionException("Could not call the api of Argo CD", e);
+    }
+  }
+
+  private Response getWithClient(ArgoCDWebhook webhook, String url, Map<String, String> headers) throws IOException {
+    AdvancedHttpRequest request = clientProvider.get().get(url);
+    headers.forEach(request::header);
+    request.spanKind("Webhook");
+    if (webhook.isInsecure()) {
+      request
+        .disableCertificateValidation(true)
+        .disableHostnameValidation(true);
+    }
+    AdvancedHttpResponse response = request.request();
+    return new Response(response.getStatus(), response.content());
+  }
+
+  private static String baseUrl(ArgoCDWebhook webhook) {
+    String url = webhook.getUrl();
+    return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, UTF_8);
+  }
+
+  private static class Response {
+    private final int status;
+    private final byte[] body;
+
+    Response(int status, byte[] body) {
+      this.status = status;
+      this.body = body;
+    }
+
+    boolean isSuccessful() {
+      return status >= 200 && status < 300;
+    }
+  }
+}
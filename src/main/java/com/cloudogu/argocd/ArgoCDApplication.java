@@ -0,0 +1,52 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import lombok.Value;
+
+/**
+ * An application of an Argo CD server, or one source of an application with multiple sources.
+ */
+@Value
+public class ArgoCDApplication {
+  String name;
+  String namespace;
+  String repoUrl;
+  String targetRevision;
+
+  /**
+   * Returns <code>true</code> if the application follows the given branch. Applications without target revision or
+   * with <code>HEAD</code> follow the default branch.
+   */
+  boolean tracksBranch(String branch, boolean defaultBranch) {
+    if (targetRevision == null || targetRevision.isEmpty() || "HEAD".equals(targetRevision)) {
+      return defaultBranch;
+    }
+    return targetRevision.equals(branch) || targetRevision.equals("refs/heads/" + branch);
+  }
+
+  boolean tracksTag(String tag) {
+    return tag.equals(targetRevision) || ("refs/tags/" + tag).equals(targetRevision);
+  }
+}
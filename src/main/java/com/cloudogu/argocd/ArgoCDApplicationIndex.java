@@ -0,0 +1,175 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Index from repository url to the applications of an Argo CD server, so that a push only refreshes the applications
+ * of the pushed repository instead of letting Argo CD scan all applications. The index of a server is read on first
+ * use and read again in the background, when it is older than the configured refresh interval. Pushes use the
+ * previous index until the new one is available.
+ */
+@Singleton
+public class ArgoCDApplicationIndex {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArgoCDApplicationIndex.class);
+
+  private final ArgoCDApiClient apiClient;
+  private final ArgoCDConfigurationStore configurationStore;
+  private final Executor refreshWorkers;
+  private final Clock clock;
+  private final Map<ServerKey, Entry> servers = new ConcurrentHashMap<>();
+
+  @Inject
+  public ArgoCDApplicationIndex(ArgoCDApiClient apiClient, ArgoCDConfigurationStore configurationStore) {
+    this(
+      apiClient,
+      configurationStore,
+      Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("ArgoCDApplicationIndex").setDaemon(true).build()),
+      Clock.systemUTC()
+    );
+  }
+
+  ArgoCDApplicationIndex(ArgoCDApiClient apiClient, ArgoCDConfigurationStore configurationStore, Executor refreshWorkers, Clock clock) {
+    this.apiClient = apiClient;
+    this.configurationStore = configurationStore;
+    this.refreshWorkers = refreshWorkers;
+    this.clock = clock;
+  }
+
+  /**
+   * Returns the applications of the Argo CD server of the webhook, which use the given repository as source.
+   *
+   * @throws ArgoCDHookExecutionException if the applications of the server have never been read and could not be read now
+   */
+  public List<ArgoCDApplication> find(ArgoCDWebhook webhook, String repositoryUrl) {
+    ServerKey key = new ServerKey(webhook);
+    Entry entry = servers.get(key);
+    if (entry == null) {
+      // concurrent first pushes may read the applications twice, which is cheaper than blocking other servers
+      entry = load(webhook);
+      servers.put(key, entry);
+    } else if (entry.isOlderThan(clock.millis() - refreshIntervalMillis())) {
+      refreshInBackground(key, webhook, entry);
+    }
+    return entry.applications.getOrDefault(normalize(repositoryUrl), List.of());
+  }
+
+  /**
+   * Marks the index of the server as outdated, e.g. because an indexed application does not exist anymore.
+   */
+  public void expire(ArgoCDWebhook webhook) {
+    Entry entry = servers.get(new ServerKey(webhook));
+    if (entry != null) {
+      entry.loadedAt = 0;
+    }
+  }
+
+  private void refreshInBackground(ServerKey key, ArgoCDWebhook webhook, Entry entry) {
+    if (!entry.refreshing.compareAndSet(false, true)) {
+      return;
+    }
+    refreshWorkers.execute(() -> {
+      try {
+        servers.put(key, load(webhook));
+      } catch (RuntimeException e) {
+        LOG.warn("could not refresh applications of argo cd server {}, using the previous ones", webhook.getUrl(), e);
+        entry.refreshing.set(false);
+      }
+    });
+  }
+
+  private Entry load(ArgoCDWebhook webhook) {
+    Map<String, List<ArgoCDApplication>> applications = new HashMap<>();
+    for (ArgoCDApplication application : apiClient.listApplications(webhook)) {
+      applications.computeIfAbsent(normalize(application.getRepoUrl()), url -> new ArrayList<>()).add(application);
+    }
+    LOG.debug("indexed applications of {} repositories for argo cd server {}", applications.size(), webhook.getUrl());
+    return new Entry(applications, clock.millis());
+  }
+
+  private long refreshIntervalMillis() {
+    return TimeUnit.SECONDS.toMillis(Math.max(1, configurationStore.get().getApplicationIndexRefreshSeconds()));
+  }
+
+  /**
+   * Normalizes repository urls like Argo CD does, so that urls with a trailing slash or a <code>.git</code> suffix
+   * match as well.
+   */
+  static String normalize(String url) {
+    String normalized = url.trim().toLowerCase(Locale.ENGLISH);
+    if (normalized.endsWith("/")) {
+      normalized = normalized.substring(0, normalized.length() - 1);
+    }
+    if (normalized.endsWith(".git")) {
+      normalized = normalized.substring(0, normalized.length() - 4);
+    }
+    return normalized;
+  }
+
+  private static class Entry {
+    private final Map<String, List<ArgoCDApplication>> applications;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile long loadedAt;
+
+    Entry(Map<String, List<ArgoCDApplication>> applications, long loadedAt) {
+      this.applications = applications;
+      this.loadedAt = loadedAt;
+    }
+
+    boolean isOlderThan(long time) {
+      return loadedAt < time;
+    }
+  }
+
+  @lombok.Value
+  private static class ServerKey {
+    String url;
+    String token;
+    boolean insecure;
+
+    ServerKey(ArgoCDWebhook webhook) {
+      this.url = webhook.getUrl();
+      this.token = webhook.getSecret();
+      this.insecure = webhook.isInsecure();
+    }
+  }
+}
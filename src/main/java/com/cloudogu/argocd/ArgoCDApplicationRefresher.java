@@ -0,0 +1,92 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sends deliveries of webhooks with {@link HookImplementation#API}: instead of a push event, which lets Argo CD
+ * scan all of its applications, only the applications following the pushed branches or tags are refreshed.
+ */
+@Singleton
+public class ArgoCDApplicationRefresher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArgoCDApplicationRefresher.class);
+
+  private static final int STATUS_OK = 200;
+
+  private final ArgoCDApplicationIndex index;
+  private final ArgoCDApiClient apiClient;
+
+  @Inject
+  public ArgoCDApplicationRefresher(ArgoCDApplicationIndex index, ArgoCDApiClient apiClient) {
+    this.index = index;
+    this.apiClient = apiClient;
+  }
+
+  /**
+   * Refreshes the applications of the delivery.
+   *
+   * @return the http status for the delivery history
+   * @throws ArgoCDHookExecutionException if the applications could not be found or one of them could not be refreshed
+   */
+  public int refresh(ArgoCDDelivery delivery) {
+    ArgoCDWebhook webhook = delivery.getWebhook();
+    // applications with multiple sources may follow the pushed refs with more than one source
+    Map<String, ArgoCDApplication> applications = new LinkedHashMap<>();
+    for (ArgoCDApplication application : index.find(webhook, delivery.getHtmlUrl())) {
+      if (tracks(application, delivery)) {
+        applications.putIfAbsent(application.getNamespace() + "/" + application.getName(), application);
+      }
+    }
+    for (ArgoCDApplication application : applications.values()) {
+      if (!apiClient.refresh(webhook, application)) {
+        LOG.debug("argo cd application {} does not exist anymore", application.getName());
+        index.expire(webhook);
+      }
+    }
+    LOG.debug("refreshed {} argo cd applications for {}", applications.size(), delivery);
+    return STATUS_OK;
+  }
+
+  private static boolean tracks(ArgoCDApplication application, ArgoCDDelivery delivery) {
+    for (String branch : delivery.getBranches()) {
+      if (application.tracksBranch(branch, branch.equals(delivery.getDefaultBranch()))) {
+        return true;
+      }
+    }
+    for (String tag : delivery.getTags()) {
+      if (application.tracksTag(tag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The commits pushed to a single branch together with the revisions before and after the push. They are sent in
+ * precise GitHub push events, so that Argo CD can use the changed paths to refresh only affected applications.
+ */
+@Value
+public class ArgoCDBranchChanges {
+
+  String before;
+  String after;
+  List<Commit> commits;
+  /**
+   * Maximum number of paths for this branch; larger changes are sent without commits.
+   */
+  int maxPaths;
+
+  int getPathCount() {
+    int count = 0;
+    for (Commit commit : commits) {
+      count += commit.getPathCount();
+    }
+    return count;
+  }
+
+  /**
+   * Combines these changes with the changes of a later push to the same branch. Returns <code>null</code>, if the
+   * combined changes exceed the path limit.
+   */
+  ArgoCDBranchChanges merge(ArgoCDBranchChanges newer) {
+    int limit = Math.min(maxPaths, newer.maxPaths);
+    if (getPathCount() + newer.getPathCount() > limit) {
+      return null;
+    }
+    List<Commit> mergedCommits = new ArrayList<>(commits);
+    mergedCommits.addAll(newer.commits);
+    return new ArgoCDBranchChanges(before, newer.after, List.copyOf(mergedCommits), limit);
+  }
+
+  @Value
+  public static class Commit {
+    String id;
+    List<String> added;
+    List<String> modified;
+    List<String> removed;
+
+    int getPathCount() {
+      return added.size() + modified.size() + removed.size();
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.util.GlobUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Decides whether a pushed branch should be sent to Argo CD. Branch patterns are globs (e.g. <code>release/*</code>)
+ * or, with the prefix <code>regex:</code>, java regular expressions. Without patterns every branch matches.
+ */
+public class ArgoCDBranchMatcher {
+
+  static final String REGEX_PREFIX = "regex:";
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArgoCDBranchMatcher.class);
+
+  private final boolean defaultBranchOnly;
+  private final List<Pattern> patterns;
+
+  ArgoCDBranchMatcher(boolean defaultBranchOnly, List<String> patterns) {
+    this.defaultBranchOnly = defaultBranchOnly;
+    this.patterns = compile(patterns);
+  }
+
+  /**
+   * Returns <code>true</code> if the branch should be sent. The default branch is only requested from the supplier,
+   * if the webhook is limited to the default branch.
+   */
+  public boolean matches(String branch, Supplier<String> defaultBranch) {
+    if (defaultBranchOnly) {
+      return branch.equals(defaultBranch.get());
+    }
+    if (patterns.isEmpty()) {
+      return true;
+    }
+    for (Pattern pattern : patterns) {
+      if (pattern.matcher(branch).matches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static List<Pattern> compile(List<String> patterns) {
+    if (patterns == null) {
+      return Collections.emptyList();
+    }
+    List<Pattern> compiled = new ArrayList<>();
+    for (String pattern : patterns) {
+      if (pattern == null || pattern.trim().isEmpty()) {
+        continue;
+      }
+      try {
+        compiled.add(compile(pattern.trim()));
+      } catch (PatternSyntaxException e) {
+        LOG.warn("ignoring invalid branch pattern {}", pattern, e);
+      }
+    }
+    return compiled;
+  }
+
+  private static Pattern compile(String pattern) {
+    if (pattern.startsWith(REGEX_PREFIX)) {
+      return Pattern.compile(pattern.substring(REGEX_PREFIX.length()));
+    }
+    return Pattern.compile(GlobUtil.convertGlobToRegEx(pattern));
+  }
+}
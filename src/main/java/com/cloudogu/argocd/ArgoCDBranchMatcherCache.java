@@ -0,0 +1,61 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.Value;
+
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Keeps the compiled branch matchers of the webhook configurations, so that the patterns are compiled once per
+ * configuration and not on every push.
+ */
+@Singleton
+public class ArgoCDBranchMatcherCache {
+
+  private final Cache<MatcherKey, ArgoCDBranchMatcher> matchers = CacheBuilder.newBuilder()
+    .maximumSize(1000)
+    .build();
+
+  public ArgoCDBranchMatcher get(ArgoCDWebhook webhook) {
+    List<String> patterns = webhook.getBranchPatterns() == null ? List.of() : new ArrayList<>(webhook.getBranchPatterns());
+    MatcherKey key = new MatcherKey(webhook.isDefaultBranchOnly(), patterns);
+    try {
+      return matchers.get(key, () -> new ArgoCDBranchMatcher(key.isDefaultBranchOnly(), key.getPatterns()));
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("could not create branch matcher", e);
+    }
+  }
+
+  @Value
+  private static class MatcherKey {
+    boolean defaultBranchOnly;
+    List<String> patterns;
+  }
+}
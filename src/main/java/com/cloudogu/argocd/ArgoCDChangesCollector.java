@@ -0,0 +1,169 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.repository.Added;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.Modifications;
+import sonia.scm.repository.Modified;
+import sonia.scm.repository.Removed;
+import sonia.scm.repository.Renamed;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Collects the commits and changed paths of a push for precise GitHub push events. The changesets of the push are
+ * read one after another and a branch is sent without commits, as soon as its changes exceed the configured
+ * number of paths.
+ */
+public class ArgoCDChangesCollector {
+
+  static final String NULL_REVISION = "0000000000000000000000000000000000000000";
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArgoCDChangesCollector.class);
+
+  private final ArgoCDConfigurationStore configurationStore;
+
+  @Inject
+  public ArgoCDChangesCollector(ArgoCDConfigurationStore configurationStore) {
+    this.configurationStore = configurationStore;
+  }
+
+  /**
+   * Returns the changes of each of the given branches. Branches without changes or with too many changes are
+   * missing in the result.
+   */
+  public Map<String, ArgoCDBranchChanges> collect(ArgoCDWebhook webhook, ArgoCDPushContext context, Collection<String> branches) {
+    if (!webhook.isPrecise() || webhook.getHookImplementation() != HookImplementation.GITHUB || branches.isEmpty()) {
+      return Map.of();
+    }
+    int maxPaths = configurationStore.get().getPrecisePayloadMaxPaths();
+    Map<String, BranchCollector> collectors = new LinkedHashMap<>();
+    branches.forEach(branch -> collectors.put(branch, new BranchCollector()));
+    for (Changeset changeset : context.getChangesets()) {
+      List<String> targets = targetsOf(changeset, collectors.keySet());
+      if (targets.isEmpty()) {
+        continue;
+      }
+      ArgoCDBranchChanges.Commit commit = read(context, changeset);
+      for (String target : targets) {
+        if (commit == null || !collectors.get(target).add(changeset, commit, maxPaths)) {
+          // too many or unreadable changes, so argo cd has to refresh all applications for this branch
+          collectors.remove(target);
+        }
+      }
+      if (collectors.isEmpty()) {
+        break;
+      }
+    }
+    Map<String, ArgoCDBranchChanges> changes = new LinkedHashMap<>();
+    collectors.forEach((branch, collector) -> {
+      if (collector.hasCommits()) {
+        changes.put(branch, collector.build(maxPaths));
+      }
+    });
+    return changes;
+  }
+
+  private List<String> targetsOf(Changeset changeset, Set<String> active) {
+    List<String> changesetBranches = changeset.getBranches();
+    if (changesetBranches == null || changesetBranches.isEmpty()) {
+      // without branch information the changeset could belong to any branch of the push
+      return new ArrayList<>(active);
+    }
+    return changesetBranches.stream().filter(active::contains).collect(Collectors.toList());
+  }
+
+  private ArgoCDBranchChanges.Commit read(ArgoCDPushContext context, Changeset changeset) {
+    Modifications modifications;
+    try {
+      modifications = context.getModifications(changeset.getId());
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("could not read modifications of changeset {}, sending push event without commits", changeset.getId(), e);
+      return null;
+    }
+    if (modifications == null) {
+      return null;
+    }
+    List<String> added = modifications.getAdded().stream().map(Added::getPath).collect(Collectors.toList());
+    List<String> modified = modifications.getModified().stream().map(Modified::getPath).collect(Collectors.toList());
+    List<String> removed = modifications.getRemoved().stream().map(Removed::getPath).collect(Collectors.toList());
+    // like github, a rename is reported as removal of the old and addition of the new path
+    for (Renamed renamed : modifications.getRenamed()) {
+      removed.add(renamed.getOldPath());
+      added.add(renamed.getNewPath());
+    }
+    return new ArgoCDBranchChanges.Commit(changeset.getId(), List.copyOf(added), List.copyOf(modified), List.copyOf(removed));
+  }
+
+  private static class BranchCollector {
+
+    private final List<ArgoCDBranchChanges.Commit> commits = new ArrayList<>();
+    private final Map<String, List<String>> parents = new HashMap<>();
+    private int pathCount;
+
+    boolean add(Changeset changeset, ArgoCDBranchChanges.Commit commit, int maxPaths) {
+      pathCount += commit.getPathCount();
+      if (pathCount > maxPaths) {
+        return false;
+      }
+      commits.add(commit);
+      parents.put(commit.getId(), changeset.getParents() == null ? List.of() : changeset.getParents());
+      return true;
+    }
+
+    boolean hasCommits() {
+      return !commits.isEmpty();
+    }
+
+    ArgoCDBranchChanges build(int maxPaths) {
+      Set<String> referenced = new HashSet<>();
+      parents.values().forEach(referenced::addAll);
+      String after = null;
+      String before = null;
+      for (ArgoCDBranchChanges.Commit commit : commits) {
+        if (!referenced.contains(commit.getId())) {
+          after = commit.getId();
+        }
+        List<String> commitParents = parents.get(commit.getId());
+        if (before == null && commitParents.stream().noneMatch(parents::containsKey)) {
+          before = commitParents.isEmpty() ? NULL_REVISION : commitParents.get(0);
+        }
+      }
+      return new ArgoCDBranchChanges(before, after, List.copyOf(commits), maxPaths);
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Clock;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Circuit breaker per Argo CD webhook url. After the configured number of consecutive failures the circuit opens
+ * and deliveries to the url are short-circuited. Once the open period has passed, a single probe delivery is let
+ * through (half open). A successful probe closes the circuit, a failed one opens it again.
+ */
+@Singleton
+public class ArgoCDCircuitBreaker {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArgoCDCircuitBreaker.class);
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final ArgoCDConfigurationStore configurationStore;
+  private final Clock clock;
+  private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+  @Inject
+  public ArgoCDCircuitBreaker(ArgoCDConfigurationStore configurationStore) {
+    this(configurationStore, Clock.systemUTC());
+  }
+
+  ArgoCDCircuitBreaker(ArgoCDConfigurationStore configurationStore, Clock clock) {
+    this.configurationStore = configurationStore;
+    this.clock = clock;
+  }
+
+  /**
+   * Returns <code>true</code> if a request to the given url may be sent.
+   */
+  public boolean tryAcquire(String url) {
+    if (isDisabled()) {
+      return true;
+    }
+    return circuit(url).tryAcquire(clock.millis(), configurationStore.get().getCircuitBreakerOpenMillis());
+  }
+
+  /**
+   * Returns the time in milliseconds until the next probe to the given url is allowed.
+   */
+  public long getRemainingOpenMillis(String url) {
+    Circuit circuit = circuits.get(url);
+    if (circuit == null) {
+      return 0;
+    }
+    return circuit.getRemainingOpenMillis(clock.millis(), configurationStore.get().getCircuitBreakerOpenMillis());
+  }
+
+  public void recordSuccess(String url) {
+    Circuit circuit = circuits.get(url);
+    if (circuit != null) {
+      circuit.success(url);
+    }
+  }
+
+  public void recordFailure(String url) {
+    if (!isDisabled()) {
+      circuit(url).failure(url, clock.millis(), configurationStore.get().getCircuitBreakerThreshold());
+    }
+  }
+
+  public Optional<Circuit> getCircuit(String url) {
+    return Optional.ofNullable(circuits.get(url));
+  }
+
+  public Map<String, Circuit> getCircuits() {
+    return Map.copyOf(circuits);
+  }
+
+  private boolean isDisabled() {
+    return configurationStore.get().getCircuitBreakerThreshold() <= 0;
+  }
+
+  private Circuit circuit(String url) {
+    return circuits.computeIfAbsent(url, u -> new Circuit());
+  }
+
+  @Getter
+  public static class Circuit {
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    synchronized boolean tryAcquire(long now, long openMillis) {
+      switch (state) {
+        case OPEN:
+          if (now - openedAt >= openMillis) {
+            // let a single probe through
+            state = State.HALF_OPEN;
+            return true;
+          }
+          return false;
+        case HALF_OPEN:
+          return false;
+        default:
+          return true;
+      }
+    }
+
+    synchronized long getRemainingOpenMillis(long now, long openMillis) {
+      if (state == State.CLOSED) {
+        return 0;
+      }
+      return Math.max(0, openedAt + openMillis - now);
+    }
+
+    synchronized void success(String url) {
+      if (state != State.CLOSED) {
+        LOG.info("closing circuit for argo cd webhook {}", url);
+      }
+      state = State.CLOSED;
+      consecutiveFailures = 0;
+    }
+
+    synchronized void failure(String url, long now, int threshold) {
+      consecutiveFailures++;
+      if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= threshold)) {
+        LOG.warn("opening circuit for argo cd webhook {} after {} consecutive failures", url, consecutiveFailures);
+        state = State.OPEN;
+        openedAt = now;
+      }
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlRootElement;
+
+@XmlRootElement(name = "argocd")
+@XmlAccessorType(XmlAccessType.FIELD)
+@Getter
+@Setter
+@NoArgsConstructor
+public class ArgoCDConfiguration {
+  private int queueCapacity = 1000;
+  private int deliveryThreads = 4;
+  private ArgoCDOverflowPolicy overflowPolicy = ArgoCDOverflowPolicy.DROP_OLDEST;
+  private long debounceMillis = 0;
+  private int circuitBreakerThreshold = 5;
+  private long circuitBreakerOpenMillis = 30000;
+  private boolean pooledTransport = false;
+  private boolean http2 = false;
+  private int maxConnectionsPerEndpoint = 8;
+  private long connectionIdleTimeoutMillis = 60000;
+  private int deliveryHistorySize = 25;
+  private int precisePayloadMaxPaths = 1000;
+  private int reconcileIntervalMinutes = 0;
+  private int reconcileConcurrency = 4;
+  private int rateLimitPerSecond = 0;
+  private int rateLimitBurst = 20;
+  private int rateLimitPriorityReservePercent = 20;
+  private int applicationIndexRefreshSeconds = 60;
+  private int deduplicationMinutes = 0;
+}
@@ -0,0 +1,84 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import de.otto.edison.hal.HalRepresentation;
+import de.otto.edison.hal.Links;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@SuppressWarnings("java:S2160") // we do not need equals for dto
+public class ArgoCDConfigurationDto extends HalRepresentation {
+
+  @Min(1)
+  private int queueCapacity;
+  @Min(1)
+  private int deliveryThreads;
+  @NotNull
+  private ArgoCDOverflowPolicy overflowPolicy;
+  @Min(0)
+  private long debounceMillis;
+  @Min(0)
+  private int circuitBreakerThreshold;
+  @Min(0)
+  private long circuitBreakerOpenMillis;
+  private boolean pooledTransport;
+  private boolean http2;
+  @Min(1)
+  private int maxConnectionsPerEndpoint;
+  @Min(1000)
+  private long connectionIdleTimeoutMillis;
+  @Min(0)
+  private int deliveryHistorySize;
+  @Min(1)
+  private int precisePayloadMaxPaths;
+  @Min(0)
+  private int reconcileIntervalMinutes;
+  @Min(1)
+  private int reconcileConcurrency;
+  @Min(0)
+  private int rateLimitPerSecond;
+  @Min(1)
+  private int rateLimitBurst;
+  @Min(0)
+  @Max(100)
+  private int rateLimitPriorityReservePercent;
+  @Min(1)
+  private int applicationIndexRefreshSeconds;
+  @Min(0)
+  private int deduplicationMinutes;
+
+  ArgoCDConfigurationDto(Links links) {
+    super(links);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import de.otto.edison.hal.Links;
+import sonia.scm.api.v2.resources.LinkBuilder;
+import sonia.scm.api.v2.resources.ScmPathInfoStore;
+import sonia.scm.config.ConfigurationPermissions;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+import static de.otto.edison.hal.Link.link;
+
+public class ArgoCDConfigurationMapper {
+
+  private final Provider<ScmPathInfoStore> scmPathInfoStore;
+
+  @Inject
+  public ArgoCDConfigurationMapper(Provider<ScmPathInfoStore> scmPathInfoStore) {
+    this.scmPathInfoStore = scmPathInfoStore;
+  }
+
+  ArgoCDConfigurationDto map(ArgoCDConfiguration configuration) {
+    String self = new LinkBuilder(scmPathInfoStore.get().get(), ArgoCDConfigurationResource.class)
+      .method("get")
+      .parameters()
+      .href();
+    Links.Builder links = Links.linkingTo().self(self);
+    if (ConfigurationPermissions.write(ArgoCDConfigurationStore.NAME).isPermitted()) {
+      links.single(link("update", self));
+    }
+
+    ArgoCDConfigurationDto dto = new ArgoCDConfigurationDto(links.build());
+    dto.setQueueCapacity(configuration.getQueueCapacity());
+    dto.setDeliveryThreads(configuration.getDeliveryThreads());
+    dto.setOverflowPolicy(configuration.getOverflowPolicy());
+    dto.setDebounceMillis(configuration.getDebounceMillis());
+    dto.setCircuitBreakerThreshold(configuration.getCircuitBreakerThreshold());
+    dto.setCircuitBreakerOpenMillis(configuration.getCircuitBreakerOpenMillis());
+    dto.setPooledTransport(configuration.isPooledTransport());
+    dto.setHttp2(configuration.isHttp2());
+    dto.setMaxConnectionsPerEndpoint(configuration.getMaxConnectionsPerEndpoint());
+    dto.setConnectionIdleTimeoutMillis(configuration.getConnectionIdleTimeoutMillis());
+    dto.setDeliveryHistorySize(configuration.getDeliveryHistorySize());
+    dto.setPrecisePayloadMaxPaths(configuration.getPrecisePayloadMaxPaths());
+    dto.setReconcileIntervalMinutes(configuration.getReconcileIntervalMinutes());
+    dto.setReconcileConcurrency(configuration.getReconcileConcurrency());
+    dto.setRateLimitPerSecond(configuration.getRateLimitPerSecond());
+    dto.setRateLimitBurst(configuration.getRateLimitBurst());
+    dto.setRateLimitPriorityReservePercent(configuration.getRateLimitPriorityReservePercent());
+    dto.setApplicationIndexRefreshSeconds(configuration.getApplicationIndexRefreshSeconds());
+    dto.setDeduplicationMinutes(configuration.getDeduplicationMinutes());
+    return dto;
+  }
+
+  ArgoCDConfiguration map(ArgoCDConfigurationDto dto) {
+    ArgoCDConfiguration configuration = new ArgoCDConfiguration();
+    configuration.setQueueCapacity(dto.getQueueCapacity());
+    configuration.setDeliveryThreads(dto.getDeliveryThreads());
+    configuration.setOverflowPolicy(dto.getOverflowPolicy());
+    configuration.setDebounceMillis(dto.getDebounceMillis());
+    configuration.setCircuitBreakerThreshold(dto.getCircuitBreakerThreshold());
+    configuration.setCircuitBreakerOpenMillis(dto.getCircuitBreakerOpenMillis());
+    configuration.setPooledTransport(dto.isPooledTransport());
+    configuration.setHttp2(dto.isHttp2());
+    configuration.setMaxConnectionsPerEndpoint(dto.getMaxConnectionsPerEndpoint());
+    configuration.setConnectionIdleTimeoutMillis(dto.getConnectionIdleTimeoutMillis());
+    configuration.setDeliveryHistorySize(dto.getDeliveryHistorySize());
+    configuration.setPrecisePayloadMaxPaths(dto.getPrecisePayloadMaxPaths());
+    configuration.setReconcileIntervalMinutes(dto.getReconcileIntervalMinutes());
+    configuration.setReconcileConcurrency(dto.getReconcileConcurrency());
+    configuration.setRateLimitPerSecond(dto.getRateLimitPerSecond());
+    configuration.setRateLimitBurst(dto.getRateLimitBurst());
+    configuration.setRateLimitPriorityReservePercent(dto.getRateLimitPriorityReservePercent());
+    configuration.setApplicationIndexRefreshSeconds(dto.getApplicationIndexRefreshSeconds());
+    configuration.setDeduplicationMinutes(dto.getDeduplicationMinutes());
+    return configuration;
+  }
+}
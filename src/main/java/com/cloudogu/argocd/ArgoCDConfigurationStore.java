@@ -0,0 +1,59 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import sonia.scm.config.ConfigurationPermissions;
+import sonia.scm.store.ConfigurationStore;
+import sonia.scm.store.ConfigurationStoreFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+@Singleton
+public class ArgoCDConfigurationStore {
+
+  static final String NAME = "argocd";
+
+  private final ConfigurationStore<ArgoCDConfiguration> store;
+  private volatile ArgoCDConfiguration configuration;
+
+  @Inject
+  public ArgoCDConfigurationStore(ConfigurationStoreFactory storeFactory) {
+    this.store = storeFactory.withType(ArgoCDConfiguration.class).withName(NAME).build();
+  }
+
+  public ArgoCDConfiguration get() {
+    if (configuration == null) {
+      configuration = store.getOptional().orElseGet(ArgoCDConfiguration::new);
+    }
+    return configuration;
+  }
+
+  public void set(ArgoCDConfiguration configuration) {
+    ConfigurationPermissions.write(NAME).check();
+    store.set(configuration);
+    this.configuration = configuration;
+  }
+}
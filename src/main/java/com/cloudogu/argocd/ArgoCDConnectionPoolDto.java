@@ -0,0 +1,54 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Instant;
+
+@Getter
+@AllArgsConstructor
+public class ArgoCDConnectionPoolDto {
+  private String endpoint;
+  private boolean http2;
+  private int maxConnections;
+  private int activeRequests;
+  private long totalRequests;
+  private Instant createdAt;
+  private Instant lastUsed;
+
+  static ArgoCDConnectionPoolDto of(ArgoCDHttpTransport.ConnectionPool pool) {
+    return new ArgoCDConnectionPoolDto(
+      pool.getEndpoint(),
+      pool.isHttp2(),
+      pool.getMaxConnections(),
+      pool.getActiveRequests().get(),
+      pool.getTotalRequests().get(),
+      Instant.ofEpochMilli(pool.getCreatedAt()),
+      Instant.ofEpochMilli(pool.getLastUsed())
+    );
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.store.DataStore;
+import sonia.scm.store.DataStoreFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Default {@link ArgoCDIdempotencyStore}, which keeps one entry per key in a file based data store. Expired keys are
+ * removed at most once per time to live, so that claiming a key only reads and writes a single entry.
+ * <p>
+ * Claims are only atomic within this node, because reading and writing the entry is synchronized on this instance
+ * and the data store has no conditional write. It must not be used to deduplicate deliveries of more than one node.
+ */
+@Singleton
+public class ArgoCDDataStoreIdempotencyStore implements ArgoCDIdempotencyStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArgoCDDataStoreIdempotencyStore.class);
+
+  private static final String STORE_NAME = "argocd-idempotency-keys";
+
+  private final DataStore<ArgoCDIdempotencyKey> store;
+  private final Clock clock;
+
+  private long nextCleanup;
+
+  @Inject
+  public ArgoCDDataStoreIdempotencyStore(DataStoreFactory storeFactory) {
+    this(storeFactory, Clock.systemUTC());
+  }
+
+  ArgoCDDataStoreIdempotencyStore(DataStoreFactory storeFactory, Clock clock) {
+    this.store = storeFactory.withType(ArgoCDIdempotencyKey.class).withName(STORE_NAME).build();
+    this.clock = clock;
+  }
+
+  @Override
+  public synchronized boolean claim(String key, Duration ttl) {
+    long now = clock.millis();
+    removeExpiredKeys(now, ttl);
+    ArgoCDIdempotencyKey claimed = store.get(key);
+    if (claimed != null && claimed.getExpiresAt() > now) {
+      return false;
+    }
+    store.put(key, new ArgoCDIdempotencyKey(now + ttl.toMillis()));
+    return true;
+  }
+
+  @Override
+  public synchronized void release(String key) {
+    store.remove(key);
+  }
+
+  private void removeExpiredKeys(long now, Duration ttl) {
+    if (now < nextCleanup) {
+      return;
+    }
+    nextCleanup = now + ttl.toMillis();
+    List<String> expired = store.getAll().entrySet().stream()
+      .filter(entry -> entry.getValue().getExpiresAt() <= now)
+      .map(Map.Entry::getKey)
+      .collect(Collectors.toList());
+    expired.forEach(store::remove);
+    LOG.debug("removed {} expired idempotency keys of argo cd deliveries", expired.size());
+  }
+}
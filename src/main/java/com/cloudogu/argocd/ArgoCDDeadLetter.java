@@ -0,0 +1,78 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A delivery which could not be sent, even after all retries.
+ */
+@XmlRootElement(name = "dead-letter")
+@XmlAccessorType(XmlAccessType.FIELD)
+@Getter
+@Setter
+@NoArgsConstructor
+public class ArgoCDDeadLetter {
+
+  private ArgoCDWebhook webhook;
+  private String repositoryId;
+  private String repositoryName;
+  private String htmlUrl;
+  private String defaultBranch;
+  @XmlElement(name = "branch")
+  private List<String> branches = new ArrayList<>();
+  @XmlElement(name = "tag")
+  private List<String> tags = new ArrayList<>();
+  private int attempts;
+  private long failedAt;
+  private String error;
+
+  ArgoCDDeadLetter(ArgoCDDelivery delivery, Exception error, long failedAt) {
+    this.webhook = delivery.getWebhook();
+    this.repositoryId = delivery.getRepositoryId();
+    this.repositoryName = delivery.getRepositoryName();
+    this.htmlUrl = delivery.getHtmlUrl();
+    this.defaultBranch = delivery.getDefaultBranch();
+    this.branches = new ArrayList<>(delivery.getBranches());
+    this.tags = new ArrayList<>(delivery.getTags());
+    this.attempts = delivery.getAttempt() + 1;
+    this.failedAt = failedAt;
+    this.error = error.getMessage();
+  }
+
+  ArgoCDDelivery toDelivery() {
+    // dead letters stored before tags were supported have no tags element
+    return new ArgoCDDelivery(webhook, repositoryId, repositoryName, htmlUrl, defaultBranch, branches, tags == null ? List.of() : tags);
+  }
+}
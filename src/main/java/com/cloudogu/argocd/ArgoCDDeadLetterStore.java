@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.config.ConfigurationPermissions;
+import sonia.scm.store.DataStore;
+import sonia.scm.store.DataStoreFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persists deliveries which failed permanently, so that they can be replayed after Argo CD is available again.
+ * The store survives restarts of SCM-Manager.
+ */
+@Singleton
+public class ArgoCDDeadLetterStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArgoCDDeadLetterStore.class);
+
+  private static final String STORE_NAME = "argocd-dead-letters";
+
+  private final DataStore<ArgoCDDeadLetter> store;
+  private final Provider<ArgoCDDeliveryQueue> queue;
+  private final Clock clock;
+
+  @Inject
+  public ArgoCDDeadLetterStore(DataStoreFactory storeFactory, Provider<ArgoCDDeliveryQueue> queue) {
+    this(storeFactory, queue, Clock.systemUTC());
+  }
+
+  ArgoCDDeadLetterStore(DataStoreFactory storeFactory, Provider<ArgoCDDeliveryQueue> queue, Clock clock) {
+    this.store = storeFactory.withType(ArgoCDDeadLetter.class).withName(STORE_NAME).build();
+    this.queue = queue;
+    this.clock = clock;
+  }
+
+  public synchronized void add(ArgoCDDelivery delivery, Exception error) {
+    LOG.warn("giving up delivery of argo cd webhook for repository {} after {} attempts", delivery.getRepositoryName(), delivery.getAttempt() + 1, error);
+    store.put(new ArgoCDDeadLetter(delivery, error, clock.millis()));
+  }
+
+  public synchronized List<ArgoCDDeadLetter> getAll() {
+    List<ArgoCDDeadLetter> deadLetters = new ArrayList<>(store.getAll().values());
+    deadLetters.sort(Comparator.comparingLong(ArgoCDDeadLetter::getFailedAt));
+    return deadLetters;
+  }
+
+  public synchronized int size() {
+    return store.getAll().size();
+  }
+
+  /**
+   * Removes all dead letters from the store and queues them for a new delivery. Dead letters for the same webhook
+   * and repository are coalesced into one delivery, so that a recovery of Argo CD does not lead to a refresh storm.
+   *
+   * @return number of queued deliveries
+   */
+  public synchronized int replay() {
+    ConfigurationPermissions.write(ArgoCDConfigurationStore.NAME).check();
+    Map<ArgoCDDelivery.DeliveryKey, ArgoCDDelivery> deliveries = new LinkedHashMap<>();
+    for (ArgoCDDeadLetter deadLetter : getAll()) {
+      ArgoCDDelivery delivery = deadLetter.toDelivery();
+      deliveries.merge(delivery.getKey(), delivery, ArgoCDDelivery::merge);
+    }
+    store.clear();
+    Collection<ArgoCDDelivery> coalesced = deliveries.values();
+    LOG.info("replaying {} coalesced argo cd deliveries", coalesced.size());
+    coalesced.forEach(queue.get()::offer);
+    return coalesced.size();
+  }
+
+  public synchronized void clear() {
+    ConfigurationPermissions.write(ArgoCDConfigurationStore.NAME).check();
+    store.clear();
+  }
+}
@@ -0,0 +1,270 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.Value;
+import sonia.scm.repository.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * A pending notification of Argo CD for the branches and tags of one repository.
+ */
+@Getter
+@ToString(exclude = "webhook")
+public class ArgoCDDelivery {
+
+  private final ArgoCDWebhook webhook;
+  private final String repositoryId;
+  private final String repositoryName;
+  private final String htmlUrl;
+  private final String defaultBranch;
+  private final List<String> branches;
+  private final List<String> tags;
+  /**
+   * Commits and changed paths per branch for precise push events. Branches without changes are sent without commits.
+   */
+  @Getter(AccessLevel.NONE)
+  private final Map<String, ArgoCDBranchChanges> changes;
+  /**
+   * Pushed revision per ref (e.g. <code>refs/heads/main</code>), which is recorded as notified after a successful
+   * delivery. Deleted refs have an empty revision.
+   */
+  private final Map<String, String> revisions;
+  private final int attempt;
+  /**
+   * Time of the push in milliseconds, used to measure the delivery latency.
+   */
+  private final long createdAt;
+
+  public ArgoCDDelivery(ArgoCDWebhook webhook, Repository repository, String htmlUrl, String defaultBranch, Collection<String> branches) {
+    this(webhook, repository, htmlUrl, defaultBranch, branches, List.of(), Map.of());
+  }
+
+  public ArgoCDDelivery(ArgoCDWebhook webhook, Repository repository, String htmlUrl, String defaultBranch, Collection<String> branches, Collection<String> tags, Map<String, ArgoCDBranchChanges> changes) {
+    this(webhook, repository.getId(), repository.getNamespaceAndName().toString(), htmlUrl, defaultBranch, branches, tags, changes, Map.of(), 0, System.currentTimeMillis());
+  }
+
+  ArgoCDDelivery(ArgoCDWebhook webhook, String repositoryId, String repositoryName, String htmlUrl, String defaultBranch, Collection<String> branches) {
+    this(webhook, repositoryId, repositoryName, htmlUrl, defaultBranch, branches, List.of());
+  }
+
+  ArgoCDDelivery(ArgoCDWebhook webhook, String repositoryId, String repositoryName, String htmlUrl, String defaultBranch, Collection<String> branches, Collection<String> tags) {
+    this(webhook, repositoryId, repositoryName, htmlUrl, defaultBranch, branches, tags, Map.of(), Map.of(), 0, System.currentTimeMillis());
+  }
+
+  private ArgoCDDelivery(ArgoCDWebhook webhook, String repositoryId, String repositoryName, String htmlUrl, String defaultBranch, Collection<String> branches, Collection<String> tags, Map<String, ArgoCDBranchChanges> changes, Map<String, String> revisions, int attempt, long createdAt) {
+    this.webhook = webhook;
+    this.repositoryId = repositoryId;
+    this.repositoryName = repositoryName;
+    this.htmlUrl = htmlUrl;
+    this.defaultBranch = defaultBranch;
+    this.branches = new ArrayList<>(branches);
+    this.tags = new ArrayList<>(tags);
+    this.changes = Map.copyOf(changes);
+    this.revisions = Map.copyOf(revisions);
+    this.attempt = attempt;
+    this.createdAt = createdAt;
+  }
+
+  DeliveryKey getKey() {
+    return new DeliveryKey(webhook, repositoryId);
+  }
+
+  boolean canBeMergedWith(ArgoCDDelivery other) {
+    return getKey().equals(other.getKey());
+  }
+
+  /**
+   * Creates a new delivery with the branches and tags of this and the other delivery. The repository metadata is taken
+   * from the other (newer) delivery.
+   */
+  ArgoCDDelivery merge(ArgoCDDelivery other) {
+    Set<String> mergedBranches = new LinkedHashSet<>(branches);
+    mergedBranches.addAll(other.branches);
+    Set<String> mergedTags = new LinkedHashSet<>(tags);
+    mergedTags.addAll(other.tags);
+    Map<String, ArgoCDBranchChanges> mergedChanges = new HashMap<>();
+    for (String branch : mergedBranches) {
+      ArgoCDBranchChanges merged = mergeChanges(branch, other);
+      if (merged != null) {
+        mergedChanges.put(branch, merged);
+      }
+    }
+    Map<String, String> mergedRevisions = new HashMap<>(revisions);
+    mergedRevisions.putAll(other.revisions);
+    return new ArgoCDDelivery(other.webhook, repositoryId, other.repositoryName, other.htmlUrl, other.defaultBranch, mergedBranches, mergedTags, mergedChanges, mergedRevisions, Math.min(attempt, other.attempt), Math.min(createdAt, other.createdAt));
+  }
+
+  private ArgoCDBranchChanges mergeChanges(String branch, ArgoCDDelivery other) {
+    if (!other.branches.contains(branch)) {
+      return changes.get(branch);
+    }
+    if (!branches.contains(branch)) {
+      return other.changes.get(branch);
+    }
+    ArgoCDBranchChanges older = changes.get(branch);
+    ArgoCDBranchChanges newer = other.changes.get(branch);
+    if (older == null || newer == null) {
+      // one of the pushes has no commits, so argo cd has to refresh all applications for this branch anyway
+      return null;
+    }
+    return older.merge(newer);
+  }
+
+  ArgoCDDelivery nextAttempt() {
+    return new ArgoCDDelivery(webhook, repositoryId, repositoryName, htmlUrl, defaultBranch, branches, tags, changes, revisions, attempt + 1, createdAt);
+  }
+
+  /**
+   * Returns the same delivery for a single target of a fan-out webhook.
+   */
+  ArgoCDDelivery forTarget(ArgoCDWebhook target) {
+    return new ArgoCDDelivery(target, repositoryId, repositoryName, htmlUrl, defaultBranch, branches, tags, changes, revisions, attempt, createdAt);
+  }
+
+  /**
+   * Returns the same delivery with the pushed revisions of its refs.
+   */
+  ArgoCDDelivery withRevisions(Map<String, String> pushedRevisions) {
+    return new ArgoCDDelivery(webhook, repositoryId, repositoryName, htmlUrl, defaultBranch, branches, tags, changes, pushedRevisions, attempt, createdAt);
+  }
+
+  /**
+   * Splits the delivery into parts which can be sent with a single request each.
+   */
+  List<ArgoCDDelivery> split() {
+    if (isSingleRequest()) {
+      return List.of(this);
+    }
+    List<ArgoCDDelivery> parts = new ArrayList<>(getRefCount());
+    for (String branch : branches) {
+      parts.add(new ArgoCDDelivery(webhook, repositoryId, repositoryName, htmlUrl, defaultBranch, List.of(branch), List.of(), changesOf(branch), revisionOf(ArgoCDRefState.branchRef(branch)), attempt, createdAt));
+    }
+    for (String tag : tags) {
+      parts.add(new ArgoCDDelivery(webhook, repositoryId, repositoryName, htmlUrl, defaultBranch, List.of(), List.of(tag), Map.of(), revisionOf(ArgoCDRefState.tagRef(tag)), attempt, createdAt));
+    }
+    return parts;
+  }
+
+  /**
+   * Returns the number of branches and tags of this delivery.
+   */
+  int getRefCount() {
+    return branches.size() + tags.size();
+  }
+
+  private Map<String, String> revisionOf(String ref) {
+    String revision = revisions.get(ref);
+    return revision == null ? Map.of() : Map.of(ref, revision);
+  }
+
+  private Map<String, ArgoCDBranchChanges> changesOf(String branch) {
+    ArgoCDBranchChanges branchChanges = changes.get(branch);
+    return branchChanges == null ? Map.of() : Map.of(branch, branchChanges);
+  }
+
+  /**
+   * Returns the changes of the given branch or <code>null</code>, if the branch has to be sent without commits.
+   */
+  ArgoCDBranchChanges getChanges(String branch) {
+    return changes.get(branch);
+  }
+
+  private boolean isSingleRequest() {
+    return getRefCount() == 1 || isScmBatch();
+  }
+
+  boolean isScmBatch() {
+    // Argo CD matches the single ref of a GitHub push event against the target revision of each application,
+    // so even in batch mode one event per branch is the minimum which still refreshes every affected application.
+    return webhook.isBatch() && webhook.getHookImplementation() == HookImplementation.SCMM;
+  }
+
+  /**
+   * Creates the payload as dto. Requests are sent with the {@link ArgoCDPayloadEncoder}, which produces the same json.
+   */
+  PushEventPayload createPayload() {
+    if (!isSingleRequest()) {
+      throw new IllegalStateException("delivery with multiple branches has to be split before creating the payload");
+    }
+    if (isScmBatch()) {
+      // the scm-manager event has no refs, so tags are sent like branches which are never the default branch
+      List<ScmPushEventPayload.WebhookBranch> webhookBranches = branches.stream()
+        .map(branch -> new ScmPushEventPayload.WebhookBranch(isDefaultBranch(branch), branch))
+        .collect(Collectors.toList());
+      tags.forEach(tag -> webhookBranches.add(new ScmPushEventPayload.WebhookBranch(false, tag)));
+      return new ScmBatchPushEventPayload(htmlUrl, webhookBranches);
+    }
+    if (!tags.isEmpty()) {
+      String tag = tags.get(0);
+      switch (webhook.getHookImplementation()) {
+        case SCMM:
+          return new ScmPushEventPayload(htmlUrl, false, tag);
+        case GITHUB:
+          return GitHubPushEventPayloadDto.forTag(new GitHubRepository(htmlUrl, defaultBranch), tag);
+        default:
+          throw new IllegalStateException("Unsupported hook implementation " + webhook.getHookImplementation());
+      }
+    }
+    String branch = branches.get(0);
+    switch (webhook.getHookImplementation()) {
+      case SCMM:
+        return new ScmPushEventPayload(htmlUrl, isDefaultBranch(branch), branch);
+      case GITHUB:
+        return new GitHubPushEventPayloadDto(new GitHubRepository(htmlUrl, defaultBranch), branch, changes.get(branch));
+      default:
+        throw new IllegalStateException("Unsupported hook implementation " + webhook.getHookImplementation());
+    }
+  }
+
+  /**
+   * Deliveries of the default branch are sent before other deliveries and may use the reserved rate limit, so that
+   * production syncs are not delayed by feature branch traffic.
+   */
+  public boolean isPriority() {
+    return defaultBranch != null && branches.contains(defaultBranch);
+  }
+
+  private boolean isDefaultBranch(String branch) {
+    return branch.equals(defaultBranch);
+  }
+
+  @Value
+  static class DeliveryKey {
+    ArgoCDWebhook webhook;
+    String repositoryId;
+  }
+}
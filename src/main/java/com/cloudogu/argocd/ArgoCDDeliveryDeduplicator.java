@@ -0,0 +1,135 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Prevents duplicate notifications, if the same ref update is processed by more than one SCM-Manager node, e.g.
+ * after a failover. Before a delivery is sent, an idempotency key for each pushed ref is claimed in the
+ * {@link ArgoCDIdempotencyStore}. The key consists of repository, webhook url, ref and pushed revision, which are the
+ * same on every node. The old revision of a ref is not known to the hook, so a push which resets a branch to a
+ * revision sent within the deduplication time is skipped as well; Argo CD has already been notified of that revision.
+ * Deliveries whose keys are all claimed already are skipped.
+ */
+@Singleton
+public class ArgoCDDeliveryDeduplicator {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArgoCDDeliveryDeduplicator.class);
+
+  private final ArgoCDIdempotencyStore store;
+  private final ArgoCDConfigurationStore configurationStore;
+  private final ArgoCDMetrics metrics;
+
+  @Inject
+  public ArgoCDDeliveryDeduplicator(ArgoCDIdempotencyStore store, ArgoCDConfigurationStore configurationStore, ArgoCDMetrics metrics) {
+    this.store = store;
+    this.configurationStore = configurationStore;
+    this.metrics = metrics;
+  }
+
+  public boolean isEnabled() {
+    return configurationStore.get().getDeduplicationMinutes() > 0;
+  }
+
+  /**
+   * Claims the idempotency keys of the delivery. Deliveries without pushed revisions, e.g. from a replay, cannot be
+   * deduplicated and are always sent.
+   */
+  public Claim claim(ArgoCDDelivery delivery) {
+    Map<String, String> revisions = delivery.getRevisions();
+    if (!isEnabled() || revisions.isEmpty()) {
+      return Claim.NONE;
+    }
+    Duration ttl = Duration.ofMinutes(configurationStore.get().getDeduplicationMinutes());
+    List<String> claimed = new ArrayList<>();
+    try {
+      for (Map.Entry<String, String> revision : revisions.entrySet()) {
+        String key = key(delivery, revision.getKey(), revision.getValue());
+        if (store.claim(key, ttl)) {
+          claimed.add(key);
+        }
+      }
+    } catch (RuntimeException e) {
+      // a duplicate notification is better than a missing one
+      LOG.warn("could not claim idempotency keys for {}, sending it anyway", delivery, e);
+      return new Claim(store, claimed, false);
+    }
+    if (claimed.isEmpty()) {
+      LOG.debug("skipping {}, which has already been sent by another node", delivery);
+      metrics.duplicate(delivery.getWebhook());
+      return new Claim(store, claimed, true);
+    }
+    return new Claim(store, claimed, false);
+  }
+
+  static String key(ArgoCDDelivery delivery, String ref, String revision) {
+    String key = String.join("\n", delivery.getRepositoryId(), delivery.getWebhook().getUrl(), ref, revision);
+    return Hashing.sha256().hashString(key, UTF_8).toString();
+  }
+
+  /**
+   * The claimed keys of a delivery, which have to be released if the delivery fails.
+   */
+  public static class Claim {
+
+    static final Claim NONE = new Claim(null, List.of(), false);
+
+    private final ArgoCDIdempotencyStore store;
+    private final List<String> keys;
+    private final boolean duplicate;
+
+    private Claim(ArgoCDIdempotencyStore store, List<String> keys, boolean duplicate) {
+      this.store = store;
+      this.keys = keys;
+      this.duplicate = duplicate;
+    }
+
+    public boolean isDuplicate() {
+      return duplicate;
+    }
+
+    public void release() {
+      for (String key : keys) {
+        try {
+          store.release(key);
+        } catch (RuntimeException e) {
+          // the retry is skipped until the key has expired, the reconciler sends it at the latest
+          LOG.warn("could not release idempotency key of failed argo cd delivery", e);
+        }
+      }
+    }
+  }
+}
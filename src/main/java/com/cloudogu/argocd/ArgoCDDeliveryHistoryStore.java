@@ -0,0 +1,212 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import com.github.legman.Subscribe;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.EagerSingleton;
+import sonia.scm.HandlerEventType;
+import sonia.scm.plugin.Extension;
+import sonia.scm.repository.RepositoryEvent;
+import sonia.scm.store.ConfigurationStore;
+import sonia.scm.store.ConfigurationStoreFactory;
+
+import javax.inject.Inject;
+import java.io.Closeable;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the most recent deliveries per repository as ring buffer in a store of the repository, so that the history
+ * is removed together with the repository. The size of the buffer is limited by the global configuration.
+ * <p>
+ * Every delivery is recorded, so the buffers are kept in memory and locked per repository. Changed buffers are
+ * written in the background at most once per {@link #FLUSH_DELAY_MILLIS}, and on shutdown.
+ */
+@Extension
+@EagerSingleton
+public class ArgoCDDeliveryHistoryStore implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArgoCDDeliveryHistoryStore.class);
+
+  private static final String STORE_NAME = "argocd-delivery-history";
+  private static final int MAX_ERROR_LENGTH = 200;
+  static final long FLUSH_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+  private final ConfigurationStoreFactory storeFactory;
+  private final ArgoCDConfigurationStore configurationStore;
+  private final Clock clock;
+  private final ScheduledExecutorService scheduler;
+
+  private final Striped<Lock> locks = Striped.lock(64);
+  private final Map<String, ArgoCDDeliveryHistory> histories = new ConcurrentHashMap<>();
+  private final Set<String> changed = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+  @Inject
+  public ArgoCDDeliveryHistoryStore(ConfigurationStoreFactory storeFactory, ArgoCDConfigurationStore configurationStore) {
+    this(storeFactory, configurationStore, Clock.systemUTC(), Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("ArgoCDDeliveryHistory-%d").setDaemon(true).build()
+    ));
+  }
+
+  ArgoCDDeliveryHistoryStore(ConfigurationStoreFactory storeFactory, ArgoCDConfigurationStore configurationStore, Clock clock, ScheduledExecutorService scheduler) {
+    this.storeFactory = storeFactory;
+    this.configurationStore = configurationStore;
+    this.clock = clock;
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Adds a request of the given delivery to the history of its repository.
+   *
+   * @param status   http status of the response or 0, if no response has been received
+   * @param duration duration of the request in milliseconds
+   * @param error    error message for failed requests or <code>null</code>
+   */
+  public void add(ArgoCDDelivery delivery, int status, long duration, String error) {
+    int size = configurationStore.get().getDeliveryHistorySize();
+    if (size <= 0) {
+      return;
+    }
+    ArgoCDDeliveryRecord record = new ArgoCDDeliveryRecord(
+      clock.millis(),
+      delivery.getWebhook().getUrl(),
+      new ArrayList<>(delivery.getBranches()),
+      new ArrayList<>(delivery.getTags()),
+      payloadType(delivery),
+      duration,
+      status,
+      delivery.getAttempt(),
+      truncate(error)
+    );
+    String repositoryId = delivery.getRepositoryId();
+    locked(repositoryId, () -> {
+      history(repositoryId).add(record, size);
+      return changed.add(repositoryId);
+    });
+    scheduleFlush();
+  }
+
+  /**
+   * Returns the recorded deliveries of the repository, newest first.
+   */
+  public List<ArgoCDDeliveryRecord> get(String repositoryId) {
+    List<ArgoCDDeliveryRecord> records = locked(repositoryId, () -> new ArrayList<>(history(repositoryId).getRecords()));
+    Collections.reverse(records);
+    return records;
+  }
+
+  /**
+   * Writes the changed histories to their stores.
+   */
+  void flush() {
+    flushScheduled.set(false);
+    for (String repositoryId : new ArrayList<>(changed)) {
+      try {
+        locked(repositoryId, () -> {
+          ArgoCDDeliveryHistory history = histories.get(repositoryId);
+          if (changed.remove(repositoryId) && history != null) {
+            store(repositoryId).set(history);
+          }
+          return null;
+        });
+      } catch (Exception e) {
+        LOG.warn("failed to store argo cd delivery history of repository {}", repositoryId, e);
+      }
+    }
+  }
+
+  @Subscribe(async = false)
+  public void onRepositoryEvent(RepositoryEvent event) {
+    if (event.getEventType() == HandlerEventType.DELETE) {
+      String repositoryId = event.getItem().getId();
+      // the store is removed with the repository and must not be written again by a pending flush
+      locked(repositoryId, () -> {
+        changed.remove(repositoryId);
+        return histories.remove(repositoryId);
+      });
+    }
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdown();
+    flush();
+  }
+
+  private void scheduleFlush() {
+    if (flushScheduled.compareAndSet(false, true)) {
+      scheduler.schedule(this::flush, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private ArgoCDDeliveryHistory history(String repositoryId) {
+    return histories.computeIfAbsent(repositoryId, id -> store(id).getOptional().orElseGet(ArgoCDDeliveryHistory::new));
+  }
+
+  private <T> T locked(String repositoryId, Supplier<T> action) {
+    Lock lock = locks.get(repositoryId);
+    lock.lock();
+    try {
+      return action.get();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private ConfigurationStore<ArgoCDDeliveryHistory> store(String repositoryId) {
+    return storeFactory.withType(ArgoCDDeliveryHistory.class).withName(STORE_NAME).forRepository(repositoryId).build();
+  }
+
+  private static String payloadType(ArgoCDDelivery delivery) {
+    if (delivery.isScmBatch()) {
+      return "SCMM_BATCH";
+    }
+    return delivery.getWebhook().getHookImplementation().name();
+  }
+
+  private static String truncate(String error) {
+    if (Strings.isNullOrEmpty(error) || error.length() <= MAX_ERROR_LENGTH) {
+      return error;
+    }
+    return error.substring(0, MAX_ERROR_LENGTH);
+  }
+}
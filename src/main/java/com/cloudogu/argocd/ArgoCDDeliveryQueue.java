@@ -0,0 +1,342 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Bounded in-memory queue for Argo CD notifications. The queue is drained by a dedicated pool of worker threads,
+ * so that the threads running the webhook executors never wait for Argo CD. Deliveries of the default branch are
+ * kept in a separate lane, which is drained first.
+ */
+@Singleton
+public class ArgoCDDeliveryQueue implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArgoCDDeliveryQueue.class);
+
+  private final ArgoCDConfigurationStore configurationStore;
+  private final ArgoCDWebhookSender sender;
+  private final ArgoCDRetryScheduler retryScheduler;
+  private final ArgoCDCircuitBreaker circuitBreaker;
+  private final ArgoCDMetrics metrics;
+  private final ArgoCDDeliveryHistoryStore historyStore;
+  private final ArgoCDRefStateStore refStateStore;
+  private final ArgoCDRateLimiter rateLimiter;
+  private final ArgoCDDeliveryDeduplicator deduplicator;
+  private final Executor workers;
+  private final Executor fanOutWorkers;
+
+  private final LinkedList<ArgoCDDelivery> deliveries = new LinkedList<>();
+  private final LinkedList<ArgoCDDelivery> priorityDeliveries = new LinkedList<>();
+  private final AtomicLong droppedDeliveries = new AtomicLong();
+
+  @Inject
+  public ArgoCDDeliveryQueue(ArgoCDConfigurationStore configurationStore,
+                             ArgoCDWebhookSender sender,
+                             ArgoCDRetryScheduler retryScheduler,
+                             ArgoCDCircuitBreaker circuitBreaker,
+                             ArgoCDMetrics metrics,
+                             ArgoCDDeliveryHistoryStore historyStore,
+                             ArgoCDRefStateStore refStateStore,
+                             ArgoCDRateLimiter rateLimiter,
+                             ArgoCDDeliveryDeduplicator deduplicator) {
+    this(
+      configurationStore,
+      sender,
+      retryScheduler,
+      circuitBreaker,
+      metrics,
+      historyStore,
+      refStateStore,
+      rateLimiter,
+      deduplicator,
+      createWorkers(configurationStore.get().getDeliveryThreads()),
+      Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("ArgoCDFanOut-%d").setDaemon(true).build())
+    );
+  }
+
+  ArgoCDDeliveryQueue(ArgoCDConfigurationStore configurationStore,
+                      ArgoCDWebhookSender sender,
+                      ArgoCDRetryScheduler retryScheduler,
+                      ArgoCDCircuitBreaker circuitBreaker,
+                      ArgoCDMetrics metrics,
+                      ArgoCDDeliveryHistoryStore historyStore,
+                      ArgoCDRefStateStore refStateStore,
+                      ArgoCDRateLimiter rateLimiter,
+                      ArgoCDDeliveryDeduplicator deduplicator,
+                      Executor workers,
+                      Executor fanOutWorkers) {
+    this.configurationStore = configurationStore;
+    this.sender = sender;
+    this.retryScheduler = retryScheduler;
+    this.circuitBreaker = circuitBreaker;
+    this.metrics = metrics;
+    this.historyStore = historyStore;
+    this.refStateStore = refStateStore;
+    this.rateLimiter = rateLimiter;
+    this.deduplicator = deduplicator;
+    this.workers = workers;
+    this.fanOutWorkers = fanOutWorkers;
+  }
+
+  private static ExecutorService createWorkers(int threads) {
+    return Executors.newFixedThreadPool(
+      Math.max(1, threads),
+      new ThreadFactoryBuilder().setNameFormat("ArgoCDDelivery-%d").setDaemon(true).build()
+    );
+  }
+
+  public void offer(ArgoCDDelivery delivery) {
+    ArgoCDConfiguration configuration = configurationStore.get();
+    synchronized (deliveries) {
+      if (configuration.getOverflowPolicy() == ArgoCDOverflowPolicy.COALESCE && coalesce(delivery)) {
+        return;
+      }
+      if (deliveries.size() + priorityDeliveries.size() >= Math.max(1, configuration.getQueueCapacity())) {
+        // deliveries of other branches are dropped first
+        ArgoCDDelivery dropped = deliveries.isEmpty() ? priorityDeliveries.pollFirst() : deliveries.pollFirst();
+        droppedDeliveries.incrementAndGet();
+        LOG.warn("argo cd delivery queue is full, dropping oldest delivery {}", dropped);
+        // the dropped delivery has already scheduled a worker run, which will pick up the new delivery
+        lane(delivery).addLast(delivery);
+        return;
+      }
+      lane(delivery).addLast(delivery);
+    }
+    workers.execute(this::deliverNext);
+  }
+
+  private LinkedList<ArgoCDDelivery> lane(ArgoCDDelivery delivery) {
+    return delivery.isPriority() ? priorityDeliveries : deliveries;
+  }
+
+  private boolean coalesce(ArgoCDDelivery delivery) {
+    return coalesce(priorityDeliveries, delivery) || coalesce(deliveries, delivery);
+  }
+
+  private boolean coalesce(LinkedList<ArgoCDDelivery> lane, ArgoCDDelivery delivery) {
+    for (ListIterator<ArgoCDDelivery> iterator = lane.listIterator(); iterator.hasNext(); ) {
+      ArgoCDDelivery queued = iterator.next();
+      if (queued.canBeMergedWith(delivery)) {
+        ArgoCDDelivery merged = queued.merge(delivery);
+        if (lane(merged) == lane) {
+          iterator.set(merged);
+        } else {
+          // the merged delivery contains the default branch now
+          iterator.remove();
+          lane(merged).addLast(merged);
+        }
+        LOG.debug("coalesced argo cd delivery for repository {} with queued delivery", delivery.getRepositoryName());
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void deliverNext() {
+    ArgoCDDelivery delivery;
+    synchronized (deliveries) {
+      delivery = priorityDeliveries.isEmpty() ? deliveries.pollFirst() : priorityDeliveries.pollFirst();
+    }
+    if (delivery == null) {
+      return;
+    }
+    List<ArgoCDDelivery> parts = delivery.split();
+    long deadline = deadlineOf(delivery);
+    for (int i = 0; i < parts.size(); i++) {
+      // the first part is always sent, so that deferred deliveries make progress
+      if (i > 0 && System.currentTimeMillis() >= deadline) {
+        defer(parts.subList(i, parts.size()));
+        return;
+      }
+      ArgoCDDelivery part = parts.get(i);
+      List<ArgoCDWebhook> targets = part.getWebhook().resolveTargets();
+      if (targets.size() == 1) {
+        deliver(part, () -> sender.send(part));
+      } else {
+        fanOut(part, targets);
+      }
+    }
+  }
+
+  private static long deadlineOf(ArgoCDDelivery delivery) {
+    long deadlineMillis = delivery.getWebhook().getDeadlineMillis();
+    return deadlineMillis > 0 ? System.currentTimeMillis() + deadlineMillis : Long.MAX_VALUE;
+  }
+
+  /**
+   * Hands the parts, which could not be sent within the deadline, back to the queue as a single delivery. The delay
+   * gives the workers time for the deliveries of other repositories.
+   */
+  private void defer(List<ArgoCDDelivery> remaining) {
+    ArgoCDDelivery deferred = remaining.stream().reduce(ArgoCDDelivery::merge).orElseThrow();
+    ArgoCDWebhook webhook = deferred.getWebhook();
+    LOG.warn("deadline of {}ms for {} has been spent, deferring {} remaining refs", webhook.getDeadlineMillis(), deferred, remaining.size());
+    metrics.deferred(webhook, remaining.size());
+    retryScheduler.deferred(deferred, webhook.getDeadlineMillis());
+  }
+
+  /**
+   * Sends the payload, which is encoded only once, to all targets of the webhook in parallel. Only failed targets
+   * are retried. Webhooks using the api of Argo CD have no payload and refresh the applications of each target.
+   */
+  private void fanOut(ArgoCDDelivery delivery, List<ArgoCDWebhook> targets) {
+    byte[] payload = delivery.getWebhook().getHookImplementation().isPushEvent() ? sender.encode(delivery) : null;
+    Semaphore permits = new Semaphore(Math.max(1, delivery.getWebhook().getTargetConcurrency()));
+    List<CompletableFuture<Boolean>> results = new ArrayList<>();
+    for (ArgoCDWebhook target : targets) {
+      ArgoCDDelivery targetDelivery = delivery.forTarget(target);
+      permits.acquireUninterruptibly();
+      results.add(CompletableFuture.supplyAsync(() -> {
+        try {
+          if (payload == null) {
+            return deliver(targetDelivery, () -> sender.send(targetDelivery));
+          }
+          return deliver(targetDelivery, () -> sender.send(target, payload, payload.length));
+        } finally {
+          permits.release();
+        }
+      }, fanOutWorkers));
+    }
+    CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).join();
+
+    Map<String, Boolean> resultPerTarget = new LinkedHashMap<>();
+    for (int i = 0; i < targets.size(); i++) {
+      resultPerTarget.put(targets.get(i).getUrl(), results.get(i).join());
+    }
+    long succeeded = resultPerTarget.values().stream().filter(Boolean::booleanValue).count();
+    if (succeeded < targets.size()) {
+      LOG.warn("delivered {} to {} of {} argo cd targets: {}", delivery, succeeded, targets.size(), resultPerTarget);
+    } else {
+      LOG.debug("delivered {} to all {} argo cd targets", delivery, targets.size());
+    }
+  }
+
+  private boolean deliver(ArgoCDDelivery delivery, IntSupplier send) {
+    ArgoCDDeliveryDeduplicator.Claim claim = deduplicator.claim(delivery);
+    if (claim.isDuplicate()) {
+      // the other node has notified argo cd, so the reconciler of this node does not have to
+      notified(delivery);
+      return true;
+    }
+    String url = delivery.getWebhook().getUrl();
+    long throttledMillis = rateLimiter.tryAcquire(url, delivery.isPriority());
+    if (throttledMillis > 0) {
+      // the worker does not wait for the token, so that deliveries to other hosts are not held up
+      claim.release();
+      retryScheduler.deferred(delivery, throttledMillis);
+      return false;
+    }
+    if (!circuitBreaker.tryAcquire(url)) {
+      // nothing has been sent, so the delivery is held back without using up an attempt; while a probe is running
+      // (half open) there is no remaining open time, so the delivery waits at least the retry backoff
+      claim.release();
+      long delay = Math.max(1, Math.max(circuitBreaker.getRemainingOpenMillis(url), delivery.getWebhook().getRetryBackoffMillis()));
+      LOG.debug("circuit breaker for {} is open, deferring {} by {}ms", url, delivery, delay);
+      retryScheduler.deferred(delivery, delay);
+      return false;
+    }
+    long start = System.currentTimeMillis();
+    int status;
+    try {
+      status = send.getAsInt();
+    } catch (RuntimeException e) {
+      claim.release();
+      circuitBreaker.recordFailure(url);
+      history(delivery, statusOf(e), System.currentTimeMillis() - start, e.getMessage());
+      retryScheduler.failed(delivery, e);
+      return false;
+    }
+    circuitBreaker.recordSuccess(url);
+    metrics.delivered(delivery);
+    history(delivery, status, System.currentTimeMillis() - start, null);
+    notified(delivery);
+    return true;
+  }
+
+  private void notified(ArgoCDDelivery delivery) {
+    try {
+      refStateStore.notified(delivery);
+    } catch (RuntimeException e) {
+      // at worst the reconciler sends the refs of this delivery once more
+      LOG.warn("could not store notified refs for repository {}", delivery.getRepositoryName(), e);
+    }
+  }
+
+  private void history(ArgoCDDelivery delivery, int status, long duration, String error) {
+    try {
+      historyStore.add(delivery, status, duration, error);
+    } catch (RuntimeException e) {
+      // the history is only informational and must not lead to a retry of a delivery
+      LOG.warn("could not store delivery history for repository {}", delivery.getRepositoryName(), e);
+    }
+  }
+
+  private static int statusOf(RuntimeException e) {
+    if (e instanceof ArgoCDHookExecutionException) {
+      return ((ArgoCDHookExecutionException) e).getStatus();
+    }
+    return 0;
+  }
+
+  public int getDepth() {
+    synchronized (deliveries) {
+      return deliveries.size() + priorityDeliveries.size();
+    }
+  }
+
+  public long getDroppedDeliveries() {
+    return droppedDeliveries.get();
+  }
+
+  @Override
+  public void close() {
+    if (workers instanceof ExecutorService) {
+      ((ExecutorService) workers).shutdown();
+    }
+    if (fanOutWorkers instanceof ExecutorService) {
+      ((ExecutorService) fanOutWorkers).shutdown();
+    }
+  }
+}
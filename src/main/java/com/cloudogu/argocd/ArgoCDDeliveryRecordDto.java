@@ -0,0 +1,55 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import lombok.Getter;
+
+import java.time.Instant;
+import java.util.List;
+
+@Getter
+public class ArgoCDDeliveryRecordDto {
+  private final Instant timestamp;
+  private final String url;
+  private final List<String> branches;
+  private final List<String> tags;
+  private final String payloadType;
+  private final long duration;
+  private final int status;
+  private final int attempt;
+  private final String error;
+
+  ArgoCDDeliveryRecordDto(ArgoCDDeliveryRecord record) {
+    this.timestamp = Instant.ofEpochMilli(record.getTimestamp());
+    this.url = record.getUrl();
+    this.branches = record.getBranches();
+    this.tags = record.getTags() == null ? List.of() : record.getTags();
+    this.payloadType = record.getPayloadType();
+    this.duration = record.getDuration();
+    this.status = record.getStatus();
+    this.attempt = record.getAttempt();
+    this.error = record.getError();
+  }
+}
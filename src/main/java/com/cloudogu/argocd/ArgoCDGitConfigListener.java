@@ -0,0 +1,54 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import com.github.legman.Subscribe;
+import sonia.scm.EagerSingleton;
+import sonia.scm.plugin.Extension;
+import sonia.scm.plugin.Requires;
+import sonia.scm.repository.GitRepositoryConfigChangedEvent;
+
+import javax.inject.Inject;
+
+/**
+ * Invalidates the cached metadata of a repository if its git configuration changes, because the default branch
+ * is part of it.
+ */
+@Extension
+@EagerSingleton
+@Requires("scm-git-plugin")
+public class ArgoCDGitConfigListener {
+
+  private final ArgoCDRepositoryMetadataCache metadataCache;
+
+  @Inject
+  public ArgoCDGitConfigListener(ArgoCDRepositoryMetadataCache metadataCache) {
+    this.metadataCache = metadataCache;
+  }
+
+  @Subscribe(async = false)
+  public void onGitConfigChanged(GitRepositoryConfigChangedEvent event) {
+    metadataCache.invalidate(event.getRepository());
+  }
+}
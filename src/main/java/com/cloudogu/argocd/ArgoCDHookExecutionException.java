@@ -26,11 +26,26 @@ package com.cloudogu.argocd;
 
 public class ArgoCDHookExecutionException extends RuntimeException {
 
+  private final int status;
+
   protected ArgoCDHookExecutionException(String message, Exception cause) {
     super(message, cause);
+    this.status = 0;
   }
 
   protected ArgoCDHookExecutionException(String message) {
+    this(message, 0);
+  }
+
+  protected ArgoCDHookExecutionException(String message, int status) {
     super(message);
+    this.status = status;
+  }
+
+  /**
+   * Returns the http status of the response from Argo CD or 0, if no response has been received.
+   */
+  public int getStatus() {
+    return status;
   }
 }
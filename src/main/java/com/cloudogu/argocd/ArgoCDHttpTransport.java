@@ -0,0 +1,368 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import com.google.common.base.Strings;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.config.ScmConfiguration;
+import sonia.scm.util.GlobUtil;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plugin owned http transport for Argo CD notifications, used instead of the {@link sonia.scm.net.ahc.AdvancedHttpClient}
+ * if enabled in the global configuration. It keeps one {@link HttpClient} per Argo CD endpoint (scheme, host and port),
+ * so that keep-alive connections and tls sessions are reused across notifications. The number of parallel requests
+ * per endpoint is limited, and the client of an endpoint is dropped together with its connections after it has not
+ * been used for the configured idle timeout.
+ * <p>
+ * The proxy settings of SCM-Manager are applied to every request. Certificates which are trusted by SCM-Manager only,
+ * but not by the jvm, and the request tracing of the {@link sonia.scm.net.ahc.AdvancedHttpClient} are not available
+ * for this transport.
+ */
+@Singleton
+public class ArgoCDHttpTransport {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArgoCDHttpTransport.class);
+
+  private final ArgoCDConfigurationStore configurationStore;
+  private final ScmConfiguration scmConfiguration;
+  private final Clock clock;
+  private final Map<EndpointKey, ConnectionPool> pools = new ConcurrentHashMap<>();
+
+  @Inject
+  public ArgoCDHttpTransport(ArgoCDConfigurationStore configurationStore, ScmConfiguration scmConfiguration) {
+    this(configurationStore, scmConfiguration, Clock.systemUTC());
+  }
+
+  ArgoCDHttpTransport(ArgoCDConfigurationStore configurationStore, ScmConfiguration scmConfiguration, Clock clock) {
+    this.configurationStore = configurationStore;
+    this.scmConfiguration = scmConfiguration;
+    this.clock = clock;
+  }
+
+  /**
+   * Posts the first <code>length</code> bytes of the payload to the webhook url and returns the status code.
+   */
+  public int post(ArgoCDWebhook webhook, Map<String, String> headers, byte[] payload, int length) throws IOException {
+    URI uri = URI.create(webhook.getUrl());
+    HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+      .POST(HttpRequest.BodyPublishers.ofByteArray(payload, 0, length));
+    return send(webhook, uri, request, headers, HttpResponse.BodyHandlers.discarding()).statusCode();
+  }
+
+  /**
+   * Reads the given uri of the Argo CD server of the webhook, used for the rest api of Argo CD.
+   */
+  public HttpResponse<byte[]> get(ArgoCDWebhook webhook, URI uri, Map<String, String> headers) throws IOException {
+    return send(webhook, uri, HttpRequest.newBuilder(uri).GET(), headers, HttpResponse.BodyHandlers.ofByteArray());
+  }
+
+  private <T> HttpResponse<T> send(ArgoCDWebhook webhook,
+                                   URI uri,
+                                   HttpRequest.Builder request,
+                                   Map<String, String> headers,
+                                   HttpResponse.BodyHandler<T> bodyHandler) throws IOException {
+    evictIdlePools();
+    ConnectionPool pool = pools.computeIfAbsent(new EndpointKey(uri, webhook.isInsecure(), webhook.getConnectTimeoutMillis()), this::createPool);
+
+    long timeout = requestTimeout(webhook);
+    if (timeout > 0) {
+      // the timeout ends with the response headers, the bodies we read from argo cd are small
+      request.timeout(Duration.ofMillis(timeout));
+    }
+    headers.forEach(request::header);
+
+    pool.acquire();
+    try {
+      return pool.getClient().send(request.build(), bodyHandler);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while sending argo cd webhook", e);
+    } finally {
+      pool.release(clock.millis());
+    }
+  }
+
+  /**
+   * The deadline of a webhook is checked by the queue between the requests of a delivery, so a single request must
+   * not take longer than the whole deadline.
+   */
+  static long requestTimeout(ArgoCDWebhook webhook) {
+    long readTimeout = webhook.getReadTimeoutMillis();
+    long deadline = webhook.getDeadlineMillis();
+    if (deadline <= 0) {
+      return readTimeout;
+    }
+    return readTimeout > 0 ? Math.min(readTimeout, deadline) : deadline;
+  }
+
+  public Collection<ConnectionPool> getPools() {
+    evictIdlePools();
+    return List.copyOf(pools.values());
+  }
+
+  private ConnectionPool createPool(EndpointKey key) {
+    ArgoCDConfiguration configuration = configurationStore.get();
+    HttpClient.Builder builder = HttpClient.newBuilder()
+      .version(configuration.isHttp2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+      .followRedirects(HttpClient.Redirect.NEVER)
+      // the selector reads the proxy settings for every request, so that changes apply to existing pools as well
+      .proxy(new ScmProxySelector(scmConfiguration))
+      .authenticator(new ScmProxyAuthenticator(scmConfiguration));
+    if (key.isInsecure()) {
+      builder.sslContext(insecureSslContext());
+    }
+    if (key.getConnectTimeoutMillis() > 0) {
+      builder.connectTimeout(Duration.ofMillis(key.getConnectTimeoutMillis()));
+    }
+    LOG.debug("creating connection pool for argo cd endpoint {}", key.getEndpoint());
+    return new ConnectionPool(
+      key.getEndpoint(),
+      builder.build(),
+      configuration.isHttp2(),
+      Math.max(1, configuration.getMaxConnectionsPerEndpoint()),
+      clock.millis()
+    );
+  }
+
+  private void evictIdlePools() {
+    long idleTimeout = configurationStore.get().getConnectionIdleTimeoutMillis();
+    long now = clock.millis();
+    pools.values().removeIf(pool -> {
+      if (pool.isIdleSince(now - idleTimeout)) {
+        // the http client has no close method, its connections are closed when it is garbage collected
+        LOG.debug("dropping idle connection pool for argo cd endpoint {}", pool.getEndpoint());
+        return true;
+      }
+      return false;
+    });
+  }
+
+  private static SSLContext insecureSslContext() {
+    try {
+      SSLContext context = SSLContext.getInstance("TLS");
+      context.init(null, new TrustManager[]{new TrustAllManager()}, null);
+      return context;
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("could not create ssl context for insecure argo cd webhooks", e);
+    }
+  }
+
+  @Getter
+  public static class ConnectionPool {
+    private final String endpoint;
+    private final HttpClient client;
+    private final boolean http2;
+    private final int maxConnections;
+    private final Semaphore permits;
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final AtomicLong totalRequests = new AtomicLong();
+    private final long createdAt;
+    private volatile long lastUsed;
+
+    ConnectionPool(String endpoint, HttpClient client, boolean http2, int maxConnections, long createdAt) {
+      this.endpoint = endpoint;
+      this.client = client;
+      this.http2 = http2;
+      this.maxConnections = maxConnections;
+      this.permits = new Semaphore(maxConnections);
+      this.createdAt = createdAt;
+      this.lastUsed = createdAt;
+    }
+
+    void acquire() throws IOException {
+      try {
+        permits.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted while waiting for a connection to " + endpoint, e);
+      }
+      activeRequests.incrementAndGet();
+      totalRequests.incrementAndGet();
+    }
+
+    void release(long now) {
+      lastUsed = now;
+      activeRequests.decrementAndGet();
+      permits.release();
+    }
+
+    boolean isIdleSince(long time) {
+      return activeRequests.get() == 0 && lastUsed < time;
+    }
+  }
+
+  /**
+   * Selects the proxy of the SCM-Manager configuration, unless the host of the uri matches one of the proxy excludes.
+   */
+  static class ScmProxySelector extends ProxySelector {
+
+    private final ScmConfiguration configuration;
+
+    ScmProxySelector(ScmConfiguration configuration) {
+      this.configuration = configuration;
+    }
+
+    @Override
+    public List<Proxy> select(URI uri) {
+      if (!configuration.isEnableProxy() || Strings.isNullOrEmpty(configuration.getProxyServer()) || isExcluded(uri.getHost())) {
+        return List.of(Proxy.NO_PROXY);
+      }
+      return List.of(new Proxy(
+        Proxy.Type.HTTP,
+        InetSocketAddress.createUnresolved(configuration.getProxyServer(), configuration.getProxyPort())
+      ));
+    }
+
+    private boolean isExcluded(String host) {
+      Collection<String> excludes = configuration.getProxyExcludes();
+      return host != null && excludes != null && excludes.stream()
+        .anyMatch(exclude -> host.matches(GlobUtil.convertGlobToRegEx(exclude.trim())));
+    }
+
+    @Override
+    public void connectFailed(URI uri, SocketAddress proxy, IOException e) {
+      LOG.debug("could not connect to proxy {} for argo cd endpoint {}", proxy, uri, e);
+    }
+  }
+
+  /**
+   * Answers authentication requests of the proxy with the credentials of the SCM-Manager configuration. Requests of
+   * the Argo CD server itself are not answered.
+   */
+  private static class ScmProxyAuthenticator extends Authenticator {
+
+    private final ScmConfiguration configuration;
+
+    private ScmProxyAuthenticator(ScmConfiguration configuration) {
+      this.configuration = configuration;
+    }
+
+    @Override
+    protected PasswordAuthentication getPasswordAuthentication() {
+      if (getRequestorType() != RequestorType.PROXY || Strings.isNullOrEmpty(configuration.getProxyUser())) {
+        return null;
+      }
+      return new PasswordAuthentication(
+        configuration.getProxyUser(),
+        Strings.nullToEmpty(configuration.getProxyPassword()).toCharArray()
+      );
+    }
+  }
+
+  @lombok.Value
+  private static class EndpointKey {
+    String endpoint;
+    boolean insecure;
+    int connectTimeoutMillis;
+
+    EndpointKey(URI uri, boolean insecure, int connectTimeoutMillis) {
+      this.endpoint = uri.getScheme() + "://" + uri.getHost() + ":" + port(uri);
+      this.insecure = insecure;
+      this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    private static int port(URI uri) {
+      if (uri.getPort() > 0) {
+        return uri.getPort();
+      }
+      return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+  }
+
+  /**
+   * Trusts every certificate. Because the hostname is verified by the trust manager as well, this also disables
+   * the hostname verification.
+   */
+  @SuppressWarnings("java:S4830") // only used for webhooks explicitly marked as insecure
+  private static class TrustAllManager extends X509ExtendedTrustManager {
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) {
+      // trust all
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) {
+      // trust all
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+      // trust all
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+      // trust all
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType) {
+      // trust all
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType) {
+      // trust all
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+      return new X509Certificate[0];
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import com.google.inject.ImplementedBy;
+
+import java.time.Duration;
+
+/**
+ * Store for the idempotency keys of deliveries, so that a ref update which is sent more than once notifies Argo CD
+ * only once. {@link #claim(String, Duration)} has to be atomic for all nodes which share the store.
+ * <p>
+ * The default implementation uses a data store of SCM-Manager and is atomic within a single node only: the data
+ * store has no conditional write, so two nodes with shared storage may both claim the same key. Setups with more
+ * than one node have to bind their own implementation in a guice module, e.g. backed by a distributed cache with an
+ * atomic put-if-absent.
+ * <p>
+ * Keys are hex encoded hashes, so they can be used as file names or cache keys as they are.
+ */
+@ImplementedBy(ArgoCDDataStoreIdempotencyStore.class)
+public interface ArgoCDIdempotencyStore {
+
+  /**
+   * Claims the key for the given time to live.
+   *
+   * @return <code>true</code> if the key has been claimed, <code>false</code> if it is already claimed and has not
+   * expired yet
+   */
+  boolean claim(String key, Duration ttl);
+
+  /**
+   * Releases a claimed key, e.g. because the delivery failed and has to be retried.
+   */
+  void release(String key);
+}
@@ -0,0 +1,166 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Records metrics of Argo CD notifications in the meter registry of SCM-Manager.
+ */
+@Singleton
+public class ArgoCDMetrics {
+
+  static final String DELIVERY_LATENCY = "scm.argocd.delivery.latency";
+  static final String METADATA_LOOKUP = "scm.argocd.metadata.lookup";
+  static final String PAYLOAD_SIZE = "scm.argocd.payload.size";
+  static final String SIGNATURE = "scm.argocd.signature";
+  static final String REQUEST = "scm.argocd.request";
+  static final String REQUESTS = "scm.argocd.requests";
+  static final String RATE_LIMIT_THROTTLED = "scm.argocd.ratelimit.throttled";
+  static final String RATE_LIMIT_SATURATION = "scm.argocd.ratelimit.saturation";
+  static final String DEFERRED = "scm.argocd.delivery.deferred";
+  static final String DUPLICATES = "scm.argocd.delivery.duplicates";
+
+  static final String STATUS_IO_ERROR = "IO_ERROR";
+
+  private final MeterRegistry registry;
+
+  @Inject
+  public ArgoCDMetrics(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  /**
+   * Records the time from the push to the successful notification of Argo CD.
+   */
+  public void delivered(ArgoCDDelivery delivery) {
+    Timer.builder(DELIVERY_LATENCY)
+      .description("Time from the push to the successful notification of Argo CD")
+      .tag("implementation", delivery.getWebhook().getHookImplementation().name())
+      .tag("host", host(delivery.getWebhook().getUrl()))
+      .publishPercentileHistogram()
+      .register(registry)
+      .record(Math.max(0, System.currentTimeMillis() - delivery.getCreatedAt()), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Records the lookup of the default branch or the http url of a repository.
+   */
+  public void lookup(String operation, long durationNanos) {
+    Timer.builder(METADATA_LOOKUP)
+      .description("Time to find the default branch or the http url of a repository")
+      .tag("operation", operation)
+      .register(registry)
+      .record(durationNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void payload(HookImplementation implementation, int bytes) {
+    DistributionSummary.builder(PAYLOAD_SIZE)
+      .description("Size of the payloads sent to Argo CD")
+      .baseUnit("bytes")
+      .tag("implementation", implementation.name())
+      .register(registry)
+      .record(bytes);
+  }
+
+  public void signature(String algorithm, long durationNanos) {
+    Timer.builder(SIGNATURE)
+      .description("Time to compute the hmac signature of a payload")
+      .tag("algorithm", algorithm)
+      .register(registry)
+      .record(durationNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Records a request to Argo CD. The status is the http status code or {@link #STATUS_IO_ERROR}, if no response
+   * has been received.
+   */
+  public void request(ArgoCDWebhook webhook, String status, boolean success, long durationNanos) {
+    String implementation = webhook.getHookImplementation().name();
+    String host = host(webhook.getUrl());
+    Timer.builder(REQUEST)
+      .description("Duration of requests to Argo CD")
+      .tag("implementation", implementation)
+      .tag("host", host)
+      .register(registry)
+      .record(durationNanos, TimeUnit.NANOSECONDS);
+    registry.counter(
+      REQUESTS,
+      "implementation", implementation,
+      "host", host,
+      "status", status,
+      "outcome", success ? "success" : "failure"
+    ).increment();
+  }
+
+  /**
+   * Records branches and tags which have been deferred, because the deadline of their delivery has been spent.
+   */
+  public void deferred(ArgoCDWebhook webhook, int refs) {
+    registry.counter(DEFERRED, "host", host(webhook.getUrl())).increment(refs);
+  }
+
+  /**
+   * Records a delivery which has been skipped, because another node has sent it already.
+   */
+  public void duplicate(ArgoCDWebhook webhook) {
+    registry.counter(DUPLICATES, "host", host(webhook.getUrl())).increment();
+  }
+
+  /**
+   * Records a delivery which had to wait for the rate limit of the host.
+   */
+  public void throttled(String host, boolean priority) {
+    registry.counter(RATE_LIMIT_THROTTLED, "host", host, "lane", priority ? "priority" : "default").increment();
+  }
+
+  /**
+   * Registers the share of used tokens of the rate limit of a host, 1 means that deliveries have to wait.
+   */
+  public <T> void rateLimitSaturation(String host, T bucket, ToDoubleFunction<T> saturation) {
+    Gauge.builder(RATE_LIMIT_SATURATION, bucket, saturation)
+      .description("Share of used tokens of the rate limit for an Argo CD host")
+      .tag("host", host)
+      .register(registry);
+  }
+
+  private static String host(String url) {
+    try {
+      String host = URI.create(url).getHost();
+      return host != null ? host : "unknown";
+    } catch (IllegalArgumentException e) {
+      return "unknown";
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.repository.Added;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.Modifications;
+import sonia.scm.repository.Modified;
+import sonia.scm.repository.Removed;
+import sonia.scm.util.GlobUtil;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reduces the branches of a push to those with changesets touching files that match the include and exclude
+ * globs of a webhook. The changesets are checked one after another and the check for a branch stops with the
+ * first relevant file, so that a push does not have to compute the complete diff. Branches without new changesets,
+ * e.g. a new branch on an existing commit, a reset by a force push or a fast-forward to known commits, are always
+ * kept, because the files of the moved ref cannot be compared.
+ */
+public class ArgoCDPathFilter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArgoCDPathFilter.class);
+
+  public Collection<String> filter(ArgoCDWebhook webhook, ArgoCDPushContext context, Collection<String> branches) {
+    if (!webhook.hasPathFilter() || branches.isEmpty()) {
+      return branches;
+    }
+    Matcher matcher = new Matcher(webhook.getIncludePaths(), webhook.getExcludePaths());
+    Set<String> pending = branchesWithChangesets(context, branches);
+    Set<String> relevant = new LinkedHashSet<>(branches);
+    relevant.removeAll(pending);
+    for (Changeset changeset : context.getChangesets()) {
+      if (pending.isEmpty()) {
+        break;
+      }
+      Collection<String> changesetBranches = branchesOf(changeset, pending);
+      if (!changesetBranches.isEmpty() && isRelevant(context, changeset, matcher)) {
+        relevant.addAll(changesetBranches);
+        pending.removeAll(changesetBranches);
+      }
+    }
+    return branches.stream().filter(relevant::contains).collect(Collectors.toCollection(LinkedHashSet::new));
+  }
+
+  private Set<String> branchesWithChangesets(ArgoCDPushContext context, Collection<String> branches) {
+    Set<String> all = new LinkedHashSet<>(branches);
+    Set<String> withChangesets = new LinkedHashSet<>();
+    for (Changeset changeset : context.getChangesets()) {
+      withChangesets.addAll(branchesOf(changeset, all));
+      if (withChangesets.size() == all.size()) {
+        break;
+      }
+    }
+    return withChangesets;
+  }
+
+  private Collection<String> branchesOf(Changeset changeset, Set<String> pending) {
+    List<String> changesetBranches = changeset.getBranches();
+    if (changesetBranches == null || changesetBranches.isEmpty()) {
+      // without branch information the changeset could belong to any branch of the push
+      return new LinkedHashSet<>(pending);
+    }
+    return changesetBranches.stream().filter(pending::contains).collect(Collectors.toCollection(LinkedHashSet::new));
+  }
+
+  private boolean isRelevant(ArgoCDPushContext context, Changeset changeset, Matcher matcher) {
+    Modifications modifications;
+    try {
+      modifications = context.getModifications(changeset.getId());
+    } catch (IOException | RuntimeException e) {
+      // better notify argo cd once too often than to miss a change of the manifests
+      LOG.warn("could not read modifications of changeset {}, treating it as relevant", changeset.getId(), e);
+      return true;
+    }
+    if (modifications == null) {
+      return true;
+    }
+    return paths(modifications).anyMatch(matcher::matches);
+  }
+
+  private Stream<String> paths(Modifications modifications) {
+    return Stream.of(
+      modifications.getAdded().stream().map(Added::getPath),
+      modifications.getModified().stream().map(Modified::getPath),
+      modifications.getRemoved().stream().map(Removed::getPath),
+      modifications.getRenamed().stream().flatMap(renamed -> Stream.of(renamed.getOldPath(), renamed.getNewPath()))
+    ).flatMap(paths -> paths);
+  }
+
+  static class Matcher {
+
+    private final List<Pattern> includes;
+    private final List<Pattern> excludes;
+
+    Matcher(Collection<String> includes, Collection<String> excludes) {
+      this.includes = compile(includes);
+      this.excludes = compile(excludes);
+    }
+
+    boolean matches(String path) {
+      String normalized = path.startsWith("/") ? path.substring(1) : path;
+      return (includes.isEmpty() || matchesAny(includes, normalized)) && !matchesAny(excludes, normalized);
+    }
+
+    private static boolean matchesAny(List<Pattern> patterns, String path) {
+      for (Pattern pattern : patterns) {
+        if (pattern.matcher(path).matches()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private static List<Pattern> compile(Collection<String> globs) {
+      if (globs == null) {
+        return List.of();
+      }
+      return globs.stream()
+        .filter(glob -> glob != null && !glob.trim().isEmpty())
+        .map(glob -> Pattern.compile(GlobUtil.convertGlobToRegEx(glob.trim())))
+        .collect(Collectors.toList());
+    }
+  }
+}
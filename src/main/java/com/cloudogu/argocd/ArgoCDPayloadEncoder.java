@@ -0,0 +1,248 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.Value;
+
+import javax.inject.Singleton;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Writes the json payload of a delivery directly into a byte buffer. The parts of the payload which only depend on
+ * the repository (html url and default branch) are serialized once and cached, only the branch specific fields are
+ * written for each request. The produced json is the same as the one of the payload dtos
+ * ({@link ScmPushEventPayload}, {@link ScmBatchPushEventPayload} and {@link GitHubPushEventPayloadDto}).
+ */
+@Singleton
+public class ArgoCDPayloadEncoder {
+
+  private static final byte[] TRUE = bytes("true");
+  private static final byte[] FALSE = bytes("false");
+  private static final byte[] BRANCH_START = bytes("{\"default_branch\":");
+  private static final byte[] BRANCH_NAME = bytes(",\"name\":\"");
+  private static final byte[] BRANCH_END = bytes("\"}");
+  private static final byte[] EMPTY_COMMITS = bytes("\"commits\":[],");
+  private static final byte[] REF = bytes("\"ref\":\"refs/heads/");
+  private static final byte[] TAG_REF = bytes("\"ref\":\"refs/tags/");
+  private static final byte[] BEFORE = bytes("\"before\":\"");
+  private static final byte[] AFTER = bytes("\"after\":\"");
+  private static final byte[] COMMITS_START = bytes("\"commits\":[");
+  private static final byte[] COMMITS_END = bytes("],");
+  private static final byte[] COMMIT_ID = bytes("{\"id\":\"");
+  private static final byte[] ADDED = bytes("\"added\":[");
+  private static final byte[] MODIFIED = bytes(",\"modified\":[");
+  private static final byte[] REMOVED = bytes(",\"removed\":[");
+  private static final byte[] FIELD_END = bytes("\",");
+
+  private final Cache<TemplateKey, Template> templates = CacheBuilder.newBuilder()
+    .maximumSize(1000)
+    .build();
+
+  /**
+   * Writes the payload of the given delivery to the buffer. Deliveries for multiple branches have to be split before.
+   */
+  public void encode(ArgoCDDelivery delivery, ByteArrayOutputStream buffer) {
+    Template template = template(delivery);
+    List<String> branches = delivery.getBranches();
+    List<String> tags = delivery.getTags();
+    buffer.writeBytes(template.getPrefix());
+    if (template.getKey().getHookImplementation() == HookImplementation.GITHUB) {
+      if (branches.isEmpty()) {
+        buffer.writeBytes(EMPTY_COMMITS);
+        buffer.writeBytes(TAG_REF);
+        writeEscaped(tags.get(0), buffer);
+      } else {
+        writeCommits(delivery.getChanges(branches.get(0)), buffer);
+        buffer.writeBytes(REF);
+        writeEscaped(branches.get(0), buffer);
+      }
+    } else {
+      for (int i = 0; i < branches.size(); i++) {
+        if (i > 0) {
+          buffer.write(',');
+        }
+        writeBranch(branches.get(i), delivery.getDefaultBranch(), buffer);
+      }
+      // the scm-manager event has no refs, so tags are written like branches which are never the default branch
+      for (int i = 0; i < tags.size(); i++) {
+        if (i > 0 || !branches.isEmpty()) {
+          buffer.write(',');
+        }
+        writeBranch(tags.get(i), null, buffer);
+      }
+    }
+    buffer.writeBytes(template.getSuffix());
+  }
+
+  private Template template(ArgoCDDelivery delivery) {
+    if (delivery.getRefCount() != 1 && !delivery.isScmBatch()) {
+      throw new IllegalStateException("delivery with multiple branches has to be split before creating the payload");
+    }
+    TemplateKey key = new TemplateKey(
+      delivery.getWebhook().getHookImplementation(),
+      delivery.isScmBatch(),
+      delivery.getHtmlUrl(),
+      delivery.getDefaultBranch()
+    );
+    try {
+      return templates.get(key, () -> createTemplate(key));
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("could not create payload template", e);
+    }
+  }
+
+  private static Template createTemplate(TemplateKey key) {
+    ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+    if (key.getHookImplementation() == HookImplementation.GITHUB) {
+      prefix.writeBytes(bytes("{\"repository\":{\"html_url\":\""));
+      writeEscaped(key.getHtmlUrl(), prefix);
+      prefix.writeBytes(bytes("\",\"default_branch\":\""));
+      // all branches of a repository may have been deleted, then there is no default branch
+      writeEscaped(Strings.nullToEmpty(key.getDefaultBranch()), prefix);
+      prefix.writeBytes(bytes("\"},"));
+      return new Template(key, prefix.toByteArray(), bytes("\"}"));
+    }
+    prefix.writeBytes(bytes("{\"html_url\":\""));
+    writeEscaped(key.getHtmlUrl(), prefix);
+    if (key.isBatch()) {
+      prefix.writeBytes(bytes("\",\"branches\":["));
+      return new Template(key, prefix.toByteArray(), bytes("]}"));
+    }
+    prefix.writeBytes(bytes("\",\"branch\":"));
+    return new Template(key, prefix.toByteArray(), bytes("}"));
+  }
+
+  private static void writeCommits(ArgoCDBranchChanges changes, ByteArrayOutputStream buffer) {
+    if (changes == null) {
+      buffer.writeBytes(EMPTY_COMMITS);
+      return;
+    }
+    writeField(BEFORE, changes.getBefore(), buffer);
+    writeField(AFTER, changes.getAfter(), buffer);
+    buffer.writeBytes(COMMITS_START);
+    List<ArgoCDBranchChanges.Commit> commits = changes.getCommits();
+    for (int i = 0; i < commits.size(); i++) {
+      if (i > 0) {
+        buffer.write(',');
+      }
+      ArgoCDBranchChanges.Commit commit = commits.get(i);
+      buffer.writeBytes(COMMIT_ID);
+      writeEscaped(commit.getId(), buffer);
+      buffer.writeBytes(FIELD_END);
+      writePaths(ADDED, commit.getAdded(), buffer);
+      writePaths(MODIFIED, commit.getModified(), buffer);
+      writePaths(REMOVED, commit.getRemoved(), buffer);
+      buffer.write('}');
+    }
+    buffer.writeBytes(COMMITS_END);
+  }
+
+  private static void writeField(byte[] start, String value, ByteArrayOutputStream buffer) {
+    if (value != null) {
+      buffer.writeBytes(start);
+      writeEscaped(value, buffer);
+      buffer.writeBytes(FIELD_END);
+    }
+  }
+
+  private static void writePaths(byte[] start, List<String> paths, ByteArrayOutputStream buffer) {
+    buffer.writeBytes(start);
+    for (int i = 0; i < paths.size(); i++) {
+      if (i > 0) {
+        buffer.write(',');
+      }
+      buffer.write('"');
+      writeEscaped(paths.get(i), buffer);
+      buffer.write('"');
+    }
+    buffer.write(']');
+  }
+
+  private static void writeBranch(String branch, String defaultBranch, ByteArrayOutputStream buffer) {
+    buffer.writeBytes(BRANCH_START);
+    buffer.writeBytes(branch.equals(defaultBranch) ? TRUE : FALSE);
+    buffer.writeBytes(BRANCH_NAME);
+    writeEscaped(branch, buffer);
+    buffer.writeBytes(BRANCH_END);
+  }
+
+  static void writeEscaped(String value, ByteArrayOutputStream buffer) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        buffer.write('\\');
+        buffer.write(c);
+      } else if (c < 0x20) {
+        buffer.writeBytes(bytes(String.format("\\u%04x", (int) c)));
+      } else if (c < 0x80) {
+        buffer.write(c);
+      } else {
+        // branch names are mostly ascii, so we encode only the remaining part if we find anything else
+        buffer.writeBytes(bytes(escapeControlCharacters(value.substring(i))));
+        return;
+      }
+    }
+  }
+
+  private static String escapeControlCharacters(String value) {
+    StringBuilder builder = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        builder.append('\\').append(c);
+      } else if (c < 0x20) {
+        builder.append(String.format("\\u%04x", (int) c));
+      } else {
+        builder.append(c);
+      }
+    }
+    return builder.toString();
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Value
+  private static class TemplateKey {
+    HookImplementation hookImplementation;
+    boolean batch;
+    String htmlUrl;
+    String defaultBranch;
+  }
+
+  @Value
+  private static class Template {
+    TemplateKey key;
+    byte[] prefix;
+    byte[] suffix;
+  }
+}
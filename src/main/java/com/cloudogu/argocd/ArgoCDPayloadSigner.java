@@ -0,0 +1,92 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import lombok.Value;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.HmacAlgorithms;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.inject.Singleton;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Computes hmac signatures for webhook payloads. Initialized {@link Mac} instances are pooled per algorithm and
+ * secret, so that the key setup and the provider lookup are not repeated for every request.
+ */
+@Singleton
+public class ArgoCDPayloadSigner {
+
+  private final Map<MacKey, Queue<Mac>> pool = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the hex encoded hmac of the first <code>length</code> bytes of the given data.
+   */
+  public String sign(HmacAlgorithms algorithm, String secret, byte[] data, int length) {
+    MacKey key = new MacKey(algorithm, secret);
+    Queue<Mac> macs = pool.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>());
+    Mac mac = macs.poll();
+    if (mac == null) {
+      mac = create(key);
+    }
+    try {
+      mac.update(data, 0, length);
+      // doFinal resets the mac, so it can be reused for the next payload
+      return Hex.encodeHexString(mac.doFinal());
+    } finally {
+      macs.offer(mac);
+    }
+  }
+
+  /**
+   * Removes all pooled instances for the given secret. This should be called if the secret of a webhook changes.
+   */
+  public void invalidate(String secret) {
+    pool.keySet().removeIf(key -> key.getSecret().equals(secret));
+  }
+
+  private static Mac create(MacKey key) {
+    String algorithm = key.getAlgorithm().getName();
+    try {
+      Mac mac = Mac.getInstance(algorithm);
+      mac.init(new SecretKeySpec(key.getSecret().getBytes(StandardCharsets.UTF_8), algorithm));
+      return mac;
+    } catch (GeneralSecurityException e) {
+      throw new ArgoCDHookExecutionException("Could not initialize " + algorithm, e);
+    }
+  }
+
+  @Value
+  private static class MacKey {
+    HmacAlgorithms algorithm;
+    String secret;
+  }
+}
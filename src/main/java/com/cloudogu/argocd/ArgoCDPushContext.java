@@ -0,0 +1,173 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.Modifications;
+import sonia.scm.repository.PostReceiveRepositoryHookEvent;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.Tag;
+import sonia.scm.repository.api.HookBranchProvider;
+import sonia.scm.repository.api.HookContext;
+import sonia.scm.repository.api.HookFeature;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.repository.api.RepositoryServiceFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Everything the Argo CD executors read from a push and its repository. One context is shared by the executors of
+ * all Argo CD webhooks for the same {@link PostReceiveRepositoryHookEvent}, so that every value is read only once
+ * per push. The repository service is opened on first use and closed, when the last created executor has finished.
+ */
+public class ArgoCDPushContext {
+
+  private final Repository repository;
+  private final RepositoryServiceFactory serviceFactory;
+
+  private final Supplier<List<String>> createdOrModified;
+  private final Supplier<List<String>> deletedOrClosed;
+  private final Supplier<List<Changeset>> changesets;
+  private final Supplier<List<Tag>> createdTags;
+  private final Supplier<List<Tag>> deletedTags;
+  private final Supplier<ArgoCDRepositoryMetadata> metadata;
+  private final Map<String, Optional<Modifications>> modifications = new ConcurrentHashMap<>();
+
+  private RepositoryService service;
+  private int executors;
+
+  ArgoCDPushContext(Repository repository,
+                    PostReceiveRepositoryHookEvent event,
+                    RepositoryServiceFactory serviceFactory,
+                    ArgoCDRepositoryMetadataCache metadataCache) {
+    this.repository = repository;
+    this.serviceFactory = serviceFactory;
+    HookContext context = event.getContext();
+    HookBranchProvider branchProvider = context.getBranchProvider();
+    this.createdOrModified = Suppliers.memoize(() -> ImmutableList.copyOf(branchProvider.getCreatedOrModified()));
+    this.deletedOrClosed = Suppliers.memoize(() -> ImmutableList.copyOf(branchProvider.getDeletedOrClosed()));
+    // the changesets of the hook may only be iterated once
+    this.changesets = Suppliers.memoize(() -> ImmutableList.copyOf(context.getChangesetProvider().getChangesets()));
+    this.createdTags = Suppliers.memoize(() -> context.isFeatureSupported(HookFeature.TAG_PROVIDER)
+      ? ImmutableList.copyOf(context.getTagProvider().getCreatedTags()) : List.of());
+    this.deletedTags = Suppliers.memoize(() -> context.isFeatureSupported(HookFeature.TAG_PROVIDER)
+      ? ImmutableList.copyOf(context.getTagProvider().getDeletedTags()) : List.of());
+    this.metadata = Suppliers.memoize(() -> loadMetadata(metadataCache));
+  }
+
+  public Repository getRepository() {
+    return repository;
+  }
+
+  public List<String> getCreatedOrModified() {
+    return createdOrModified.get();
+  }
+
+  public List<String> getDeletedOrClosed() {
+    return deletedOrClosed.get();
+  }
+
+  public List<Changeset> getChangesets() {
+    return changesets.get();
+  }
+
+  public List<Tag> getCreatedTags() {
+    return createdTags.get();
+  }
+
+  public List<Tag> getDeletedTags() {
+    return deletedTags.get();
+  }
+
+  public ArgoCDRepositoryMetadata getMetadata() {
+    return metadata.get();
+  }
+
+  /**
+   * Returns the modifications of the given revision, which are read with the shared repository service.
+   */
+  public Modifications getModifications(String revision) throws IOException {
+    Optional<Modifications> cached = modifications.get(revision);
+    if (cached != null) {
+      return cached.orElse(null);
+    }
+    synchronized (this) {
+      cached = modifications.get(revision);
+      if (cached == null) {
+        // failures are not cached, so that the next webhook tries again
+        cached = Optional.ofNullable(service().getModificationsCommand().revision(revision).getModifications());
+        modifications.put(revision, cached);
+      }
+      return cached.orElse(null);
+    }
+  }
+
+  /**
+   * Marks the creation of an executor, which uses the context.
+   */
+  synchronized void retain() {
+    executors++;
+  }
+
+  /**
+   * Marks the end of an executor. The repository service is closed with the end of the last created executor.
+   */
+  synchronized void release() {
+    executors = Math.max(0, executors - 1);
+    if (executors == 0) {
+      close();
+    }
+  }
+
+  synchronized void close() {
+    if (service != null) {
+      service.close();
+      service = null;
+    }
+  }
+
+  private RepositoryService service() {
+    if (service == null) {
+      service = serviceFactory.create(repository);
+    }
+    return service;
+  }
+
+  private ArgoCDRepositoryMetadata loadMetadata(ArgoCDRepositoryMetadataCache metadataCache) {
+    ArgoCDRepositoryMetadata cached = metadataCache.get(repository);
+    if (getDeletedOrClosed().contains(cached.getDefaultBranch())) {
+      // the default branch has been deleted with this push, so the cached one is no longer valid
+      metadataCache.invalidate(repository);
+      return metadataCache.get(repository);
+    }
+    return cached;
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import sonia.scm.repository.PostReceiveRepositoryHookEvent;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.api.RepositoryServiceFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out one {@link ArgoCDPushContext} per push event. The events are weak keys compared by identity, so a
+ * context is dropped together with its event.
+ */
+@Singleton
+public class ArgoCDPushContextCache {
+
+  private final RepositoryServiceFactory serviceFactory;
+  private final ArgoCDRepositoryMetadataCache metadataCache;
+
+  private final Cache<PostReceiveRepositoryHookEvent, ArgoCDPushContext> contexts = CacheBuilder.newBuilder()
+    .weakKeys()
+    // executors of a push run within seconds, this only limits the memory of unusually long running hooks
+    .expireAfterAccess(10, TimeUnit.MINUTES)
+    .removalListener((RemovalListener<PostReceiveRepositoryHookEvent, ArgoCDPushContext>) notification -> notification.getValue().close())
+    .build();
+
+  @Inject
+  public ArgoCDPushContextCache(RepositoryServiceFactory serviceFactory, ArgoCDRepositoryMetadataCache metadataCache) {
+    this.serviceFactory = serviceFactory;
+    this.metadataCache = metadataCache;
+  }
+
+  public ArgoCDPushContext get(Repository repository, PostReceiveRepositoryHookEvent event) {
+    try {
+      return contexts.get(event, () -> new ArgoCDPushContext(repository, event, serviceFactory, metadataCache));
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("could not create push context for repository " + repository, e.getCause());
+    }
+  }
+}
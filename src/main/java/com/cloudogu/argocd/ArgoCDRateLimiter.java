@@ -0,0 +1,145 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.net.URI;
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Token bucket per Argo CD host, which is shared by all delivery workers. Part of the bucket is reserved for
+ * deliveries of the default branch, so that feature branch traffic, e.g. during a mass import of repositories,
+ * cannot starve the notifications for production syncs.
+ */
+@Singleton
+public class ArgoCDRateLimiter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArgoCDRateLimiter.class);
+
+  private final ArgoCDConfigurationStore configurationStore;
+  private final ArgoCDMetrics metrics;
+  private final Clock clock;
+  private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+  @Inject
+  public ArgoCDRateLimiter(ArgoCDConfigurationStore configurationStore, ArgoCDMetrics metrics) {
+    this(configurationStore, metrics, Clock.systemUTC());
+  }
+
+  ArgoCDRateLimiter(ArgoCDConfigurationStore configurationStore, ArgoCDMetrics metrics, Clock clock) {
+    this.configurationStore = configurationStore;
+    this.metrics = metrics;
+    this.clock = clock;
+  }
+
+  /**
+   * Takes a token for the given url, if one is available. The caller never waits for a token, so that a throttled
+   * host does not block the delivery workers for all other hosts.
+   *
+   * @param priority <code>true</code> for deliveries of the default branch, which may use the reserved tokens
+   * @return 0 if a token has been taken, otherwise the time in milliseconds until the next token is available
+   */
+  public long tryAcquire(String url, boolean priority) {
+    ArgoCDConfiguration configuration = configurationStore.get();
+    if (configuration.getRateLimitPerSecond() <= 0) {
+      return 0;
+    }
+    String host = host(url);
+    long waitMillis = bucket(host).tryAcquire(clock.millis(), configuration, priority);
+    if (waitMillis > 0) {
+      LOG.trace("rate limit for argo cd host {} reached, next token in {}ms", host, waitMillis);
+      metrics.throttled(host, priority);
+    }
+    return waitMillis;
+  }
+
+  private Bucket bucket(String host) {
+    return buckets.computeIfAbsent(host, h -> {
+      Bucket bucket = new Bucket(clock.millis(), Math.max(1, configurationStore.get().getRateLimitBurst()));
+      metrics.rateLimitSaturation(h, bucket, b -> b.saturation(clock.millis(), configurationStore.get()));
+      return bucket;
+    });
+  }
+
+  /**
+   * Returns host and port of the url, so that different Argo CD instances on the same host have their own limits.
+   */
+  private static String host(String url) {
+    try {
+      String authority = URI.create(url).getAuthority();
+      return authority != null ? authority : url;
+    } catch (IllegalArgumentException e) {
+      return url;
+    }
+  }
+
+  static class Bucket {
+    private double tokens;
+    private long refilledAt;
+
+    Bucket(long now, double tokens) {
+      this.refilledAt = now;
+      this.tokens = tokens;
+    }
+
+    synchronized long tryAcquire(long now, ArgoCDConfiguration configuration, boolean priority) {
+      int burst = Math.max(1, configuration.getRateLimitBurst());
+      refill(now, configuration.getRateLimitPerSecond(), burst);
+      double required = 1 + (priority ? 0 : reserved(configuration, burst));
+      if (tokens >= required) {
+        tokens--;
+        return 0;
+      }
+      return Math.max(1, (long) Math.ceil((required - tokens) * 1000 / configuration.getRateLimitPerSecond()));
+    }
+
+    /**
+     * Returns the share of used tokens, 1 if the bucket is empty.
+     */
+    synchronized double saturation(long now, ArgoCDConfiguration configuration) {
+      if (configuration.getRateLimitPerSecond() <= 0) {
+        return 0;
+      }
+      int burst = Math.max(1, configuration.getRateLimitBurst());
+      refill(now, configuration.getRateLimitPerSecond(), burst);
+      return 1 - tokens / burst;
+    }
+
+    private void refill(long now, int perSecond, int burst) {
+      tokens = Math.min(burst, tokens + Math.max(0, now - refilledAt) * perSecond / 1000d);
+      refilledAt = now;
+    }
+
+    private static int reserved(ArgoCDConfiguration configuration, int burst) {
+      // at least one token of the burst remains usable for other branches
+      return Math.min(burst - 1, burst * configuration.getRateLimitPriorityReservePercent() / 100);
+    }
+  }
+}
@@ -0,0 +1,329 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.EagerSingleton;
+import sonia.scm.plugin.Extension;
+import sonia.scm.repository.Branch;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.Tag;
+import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.repository.api.RepositoryServiceFactory;
+import sonia.scm.web.security.AdministrationContext;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Finds pushes whose notification got lost, e.g. because SCM-Manager has been restarted with deliveries in the
+ * queue. After startup and in the configured interval the current branches and tags of every repository with a
+ * recorded {@link ArgoCDRefState} are compared with the last notified revisions. Only refs which differ are sent to
+ * Argo CD. Repositories are compared in parallel, limited by the configured concurrency.
+ */
+@Extension
+@EagerSingleton
+public class ArgoCDReconciler implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArgoCDReconciler.class);
+
+  private static final long TICK_MINUTES = 1;
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+  private final ArgoCDConfigurationStore configurationStore;
+  private final ArgoCDRefStateStore refStateStore;
+  private final RepositoryManager repositoryManager;
+  private final RepositoryServiceFactory serviceFactory;
+  private final ArgoCDRepositoryMetadataCache metadataCache;
+  private final ArgoCDBranchMatcherCache branchMatchers;
+  private final ArgoCDWebhookLookup webhookLookup;
+  private final Provider<ArgoCDDeliveryQueue> queue;
+  private final AdministrationContext administrationContext;
+  private final ScheduledExecutorService scheduler;
+  private final Executor workers;
+  private final Clock clock;
+
+  private long nextRun;
+
+  @Inject
+  public ArgoCDReconciler(ArgoCDConfigurationStore configurationStore,
+                          ArgoCDRefStateStore refStateStore,
+                          RepositoryManager repositoryManager,
+                          RepositoryServiceFactory serviceFactory,
+                          ArgoCDRepositoryMetadataCache metadataCache,
+                          ArgoCDBranchMatcherCache branchMatchers,
+                          ArgoCDWebhookLookup webhookLookup,
+                          Provider<ArgoCDDeliveryQueue> queue,
+                          AdministrationContext administrationContext) {
+    this(
+      configurationStore, refStateStore, repositoryManager, serviceFactory, metadataCache, branchMatchers, webhookLookup, queue, administrationContext,
+      Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("ArgoCDReconciler").setDaemon(true).build()),
+      Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("ArgoCDReconcile-%d").setDaemon(true).build()),
+      Clock.systemUTC()
+    );
+    // the first run is one tick after startup, to catch up on deliveries lost with the restart
+    scheduler.scheduleWithFixedDelay(this::tick, TICK_MINUTES, TICK_MINUTES, TimeUnit.MINUTES);
+  }
+
+  ArgoCDReconciler(ArgoCDConfigurationStore configurationStore,
+                   ArgoCDRefStateStore refStateStore,
+                   RepositoryManager repositoryManager,
+                   RepositoryServiceFactory serviceFactory,
+                   ArgoCDRepositoryMetadataCache metadataCache,
+                   ArgoCDBranchMatcherCache branchMatchers,
+                   ArgoCDWebhookLookup webhookLookup,
+                   Provider<ArgoCDDeliveryQueue> queue,
+                   AdministrationContext administrationContext,
+                   ScheduledExecutorService scheduler,
+                   Executor workers,
+                   Clock clock) {
+    this.configurationStore = configurationStore;
+    this.refStateStore = refStateStore;
+    this.repositoryManager = repositoryManager;
+    this.serviceFactory = serviceFactory;
+    this.metadataCache = metadataCache;
+    this.branchMatchers = branchMatchers;
+    this.webhookLookup = webhookLookup;
+    this.queue = queue;
+    this.administrationContext = administrationContext;
+    this.scheduler = scheduler;
+    this.workers = workers;
+    this.clock = clock;
+  }
+
+  @VisibleForTesting
+  void tick() {
+    int interval = configurationStore.get().getReconcileIntervalMinutes();
+    if (interval <= 0 || clock.millis() < nextRun) {
+      return;
+    }
+    nextRun = clock.millis() + TimeUnit.MINUTES.toMillis(interval);
+    try {
+      reconcileAll();
+    } catch (RuntimeException e) {
+      // a failed run must not cancel the schedule
+      LOG.warn("reconciliation of argo cd webhooks failed", e);
+    }
+  }
+
+  /**
+   * Compares all repositories with a recorded state and waits until all of them are done.
+   *
+   * @return number of queued deliveries
+   */
+  public int reconcileAll() {
+    Collection<String> repositoryIds = refStateStore.getRepositoryIds();
+    int concurrency = Math.max(1, configurationStore.get().getReconcileConcurrency());
+    Semaphore permits = new Semaphore(concurrency);
+    AtomicInteger deliveries = new AtomicInteger();
+    for (String repositoryId : repositoryIds) {
+      permits.acquireUninterruptibly();
+      try {
+        workers.execute(() -> {
+          try {
+            administrationContext.runAsAdmin(() -> {
+              Repository repository = repositoryManager.get(repositoryId);
+              if (repository == null) {
+                // the state has been deleted together with the repository
+                refStateStore.forget(repositoryId);
+              } else {
+                deliveries.addAndGet(reconcile(repository));
+              }
+            });
+          } catch (RuntimeException e) {
+            LOG.warn("could not reconcile argo cd webhooks of repository {}", repositoryId, e);
+          } finally {
+            permits.release();
+          }
+        });
+      } catch (RuntimeException e) {
+        permits.release();
+        throw e;
+      }
+    }
+    permits.acquireUninterruptibly(concurrency);
+    permits.release(concurrency);
+    if (deliveries.get() > 0) {
+      LOG.info("reconciliation queued {} argo cd deliveries for missed pushes", deliveries.get());
+    }
+    return deliveries.get();
+  }
+
+  /**
+   * Sends all refs of the repository which differ from the last notified revision to the currently configured
+   * webhooks. Snapshots of webhooks which are not configured anymore are removed.
+   *
+   * @return number of queued deliveries
+   */
+  int reconcile(Repository repository) {
+    ArgoCDRefState state = refStateStore.get(repository.getId()).orElse(null);
+    if (state == null || state.getSnapshots().isEmpty()) {
+      return 0;
+    }
+    Map<String, ArgoCDWebhook> webhooks = new HashMap<>();
+    webhookLookup.find(repository).forEach(webhook -> webhooks.putIfAbsent(webhook.getUrl(), webhook));
+    refStateStore.retain(repository.getId(), webhooks.keySet());
+    List<ArgoCDRefState.Snapshot> snapshots = state.getSnapshots().stream()
+      .filter(snapshot -> webhooks.containsKey(snapshot.getUrl()))
+      .collect(Collectors.toList());
+    if (snapshots.isEmpty()) {
+      return 0;
+    }
+    boolean withTags = snapshots.stream().anyMatch(snapshot -> webhooks.get(snapshot.getUrl()).isTags());
+    Map<String, String> current = new HashMap<>();
+    String defaultBranch = readRefs(repository, withTags, current);
+    int deliveries = 0;
+    for (ArgoCDRefState.Snapshot snapshot : snapshots) {
+      ArgoCDWebhook webhook = webhooks.get(snapshot.getUrl());
+      Map<String, String> refs = relevantRefs(current, webhook);
+      if (!snapshot.isInitialized()) {
+        refStateStore.initialize(repository.getId(), webhook.getUrl(), refs);
+        continue;
+      }
+      Map<String, String> changed = diff(snapshot.getRefs(), refs);
+      Map<String, String> ignored = new HashMap<>();
+      ArgoCDDelivery delivery = createDelivery(repository, webhook, defaultBranch, changed, ignored);
+      // refs which are not sent to this webhook are taken as notified, so that they are not compared again
+      refStateStore.notified(repository.getId(), webhook.getUrl(), ignored);
+      if (delivery != null) {
+        LOG.debug("found {} refs of repository {} which have not been sent to {}", changed.size(), repository, webhook.getUrl());
+        queue.get().offer(delivery);
+        deliveries++;
+      }
+    }
+    return deliveries;
+  }
+
+  private String readRefs(Repository repository, boolean withTags, Map<String, String> refs) {
+    String defaultBranch = null;
+    try (RepositoryService service = serviceFactory.create(repository)) {
+      for (Branch branch : service.getBranchesCommand().setDisableCache(true).getBranches().getBranches()) {
+        refs.put(ArgoCDRefState.branchRef(branch.getName()), branch.getRevision());
+        if (branch.isDefaultBranch()) {
+          defaultBranch = branch.getName();
+        }
+      }
+      if (withTags && service.isSupported(Command.TAGS)) {
+        for (Tag tag : service.getTagsCommand().setDisableCache(true).getTags().getTags()) {
+          refs.put(ArgoCDRefState.tagRef(tag.getName()), tag.getRevision());
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("could not read refs of repository " + repository, e);
+    }
+    return defaultBranch;
+  }
+
+  private Map<String, String> relevantRefs(Map<String, String> current, ArgoCDWebhook webhook) {
+    Map<String, String> refs = new HashMap<>();
+    current.forEach((ref, revision) -> {
+      if (ref.startsWith(ArgoCDRefState.BRANCH_PREFIX) || webhook.isTags()) {
+        refs.put(ref, revision);
+      }
+    });
+    return refs;
+  }
+
+  /**
+   * Returns the refs which have been changed or created (with their current revision) or deleted (with an empty
+   * revision) since the last notification.
+   */
+  private static Map<String, String> diff(Map<String, String> notified, Map<String, String> current) {
+    Map<String, String> changed = new HashMap<>();
+    current.forEach((ref, revision) -> {
+      if (!revision.equals(notified.get(ref))) {
+        changed.put(ref, revision);
+      }
+    });
+    notified.keySet().stream()
+      .filter(ref -> !current.containsKey(ref))
+      .forEach(ref -> changed.put(ref, ""));
+    return changed;
+  }
+
+  private ArgoCDDelivery createDelivery(Repository repository, ArgoCDWebhook webhook, String defaultBranch, Map<String, String> changed, Map<String, String> ignored) {
+    ArgoCDBranchMatcher matcher = branchMatchers.get(webhook);
+    Collection<String> branches = new ArrayList<>();
+    Collection<String> tags = new ArrayList<>();
+    Map<String, String> revisions = new HashMap<>();
+    changed.forEach((ref, revision) -> {
+      if (ref.startsWith(ArgoCDRefState.BRANCH_PREFIX)) {
+        String branch = ref.substring(ArgoCDRefState.BRANCH_PREFIX.length());
+        if (matcher.matches(branch, () -> defaultBranch)) {
+          branches.add(branch);
+          revisions.put(ref, revision);
+        } else {
+          ignored.put(ref, revision);
+        }
+      } else if (webhook.isTags()) {
+        tags.add(ref.substring(ArgoCDRefState.TAG_PREFIX.length()));
+        revisions.put(ref, revision);
+      }
+    });
+    if (branches.isEmpty() && tags.isEmpty()) {
+      return null;
+    }
+    ArgoCDRepositoryMetadata metadata = metadataCache.get(repository);
+    return new ArgoCDDelivery(webhook, repository, metadata.getHtmlUrl(), metadata.getDefaultBranch(), branches, tags, Map.of())
+      .withRevisions(revisions);
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdown();
+    // a running reconciliation does not start further repositories, those which are compared right now are finished
+    if (workers instanceof ExecutorService) {
+      ExecutorService executorService = (ExecutorService) workers;
+      executorService.shutdown();
+      try {
+        if (!executorService.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+          LOG.warn("reconciliation of argo cd webhooks did not finish within {} seconds", SHUTDOWN_TIMEOUT_SECONDS);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
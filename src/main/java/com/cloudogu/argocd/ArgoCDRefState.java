@@ -0,0 +1,113 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The last notified revision of each ref of a repository per Argo CD webhook url. It is compared with the current refs
+ * of the repository by the {@link ArgoCDReconciler} to find pushes whose notification got lost. Only the url of the
+ * webhook is stored, the reconciler uses the current configuration of the webhook.
+ */
+@XmlRootElement(name = "argocd-ref-state")
+@XmlAccessorType(XmlAccessType.FIELD)
+@Getter
+@NoArgsConstructor
+public class ArgoCDRefState {
+
+  static final String BRANCH_PREFIX = "refs/heads/";
+  static final String TAG_PREFIX = "refs/tags/";
+
+  @XmlElement(name = "webhook")
+  private List<Snapshot> snapshots = new ArrayList<>();
+
+  static String branchRef(String branch) {
+    return BRANCH_PREFIX + branch;
+  }
+
+  static String tagRef(String tag) {
+    return TAG_PREFIX + tag;
+  }
+
+  Optional<Snapshot> find(String url) {
+    return snapshots.stream().filter(snapshot -> url.equals(snapshot.getUrl())).findFirst();
+  }
+
+  /**
+   * Removes the snapshots of webhooks which are not configured anymore.
+   *
+   * @return <code>true</code> if a snapshot has been removed
+   */
+  boolean retain(Collection<String> urls) {
+    return snapshots.removeIf(snapshot -> !urls.contains(snapshot.getUrl()));
+  }
+
+  @XmlAccessorType(XmlAccessType.FIELD)
+  @Getter
+  @Setter
+  @NoArgsConstructor
+  public static class Snapshot {
+
+    private String url;
+    /**
+     * <code>false</code> until the reconciler has taken the current refs as starting point.
+     */
+    private boolean initialized;
+    private HashMap<String, String> refs = new HashMap<>();
+
+    Snapshot(String url) {
+      this.url = url;
+    }
+
+    /**
+     * Records the given revisions as notified. Refs with an empty revision have been deleted.
+     *
+     * @return <code>true</code> if a ref has been changed
+     */
+    boolean notified(Map<String, String> revisions) {
+      boolean changed = false;
+      for (Map.Entry<String, String> entry : revisions.entrySet()) {
+        if (entry.getValue().isEmpty()) {
+          changed |= refs.remove(entry.getKey()) != null;
+        } else {
+          changed |= !entry.getValue().equals(refs.put(entry.getKey(), entry.getValue()));
+        }
+      }
+      return changed;
+    }
+  }
+}
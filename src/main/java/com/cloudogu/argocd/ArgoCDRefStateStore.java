@@ -0,0 +1,247 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import com.google.common.util.concurrent.Striped;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.Repository;
+import sonia.scm.store.ConfigurationStore;
+import sonia.scm.store.ConfigurationStoreFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the {@link ArgoCDRefState} in a store of the repository, so that the state is removed together with the
+ * repository. The state is only recorded, if the reconciliation is enabled in the global configuration. The states
+ * are locked per repository and only written if they have been changed, because the state is updated by every push.
+ */
+@Singleton
+public class ArgoCDRefStateStore {
+
+  private static final String STORE_NAME = "argocd-ref-state";
+  private static final String INDEX_STORE_NAME = "argocd-ref-state-index";
+
+  private final ConfigurationStoreFactory storeFactory;
+  private final ArgoCDConfigurationStore configurationStore;
+  private final ConfigurationStore<ArgoCDRefStateIndex> indexStore;
+  private final Striped<Lock> locks = Striped.lock(64);
+  // repository id and url of the registered webhooks, so that a push does not have to read the state to register
+  private final Set<String> registered = ConcurrentHashMap.newKeySet();
+
+  @Inject
+  public ArgoCDRefStateStore(ConfigurationStoreFactory storeFactory, ArgoCDConfigurationStore configurationStore) {
+    this.storeFactory = storeFactory;
+    this.configurationStore = configurationStore;
+    this.indexStore = storeFactory.withType(ArgoCDRefStateIndex.class).withName(INDEX_STORE_NAME).build();
+  }
+
+  public boolean isEnabled() {
+    return configurationStore.get().getReconcileIntervalMinutes() > 0;
+  }
+
+  /**
+   * Remembers the webhook url for the reconciliation of the repository.
+   */
+  public void register(Repository repository, String url) {
+    String id = repository.getId();
+    if (registered.contains(registration(id, url))) {
+      return;
+    }
+    boolean created = locked(id, () -> {
+      ConfigurationStore<ArgoCDRefState> store = store(id);
+      ArgoCDRefState state = store.getOptional().orElseGet(ArgoCDRefState::new);
+      if (state.find(url).isPresent()) {
+        return false;
+      }
+      state.getSnapshots().add(new ArgoCDRefState.Snapshot(url));
+      store.set(state);
+      return true;
+    });
+    if (created) {
+      updateIndex(ids -> ids.add(id));
+    }
+    registered.add(registration(id, url));
+  }
+
+  /**
+   * Records the revisions of a successful delivery as notified.
+   */
+  public void notified(ArgoCDDelivery delivery) {
+    notified(delivery.getRepositoryId(), delivery.getWebhook().getUrl(), delivery.getRevisions());
+  }
+
+  /**
+   * Records the given revisions as notified for the webhook. Refs which do not need a notification (e.g. because of
+   * a path filter) are recorded with this method too, so that the reconciler does not send them later.
+   */
+  public void notified(String repositoryId, String url, Map<String, String> revisions) {
+    if (revisions.isEmpty()) {
+      return;
+    }
+    update(repositoryId, state -> state.find(url).map(snapshot -> snapshot.notified(revisions)).orElse(false));
+  }
+
+  /**
+   * Takes the given refs as starting point for the reconciliation of the webhook.
+   */
+  public void initialize(String repositoryId, String url, Map<String, String> revisions) {
+    update(repositoryId, state -> state.find(url).map(snapshot -> {
+      if (snapshot.isInitialized() && snapshot.getRefs().equals(revisions)) {
+        return false;
+      }
+      snapshot.getRefs().clear();
+      snapshot.getRefs().putAll(revisions);
+      snapshot.setInitialized(true);
+      return true;
+    }).orElse(false));
+  }
+
+  /**
+   * Removes the snapshots of all webhooks of the repository whose url is not in the given urls, e.g. because the
+   * webhook has been deleted or moved to another url.
+   */
+  public void retain(String repositoryId, Collection<String> urls) {
+    boolean empty = locked(repositoryId, () -> {
+      ConfigurationStore<ArgoCDRefState> store = store(repositoryId);
+      Optional<ArgoCDRefState> state = store.getOptional();
+      if (state.isEmpty()) {
+        return true;
+      }
+      if (state.get().retain(urls)) {
+        store.set(state.get());
+      }
+      return state.get().getSnapshots().isEmpty();
+    });
+    String prefix = registration(repositoryId, "");
+    registered.removeIf(key -> key.startsWith(prefix) && !urls.contains(key.substring(prefix.length())));
+    if (empty) {
+      forget(repositoryId);
+    }
+  }
+
+  public Optional<ArgoCDRefState> get(String repositoryId) {
+    return locked(repositoryId, () -> store(repositoryId).getOptional());
+  }
+
+  /**
+   * Returns the ids of all repositories with a recorded state.
+   */
+  public Collection<String> getRepositoryIds() {
+    synchronized (indexStore) {
+      return indexStore.getOptional().map(index -> List.copyOf(index.getRepositoryIds())).orElse(List.of());
+    }
+  }
+
+  /**
+   * Removes the repository from the index, e.g. because the repository has been deleted.
+   */
+  public void forget(String repositoryId) {
+    updateIndex(ids -> ids.remove(repositoryId));
+  }
+
+  /**
+   * Returns the pushed revision of the given refs. The head of a created or modified branch is the changeset of the
+   * branch which is no parent of another pushed changeset. Deleted refs get an empty revision.
+   */
+  static Map<String, String> pushedRevisions(ArgoCDPushContext context, Collection<String> createdOrModified, Collection<String> deletedOrClosed, Collection<String> tags) {
+    Map<String, String> revisions = new HashMap<>();
+    if (!createdOrModified.isEmpty()) {
+      Map<String, List<String>> changesets = new HashMap<>();
+      Map<String, Set<String>> parents = new HashMap<>();
+      for (Changeset changeset : context.getChangesets()) {
+        if (changeset.getBranches() == null) {
+          continue;
+        }
+        for (String branch : changeset.getBranches()) {
+          if (createdOrModified.contains(branch)) {
+            changesets.computeIfAbsent(branch, b -> new ArrayList<>()).add(changeset.getId());
+            if (changeset.getParents() != null) {
+              parents.computeIfAbsent(branch, b -> new HashSet<>()).addAll(changeset.getParents());
+            }
+          }
+        }
+      }
+      changesets.forEach((branch, ids) -> ids.stream()
+        .filter(id -> !parents.getOrDefault(branch, Set.of()).contains(id))
+        .findFirst()
+        .ifPresent(head -> revisions.put(ArgoCDRefState.branchRef(branch), head)));
+    }
+    deletedOrClosed.forEach(branch -> revisions.put(ArgoCDRefState.branchRef(branch), ""));
+    context.getCreatedTags().stream()
+      .filter(tag -> tags.contains(tag.getName()))
+      .forEach(tag -> revisions.put(ArgoCDRefState.tagRef(tag.getName()), tag.getRevision()));
+    context.getDeletedTags().stream()
+      .filter(tag -> tags.contains(tag.getName()))
+      .forEach(tag -> revisions.put(ArgoCDRefState.tagRef(tag.getName()), ""));
+    return revisions;
+  }
+
+  private void update(String repositoryId, Predicate<ArgoCDRefState> change) {
+    locked(repositoryId, () -> {
+      ConfigurationStore<ArgoCDRefState> store = store(repositoryId);
+      store.getOptional().filter(change).ifPresent(store::set);
+      return null;
+    });
+  }
+
+  private <T> T locked(String repositoryId, Supplier<T> action) {
+    Lock lock = locks.get(repositoryId);
+    lock.lock();
+    try {
+      return action.get();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void updateIndex(Predicate<Set<String>> change) {
+    synchronized (indexStore) {
+      ArgoCDRefStateIndex index = indexStore.getOptional().orElseGet(ArgoCDRefStateIndex::new);
+      if (change.test(index.getRepositoryIds())) {
+        indexStore.set(index);
+      }
+    }
+  }
+
+  private static String registration(String repositoryId, String url) {
+    return repositoryId + "\n" + url;
+  }
+
+  private ConfigurationStore<ArgoCDRefState> store(String repositoryId) {
+    return storeFactory.withType(ArgoCDRefState.class).withName(STORE_NAME).forRepository(repositoryId).build();
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses deliveries for the same webhook and repository, which arrive within the configured debounce window,
+ * into one trailing delivery. The window starts with the first delivery, so that a constant stream of pushes
+ * still leads to one notification per window.
+ */
+@Singleton
+public class ArgoCDRefreshDebouncer implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArgoCDRefreshDebouncer.class);
+
+  private final ArgoCDConfigurationStore configurationStore;
+  private final ArgoCDDeliveryQueue queue;
+  private final ScheduledExecutorService scheduler;
+
+  private final Map<ArgoCDDelivery.DeliveryKey, ArgoCDDelivery> pending = new ConcurrentHashMap<>();
+  private final AtomicLong suppressedRefreshes = new AtomicLong();
+
+  @Inject
+  public ArgoCDRefreshDebouncer(ArgoCDConfigurationStore configurationStore, ArgoCDDeliveryQueue queue) {
+    this(configurationStore, queue, Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("ArgoCDDebouncer-%d").setDaemon(true).build()
+    ));
+  }
+
+  ArgoCDRefreshDebouncer(ArgoCDConfigurationStore configurationStore, ArgoCDDeliveryQueue queue, ScheduledExecutorService scheduler) {
+    this.configurationStore = configurationStore;
+    this.queue = queue;
+    this.scheduler = scheduler;
+  }
+
+  public void submit(ArgoCDDelivery delivery) {
+    long window = configurationStore.get().getDebounceMillis();
+    if (window <= 0) {
+      queue.offer(delivery);
+      return;
+    }
+    ArgoCDDelivery.DeliveryKey key = delivery.getKey();
+    AtomicBoolean startWindow = new AtomicBoolean();
+    pending.compute(key, (k, queued) -> {
+      if (queued == null) {
+        startWindow.set(true);
+        return delivery;
+      }
+      ArgoCDDelivery merged = queued.merge(delivery);
+      long suppressed = queued.getRefCount() + delivery.getRefCount() - merged.getRefCount();
+      suppressedRefreshes.addAndGet(suppressed);
+      LOG.trace("debounced {} refreshes for repository {}", suppressed, delivery.getRepositoryName());
+      return merged;
+    });
+    if (startWindow.get()) {
+      scheduler.schedule(() -> flush(key), window, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void flush(ArgoCDDelivery.DeliveryKey key) {
+    ArgoCDDelivery delivery = pending.remove(key);
+    if (delivery != null) {
+      queue.offer(delivery);
+    }
+  }
+
+  public long getSuppressedRefreshes() {
+    return suppressedRefreshes.get();
+  }
+
+  public int getPendingDeliveries() {
+    return pending.size();
+  }
+
+  /**
+   * Cancels the delayed flushes and passes the pending deliveries to the queue right away, so that they are not
+   * offered to a queue which has been closed in the meantime.
+   */
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+    for (ArgoCDDelivery.DeliveryKey key : pending.keySet()) {
+      try {
+        flush(key);
+      } catch (RejectedExecutionException e) {
+        LOG.warn("could not send debounced argo cd delivery of repository {} to {}, queue is already closed",
+          key.getRepositoryId(), key.getWebhook().getUrl());
+      }
+    }
+  }
+}
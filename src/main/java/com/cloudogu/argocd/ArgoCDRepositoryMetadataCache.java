@@ -0,0 +1,145 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import com.github.legman.Subscribe;
+import sonia.scm.EagerSingleton;
+import sonia.scm.cache.Cache;
+import sonia.scm.cache.CacheManager;
+import sonia.scm.config.ScmConfiguration;
+import sonia.scm.config.ScmConfigurationChangedEvent;
+import sonia.scm.plugin.Extension;
+import sonia.scm.repository.Branch;
+import sonia.scm.repository.ClearRepositoryCacheEvent;
+import sonia.scm.repository.InternalRepositoryException;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryEvent;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.repository.api.RepositoryServiceFactory;
+import sonia.scm.repository.api.ScmProtocol;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Caches the default branch and the http url of repositories, so that a push does not have to list all branches
+ * of the repository to find the default branch.
+ */
+@Extension
+@EagerSingleton
+public class ArgoCDRepositoryMetadataCache {
+
+  static final String CACHE_NAME = "sonia.cache.argocd.metadata";
+
+  private final RepositoryServiceFactory serviceFactory;
+  private final Cache<String, ArgoCDRepositoryMetadata> cache;
+  private final ArgoCDMetrics metrics;
+
+  private volatile String baseUrl;
+
+  @Inject
+  public ArgoCDRepositoryMetadataCache(CacheManager cacheManager, RepositoryServiceFactory serviceFactory, ArgoCDMetrics metrics, ScmConfiguration configuration) {
+    this.serviceFactory = serviceFactory;
+    this.cache = cacheManager.getCache(CACHE_NAME);
+    this.metrics = metrics;
+    this.baseUrl = configuration.getBaseUrl();
+  }
+
+  /**
+   * Returns the metadata of the repository. The default branch of an empty repository is <code>null</code>; its
+   * metadata is not cached, because the first push creates a default branch without a repository event.
+   */
+  public ArgoCDRepositoryMetadata get(Repository repository) {
+    ArgoCDRepositoryMetadata metadata = cache.get(repository.getId());
+    if (metadata == null) {
+      metadata = load(repository);
+      if (metadata.getDefaultBranch() != null) {
+        cache.put(repository.getId(), metadata);
+      }
+    }
+    return metadata;
+  }
+
+  public void invalidate(Repository repository) {
+    cache.remove(repository.getId());
+  }
+
+  @Subscribe(async = false)
+  public void onRepositoryEvent(RepositoryEvent event) {
+    invalidate(event.getItem());
+  }
+
+  @Subscribe(async = false)
+  public void onClearRepositoryCache(ClearRepositoryCacheEvent event) {
+    invalidate(event.getRepository());
+  }
+
+  /**
+   * The http urls of all repositories are derived from the base url, so all of them are outdated if it changes.
+   */
+  @Subscribe(async = false)
+  public void onConfigurationChanged(ScmConfigurationChangedEvent event) {
+    String changedBaseUrl = event.getConfiguration().getBaseUrl();
+    if (!Objects.equals(baseUrl, changedBaseUrl)) {
+      baseUrl = changedBaseUrl;
+      cache.clear();
+    }
+  }
+
+  private ArgoCDRepositoryMetadata load(Repository repository) {
+    try (RepositoryService service = serviceFactory.create(repository)) {
+      long start = System.nanoTime();
+      String defaultBranch = findDefaultBranch(repository, service);
+      long defaultBranchFound = System.nanoTime();
+      metrics.lookup("defaultBranch", defaultBranchFound - start);
+      String htmlUrl = findHtmlUrl(repository, service);
+      metrics.lookup("htmlUrl", System.nanoTime() - defaultBranchFound);
+      return new ArgoCDRepositoryMetadata(defaultBranch, htmlUrl);
+    } catch (IOException e) {
+      throw new InternalRepositoryException(repository, "Failed to trigger ArgoCD Webhook", e);
+    }
+  }
+
+  private String findHtmlUrl(Repository repository, RepositoryService service) {
+    return service.getSupportedProtocols()
+      .filter(p -> "http".equals(p.getType()))
+      .findFirst()
+      .map(ScmProtocol::getUrl)
+      .orElseThrow(() -> new ArgoCDHookExecutionException("Http protocol not found for repository " + repository));
+  }
+
+  private String findDefaultBranch(Repository repository, RepositoryService service) throws IOException {
+    List<Branch> branches = service.getBranchesCommand().getBranches().getBranches();
+    if (branches.isEmpty()) {
+      return null;
+    }
+    return branches.stream()
+      .filter(Branch::isDefaultBranch)
+      .findFirst().map(Branch::getName)
+      .orElseThrow(() -> new InternalRepositoryException(repository, "Could not find default branch"));
+  }
+}
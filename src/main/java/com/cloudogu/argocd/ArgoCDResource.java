@@ -0,0 +1,363 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import de.otto.edison.hal.Link;
+import de.otto.edison.hal.Links;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.authz.UnauthenticatedException;
+import sonia.scm.api.v2.resources.ErrorDto;
+import sonia.scm.api.v2.resources.LinkBuilder;
+import sonia.scm.api.v2.resources.ScmPathInfoStore;
+import sonia.scm.config.ConfigurationPermissions;
+import sonia.scm.repository.NamespaceAndName;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryPermissions;
+import sonia.scm.web.VndMediaType;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static sonia.scm.ContextEntry.ContextBuilder.entity;
+import static sonia.scm.NotFoundException.notFound;
+
+@Path(ArgoCDResource.PATH)
+public class ArgoCDResource {
+
+  static final String PATH = "v2/argocd";
+
+  private final ArgoCDConfigurationStore configurationStore;
+  private final ArgoCDDeliveryQueue queue;
+  private final ArgoCDRefreshDebouncer debouncer;
+  private final ArgoCDDeadLetterStore deadLetterStore;
+  private final ArgoCDCircuitBreaker circuitBreaker;
+  private final ArgoCDHttpTransport transport;
+  private final ArgoCDDeliveryHistoryStore historyStore;
+  private final ArgoCDResync resync;
+  private final ArgoCDWebhookLookup webhookLookup;
+  private final RepositoryManager repositoryManager;
+  private final Provider<ScmPathInfoStore> scmPathInfoStore;
+
+  @Inject
+  public ArgoCDResource(ArgoCDConfigurationStore configurationStore,
+                        ArgoCDDeliveryQueue queue,
+                        ArgoCDRefreshDebouncer debouncer,
+                        ArgoCDDeadLetterStore deadLetterStore,
+                        ArgoCDCircuitBreaker circuitBreaker,
+                        ArgoCDHttpTransport transport,
+                        ArgoCDDeliveryHistoryStore historyStore,
+                        ArgoCDResync resync,
+                        ArgoCDWebhookLookup webhookLookup,
+                        RepositoryManager repositoryManager,
+                        Provider<ScmPathInfoStore> scmPathInfoStore) {
+    this.configurationStore = configurationStore;
+    this.queue = queue;
+    this.debouncer = debouncer;
+    this.deadLetterStore = deadLetterStore;
+    this.circuitBreaker = circuitBreaker;
+    this.transport = transport;
+    this.historyStore = historyStore;
+    this.resync = resync;
+    this.webhookLookup = webhookLookup;
+    this.repositoryManager = repositoryManager;
+    this.scmPathInfoStore = scmPathInfoStore;
+  }
+
+  @GET
+  @Path("status")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(summary = "Get delivery status", description = "Returns the state of the Argo CD delivery queue.", tags = "Argo CD Plugin")
+  @ApiResponse(
+    responseCode = "200",
+    description = "success",
+    content = @Content(
+      mediaType = MediaType.APPLICATION_JSON,
+      schema = @Schema(implementation = ArgoCDStatusDto.class)
+    )
+  )
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the privilege to read the configuration")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public ArgoCDStatusDto getStatus() {
+    ConfigurationPermissions.read(ArgoCDConfigurationStore.NAME).check();
+    Links.Builder links = Links.linkingTo()
+      .self(link("getStatus"))
+      .single(Link.link("deadLetters", link("getDeadLetters")));
+    if (ConfigurationPermissions.write(ArgoCDConfigurationStore.NAME).isPermitted()) {
+      links.single(Link.link("replayDeadLetters", link("replayDeadLetters")));
+      links.single(Link.link("clearDeadLetters", link("clearDeadLetters")));
+      links.single(Link.link("resync", link("startResync")));
+      links.single(Link.link("cancelResync", link("cancelResync")));
+    }
+    ArgoCDStatusDto dto = new ArgoCDStatusDto(links.build());
+    dto.setQueueDepth(queue.getDepth());
+    dto.setQueueCapacity(configurationStore.get().getQueueCapacity());
+    dto.setDroppedDeliveries(queue.getDroppedDeliveries());
+    dto.setDebouncedDeliveries(debouncer.getPendingDeliveries());
+    dto.setSuppressedRefreshes(debouncer.getSuppressedRefreshes());
+    dto.setDeadLetters(deadLetterStore.size());
+    dto.setEndpoints(
+      circuitBreaker.getCircuits().entrySet().stream()
+        .map(entry -> ArgoCDEndpointStateDto.of(entry.getKey(), entry.getValue()))
+        .collect(Collectors.toList())
+    );
+    dto.setConnectionPools(
+      transport.getPools().stream()
+        .map(ArgoCDConnectionPoolDto::of)
+        .collect(Collectors.toList())
+    );
+    resync.getProgress().map(ArgoCDResyncDto::of).ifPresent(dto::setResync);
+    return dto;
+  }
+
+  @GET
+  @Path("endpoints/{namespace}/{name}")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(summary = "Get endpoint states", description = "Returns the state of the circuit breaker for every url of the Argo CD webhooks of the repository.", tags = "Argo CD Plugin")
+  @ApiResponse(responseCode = "200", description = "success")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the privilege to modify the repository")
+  @ApiResponse(
+    responseCode = "404",
+    description = "not found, no repository with the specified namespace and name available",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public List<ArgoCDEndpointStateDto> getEndpointStates(@PathParam("namespace") String namespace, @PathParam("name") String name) {
+    Repository repository = getRepository(namespace, name);
+    // only the urls of the own webhooks are returned, which can be read with the same permission
+    RepositoryPermissions.modify(repository).check();
+    return webhookLookup.find(repository).stream()
+      .flatMap(webhook -> webhook.resolveTargets().stream())
+      .map(ArgoCDWebhook::getUrl)
+      .distinct()
+      .map(url -> circuitBreaker.getCircuit(url)
+        .map(circuit -> ArgoCDEndpointStateDto.of(url, circuit))
+        .orElse(new ArgoCDEndpointStateDto(url, ArgoCDCircuitBreaker.State.CLOSED, 0)))
+      .collect(Collectors.toList());
+  }
+
+  @GET
+  @Path("transport")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(summary = "Get transport", description = "Returns whether the pooled transport is used, which is required for the timeouts of a webhook.", tags = "Argo CD Plugin")
+  @ApiResponse(
+    responseCode = "200",
+    description = "success",
+    content = @Content(
+      mediaType = MediaType.APPLICATION_JSON,
+      schema = @Schema(implementation = ArgoCDTransportDto.class)
+    )
+  )
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public ArgoCDTransportDto getTransport() {
+    // the webhook form of every repository owner needs this, so it is not protected by the configuration permission
+    if (!SecurityUtils.getSubject().isAuthenticated()) {
+      throw new UnauthenticatedException("the transport is only available for authenticated users");
+    }
+    return new ArgoCDTransportDto(configurationStore.get().isPooledTransport());
+  }
+
+  @GET
+  @Path("history/{namespace}/{name}")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(summary = "Get delivery history", description = "Returns the recent Argo CD deliveries of a repository, newest first.", tags = "Argo CD Plugin")
+  @ApiResponse(responseCode = "200", description = "success")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the privilege to modify the repository")
+  @ApiResponse(
+    responseCode = "404",
+    description = "not found, no repository with the specified namespace and name available",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public List<ArgoCDDeliveryRecordDto> getHistory(@PathParam("namespace") String namespace, @PathParam("name") String name) {
+    Repository repository = getRepository(namespace, name);
+    // the history contains webhook urls and errors, so we require the same permission as for the webhook configuration
+    RepositoryPermissions.modify(repository).check();
+    return historyStore.get(repository.getId()).stream()
+      .map(ArgoCDDeliveryRecordDto::new)
+      .collect(Collectors.toList());
+  }
+
+  @GET
+  @Path("dead-letters")
+  @Produces(MediaType.APPLICATION_JSON)
+  @Operation(summary = "Get dead letters", description = "Returns all deliveries which failed permanently.", tags = "Argo CD Plugin")
+  @ApiResponse(responseCode = "200", description = "success")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the privilege to read the configuration")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public List<ArgoCDDeadLetterDto> getDeadLetters() {
+    ConfigurationPermissions.read(ArgoCDConfigurationStore.NAME).check();
+    return deadLetterStore.getAll().stream()
+      .map(ArgoCDDeadLetterDto::new)
+      .collect(Collectors.toList());
+  }
+
+  @POST
+  @Path("dead-letters/replay")
+  @Operation(summary = "Replay dead letters", description = "Queues all dead letters for a new delivery. Dead letters for the same webhook and repository are coalesced.", tags = "Argo CD Plugin")
+  @ApiResponse(responseCode = "204", description = "dead letters queued")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the privilege to modify the configuration")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public void replayDeadLetters() {
+    deadLetterStore.replay();
+  }
+
+  @DELETE
+  @Path("dead-letters")
+  @Operation(summary = "Clear dead letters", description = "Removes all dead letters without delivering them.", tags = "Argo CD Plugin")
+  @ApiResponse(responseCode = "204", description = "dead letters removed")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the privilege to modify the configuration")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public void clearDeadLetters() {
+    deadLetterStore.clear();
+  }
+
+  @POST
+  @Path("resync")
+  @Operation(summary = "Resync all repositories", description = "Notifies Argo CD about the default branch of every repository with an Argo CD webhook. The resync runs in the background, its progress is part of the status.", tags = "Argo CD Plugin")
+  @ApiResponse(responseCode = "204", description = "resync started or already running")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the privilege to modify the configuration")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public void startResync() {
+    resync.start();
+  }
+
+  @DELETE
+  @Path("resync")
+  @Operation(summary = "Cancel resync", description = "Stops the running resync. Deliveries which have been queued already are sent.", tags = "Argo CD Plugin")
+  @ApiResponse(responseCode = "204", description = "resync cancelled")
+  @ApiResponse(responseCode = "401", description = "not authenticated / invalid credentials")
+  @ApiResponse(responseCode = "403", description = "not authorized, the current user does not have the privilege to modify the configuration")
+  @ApiResponse(
+    responseCode = "500",
+    description = "internal server error",
+    content = @Content(
+      mediaType = VndMediaType.ERROR_TYPE,
+      schema = @Schema(implementation = ErrorDto.class)
+    )
+  )
+  public void cancelResync() {
+    resync.cancel();
+  }
+
+  private Repository getRepository(String namespace, String name) {
+    NamespaceAndName namespaceAndName = new NamespaceAndName(namespace, name);
+    Repository repository = repositoryManager.get(namespaceAndName);
+    if (repository == null) {
+      throw notFound(entity(namespaceAndName));
+    }
+    return repository;
+  }
+
+  private String link(String method) {
+    return new LinkBuilder(scmPathInfoStore.get().get(), ArgoCDResource.class)
+      .method(method)
+      .parameters()
+      .href();
+  }
+}
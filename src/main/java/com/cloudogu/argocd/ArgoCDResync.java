@@ -0,0 +1,317 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.config.ConfigurationPermissions;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.web.security.AdministrationContext;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.Closeable;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Notifies Argo CD about the default branch of every repository with an Argo CD webhook, e.g. after an upgrade or a
+ * disaster recovery of Argo CD. The repositories are read page by page and the webhook configuration of each
+ * repository only when it is processed, so that not all configurations are held in memory at once. Repositories are
+ * processed in parallel, limited by the reconcile concurrency, and the deliveries are sent by the delivery queue with
+ * its rate limits. Only one resync runs at a time.
+ */
+@Singleton
+public class ArgoCDResync implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArgoCDResync.class);
+
+  static final int PAGE_SIZE = 100;
+  private static final long QUEUE_WAIT_MILLIS = 100;
+
+  // a stable order, so that the pages do not overlap
+  private static final Comparator<Repository> BY_ID = Comparator.comparing(Repository::getId);
+
+  private final ArgoCDConfigurationStore configurationStore;
+  private final RepositoryManager repositoryManager;
+  private final ArgoCDWebhookLookup webhookLookup;
+  private final ArgoCDRepositoryMetadataCache metadataCache;
+  private final ArgoCDBranchMatcherCache branchMatchers;
+  private final ArgoCDDeliveryQueue queue;
+  private final AdministrationContext administrationContext;
+  private final Executor runner;
+  private final Executor workers;
+  private final Clock clock;
+
+  private Progress progress;
+
+  @Inject
+  public ArgoCDResync(ArgoCDConfigurationStore configurationStore,
+                      RepositoryManager repositoryManager,
+                      ArgoCDWebhookLookup webhookLookup,
+                      ArgoCDRepositoryMetadataCache metadataCache,
+                      ArgoCDBranchMatcherCache branchMatchers,
+                      ArgoCDDeliveryQueue queue,
+                      AdministrationContext administrationContext) {
+    this(
+      configurationStore, repositoryManager, webhookLookup, metadataCache, branchMatchers, queue, administrationContext,
+      Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("ArgoCDResync").setDaemon(true).build()),
+      Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("ArgoCDResync-%d").setDaemon(true).build()),
+      Clock.systemUTC()
+    );
+  }
+
+  ArgoCDResync(ArgoCDConfigurationStore configurationStore,
+               RepositoryManager repositoryManager,
+               ArgoCDWebhookLookup webhookLookup,
+               ArgoCDRepositoryMetadataCache metadataCache,
+               ArgoCDBranchMatcherCache branchMatchers,
+               ArgoCDDeliveryQueue queue,
+               AdministrationContext administrationContext,
+               Executor runner,
+               Executor workers,
+               Clock clock) {
+    this.configurationStore = configurationStore;
+    this.repositoryManager = repositoryManager;
+    this.webhookLookup = webhookLookup;
+    this.metadataCache = metadataCache;
+    this.branchMatchers = branchMatchers;
+    this.queue = queue;
+    this.administrationContext = administrationContext;
+    this.runner = runner;
+    this.workers = workers;
+    this.clock = clock;
+  }
+
+  /**
+   * Starts a resync of all repositories in the background. If a resync is running already, no other one is started.
+   *
+   * @return progress of the running resync
+   */
+  public synchronized Progress start() {
+    ConfigurationPermissions.write(ArgoCDConfigurationStore.NAME).check();
+    if (progress != null && progress.getState() == State.RUNNING) {
+      return progress;
+    }
+    Progress started = new Progress(clock.millis());
+    progress = started;
+    LOG.info("starting resync of all argo cd webhooks");
+    runner.execute(() -> run(started));
+    return started;
+  }
+
+  /**
+   * Stops the running resync after the repositories in progress. Deliveries which are queued already are sent.
+   */
+  public synchronized void cancel() {
+    ConfigurationPermissions.write(ArgoCDConfigurationStore.NAME).check();
+    if (progress != null) {
+      progress.cancelled = true;
+    }
+  }
+
+  /**
+   * Returns the progress of the running or the last resync.
+   */
+  public synchronized Optional<Progress> getProgress() {
+    return Optional.ofNullable(progress);
+  }
+
+  private void run(Progress progress) {
+    int concurrency = Math.max(1, configurationStore.get().getReconcileConcurrency());
+    Semaphore permits = new Semaphore(concurrency);
+    try {
+      int start = 0;
+      List<Repository> page;
+      do {
+        page = page(start);
+        for (Repository repository : page) {
+          if (progress.cancelled) {
+            break;
+          }
+          permits.acquire();
+          try {
+            workers.execute(() -> {
+              try {
+                administrationContext.runAsAdmin(() -> resync(repository, progress));
+              } catch (RuntimeException e) {
+                progress.failures.incrementAndGet();
+                LOG.warn("could not resync argo cd webhooks of repository {}", repository, e);
+              } finally {
+                progress.repositories.incrementAndGet();
+                permits.release();
+              }
+            });
+          } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+          }
+        }
+        start += PAGE_SIZE;
+      } while (page.size() == PAGE_SIZE && !progress.cancelled);
+      permits.acquire(concurrency);
+      progress.finish(progress.cancelled ? State.CANCELLED : State.DONE, clock.millis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      progress.finish(State.CANCELLED, clock.millis());
+    } catch (RuntimeException e) {
+      LOG.warn("resync of argo cd webhooks failed", e);
+      progress.finish(State.FAILED, clock.millis());
+    }
+    LOG.info(
+      "resync of argo cd webhooks {}, queued {} deliveries for {} repositories",
+      progress.getState(), progress.getDeliveries(), progress.getRepositories()
+    );
+  }
+
+  private List<Repository> page(int start) {
+    List<Repository> page = new ArrayList<>();
+    administrationContext.runAsAdmin(() -> page.addAll(repositoryManager.getAll(BY_ID, start, PAGE_SIZE)));
+    return page;
+  }
+
+  private void resync(Repository repository, Progress progress) {
+    if (!"git".equals(repository.getType())) {
+      return;
+    }
+    List<ArgoCDWebhook> webhooks = webhookLookup.find(repository);
+    if (webhooks.isEmpty()) {
+      return;
+    }
+    ArgoCDRepositoryMetadata metadata = metadataCache.get(repository);
+    String defaultBranch = metadata.getDefaultBranch();
+    if (defaultBranch == null) {
+      // an empty repository has nothing to sync
+      LOG.debug("skipping empty repository {}", repository);
+      return;
+    }
+    for (ArgoCDWebhook webhook : webhooks) {
+      if (!branchMatchers.get(webhook).matches(defaultBranch, () -> defaultBranch)) {
+        continue;
+      }
+      if (!awaitQueue(progress)) {
+        return;
+      }
+      queue.offer(new ArgoCDDelivery(webhook, repository, metadata.getHtmlUrl(), defaultBranch, List.of(defaultBranch)));
+      progress.deliveries.incrementAndGet();
+    }
+  }
+
+  /**
+   * Waits until the queue is at most half full. A full queue drops its oldest deliveries, which would drop the
+   * deliveries of pushes, too.
+   *
+   * @return {@code false}, if the resync has been cancelled while waiting
+   */
+  private boolean awaitQueue(Progress progress) {
+    while (queue.getDepth() >= Math.max(1, configurationStore.get().getQueueCapacity() / 2)) {
+      if (progress.cancelled) {
+        return false;
+      }
+      try {
+        Thread.sleep(QUEUE_WAIT_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return !progress.cancelled;
+  }
+
+  @Override
+  public void close() {
+    // the workers are shut down too, so that no repository of a running resync is sent after the shutdown
+    shutdown(runner);
+    shutdown(workers);
+  }
+
+  private static void shutdown(Executor executor) {
+    if (executor instanceof ExecutorService) {
+      ((ExecutorService) executor).shutdownNow();
+    }
+  }
+
+  public enum State {
+    RUNNING, DONE, CANCELLED, FAILED
+  }
+
+  public static class Progress {
+
+    private final long startedAt;
+    private final AtomicInteger repositories = new AtomicInteger();
+    private final AtomicInteger deliveries = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private volatile State state = State.RUNNING;
+    private volatile long finishedAt;
+    private volatile boolean cancelled;
+
+    Progress(long startedAt) {
+      this.startedAt = startedAt;
+    }
+
+    private void finish(State state, long finishedAt) {
+      this.finishedAt = finishedAt;
+      this.state = state;
+    }
+
+    public State getState() {
+      return state;
+    }
+
+    public long getStartedAt() {
+      return startedAt;
+    }
+
+    public long getFinishedAt() {
+      return finishedAt;
+    }
+
+    public int getRepositories() {
+      return repositories.get();
+    }
+
+    public int getDeliveries() {
+      return deliveries.get();
+    }
+
+    public int getFailures() {
+      return failures.get();
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+  }
+}
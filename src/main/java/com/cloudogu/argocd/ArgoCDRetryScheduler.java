@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules failed deliveries for another attempt with exponential backoff and jitter. Deliveries which fail more
+ * often than configured for the webhook are moved to the {@link ArgoCDDeadLetterStore}.
+ */
+@Singleton
+public class ArgoCDRetryScheduler implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArgoCDRetryScheduler.class);
+
+  private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  private final Provider<ArgoCDDeliveryQueue> queue;
+  private final ArgoCDDeadLetterStore deadLetterStore;
+  private final ScheduledExecutorService scheduler;
+
+  @Inject
+  public ArgoCDRetryScheduler(Provider<ArgoCDDeliveryQueue> queue, ArgoCDDeadLetterStore deadLetterStore) {
+    this(queue, deadLetterStore, Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("ArgoCDRetry-%d").setDaemon(true).build()
+    ));
+  }
+
+  ArgoCDRetryScheduler(Provider<ArgoCDDeliveryQueue> queue, ArgoCDDeadLetterStore deadLetterStore, ScheduledExecutorService scheduler) {
+    this.queue = queue;
+    this.deadLetterStore = deadLetterStore;
+    this.scheduler = scheduler;
+  }
+
+  public void failed(ArgoCDDelivery delivery, Exception error) {
+    failed(delivery, error, 0);
+  }
+
+  /**
+   * Schedules a retry of the failed delivery, which is not executed before the given minimal delay.
+   */
+  public void failed(ArgoCDDelivery delivery, Exception error, long minDelayMillis) {
+    if (delivery.getAttempt() >= delivery.getWebhook().getMaxRetries()) {
+      deadLetterStore.add(delivery, error);
+      return;
+    }
+    long backoff = Math.max(minDelayMillis, computeBackoff(delivery.getWebhook().getRetryBackoffMillis(), delivery.getAttempt()));
+    LOG.info("delivery of argo cd webhook for repository {} failed, retrying in {}ms: {}", delivery.getRepositoryName(), backoff, error.getMessage());
+    scheduler.schedule(() -> queue.get().offer(delivery.nextAttempt()), backoff, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Offers the delivery again after the given delay, without counting an attempt. This is used for deliveries which
+   * did not fail, but could not be sent within their deadline or the rate limit of their host.
+   */
+  public void deferred(ArgoCDDelivery delivery, long delayMillis) {
+    LOG.debug("deferring delivery of argo cd webhook for repository {} by {}ms", delivery.getRepositoryName(), delayMillis);
+    scheduler.schedule(() -> queue.get().offer(delivery), delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Exponential backoff with "equal jitter": half of the delay is fixed, the other half is random. This spreads
+   * retries of many failed deliveries, e.g. after a restart of Argo CD.
+   */
+  static long computeBackoff(long baseMillis, int attempt) {
+    long delay = Math.min(MAX_BACKOFF_MILLIS, Math.max(1, baseMillis) << Math.min(attempt, 20));
+    long half = delay / 2;
+    return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdown();
+  }
+}
@@ -32,13 +32,17 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.ToString;
+import lombok.With;
 import sonia.scm.webhook.SingleWebHookConfiguration;
 import sonia.scm.xml.XmlEncryptionAdapter;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+import java.util.ArrayList;
+import java.util.List;
 
 @XmlRootElement
 @XmlAccessorType(XmlAccessType.FIELD)
@@ -52,7 +56,65 @@ import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 public class ArgoCDWebhook implements SingleWebHookConfiguration {
   private HookImplementation hookImplementation = HookImplementation.GITHUB;
   private String url;
+  @With
   @XmlJavaTypeAdapter(XmlEncryptionAdapter.class)
   private String secret;
+  // We introduced this flag for testing environments
   private boolean insecure;
+  private boolean batch;
+  private int maxRetries = 3;
+  private long retryBackoffMillis = 1000;
+  @With
+  @XmlElement(name = "target")
+  private List<ArgoCDWebhookTarget> targets = new ArrayList<>();
+  private int targetConcurrency = 4;
+  private int connectTimeoutMillis;
+  private int readTimeoutMillis;
+  private long deadlineMillis;
+  private boolean precise;
+  private boolean tags;
+  private boolean defaultBranchOnly;
+  @XmlElement(name = "branchPattern")
+  private List<String> branchPatterns = new ArrayList<>();
+  @XmlElement(name = "includePath")
+  private List<String> includePaths = new ArrayList<>();
+  @XmlElement(name = "excludePath")
+  private List<String> excludePaths = new ArrayList<>();
+
+  public ArgoCDWebhook(HookImplementation hookImplementation, String url, String secret, boolean insecure) {
+    this.hookImplementation = hookImplementation;
+    this.url = url;
+    this.secret = secret;
+    this.insecure = insecure;
+  }
+
+  /**
+   * Returns one webhook for the url of this webhook and one for each additional target. The returned webhooks
+   * have no further targets and use the url and secret of their target.
+   */
+  List<ArgoCDWebhook> resolveTargets() {
+    if (targets == null || targets.isEmpty()) {
+      return List.of(this);
+    }
+    List<ArgoCDWebhook> webhooks = new ArrayList<>();
+    webhooks.add(forTarget(url, secret));
+    for (ArgoCDWebhookTarget target : targets) {
+      webhooks.add(forTarget(target.getUrl(), target.getSecret()));
+    }
+    return webhooks;
+  }
+
+  /**
+   * Returns <code>true</code> if only pushes touching files matching the include and exclude globs should be sent.
+   */
+  boolean hasPathFilter() {
+    return (includePaths != null && !includePaths.isEmpty()) || (excludePaths != null && !excludePaths.isEmpty());
+  }
+
+  private ArgoCDWebhook forTarget(String targetUrl, String targetSecret) {
+    ArgoCDWebhook webhook = withSecret(targetSecret);
+    webhook.setUrl(targetUrl);
+    webhook.setTargets(new ArrayList<>());
+    return webhook;
+  }
 }
@@ -24,114 +24,123 @@
 
 package com.cloudogu.argocd;
 
-import com.google.common.base.Strings;
-import org.apache.commons.codec.digest.HmacAlgorithms;
-import org.apache.commons.codec.digest.HmacUtils;
-import sonia.scm.net.ahc.AdvancedHttpClient;
-import sonia.scm.net.ahc.AdvancedHttpRequestWithBody;
-import sonia.scm.repository.Branch;
-import sonia.scm.repository.InternalRepositoryException;
-import sonia.scm.repository.PostReceiveRepositoryHookEvent;
 import sonia.scm.repository.Repository;
-import sonia.scm.repository.api.HookBranchProvider;
-import sonia.scm.repository.api.RepositoryService;
-import sonia.scm.repository.api.RepositoryServiceFactory;
-import sonia.scm.repository.api.ScmProtocol;
 import sonia.scm.webhook.WebHookExecutor;
 
-import javax.ws.rs.core.MediaType;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 public class ArgoCDWebhookExecutor implements WebHookExecutor {
 
-  private final AdvancedHttpClient client;
-
-  private final RepositoryServiceFactory serviceFactory;
+  private final ArgoCDRefreshDebouncer debouncer;
+  private final ArgoCDPathFilter pathFilter;
+  private final ArgoCDBranchMatcher branchMatcher;
+  private final ArgoCDChangesCollector changesCollector;
+  private final ArgoCDRefStateStore refStateStore;
+  private final ArgoCDDeliveryDeduplicator deduplicator;
   private final ArgoCDWebhook webhook;
+  private final ArgoCDPushContext context;
   private final Repository repository;
-  private final PostReceiveRepositoryHookEvent event;
+  private final AtomicBoolean released = new AtomicBoolean();
 
-  public ArgoCDWebhookExecutor(AdvancedHttpClient client,
-                               RepositoryServiceFactory serviceFactory,
+  public ArgoCDWebhookExecutor(ArgoCDRefreshDebouncer debouncer,
+                               ArgoCDPathFilter pathFilter,
+                               ArgoCDBranchMatcher branchMatcher,
+                               ArgoCDChangesCollector changesCollector,
+                               ArgoCDRefStateStore refStateStore,
+                               ArgoCDDeliveryDeduplicator deduplicator,
                                ArgoCDWebhook webhook,
-                               Repository repository,
-                               PostReceiveRepositoryHookEvent event) {
-    this.client = client;
-    this.serviceFactory = serviceFactory;
+                               ArgoCDPushContext context) {
+    this.debouncer = debouncer;
+    this.pathFilter = pathFilter;
+    this.branchMatcher = branchMatcher;
+    this.changesCollector = changesCollector;
+    this.refStateStore = refStateStore;
+    this.deduplicator = deduplicator;
     this.webhook = webhook;
-    this.repository = repository;
-    this.event = event;
+    this.context = context;
+    this.repository = context.getRepository();
+    // the context is retained on creation, because the executors of a push may run one after another
+    context.retain();
   }
 
   @Override
   public void run() {
-    HookBranchProvider branchProvider = event.getContext().getBranchProvider();
-    try (RepositoryService service = serviceFactory.create(repository)) {
-      String defaultBranch = findDefaultBranch(service);
-      String htmlUrl = findHtmlUrl(service);
-      switch (webhook.getHookImplementation()) {
-        case SCMM:
-          branchProvider.getCreatedOrModified().forEach(branch -> sendEvent(new ScmPushEventPayload(htmlUrl, defaultBranch.equals(branch), branch)));
-          branchProvider.getDeletedOrClosed().forEach(branch -> sendEvent(new ScmPushEventPayload(htmlUrl, defaultBranch.equals(branch), branch)));
-          break;
-        case GITHUB:
-          branchProvider.getCreatedOrModified().forEach(branch -> sendEvent(new GitHubPushEventPayloadDto(new GitHubRepository(htmlUrl, defaultBranch), branch)));
-          branchProvider.getDeletedOrClosed().forEach(branch -> sendEvent(new GitHubPushEventPayloadDto(new GitHubRepository(htmlUrl, defaultBranch), branch)));
-          break;
+    try {
+      execute();
+    } finally {
+      if (released.compareAndSet(false, true)) {
+        context.release();
       }
-  } catch (IOException e) {
-      throw new InternalRepositoryException(repository, "Failed to trigger ArgoCD Webhook", e);
     }
   }
 
-  private void sendEvent(PushEventPayload payload) {
-    try {
-      AdvancedHttpRequestWithBody request = client.post(webhook.getUrl());
-      webhook.getHookImplementation().setHeader(request);
-      request
-        .spanKind("Webhook")
-        .contentType(MediaType.APPLICATION_JSON)
-        .jsonContent(payload);
-
-      if (webhook.isInsecure()) {
-        // We introduced this flag for testing environments
-        request
-          .disableCertificateValidation(true)
-          .disableHostnameValidation(true);
-      }
-
-      if (!Strings.isNullOrEmpty(webhook.getSecret())) {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-          request.getContent().process(baos);
-          String digest = new HmacUtils(HmacAlgorithms.HMAC_SHA_1, webhook.getSecret()).hmacHex(baos.toByteArray());
-          webhook.getHookImplementation().setSecurityHeader(request, digest);
-        }
-      }
-
-      request
-        .request();
-
-    } catch (IOException e) {
-      throw new ArgoCDHookExecutionException(
-        "Could not execute ArgoCD webhook",
-        e
-      );
+  private void execute() {
+    Supplier<String> defaultBranch = () -> context.getMetadata().getDefaultBranch();
+    // branches are matched first, so that no changesets are read for branches which are not sent anyway
+    List<String> createdOrModified = matching(context.getCreatedOrModified(), defaultBranch);
+    List<String> deletedOrClosed = matching(context.getDeletedOrClosed(), defaultBranch);
+    Collection<String> branches = webhook.isBatch() ? new LinkedHashSet<>() : new ArrayList<>();
+    // deleted branches have no changesets, so only created or modified branches are filtered by path
+    branches.addAll(pathFilter.filter(webhook, context, createdOrModified));
+    branches.addAll(deletedOrClosed);
+    Collection<String> tags = collectTags();
+    Map<String, String> revisions = recordRefState(createdOrModified, branches, deletedOrClosed, tags);
+    if (branches.isEmpty() && tags.isEmpty()) {
+      return;
     }
+    Map<String, ArgoCDBranchChanges> changes = changesCollector.collect(webhook, context, branches);
+    ArgoCDRepositoryMetadata repositoryMetadata = context.getMetadata();
+    debouncer.submit(
+      new ArgoCDDelivery(webhook, repository, repositoryMetadata.getHtmlUrl(), repositoryMetadata.getDefaultBranch(), branches, tags, changes)
+        .withRevisions(revisions)
+    );
   }
 
-  private String findHtmlUrl(RepositoryService service) {
-    return service.getSupportedProtocols()
-      .filter(p -> "http".equals(p.getType()))
-      .findFirst()
-      .map(ScmProtocol::getUrl)
-      .orElseThrow(() -> new ArgoCDHookExecutionException("Http protocol not found for repository " + repository));
+  private List<String> matching(List<String> branches, Supplier<String> defaultBranch) {
+    return branches.stream()
+      .filter(branch -> branchMatcher.matches(branch, defaultBranch))
+      .collect(Collectors.toList());
   }
 
-  private String findDefaultBranch(RepositoryService service) throws IOException {
-    return service.getBranchesCommand().getBranches().getBranches().stream()
-      .filter(Branch::isDefaultBranch)
-      .findFirst().map(Branch::getName)
-      .orElseThrow(() -> new InternalRepositoryException(repository, "Could not find default branch"));
+  /**
+   * Records the webhook for the reconciliation and returns the pushed revisions of the refs to send. Branches
+   * dropped by the path filter need no notification, so they are recorded as notified right away. The revisions
+   * are needed by the reconciliation and the deduplication only, so they are not read otherwise.
+   */
+  private Map<String, String> recordRefState(List<String> createdOrModified, Collection<String> branches, List<String> deletedOrClosed, Collection<String> tags) {
+    if (!refStateStore.isEnabled() && !deduplicator.isEnabled()) {
+      return Map.of();
+    }
+    Map<String, String> revisions = ArgoCDRefStateStore.pushedRevisions(context, createdOrModified, deletedOrClosed, tags);
+    Map<String, String> skipped = new HashMap<>();
+    createdOrModified.stream()
+      .filter(branch -> !branches.contains(branch))
+      .map(ArgoCDRefState::branchRef)
+      .filter(revisions::containsKey)
+      .forEach(ref -> skipped.put(ref, revisions.remove(ref)));
+    if (!refStateStore.isEnabled()) {
+      return revisions;
+    }
+    refStateStore.register(repository, webhook.getUrl());
+    refStateStore.notified(repository.getId(), webhook.getUrl(), skipped);
+    return revisions;
+  }
+
+  private Collection<String> collectTags() {
+    if (!webhook.isTags()) {
+      return List.of();
+    }
+    Collection<String> tags = new LinkedHashSet<>();
+    context.getCreatedTags().forEach(tag -> tags.add(tag.getName()));
+    context.getDeletedTags().forEach(tag -> tags.add(tag.getName()));
+    return tags;
   }
 }
@@ -0,0 +1,55 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import sonia.scm.repository.Repository;
+import sonia.scm.webhook.WebHook;
+import sonia.scm.webhook.WebHookContext;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Reads the current Argo CD webhooks of a repository from the configuration of the webhook plugin.
+ */
+@Singleton
+public class ArgoCDWebhookLookup {
+
+  private final WebHookContext webHookContext;
+
+  @Inject
+  public ArgoCDWebhookLookup(WebHookContext webHookContext) {
+    this.webHookContext = webHookContext;
+  }
+
+  public List<ArgoCDWebhook> find(Repository repository) {
+    return webHookContext.getConfiguration(repository).getWebhooks().stream()
+      .map(WebHook::getConfiguration)
+      .filter(ArgoCDWebhook.class::isInstance)
+      .map(ArgoCDWebhook.class::cast)
+      .collect(Collectors.toList());
+  }
+}
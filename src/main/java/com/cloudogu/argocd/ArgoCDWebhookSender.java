@@ -0,0 +1,186 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteSource;
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import sonia.scm.net.ahc.AdvancedHttpClient;
+import sonia.scm.net.ahc.AdvancedHttpRequestWithBody;
+import sonia.scm.net.ahc.AdvancedHttpResponse;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ArgoCDWebhookSender {
+
+  private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+  private static final ThreadLocal<PayloadBuffer> BUFFER = ThreadLocal.withInitial(PayloadBuffer::new);
+
+  private final Provider<AdvancedHttpClient> clientProvider;
+  private final ArgoCDHttpTransport transport;
+  private final ArgoCDApplicationRefresher applicationRefresher;
+  private final ArgoCDConfigurationStore configurationStore;
+  private final ArgoCDPayloadEncoder encoder;
+  private final ArgoCDPayloadSigner signer;
+  private final ArgoCDMetrics metrics;
+
+  @Inject
+  public ArgoCDWebhookSender(Provider<AdvancedHttpClient> clientProvider,
+                             ArgoCDHttpTransport transport,
+                             ArgoCDApplicationRefresher applicationRefresher,
+                             ArgoCDConfigurationStore configurationStore,
+                             ArgoCDPayloadEncoder encoder,
+                             ArgoCDPayloadSigner signer,
+                             ArgoCDMetrics metrics) {
+    this.clientProvider = clientProvider;
+    this.transport = transport;
+    this.applicationRefresher = applicationRefresher;
+    this.configurationStore = configurationStore;
+    this.encoder = encoder;
+    this.signer = signer;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Sends the delivery with a single request, or refreshes the matching applications for webhooks using the api of
+   * Argo CD. Deliveries for multiple branches have to be split before.
+   *
+   * @return the http status of the response
+   * @throws ArgoCDHookExecutionException if the request failed or Argo CD did not respond with a successful status
+   */
+  public int send(ArgoCDDelivery delivery) {
+    if (!delivery.getWebhook().getHookImplementation().isPushEvent()) {
+      return applicationRefresher.refresh(delivery);
+    }
+    PayloadBuffer buffer = BUFFER.get();
+    try {
+      encoder.encode(delivery, buffer);
+      return send(delivery.getWebhook(), buffer.getBuffer(), buffer.size());
+    } finally {
+      buffer.release();
+    }
+  }
+
+  /**
+   * Encodes the payload of the delivery, so that it can be sent to multiple targets with
+   * {@link #send(ArgoCDWebhook, byte[], int)}.
+   */
+  public byte[] encode(ArgoCDDelivery delivery) {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    encoder.encode(delivery, payload);
+    return payload.toByteArray();
+  }
+
+  /**
+   * Sends the first <code>length</code> bytes of the given payload to the webhook.
+   *
+   * @return the http status of the response
+   * @throws ArgoCDHookExecutionException if the request failed or Argo CD did not respond with a successful status
+   */
+  public int send(ArgoCDWebhook webhook, byte[] payload, int length) {
+    Map<String, String> headers = new LinkedHashMap<>();
+    webhook.getHookImplementation().setHeader(headers::put);
+    // exactly the signed bytes are sent
+    if (!Strings.isNullOrEmpty(webhook.getSecret())) {
+      webhook.getHookImplementation().setSecurityHeader(
+        headers::put,
+        algorithm -> sign(webhook, algorithm, payload, length)
+      );
+    }
+    metrics.payload(webhook.getHookImplementation(), length);
+
+    long start = System.nanoTime();
+    try {
+      int status;
+      if (configurationStore.get().isPooledTransport()) {
+        headers.put("Content-Type", MediaType.APPLICATION_JSON);
+        status = transport.post(webhook, headers, payload, length);
+      } else {
+        status = post(webhook, headers, payload, length);
+      }
+      boolean success = status >= 200 && status < 300;
+      metrics.request(webhook, String.valueOf(status), success, System.nanoTime() - start);
+      if (!success) {
+        throw new ArgoCDHookExecutionException("ArgoCD webhook responded with status " + status, status);
+      }
+      return status;
+    } catch (IOException e) {
+      metrics.request(webhook, ArgoCDMetrics.STATUS_IO_ERROR, false, System.nanoTime() - start);
+      throw new ArgoCDHookExecutionException(
+        "Could not execute ArgoCD webhook",
+        e
+      );
+    }
+  }
+
+  private String sign(ArgoCDWebhook webhook, HmacAlgorithms algorithm, byte[] payload, int length) {
+    long start = System.nanoTime();
+    String digest = signer.sign(algorithm, webhook.getSecret(), payload, length);
+    metrics.signature(algorithm.getName(), System.nanoTime() - start);
+    return digest;
+  }
+
+  private int post(ArgoCDWebhook webhook, Map<String, String> headers, byte[] payload, int length) throws IOException {
+    AdvancedHttpRequestWithBody request = clientProvider.get().post(webhook.getUrl());
+    headers.forEach(request::header);
+    request
+      .spanKind("Webhook")
+      .contentType(MediaType.APPLICATION_JSON);
+
+    if (webhook.isInsecure()) {
+      request
+        .disableCertificateValidation(true)
+        .disableHostnameValidation(true);
+    }
+
+    request.rawContent(ByteSource.wrap(payload).slice(0, length));
+    AdvancedHttpResponse response = request.request();
+    return response.getStatus();
+  }
+
+  /**
+   * Reusable per thread buffer for the serialized payload. The buffer is only valid until the request has been sent.
+   */
+  private static class PayloadBuffer extends ByteArrayOutputStream {
+
+    byte[] getBuffer() {
+      return buf;
+    }
+
+    void release() {
+      reset();
+      if (buf.length > MAX_RETAINED_BUFFER_SIZE) {
+        BUFFER.remove();
+      }
+    }
+  }
+}
@@ -25,28 +25,45 @@
 package com.cloudogu.argocd;
 
 import org.apache.commons.lang.StringUtils;
-import sonia.scm.net.ahc.AdvancedHttpClient;
 import sonia.scm.plugin.Extension;
 import sonia.scm.repository.PostReceiveRepositoryHookEvent;
 import sonia.scm.repository.Repository;
-import sonia.scm.repository.api.RepositoryServiceFactory;
 import sonia.scm.webhook.WebHookExecutor;
 import sonia.scm.webhook.WebHookSpecification;
 
 import javax.inject.Inject;
-import javax.inject.Provider;
+import java.util.stream.Collectors;
 
 @Extension
 public class ArgoCDWebhookSpecification implements WebHookSpecification<ArgoCDWebhook> {
 
   public static final String DUMMY_SECRET = "__DUMMY__";
-  private final Provider<AdvancedHttpClient> clientProvider;
-  private final RepositoryServiceFactory serviceFactory;
+  private final ArgoCDPushContextCache pushContexts;
+  private final ArgoCDRefreshDebouncer debouncer;
+  private final ArgoCDPayloadSigner signer;
+  private final ArgoCDPathFilter pathFilter;
+  private final ArgoCDBranchMatcherCache branchMatchers;
+  private final ArgoCDChangesCollector changesCollector;
+  private final ArgoCDRefStateStore refStateStore;
+  private final ArgoCDDeliveryDeduplicator deduplicator;
 
   @Inject
-  public ArgoCDWebhookSpecification(Provider<AdvancedHttpClient> clientProvider,  RepositoryServiceFactory serviceFactory) {
-    this.clientProvider = clientProvider;
-    this.serviceFactory = serviceFactory;
+  public ArgoCDWebhookSpecification(ArgoCDPushContextCache pushContexts,
+                                    ArgoCDRefreshDebouncer debouncer,
+                                    ArgoCDPayloadSigner signer,
+                                    ArgoCDPathFilter pathFilter,
+                                    ArgoCDBranchMatcherCache branchMatchers,
+                                    ArgoCDChangesCollector changesCollector,
+                                    ArgoCDRefStateStore refStateStore,
+                                    ArgoCDDeliveryDeduplicator deduplicator) {
+    this.pushContexts = pushContexts;
+    this.debouncer = debouncer;
+    this.signer = signer;
+    this.pathFilter = pathFilter;
+    this.branchMatchers = branchMatchers;
+    this.changesCollector = changesCollector;
+    this.refStateStore = refStateStore;
+    this.deduplicator = deduplicator;
   }
 
   @Override
@@ -61,22 +78,57 @@ public class ArgoCDWebhookSpecification implements WebHookSpecification<ArgoCDWe
 
   @Override
   public WebHookExecutor createExecutor(ArgoCDWebhook webHook, Repository repository, PostReceiveRepositoryHookEvent event) {
-    return new ArgoCDWebhookExecutor(clientProvider.get(), serviceFactory, webHook, repository, event);
+    // all argo cd webhooks of the repository share the values read from the push
+    return new ArgoCDWebhookExecutor(
+      debouncer, pathFilter, branchMatchers.get(webHook), changesCollector, refStateStore, deduplicator, webHook, pushContexts.get(repository, event)
+    );
   }
 
   @Override
   public ArgoCDWebhook mapToDto(ArgoCDWebhook configuration) {
+    ArgoCDWebhook dto = configuration;
+    if (configuration.getTargets() != null && !configuration.getTargets().isEmpty()) {
+      dto = dto.withTargets(
+        configuration.getTargets().stream()
+          .map(target -> StringUtils.isEmpty(target.getSecret()) ? target : target.withSecret(DUMMY_SECRET))
+          .collect(Collectors.toList())
+      );
+    }
     if (StringUtils.isEmpty(configuration.getSecret())) {
-      return configuration;
+      return dto;
     } else {
-      return new ArgoCDWebhook(configuration.getHookImplementation(), configuration.getUrl(), DUMMY_SECRET, configuration.isInsecure());
+      return dto.withSecret(DUMMY_SECRET);
     }
   }
 
   @Override
   public void updateBeforeStore(ArgoCDWebhook oldConfiguration, ArgoCDWebhook newConfiguration) {
-    if (DUMMY_SECRET.equals(newConfiguration.getSecret())) {
-      newConfiguration.setSecret(oldConfiguration.getSecret());
+    newConfiguration.setSecret(restoreSecret(oldConfiguration.getSecret(), newConfiguration.getSecret()));
+    if (newConfiguration.getTargets() != null) {
+      for (ArgoCDWebhookTarget target : newConfiguration.getTargets()) {
+        target.setSecret(restoreSecret(findTargetSecret(oldConfiguration, target.getUrl()), target.getSecret()));
+      }
+    }
+  }
+
+  private String restoreSecret(String oldSecret, String newSecret) {
+    if (DUMMY_SECRET.equals(newSecret)) {
+      return oldSecret;
+    }
+    if (!StringUtils.isEmpty(oldSecret) && !oldSecret.equals(newSecret)) {
+      signer.invalidate(oldSecret);
+    }
+    return newSecret;
+  }
+
+  private String findTargetSecret(ArgoCDWebhook configuration, String url) {
+    if (configuration.getTargets() == null) {
+      return null;
     }
+    return configuration.getTargets().stream()
+      .filter(target -> target.getUrl() != null && target.getUrl().equals(url))
+      .map(ArgoCDWebhookTarget::getSecret)
+      .findFirst()
+      .orElse(null);
   }
 }
@@ -24,6 +24,7 @@
 
 package com.cloudogu.argocd;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
@@ -34,19 +35,46 @@ import java.util.List;
 
 /*
  * We use the GitHub Push Event instead of implementing our own webhook event definition into ArgoCD.
- * We do not send information like the changed files or revisions on purpose.
+ * By default we do not send information like the changed files or revisions on purpose.
  * ArgoCD assumes if nothing has been sent that it must refresh all related cluster resources for that repository which is exactly what we want.
+ * Only for webhooks in precise mode the commits with their changed paths and the revisions before and after the push are sent,
+ * so that ArgoCD can skip applications whose manifest-generate-paths are not affected.
  */
 @Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class GitHubPushEventPayloadDto implements PushEventPayload {
   private final GitHubRepository repository;
-  private final List<String> commits;
+  private final String before;
+  private final String after;
+  private final List<GitHubCommit> commits;
   private final String ref;
 
   public GitHubPushEventPayloadDto(GitHubRepository repository, String branch) {
+    this(repository, branch, null);
+  }
+
+  public GitHubPushEventPayloadDto(GitHubRepository repository, String branch, ArgoCDBranchChanges changes) {
+    this("refs/heads/" + branch, repository, changes);
+  }
+
+  private GitHubPushEventPayloadDto(String ref, GitHubRepository repository, ArgoCDBranchChanges changes) {
     this.repository = repository;
-    this.ref =  "refs/heads/" + branch;
+    this.ref = ref;
     this.commits = new ArrayList<>();
+    if (changes == null) {
+      this.before = null;
+      this.after = null;
+    } else {
+      this.before = changes.getBefore();
+      this.after = changes.getAfter();
+      changes.getCommits().forEach(commit -> commits.add(
+        new GitHubCommit(commit.getId(), commit.getAdded(), commit.getModified(), commit.getRemoved())
+      ));
+    }
+  }
+
+  public static GitHubPushEventPayloadDto forTag(GitHubRepository repository, String tag) {
+    return new GitHubPushEventPayloadDto("refs/tags/" + tag, repository, null);
   }
 }
 
@@ -59,3 +87,11 @@ class GitHubRepository {
   private String defaultBranch;
 }
 
+@AllArgsConstructor
+@Getter
+class GitHubCommit {
+  private String id;
+  private List<String> added;
+  private List<String> modified;
+  private List<String> removed;
+}
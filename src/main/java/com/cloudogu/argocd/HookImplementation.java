@@ -24,25 +24,45 @@
 
 package com.cloudogu.argocd;
 
-import sonia.scm.net.ahc.BaseHttpRequest;
+import org.apache.commons.codec.digest.HmacAlgorithms;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 enum HookImplementation {
   SCMM,
-  GITHUB;
+  GITHUB,
+  /**
+   * Refreshes the matching applications with the rest api of Argo CD instead of sending a push event. The url of the
+   * webhook is the url of the Argo CD server and the secret is the api token.
+   */
+  API;
+
+  /**
+   * Returns <code>true</code> if the webhook sends a push event payload to the webhook endpoint of Argo CD.
+   */
+  boolean isPushEvent() {
+    return this != API;
+  }
 
-  void setHeader(BaseHttpRequest<?> request) {
+  void setHeader(BiConsumer<String, String> header) {
     if (this == SCMM) {
-      request.header("X-SCM-PushEvent", "Push");
+      header.accept("X-SCM-PushEvent", "Push");
     } else {
-      request.header("X-Github-Event", "push");
+      header.accept("X-Github-Event", "push");
     }
   }
 
-  public void setSecurityHeader(BaseHttpRequest<?> request, String digest) {
+  /**
+   * Sets the signature headers. GitHub sends the legacy sha1 signature next to the sha256 one, so we do the same
+   * to support old and new Argo CD versions.
+   */
+  public void setSecurityHeader(BiConsumer<String, String> header, Function<HmacAlgorithms, String> digest) {
     if (this == SCMM) {
-      request.header("X-SCM-Signature", "sha1=" + digest);
+      header.accept("X-SCM-Signature", "sha1=" + digest.apply(HmacAlgorithms.HMAC_SHA_1));
     } else {
-      request.header("X-Hub-Signature", "sha1=" + digest);
+      header.accept("X-Hub-Signature", "sha1=" + digest.apply(HmacAlgorithms.HMAC_SHA_1));
+      header.accept("X-Hub-Signature-256", "sha256=" + digest.apply(HmacAlgorithms.HMAC_SHA_256));
     }
   }
 }
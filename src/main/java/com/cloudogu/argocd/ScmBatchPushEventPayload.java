@@ -0,0 +1,47 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import lombok.Getter;
+
+import javax.xml.bind.annotation.XmlElement;
+import java.util.List;
+
+/*
+ * Batched variant of the SCM-Manager push event, used if the webhook is configured to batch notifications.
+ * All branches of a single push are sent with one request, so that Argo CD refreshes the repository only once.
+ */
+@Getter
+public class ScmBatchPushEventPayload implements PushEventPayload {
+  @XmlElement(name = "html_url")
+  private String htmlUrl;
+  @XmlElement(name = "branches")
+  private List<ScmPushEventPayload.WebhookBranch> branches;
+
+  public ScmBatchPushEventPayload(String htmlUrl, List<ScmPushEventPayload.WebhookBranch> branches) {
+    this.htmlUrl = htmlUrl;
+    this.branches = branches;
+  }
+}
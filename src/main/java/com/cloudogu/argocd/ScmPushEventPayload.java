@@ -52,7 +52,7 @@ public class ScmPushEventPayload implements PushEventPayload {
   @AllArgsConstructor
   @NoArgsConstructor
   @Getter
-  public class WebhookBranch{
+  public static class WebhookBranch {
     @XmlElement(name = "default_branch")
     private boolean defaultBranch;
     @XmlElement(name = "name")
@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import React, { FC, useEffect, useState } from "react";
+import { useTranslation } from "react-i18next";
+import { useRouteMatch } from "react-router-dom";
+import { apiClient } from "@scm-manager/ui-api";
+import { DateFromNow, ErrorNotification, Loading } from "@scm-manager/ui-components";
+import { Button } from "@scm-manager/ui-buttons";
+
+type DeliveryRecord = {
+  timestamp: string;
+  url: string;
+  branches: string[];
+  tags: string[];
+  payloadType: string;
+  duration: number;
+  status: number;
+  attempt: number;
+  error?: string;
+};
+
+const HistoryTable: FC<{ namespace: string; name: string; urls: string[] }> = ({ namespace, name, urls }) => {
+  const [t] = useTranslation("plugins");
+  const [records, setRecords] = useState<DeliveryRecord[]>();
+  const [error, setError] = useState<Error>();
+
+  useEffect(() => {
+    apiClient
+      .get(`/argocd/history/${encodeURIComponent(namespace)}/${encodeURIComponent(name)}`)
+      .then(response => response.json())
+      .then((all: DeliveryRecord[]) => setRecords(all.filter(record => urls.includes(record.url))))
+      .catch(setError);
+    // the urls are only used to filter the records of this webhook
+    // eslint-disable-next-line react-hooks/exhaustive-deps
+  }, [namespace, name]);
+
+  if (error) {
+    return <ErrorNotification error={error} />;
+  }
+  if (!records) {
+    return <Loading />;
+  }
+  if (records.length === 0) {
+    return <p>{t("scm-argocd-plugin.history.empty")}</p>;
+  }
+
+  return (
+    <table className="table is-fullwidth is-narrow">
+      <thead>
+        <tr>
+          <th>{t("scm-argocd-plugin.history.timestamp")}</th>
+          <th>{t("scm-argocd-plugin.history.branches")}</th>
+          <th>{t("scm-argocd-plugin.history.payloadType")}</th>
+          <th>{t("scm-argocd-plugin.history.duration")}</th>
+          <th>{t("scm-argocd-plugin.history.status")}</th>
+        </tr>
+      </thead>
+      <tbody>
+        {records.map(record => (
+          <tr key={`${record.timestamp}-${record.url}-${record.branches.join()}`} title={record.url}>
+            <td>
+              <DateFromNow date={record.timestamp} />
+            </td>
+            <td>{[...record.branches, ...record.tags].join(", ")}</td>
+            <td>{record.payloadType}</td>
+            <td>{record.duration} ms</td>
+            <td className={record.error ? "has-text-danger" : undefined} title={record.error}>
+              {record.status > 0 ? record.status : t("scm-argocd-plugin.history.noResponse")}
+              {record.attempt > 0 ? ` (${t("scm-argocd-plugin.history.attempt", { attempt: record.attempt })})` : null}
+            </td>
+          </tr>
+        ))}
+      </tbody>
+    </table>
+  );
+};
+
+const ArgoCDDeliveryHistory: FC<{ urls: string[] }> = ({ urls }) => {
+  const [t] = useTranslation("plugins");
+  const [open, setOpen] = useState(false);
+  const match = useRouteMatch<{ namespace: string; name: string }>("/repo/:namespace/:name");
+
+  // the history is kept per repository, so it is not available for global webhooks
+  if (!match) {
+    return null;
+  }
+
+  return (
+    <div className="mt-2">
+      <Button className="is-small" onClick={() => setOpen(!open)}>
+        {t(open ? "scm-argocd-plugin.history.hide" : "scm-argocd-plugin.history.show")}
+      </Button>
+      {open ? <HistoryTable namespace={match.params.namespace} name={match.params.name} urls={urls} /> : null}
+    </div>
+  );
+};
+
+export default ArgoCDDeliveryHistory;
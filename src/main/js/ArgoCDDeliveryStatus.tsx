@@ -0,0 +1,191 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import React, { FC, useCallback, useEffect, useState } from "react";
+import { useTranslation } from "react-i18next";
+import { apiClient } from "@scm-manager/ui-api";
+import { HalRepresentation, Link } from "@scm-manager/ui-types";
+import { ErrorNotification, Loading } from "@scm-manager/ui-components";
+import { Button } from "@scm-manager/ui-buttons";
+import PrimaryInformation from "./PrimaryInformation";
+
+type DeliveryStatus = HalRepresentation & {
+  queueDepth: number;
+  queueCapacity: number;
+  droppedDeliveries: number;
+  debouncedDeliveries: number;
+  suppressedRefreshes: number;
+  deadLetters: number;
+  endpoints: {
+    url: string;
+    state: string;
+    consecutiveFailures: number;
+  }[];
+  connectionPools: {
+    endpoint: string;
+    http2: boolean;
+    maxConnections: number;
+    activeRequests: number;
+    totalRequests: number;
+  }[];
+  resync?: {
+    state: "RUNNING" | "DONE" | "CANCELLED" | "FAILED";
+    startedAt: number;
+    finishedAt: number;
+    repositories: number;
+    deliveries: number;
+    failures: number;
+  };
+};
+
+const RESYNC_POLL_MILLIS = 2000;
+
+const StatusRow: FC<{ label: string }> = ({ label, children }) => (
+  <tr>
+    <td>
+      <PrimaryInformation>{label}</PrimaryInformation>
+    </td>
+    <td>{children}</td>
+  </tr>
+);
+
+const ArgoCDDeliveryStatus: FC<{ link: string }> = ({ link }) => {
+  const [t] = useTranslation("plugins");
+  const [status, setStatus] = useState<DeliveryStatus>();
+  const [error, setError] = useState<Error>();
+
+  const fetchStatus = useCallback(() => {
+    apiClient
+      .get(link)
+      .then(response => response.json())
+      .then(setStatus)
+      .catch(setError);
+  }, [link]);
+
+  useEffect(fetchStatus, [fetchStatus]);
+
+  const resyncRunning = status?.resync?.state === "RUNNING";
+  useEffect(() => {
+    if (!resyncRunning) {
+      return;
+    }
+    const timer = setInterval(fetchStatus, RESYNC_POLL_MILLIS);
+    return () => clearInterval(timer);
+  }, [resyncRunning, fetchStatus]);
+
+  if (error) {
+    return <ErrorNotification error={error} />;
+  }
+  if (!status) {
+    return <Loading />;
+  }
+
+  const replayLink = (status._links.replayDeadLetters as Link)?.href;
+  const clearLink = (status._links.clearDeadLetters as Link)?.href;
+  const resyncLink = (status._links.resync as Link)?.href;
+  const cancelResyncLink = (status._links.cancelResync as Link)?.href;
+
+  const replay = () =>
+    apiClient
+      .post(replayLink, {})
+      .then(fetchStatus)
+      .catch(setError);
+  const clear = () =>
+    apiClient
+      .delete(clearLink)
+      .then(fetchStatus)
+      .catch(setError);
+  const startResync = () =>
+    apiClient
+      .post(resyncLink, {})
+      .then(fetchStatus)
+      .catch(setError);
+  const cancelResync = () =>
+    apiClient
+      .delete(cancelResyncLink)
+      .then(fetchStatus)
+      .catch(setError);
+
+  return (
+    <>
+      <table className="table">
+        <tbody>
+          <StatusRow label={t("scm-argocd-plugin.status.queueDepth")}>
+            {status.queueDepth} / {status.queueCapacity}
+          </StatusRow>
+          <StatusRow label={t("scm-argocd-plugin.status.droppedDeliveries")}>{status.droppedDeliveries}</StatusRow>
+          <StatusRow label={t("scm-argocd-plugin.status.debouncedDeliveries")}>{status.debouncedDeliveries}</StatusRow>
+          <StatusRow label={t("scm-argocd-plugin.status.suppressedRefreshes")}>{status.suppressedRefreshes}</StatusRow>
+          <StatusRow label={t("scm-argocd-plugin.status.deadLetters")}>{status.deadLetters}</StatusRow>
+          {status.endpoints.map(endpoint => (
+            <StatusRow key={endpoint.url} label={endpoint.url}>
+              {t(`scm-argocd-plugin.endpointState.${endpoint.state}`)} (
+              {t("scm-argocd-plugin.endpointState.failures", { count: endpoint.consecutiveFailures })})
+            </StatusRow>
+          ))}
+          {status.connectionPools.map(pool => (
+            <StatusRow key={pool.endpoint} label={pool.endpoint}>
+              {t("scm-argocd-plugin.status.connectionPool", {
+                protocol: pool.http2 ? "HTTP/2" : "HTTP/1.1",
+                active: pool.activeRequests,
+                max: pool.maxConnections,
+                total: pool.totalRequests
+              })}
+            </StatusRow>
+          ))}
+          {status.resync ? (
+            <StatusRow label={t("scm-argocd-plugin.status.resync")}>
+              {t(`scm-argocd-plugin.resyncState.${status.resync.state}`)} (
+              {t("scm-argocd-plugin.status.resyncProgress", {
+                repositories: status.resync.repositories,
+                deliveries: status.resync.deliveries,
+                failures: status.resync.failures
+              })}
+              )
+            </StatusRow>
+          ) : null}
+        </tbody>
+      </table>
+      {replayLink && clearLink && status.deadLetters > 0 ? (
+        <div className="buttons">
+          <Button variant="primary" onClick={replay}>
+            {t("scm-argocd-plugin.status.replayDeadLetters")}
+          </Button>
+          <Button onClick={clear}>{t("scm-argocd-plugin.status.clearDeadLetters")}</Button>
+        </div>
+      ) : null}
+      {resyncLink && cancelResyncLink ? (
+        <div className="buttons">
+          {resyncRunning ? (
+            <Button onClick={cancelResync}>{t("scm-argocd-plugin.status.cancelResync")}</Button>
+          ) : (
+            <Button onClick={startResync}>{t("scm-argocd-plugin.status.startResync")}</Button>
+          )}
+        </div>
+      ) : null}
+    </>
+  );
+};
+
+export default ArgoCDDeliveryStatus;
@@ -0,0 +1,228 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import React, { FC } from "react";
+import { useTranslation } from "react-i18next";
+import { Link } from "@scm-manager/ui-types";
+import { useIndexLinks } from "@scm-manager/ui-api";
+import { Subtitle, Title } from "@scm-manager/ui-components";
+import { ConfigurationForm, Form } from "@scm-manager/ui-forms";
+import ArgoCDDeliveryStatus from "./ArgoCDDeliveryStatus";
+
+export type ArgoCDConfiguration = {
+  queueCapacity: number;
+  deliveryThreads: number;
+  overflowPolicy: string;
+  debounceMillis: number;
+  circuitBreakerThreshold: number;
+  circuitBreakerOpenMillis: number;
+  pooledTransport: boolean;
+  http2: boolean;
+  maxConnectionsPerEndpoint: number;
+  connectionIdleTimeoutMillis: number;
+  deliveryHistorySize: number;
+  precisePayloadMaxPaths: number;
+  reconcileIntervalMinutes: number;
+  reconcileConcurrency: number;
+  rateLimitPerSecond: number;
+  rateLimitBurst: number;
+  rateLimitPriorityReservePercent: number;
+  applicationIndexRefreshSeconds: number;
+  deduplicationMinutes: number;
+};
+
+const ArgoCDGlobalConfiguration: FC<{ link: string }> = ({ link }) => {
+  const [t] = useTranslation("plugins");
+  const indexLinks = useIndexLinks();
+  const statusLink = (indexLinks.argocdStatus as Link)?.href;
+
+  return (
+    <>
+      <Title title={t("scm-argocd-plugin.globalConfig.title")} />
+      <ConfigurationForm<ArgoCDConfiguration> link={link} translationPath={["plugins", "scm-argocd-plugin.globalConfig"]}>
+        <Form.Row>
+          <Form.Input
+            name="queueCapacity"
+            type="number"
+            label={t("scm-argocd-plugin.globalConfig.queueCapacity")}
+            helpText={t("scm-argocd-plugin.globalConfig.queueCapacityHelpText")}
+          />
+        </Form.Row>
+        <Form.Row>
+          <Form.Input
+            name="deliveryThreads"
+            type="number"
+            label={t("scm-argocd-plugin.globalConfig.deliveryThreads")}
+            helpText={t("scm-argocd-plugin.globalConfig.deliveryThreadsHelpText")}
+          />
+        </Form.Row>
+        <Form.Row>
+          <Form.Select
+            name="overflowPolicy"
+            label={t("scm-argocd-plugin.globalConfig.overflowPolicy")}
+            helpText={t("scm-argocd-plugin.globalConfig.overflowPolicyHelpText")}
+            options={[
+              { label: t("scm-argocd-plugin.globalConfig.overflowPolicies.DROP_OLDEST"), value: "DROP_OLDEST" },
+              { label: t("scm-argocd-plugin.globalConfig.overflowPolicies.COALESCE"), value: "COALESCE" }
+            ]}
+          />
+        </Form.Row>
+        <Form.Row>
+          <Form.Input
+            name="debounceMillis"
+            type="number"
+            label={t("scm-argocd-plugin.globalConfig.debounceMillis")}
+            helpText={t("scm-argocd-plugin.globalConfig.debounceMillisHelpText")}
+          />
+        </Form.Row>
+        <Form.Row>
+          <Form.Input
+            className="column"
+            name="circuitBreakerThreshold"
+            type="number"
+            label={t("scm-argocd-plugin.globalConfig.circuitBreakerThreshold")}
+            helpText={t("scm-argocd-plugin.globalConfig.circuitBreakerThresholdHelpText")}
+          />
+          <Form.Input
+            className="column"
+            name="circuitBreakerOpenMillis"
+            type="number"
+            label={t("scm-argocd-plugin.globalConfig.circuitBreakerOpenMillis")}
+            helpText={t("scm-argocd-plugin.globalConfig.circuitBreakerOpenMillisHelpText")}
+          />
+        </Form.Row>
+        <Form.Row>
+          <Form.Checkbox
+            name="pooledTransport"
+            label={t("scm-argocd-plugin.globalConfig.pooledTransport")}
+            helpText={t("scm-argocd-plugin.globalConfig.pooledTransportHelpText")}
+          />
+        </Form.Row>
+        <Form.Row>
+          <Form.Checkbox
+            name="http2"
+            label={t("scm-argocd-plugin.globalConfig.http2")}
+            helpText={t("scm-argocd-plugin.globalConfig.http2HelpText")}
+          />
+        </Form.Row>
+        <Form.Row>
+          <Form.Input
+            className="column"
+            name="maxConnectionsPerEndpoint"
+            type="number"
+            label={t("scm-argocd-plugin.globalConfig.maxConnectionsPerEndpoint")}
+            helpText={t("scm-argocd-plugin.globalConfig.maxConnectionsPerEndpointHelpText")}
+          />
+          <Form.Input
+            className="column"
+            name="connectionIdleTimeoutMillis"
+            type="number"
+            label={t("scm-argocd-plugin.globalConfig.connectionIdleTimeoutMillis")}
+            helpText={t("scm-argocd-plugin.globalConfig.connectionIdleTimeoutMillisHelpText")}
+          />
+        </Form.Row>
+        <Form.Row>
+          <Form.Input
+            name="deliveryHistorySize"
+            type="number"
+            label={t("scm-argocd-plugin.globalConfig.deliveryHistorySize")}
+            helpText={t("scm-argocd-plugin.globalConfig.deliveryHistorySizeHelpText")}
+          />
+        </Form.Row>
+        <Form.Row>
+          <Form.Input
+            name="precisePayloadMaxPaths"
+            type="number"
+            label={t("scm-argocd-plugin.globalConfig.precisePayloadMaxPaths")}
+            helpText={t("scm-argocd-plugin.globalConfig.precisePayloadMaxPathsHelpText")}
+          />
+        </Form.Row>
+        <Form.Row>
+          <Form.Input
+            className="column"
+            name="reconcileIntervalMinutes"
+            type="number"
+            label={t("scm-argocd-plugin.globalConfig.reconcileIntervalMinutes")}
+            helpText={t("scm-argocd-plugin.globalConfig.reconcileIntervalMinutesHelpText")}
+          />
+          <Form.Input
+            className="column"
+            name="reconcileConcurrency"
+            type="number"
+            label={t("scm-argocd-plugin.globalConfig.reconcileConcurrency")}
+            helpText={t("scm-argocd-plugin.globalConfig.reconcileConcurrencyHelpText")}
+          />
+        </Form.Row>
+        <Form.Row>
+          <Form.Input
+            className="column"
+            name="rateLimitPerSecond"
+            type="number"
+            label={t("scm-argocd-plugin.globalConfig.rateLimitPerSecond")}
+            helpText={t("scm-argocd-plugin.globalConfig.rateLimitPerSecondHelpText")}
+          />
+          <Form.Input
+            className="column"
+            name="rateLimitBurst"
+            type="number"
+            label={t("scm-argocd-plugin.globalConfig.rateLimitBurst")}
+            helpText={t("scm-argocd-plugin.globalConfig.rateLimitBurstHelpText")}
+          />
+          <Form.Input
+            className="column"
+            name="rateLimitPriorityReservePercent"
+            type="number"
+            label={t("scm-argocd-plugin.globalConfig.rateLimitPriorityReservePercent")}
+            helpText={t("scm-argocd-plugin.globalConfig.rateLimitPriorityReservePercentHelpText")}
+          />
+        </Form.Row>
+        <Form.Row>
+          <Form.Input
+            className="column"
+            name="applicationIndexRefreshSeconds"
+            type="number"
+            label={t("scm-argocd-plugin.globalConfig.applicationIndexRefreshSeconds")}
+            helpText={t("scm-argocd-plugin.globalConfig.applicationIndexRefreshSecondsHelpText")}
+          />
+          <Form.Input
+            className="column"
+            name="deduplicationMinutes"
+            type="number"
+            label={t("scm-argocd-plugin.globalConfig.deduplicationMinutes")}
+            helpText={t("scm-argocd-plugin.globalConfig.deduplicationMinutesHelpText")}
+          />
+        </Form.Row>
+      </ConfigurationForm>
+      {statusLink ? (
+        <>
+          <hr />
+          <Subtitle subtitle={t("scm-argocd-plugin.status.title")} />
+          <ArgoCDDeliveryStatus link={statusLink} />
+        </>
+      ) : null}
+    </>
+  );
+};
+
+export default ArgoCDGlobalConfiguration;
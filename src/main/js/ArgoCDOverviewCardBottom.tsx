@@ -22,17 +22,108 @@
  * SOFTWARE.
  */
 
-import React, { FC } from "react";
+import React, { FC, useEffect, useState } from "react";
 import { useTranslation } from "react-i18next";
+import { useRouteMatch } from "react-router-dom";
+import { Link } from "@scm-manager/ui-types";
+import { apiClient, useRepository } from "@scm-manager/ui-api";
+import { ErrorNotification, Tag } from "@scm-manager/ui-components";
 import PrimaryInformation from "./PrimaryInformation";
 import { ArgoCDWebhook } from "./ArgoCDWebhookConfigurationForm";
+import ArgoCDDeliveryHistory from "./ArgoCDDeliveryHistory";
 
-const ArgoCDOverviewCardBottom: FC<{ webhook: ArgoCDWebhook }> = ({ webhook }) => {
+type EndpointState = {
+  url: string;
+  state: "CLOSED" | "OPEN" | "HALF_OPEN";
+  consecutiveFailures: number;
+};
+
+const stateColors = {
+  CLOSED: "success",
+  OPEN: "danger",
+  HALF_OPEN: "warning"
+};
+
+const EndpointStateTag: FC<{ endpoint?: EndpointState }> = ({ endpoint }) => {
+  const [t] = useTranslation("plugins");
+
+  if (!endpoint) {
+    return null;
+  }
+
+  return (
+    <Tag
+      className="ml-2"
+      color={stateColors[endpoint.state]}
+      label={t(`scm-argocd-plugin.endpointState.${endpoint.state}`)}
+      title={t("scm-argocd-plugin.endpointState.failures", { count: endpoint.consecutiveFailures })}
+    />
+  );
+};
+
+const useEndpointStates = (link?: string) => {
+  const [endpoints, setEndpoints] = useState<EndpointState[]>([]);
+  const [error, setError] = useState<Error>();
+
+  useEffect(() => {
+    if (link) {
+      apiClient
+        .get(link)
+        .then(response => response.json())
+        .then(setEndpoints)
+        .catch(setError);
+    }
+  }, [link]);
+
+  return { endpoints, error };
+};
+
+const WebhookUrls: FC<{ webhook: ArgoCDWebhook; endpoints: EndpointState[] }> = ({ webhook, endpoints }) => {
   const [t] = useTranslation("plugins");
+  const endpoint = (url: string) => endpoints.find(state => state.url === url);
 
   return (
     <>
       <PrimaryInformation>{t("scm-argocd-plugin.config.url")}:</PrimaryInformation> {webhook.url}
+      <EndpointStateTag endpoint={endpoint(webhook.url)} />
+      {(webhook.targets || []).map(target => (
+        <div key={target.url}>
+          <PrimaryInformation>{t("scm-argocd-plugin.config.targets.url")}:</PrimaryInformation> {target.url}
+          <EndpointStateTag endpoint={endpoint(target.url)} />
+        </div>
+      ))}
+    </>
+  );
+};
+
+const RepositoryWebhookUrls: FC<{ webhook: ArgoCDWebhook; namespace: string; name: string }> = ({
+  webhook,
+  namespace,
+  name
+}) => {
+  const { data: repository } = useRepository(namespace, name);
+  const { endpoints, error } = useEndpointStates((repository?._links.argocdEndpoints as Link)?.href);
+
+  return (
+    <>
+      <WebhookUrls webhook={webhook} endpoints={endpoints} />
+      {error ? <ErrorNotification error={error} /> : null}
+    </>
+  );
+};
+
+const ArgoCDOverviewCardBottom: FC<{ webhook: ArgoCDWebhook }> = ({ webhook }) => {
+  // endpoint states are only available for the webhooks of a repository, not for global webhooks
+  const match = useRouteMatch<{ namespace: string; name: string }>("/repo/:namespace/:name");
+
+  return (
+    <>
+      {match ? (
+        <RepositoryWebhookUrls webhook={webhook} namespace={match.params.namespace} name={match.params.name} />
+      ) : (
+        <WebhookUrls webhook={webhook} endpoints={[]} />
+      )}
+      <ArgoCDDeliveryHistory urls={[webhook.url, ...(webhook.targets || []).map(target => target.url)]} />
     </>
   );
 };
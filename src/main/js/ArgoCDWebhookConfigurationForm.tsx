@@ -22,16 +22,36 @@
  * SOFTWARE.
  */
 
-import React, { FC } from "react";
+import React, { FC, useEffect, useState } from "react";
 import { useTranslation } from "react-i18next";
 import { Form, SelectField } from "@scm-manager/ui-forms";
 import { Notification } from "@scm-manager/ui-components";
+import { apiClient } from "@scm-manager/ui-api";
+
+export type ArgoCDWebhookTarget = {
+  url: string;
+  secret: string;
+};
 
 export type ArgoCDWebhook = {
   hookImplementation: string;
   url: string;
   secret: string;
   insecure: boolean;
+  batch: boolean;
+  maxRetries: number;
+  retryBackoffMillis: number;
+  targets: ArgoCDWebhookTarget[];
+  targetConcurrency: number;
+  connectTimeoutMillis: number;
+  readTimeoutMillis: number;
+  deadlineMillis: number;
+  precise: boolean;
+  tags: boolean;
+  defaultBranchOnly: boolean;
+  branchPatterns: string[];
+  includePaths: string[];
+  excludePaths: string[];
 };
 
 type Props = {
@@ -40,6 +60,17 @@ type Props = {
 
 const ArgoCDWebhookConfigurationForm: FC<Props> = ({ webhook }) => {
   const [t] = useTranslation("plugins");
+  const isApi = webhook.hookImplementation === "API";
+  // the timeouts only apply to the pooled transport, the fields stay editable if the transport is unknown
+  const [pooledTransport, setPooledTransport] = useState(true);
+
+  useEffect(() => {
+    apiClient
+      .get("/argocd/transport")
+      .then(response => response.json())
+      .then(transport => setPooledTransport(transport.pooled))
+      .catch(() => setPooledTransport(true));
+  }, []);
 
   return (
     <>
@@ -51,7 +82,11 @@ const ArgoCDWebhookConfigurationForm: FC<Props> = ({ webhook }) => {
           label={t("scm-argocd-plugin.config.hookImplementation")}
           helpText={t("scm-argocd-plugin.config.hookImplementationHelpText")}
           defaultValue="SCMM"
-          options={[{ label: t("scm-argocd-plugin.config.hookImplementationTypes.SCMM"), value: "SCMM" }, { label: t("scm-argocd-plugin.config.hookImplementationTypes.GITHUB"), value: "GITHUB" }]}
+          options={[
+            { label: t("scm-argocd-plugin.config.hookImplementationTypes.SCMM"), value: "SCMM" },
+            { label: t("scm-argocd-plugin.config.hookImplementationTypes.GITHUB"), value: "GITHUB" },
+            { label: t("scm-argocd-plugin.config.hookImplementationTypes.API"), value: "API" }
+          ]}
         />
       </Form.Row>
       <Form.Row>
@@ -67,14 +102,14 @@ const ArgoCDWebhookConfigurationForm: FC<Props> = ({ webhook }) => {
         <Form.Input
           name="url"
           label={t("scm-argocd-plugin.config.url")}
-          helpText={t("scm-argocd-plugin.config.urlHelpText")}
+          helpText={t(isApi ? "scm-argocd-plugin.config.urlApiHelpText" : "scm-argocd-plugin.config.urlHelpText")}
         />
       </Form.Row>
       <Form.Row>
         <Form.Input
           name="secret"
           label={t("scm-argocd-plugin.config.secret")}
-          helpText={t("scm-argocd-plugin.config.secretHelpText")}
+          helpText={t(isApi ? "scm-argocd-plugin.config.secretApiHelpText" : "scm-argocd-plugin.config.secretHelpText")}
           type="password"
         />
       </Form.Row>
@@ -85,6 +120,131 @@ const ArgoCDWebhookConfigurationForm: FC<Props> = ({ webhook }) => {
           helpText={t("scm-argocd-plugin.config.insecureHelpText")}
         />
       </Form.Row>
+      <Form.Row>
+        <Form.Checkbox
+          name="batch"
+          label={t("scm-argocd-plugin.config.batch")}
+          helpText={t("scm-argocd-plugin.config.batchHelpText")}
+        />
+      </Form.Row>
+      <Form.Row>
+        <Form.Input
+          className="column"
+          name="maxRetries"
+          type="number"
+          label={t("scm-argocd-plugin.config.maxRetries")}
+          helpText={t("scm-argocd-plugin.config.maxRetriesHelpText")}
+        />
+        <Form.Input
+          className="column"
+          name="retryBackoffMillis"
+          type="number"
+          label={t("scm-argocd-plugin.config.retryBackoffMillis")}
+          helpText={t("scm-argocd-plugin.config.retryBackoffMillisHelpText")}
+        />
+      </Form.Row>
+      <Form.ListContext name="targets">
+        <Form.Table withDelete>
+          <Form.Table.Column name="url" label={t("scm-argocd-plugin.config.targets.url")} />
+        </Form.Table>
+        <Form.AddListEntryForm defaultValues={{ url: "", secret: "" }}>
+          <Form.Row>
+            <Form.Input
+              name="url"
+              label={t("scm-argocd-plugin.config.targets.url")}
+              helpText={t("scm-argocd-plugin.config.targets.urlHelpText")}
+              rules={{ required: true }}
+            />
+          </Form.Row>
+          <Form.Row>
+            <Form.Input
+              name="secret"
+              label={t("scm-argocd-plugin.config.targets.secret")}
+              helpText={t("scm-argocd-plugin.config.targets.secretHelpText")}
+              type="password"
+            />
+          </Form.Row>
+        </Form.AddListEntryForm>
+      </Form.ListContext>
+      <Form.Row>
+        <Form.Input
+          name="targetConcurrency"
+          type="number"
+          label={t("scm-argocd-plugin.config.targetConcurrency")}
+          helpText={t("scm-argocd-plugin.config.targetConcurrencyHelpText")}
+        />
+      </Form.Row>
+      <Form.Row>
+        <Form.Input
+          className="column"
+          name="connectTimeoutMillis"
+          type="number"
+          readOnly={!pooledTransport}
+          label={t("scm-argocd-plugin.config.connectTimeoutMillis")}
+          helpText={t("scm-argocd-plugin.config.connectTimeoutMillisHelpText")}
+        />
+        <Form.Input
+          className="column"
+          name="readTimeoutMillis"
+          type="number"
+          readOnly={!pooledTransport}
+          label={t("scm-argocd-plugin.config.readTimeoutMillis")}
+          helpText={t("scm-argocd-plugin.config.readTimeoutMillisHelpText")}
+        />
+        <Form.Input
+          className="column"
+          name="deadlineMillis"
+          type="number"
+          label={t("scm-argocd-plugin.config.deadlineMillis")}
+          helpText={t("scm-argocd-plugin.config.deadlineMillisHelpText")}
+        />
+      </Form.Row>
+      {webhook.hookImplementation === "GITHUB" ? (
+        <Form.Row>
+          <Form.Checkbox
+            name="precise"
+            label={t("scm-argocd-plugin.config.precise")}
+            helpText={t("scm-argocd-plugin.config.preciseHelpText")}
+          />
+        </Form.Row>
+      ) : null}
+      <Form.Row>
+        <Form.Checkbox
+          name="tags"
+          label={t("scm-argocd-plugin.config.tags")}
+          helpText={t("scm-argocd-plugin.config.tagsHelpText")}
+        />
+      </Form.Row>
+      <Form.Row>
+        <Form.Checkbox
+          name="defaultBranchOnly"
+          label={t("scm-argocd-plugin.config.defaultBranchOnly")}
+          helpText={t("scm-argocd-plugin.config.defaultBranchOnlyHelpText")}
+        />
+      </Form.Row>
+      {webhook.defaultBranchOnly ? null : (
+        <Form.Row>
+          <Form.ChipInput
+            name="branchPatterns"
+            label={t("scm-argocd-plugin.config.branchPatterns")}
+            helpText={t("scm-argocd-plugin.config.branchPatternsHelpText")}
+          />
+        </Form.Row>
+      )}
+      <Form.Row>
+        <Form.ChipInput
+          name="includePaths"
+          label={t("scm-argocd-plugin.config.includePaths")}
+          helpText={t("scm-argocd-plugin.config.includePathsHelpText")}
+        />
+      </Form.Row>
+      <Form.Row>
+        <Form.ChipInput
+          name="excludePaths"
+          label={t("scm-argocd-plugin.config.excludePaths")}
+          helpText={t("scm-argocd-plugin.config.excludePathsHelpText")}
+        />
+      </Form.Row>
       {webhook.insecure ? (
         <Notification type="warning">{t("scm-argocd-plugin.config.insecureWarning")}</Notification>
       ) : null}
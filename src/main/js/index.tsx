@@ -23,10 +23,12 @@
  */
 
 import { binder} from "@scm-manager/ui-extensions";
+import { ConfigurationBinder as cfgBinder } from "@scm-manager/ui-components";
 import ArgoCDWebhookConfigurationForm, { ArgoCDWebhook } from "./ArgoCDWebhookConfigurationForm";
 import { WebhookConfiguration } from "@scm-manager/scm-webhook-plugin";
 import ArgoCDOverviewCardTop from "./ArgoCDOverviewCardTop";
 import ArgoCDOverviewCardBottom from "./ArgoCDOverviewCardBottom";
+import ArgoCDGlobalConfiguration from "./ArgoCDGlobalConfiguration";
 
 binder.bind<WebhookConfiguration<ArgoCDWebhook>>("webhook.configuration", {
   name: "ArgoCDWebhook",
@@ -36,7 +38,22 @@ binder.bind<WebhookConfiguration<ArgoCDWebhook>>("webhook.configuration", {
   defaultConfiguration: {
     url: "",
     secret: "",
-    insecure: false
+    insecure: false,
+    batch: false,
+    maxRetries: 3,
+    retryBackoffMillis: 1000,
+    targets: [],
+    targetConcurrency: 4,
+    connectTimeoutMillis: 0,
+    readTimeoutMillis: 0,
+    deadlineMillis: 0,
+    precise: false,
+    tags: false,
+    defaultBranchOnly: false,
+    branchPatterns: [],
+    includePaths: [],
+    excludePaths: []
   }
 });
 
+cfgBinder.bindGlobal("/argocd", "scm-argocd-plugin.globalConfig.navLink", "argocdConfig", ArgoCDGlobalConfiguration);
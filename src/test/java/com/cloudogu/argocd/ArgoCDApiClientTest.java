@@ -0,0 +1,59 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ArgoCDApiClientTest {
+
+  private final ArgoCDApiClient apiClient = new ArgoCDApiClient(null, null, null, new ArgoCDMetrics(new SimpleMeterRegistry()));
+
+  @Test
+  void shouldParseApplicationsWithSingleAndMultipleSources() throws IOException {
+    String json = "{\"items\":[" +
+      "{\"metadata\":{\"name\":\"heart-of-gold\",\"namespace\":\"argocd\"},\"spec\":{\"source\":{\"repoURL\":\"https://scm.example.com/repo/a/b\",\"targetRevision\":\"main\"}}}," +
+      "{\"metadata\":{\"name\":\"vogon\"},\"spec\":{\"sources\":[" +
+      "{\"repoURL\":\"https://scm.example.com/repo/a/c\",\"targetRevision\":\"1.0\"}," +
+      "{\"repoURL\":\"https://charts.example.com\",\"chart\":\"vogon\"}" +
+      "]}}" +
+      "]}";
+
+    assertThat(apiClient.parseApplications(json.getBytes(UTF_8))).containsExactly(
+      new ArgoCDApplication("heart-of-gold", "argocd", "https://scm.example.com/repo/a/b", "main"),
+      new ArgoCDApplication("vogon", null, "https://scm.example.com/repo/a/c", "1.0"),
+      new ArgoCDApplication("vogon", null, "https://charts.example.com", "")
+    );
+  }
+
+  @Test
+  void shouldParseEmptyApplicationList() throws IOException {
+    assertThat(apiClient.parseApplications("{\"items\":null}".getBytes(UTF_8))).isEmpty();
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ArgoCDApplicationIndexTest {
+
+  private static final ArgoCDApplication HEART_OF_GOLD = new ArgoCDApplication("heart-of-gold", "argocd", "https://scm.example.com/repo/hitchhiker/Heart-Of-Gold.git", "main");
+  private static final ArgoCDApplication VOGON = new ArgoCDApplication("vogon", "argocd", "https://scm.example.com/repo/hitchhiker/vogon/", "main");
+
+  @Mock
+  private ArgoCDApiClient apiClient;
+  @Mock
+  private ArgoCDConfigurationStore configurationStore;
+
+  private final ArgoCDConfiguration configuration = new ArgoCDConfiguration();
+  private final ArgoCDWebhook webhook = new ArgoCDWebhook(HookImplementation.API, "https://argo.example.com", "token", false);
+  private final List<Runnable> refreshes = new ArrayList<>();
+  private Instant now = Instant.parse("2023-01-01T10:00:00Z");
+
+  private ArgoCDApplicationIndex index;
+
+  @BeforeEach
+  void initIndex() {
+    configuration.setApplicationIndexRefreshSeconds(60);
+    when(configurationStore.get()).thenReturn(configuration);
+    index = new ArgoCDApplicationIndex(apiClient, configurationStore, refreshes::add, new Clock() {
+      @Override
+      public ZoneId getZone() {
+        return ZoneOffset.UTC;
+      }
+
+      @Override
+      public Clock withZone(ZoneId zone) {
+        return this;
+      }
+
+      @Override
+      public Instant instant() {
+        return now;
+      }
+    });
+  }
+
+  @Test
+  void shouldFindApplicationsByNormalizedRepositoryUrl() {
+    when(apiClient.listApplications(webhook)).thenReturn(asList(HEART_OF_GOLD, VOGON));
+
+    assertThat(index.find(webhook, "https://scm.example.com/repo/hitchhiker/heart-of-gold")).containsExactly(HEART_OF_GOLD);
+    assertThat(index.find(webhook, "https://scm.example.com/repo/hitchhiker/vogon")).containsExactly(VOGON);
+    assertThat(index.find(webhook, "https://scm.example.com/repo/hitchhiker/magrathea")).isEmpty();
+    verify(apiClient, times(1)).listApplications(webhook);
+  }
+
+  @Test
+  void shouldRefreshOutdatedIndexInBackground() {
+    when(apiClient.listApplications(webhook)).thenReturn(singletonList(VOGON), asList(HEART_OF_GOLD, VOGON));
+    index.find(webhook, "https://scm.example.com/repo/hitchhiker/vogon");
+
+    now = now.plusSeconds(61);
+
+    // the outdated index is used until the new one is read
+    assertThat(index.find(webhook, "https://scm.example.com/repo/hitchhiker/heart-of-gold")).isEmpty();
+    index.find(webhook, "https://scm.example.com/repo/hitchhiker/heart-of-gold");
+    assertThat(refreshes).hasSize(1);
+
+    refreshes.get(0).run();
+
+    assertThat(index.find(webhook, "https://scm.example.com/repo/hitchhiker/heart-of-gold")).containsExactly(HEART_OF_GOLD);
+  }
+
+  @Test
+  void shouldKeepIndexIfRefreshFails() {
+    when(apiClient.listApplications(webhook))
+      .thenReturn(singletonList(VOGON))
+      .thenThrow(new ArgoCDHookExecutionException("Argo CD responded with status 503 to list applications", 503));
+    index.find(webhook, "https://scm.example.com/repo/hitchhiker/vogon");
+    index.expire(webhook);
+
+    index.find(webhook, "https://scm.example.com/repo/hitchhiker/vogon");
+    refreshes.get(0).run();
+
+    assertThat(index.find(webhook, "https://scm.example.com/repo/hitchhiker/vogon")).containsExactly(VOGON);
+    assertThat(refreshes).hasSize(2);
+  }
+
+  @Test
+  void shouldNormalizeRepositoryUrls() {
+    assertThat(ArgoCDApplicationIndex.normalize("https://SCM.example.com/repo/a/b.git/")).isEqualTo("https://scm.example.com/repo/a/b");
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ArgoCDApplicationTest {
+
+  @Test
+  void shouldTrackBranchOfTargetRevision() {
+    ArgoCDApplication application = application("develop");
+
+    assertThat(application.tracksBranch("develop", false)).isTrue();
+    assertThat(application.tracksBranch("main", true)).isFalse();
+    assertThat(application("refs/heads/develop").tracksBranch("develop", false)).isTrue();
+  }
+
+  @Test
+  void shouldTrackDefaultBranchWithoutTargetRevision() {
+    assertThat(application("").tracksBranch("main", true)).isTrue();
+    assertThat(application("HEAD").tracksBranch("main", true)).isTrue();
+    assertThat(application("HEAD").tracksBranch("develop", false)).isFalse();
+  }
+
+  @Test
+  void shouldTrackTags() {
+    assertThat(application("1.0").tracksTag("1.0")).isTrue();
+    assertThat(application("refs/tags/1.0").tracksTag("1.0")).isTrue();
+    assertThat(application("HEAD").tracksTag("1.0")).isFalse();
+  }
+
+  private ArgoCDApplication application(String targetRevision) {
+    return new ArgoCDApplication("heart-of-gold", "argocd", "https://scm.example.com/repo/hitchhiker/heart-of-gold", targetRevision);
+  }
+}
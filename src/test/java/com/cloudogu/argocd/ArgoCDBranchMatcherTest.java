@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Supplier;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ArgoCDBranchMatcherTest {
+
+  private static final Supplier<String> NO_DEFAULT_BRANCH = () -> {
+    throw new AssertionError("default branch should not be requested");
+  };
+
+  @Test
+  void shouldMatchAllBranchesWithoutPatterns() {
+    ArgoCDBranchMatcher matcher = new ArgoCDBranchMatcher(false, emptyList());
+
+    assertThat(matcher.matches("feature/x", NO_DEFAULT_BRANCH)).isTrue();
+  }
+
+  @Test
+  void shouldMatchGlobs() {
+    ArgoCDBranchMatcher matcher = new ArgoCDBranchMatcher(false, asList("main", "release/*"));
+
+    assertThat(matcher.matches("main", NO_DEFAULT_BRANCH)).isTrue();
+    assertThat(matcher.matches("release/1.0", NO_DEFAULT_BRANCH)).isTrue();
+    assertThat(matcher.matches("feature/main", NO_DEFAULT_BRANCH)).isFalse();
+  }
+
+  @Test
+  void shouldMatchRegularExpressions() {
+    ArgoCDBranchMatcher matcher = new ArgoCDBranchMatcher(false, asList("regex:(main|develop)"));
+
+    assertThat(matcher.matches("develop", NO_DEFAULT_BRANCH)).isTrue();
+    assertThat(matcher.matches("develop-2", NO_DEFAULT_BRANCH)).isFalse();
+  }
+
+  @Test
+  void shouldIgnoreInvalidPatterns() {
+    ArgoCDBranchMatcher matcher = new ArgoCDBranchMatcher(false, asList("regex:(main", "develop"));
+
+    assertThat(matcher.matches("develop", NO_DEFAULT_BRANCH)).isTrue();
+    assertThat(matcher.matches("main", NO_DEFAULT_BRANCH)).isFalse();
+  }
+
+  @Test
+  void shouldOnlyMatchDefaultBranch() {
+    ArgoCDBranchMatcher matcher = new ArgoCDBranchMatcher(true, asList("feature/*"));
+
+    assertThat(matcher.matches("main", () -> "main")).isTrue();
+    assertThat(matcher.matches("feature/x", () -> "main")).isFalse();
+  }
+
+  @Test
+  void shouldReuseCompiledMatchers() {
+    ArgoCDBranchMatcherCache cache = new ArgoCDBranchMatcherCache();
+    ArgoCDWebhook webhook = new ArgoCDWebhook(HookImplementation.SCMM, "https://argo-test.com/webhook", "", false);
+    webhook.setBranchPatterns(asList("main"));
+    ArgoCDWebhook other = new ArgoCDWebhook(HookImplementation.GITHUB, "https://other.com/webhook", "", false);
+    other.setBranchPatterns(asList("main"));
+
+    assertThat(cache.get(webhook)).isSameAs(cache.get(other));
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Added;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.Modifications;
+import sonia.scm.repository.Modified;
+import sonia.scm.repository.PostReceiveRepositoryHookEvent;
+import sonia.scm.repository.Removed;
+import sonia.scm.repository.Renamed;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.api.ModificationsCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.repository.api.RepositoryServiceFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ArgoCDChangesCollectorTest {
+
+  @Mock
+  private RepositoryServiceFactory serviceFactory;
+  @Mock
+  private RepositoryService service;
+  @Mock
+  private ModificationsCommandBuilder modificationsCommand;
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private PostReceiveRepositoryHookEvent event;
+  @Mock
+  private ArgoCDConfigurationStore configurationStore;
+
+  private final Repository repository = RepositoryTestData.create42Puzzle();
+  private final ArgoCDConfiguration configuration = new ArgoCDConfiguration();
+
+  private ArgoCDChangesCollector collector;
+
+  @BeforeEach
+  void init() {
+    lenient().when(serviceFactory.create(repository)).thenReturn(service);
+    lenient().when(service.getModificationsCommand()).thenReturn(modificationsCommand);
+    lenient().when(configurationStore.get()).thenReturn(configuration);
+    collector = new ArgoCDChangesCollector(configurationStore);
+  }
+
+  @Test
+  void shouldNotCollectWithoutPreciseMode() {
+    ArgoCDWebhook webhook = webhook();
+    webhook.setPrecise(false);
+
+    assertThat(collector.collect(webhook, context(), List.of("main"))).isEmpty();
+
+    verify(serviceFactory, never()).create(any(Repository.class));
+  }
+
+  @Test
+  void shouldNotCollectForScmManagerEvents() {
+    ArgoCDWebhook webhook = webhook();
+    webhook.setHookImplementation(HookImplementation.SCMM);
+
+    assertThat(collector.collect(webhook, context(), List.of("main"))).isEmpty();
+
+    verify(serviceFactory, never()).create(any(Repository.class));
+  }
+
+  @Test
+  void shouldCollectCommitsPerBranch() throws IOException {
+    changesets(
+      changeset("2", "main", "1"),
+      changeset("1", "main", "0"),
+      changeset("3", "develop", "1")
+    );
+    modifications("1", new Modifications("1", new Added("a.yaml")));
+    modifications("2", new Modifications("2", new Modified("a.yaml"), new Removed("b.yaml")));
+    modifications("3", new Modifications("3", new Renamed("a.yaml", "c.yaml")));
+
+    Map<String, ArgoCDBranchChanges> changes = collector.collect(webhook(), context(), List.of("main", "develop"));
+
+    ArgoCDBranchChanges main = changes.get("main");
+    assertThat(main.getBefore()).isEqualTo("0");
+    assertThat(main.getAfter()).isEqualTo("2");
+    assertThat(main.getCommits()).extracting(ArgoCDBranchChanges.Commit::getId).containsExactly("2", "1");
+    assertThat(main.getCommits().get(0).getModified()).containsExactly("a.yaml");
+    assertThat(main.getCommits().get(0).getRemoved()).containsExactly("b.yaml");
+
+    ArgoCDBranchChanges develop = changes.get("develop");
+    assertThat(develop.getBefore()).isEqualTo("1");
+    assertThat(develop.getAfter()).isEqualTo("3");
+    assertThat(develop.getCommits().get(0).getAdded()).containsExactly("c.yaml");
+    assertThat(develop.getCommits().get(0).getRemoved()).containsExactly("a.yaml");
+  }
+
+  @Test
+  void shouldUseNullRevisionForRootCommit() throws IOException {
+    Changeset changeset = changeset("1", "main");
+    changeset.setParents(List.of());
+    changesets(changeset);
+    modifications("1", new Modifications("1", new Added("a.yaml")));
+
+    Map<String, ArgoCDBranchChanges> changes = collector.collect(webhook(), context(), List.of("main"));
+
+    assertThat(changes.get("main").getBefore()).isEqualTo(ArgoCDChangesCollector.NULL_REVISION);
+  }
+
+  @Test
+  void shouldDropBranchesExceedingPathLimit() throws IOException {
+    configuration.setPrecisePayloadMaxPaths(2);
+    changesets(changeset("1", "main", "0"), changeset("2", "main", "1"), changeset("3", "develop", "1"));
+    modifications("1", new Modifications("1", new Added("a.yaml"), new Added("b.yaml"), new Added("c.yaml")));
+    modifications("3", new Modifications("3", new Added("d.yaml")));
+
+    Map<String, ArgoCDBranchChanges> changes = collector.collect(webhook(), context(), List.of("main", "develop"));
+
+    assertThat(changes).containsOnlyKeys("develop");
+    verify(modificationsCommand, never()).revision("2");
+  }
+
+  @Test
+  void shouldDropBranchesWithUnreadableChangesets() throws IOException {
+    changesets(changeset("1", "main", "0"));
+    ModificationsCommandBuilder command = mock(ModificationsCommandBuilder.class);
+    when(modificationsCommand.revision("1")).thenReturn(command);
+    when(command.getModifications()).thenThrow(new IOException("failed"));
+
+    assertThat(collector.collect(webhook(), context(), List.of("main"))).isEmpty();
+  }
+
+  private void changesets(Changeset... changesets) {
+    when(event.getContext().getChangesetProvider().getChangesets()).thenReturn(asList(changesets));
+  }
+
+  private void modifications(String revision, Modifications modifications) throws IOException {
+    ModificationsCommandBuilder command = mock(ModificationsCommandBuilder.class);
+    when(modificationsCommand.revision(revision)).thenReturn(command);
+    when(command.getModifications()).thenReturn(modifications);
+  }
+
+  private Changeset changeset(String id, String branch, String... parents) {
+    Changeset changeset = new Changeset();
+    changeset.setId(id);
+    changeset.setBranches(List.of(branch));
+    changeset.setParents(asList(parents));
+    return changeset;
+  }
+
+  private ArgoCDPushContext context() {
+    return new ArgoCDPushContext(repository, event, serviceFactory, null);
+  }
+
+  private ArgoCDWebhook webhook() {
+    ArgoCDWebhook webhook = new ArgoCDWebhook(HookImplementation.GITHUB, "https://argo-test.com/webhook", "", false);
+    webhook.setPrecise(true);
+    return webhook;
+  }
+}
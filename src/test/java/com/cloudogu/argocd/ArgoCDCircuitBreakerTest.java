@@ -0,0 +1,152 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static com.cloudogu.argocd.ArgoCDCircuitBreaker.State.CLOSED;
+import static com.cloudogu.argocd.ArgoCDCircuitBreaker.State.HALF_OPEN;
+import static com.cloudogu.argocd.ArgoCDCircuitBreaker.State.OPEN;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ArgoCDCircuitBreakerTest {
+
+  private static final String URL = "https://argo-test.com/webhook";
+
+  @Mock
+  private ArgoCDConfigurationStore configurationStore;
+
+  private final ArgoCDConfiguration configuration = new ArgoCDConfiguration();
+  private Instant now = Instant.parse("2023-01-01T10:00:00Z");
+
+  private ArgoCDCircuitBreaker circuitBreaker;
+
+  @BeforeEach
+  void initCircuitBreaker() {
+    configuration.setCircuitBreakerThreshold(2);
+    configuration.setCircuitBreakerOpenMillis(1000);
+    when(configurationStore.get()).thenReturn(configuration);
+    circuitBreaker = new ArgoCDCircuitBreaker(configurationStore, new Clock() {
+      @Override
+      public ZoneOffset getZone() {
+        return ZoneOffset.UTC;
+      }
+
+      @Override
+      public Clock withZone(java.time.ZoneId zone) {
+        return this;
+      }
+
+      @Override
+      public Instant instant() {
+        return now;
+      }
+    });
+  }
+
+  @Test
+  void shouldOpenCircuitAfterThreshold() {
+    circuitBreaker.recordFailure(URL);
+    assertThat(circuitBreaker.tryAcquire(URL)).isTrue();
+
+    circuitBreaker.recordFailure(URL);
+
+    assertThat(state()).isEqualTo(OPEN);
+    assertThat(circuitBreaker.tryAcquire(URL)).isFalse();
+    assertThat(circuitBreaker.getRemainingOpenMillis(URL)).isEqualTo(1000);
+  }
+
+  @Test
+  void shouldResetFailuresOnSuccess() {
+    circuitBreaker.recordFailure(URL);
+    circuitBreaker.recordSuccess(URL);
+    circuitBreaker.recordFailure(URL);
+
+    assertThat(state()).isEqualTo(CLOSED);
+  }
+
+  @Test
+  void shouldLetSingleProbeThroughAfterOpenPeriod() {
+    openCircuit();
+    now = now.plusMillis(1000);
+
+    assertThat(circuitBreaker.tryAcquire(URL)).isTrue();
+    assertThat(state()).isEqualTo(HALF_OPEN);
+    assertThat(circuitBreaker.tryAcquire(URL)).isFalse();
+  }
+
+  @Test
+  void shouldCloseCircuitAfterSuccessfulProbe() {
+    openCircuit();
+    now = now.plusMillis(1000);
+    circuitBreaker.tryAcquire(URL);
+
+    circuitBreaker.recordSuccess(URL);
+
+    assertThat(state()).isEqualTo(CLOSED);
+    assertThat(circuitBreaker.tryAcquire(URL)).isTrue();
+  }
+
+  @Test
+  void shouldReopenCircuitAfterFailedProbe() {
+    openCircuit();
+    now = now.plusMillis(1000);
+    circuitBreaker.tryAcquire(URL);
+
+    circuitBreaker.recordFailure(URL);
+
+    assertThat(state()).isEqualTo(OPEN);
+    assertThat(circuitBreaker.tryAcquire(URL)).isFalse();
+  }
+
+  @Test
+  void shouldAlwaysAllowRequestsIfDisabled() {
+    configuration.setCircuitBreakerThreshold(0);
+    circuitBreaker.recordFailure(URL);
+    circuitBreaker.recordFailure(URL);
+
+    assertThat(circuitBreaker.tryAcquire(URL)).isTrue();
+    assertThat(circuitBreaker.getCircuit(URL)).isEmpty();
+  }
+
+  private void openCircuit() {
+    circuitBreaker.recordFailure(URL);
+    circuitBreaker.recordFailure(URL);
+  }
+
+  private ArgoCDCircuitBreaker.State state() {
+    return circuitBreaker.getCircuit(URL).map(ArgoCDCircuitBreaker.Circuit::getState).orElse(CLOSED);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.github.sdorra.jse.ShiroExtension;
+import org.github.sdorra.jse.SubjectAware;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import sonia.scm.api.v2.resources.ScmPathInfoStore;
+
+import java.net.URI;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(ShiroExtension.class)
+@SubjectAware(value = "trillian", permissions = "configuration:read:argocd")
+class ArgoCDConfigurationMapperTest {
+
+  private ArgoCDConfigurationMapper mapper;
+
+  @BeforeEach
+  void initMapper() {
+    ScmPathInfoStore pathInfoStore = new ScmPathInfoStore();
+    pathInfoStore.set(() -> URI.create("https://scm.hitchhiker.com/scm/api/"));
+    mapper = new ArgoCDConfigurationMapper(() -> pathInfoStore);
+  }
+
+  @Test
+  void shouldMapApplicationIndexRefreshBothWays() {
+    ArgoCDConfiguration configuration = new ArgoCDConfiguration();
+    configuration.setApplicationIndexRefreshSeconds(42);
+
+    ArgoCDConfigurationDto dto = mapper.map(configuration);
+
+    assertThat(dto.getApplicationIndexRefreshSeconds()).isEqualTo(42);
+    assertThat(mapper.map(dto).getApplicationIndexRefreshSeconds()).isEqualTo(42);
+  }
+
+  @Test
+  void shouldMapDeduplicationBothWays() {
+    ArgoCDConfiguration configuration = new ArgoCDConfiguration();
+    configuration.setDeduplicationMinutes(5);
+
+    ArgoCDConfigurationDto dto = mapper.map(configuration);
+
+    assertThat(dto.getDeduplicationMinutes()).isEqualTo(5);
+    assertThat(mapper.map(dto).getDeduplicationMinutes()).isEqualTo(5);
+  }
+
+  @Test
+  void shouldKeepDefaultsOnRoundTrip() {
+    ArgoCDConfiguration configuration = mapper.map(mapper.map(new ArgoCDConfiguration()));
+
+    assertThat(configuration).usingRecursiveComparison().isEqualTo(new ArgoCDConfiguration());
+  }
+}
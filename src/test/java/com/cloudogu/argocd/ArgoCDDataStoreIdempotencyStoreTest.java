@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sonia.scm.store.InMemoryDataStore;
+import sonia.scm.store.InMemoryDataStoreFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ArgoCDDataStoreIdempotencyStoreTest {
+
+  private static final Duration TTL = Duration.ofMinutes(5);
+
+  private final InMemoryDataStore<ArgoCDIdempotencyKey> dataStore = new InMemoryDataStore<>();
+
+  private Instant now = Instant.parse("2023-01-01T10:00:00Z");
+
+  private ArgoCDDataStoreIdempotencyStore store;
+
+  @BeforeEach
+  void initStore() {
+    store = new ArgoCDDataStoreIdempotencyStore(new InMemoryDataStoreFactory(dataStore), new Clock() {
+      @Override
+      public ZoneId getZone() {
+        return ZoneOffset.UTC;
+      }
+
+      @Override
+      public Clock withZone(ZoneId zone) {
+        return this;
+      }
+
+      @Override
+      public Instant instant() {
+        return now;
+      }
+    });
+  }
+
+  @Test
+  void shouldClaimKeyOnlyOnce() {
+    assertThat(store.claim("abc", TTL)).isTrue();
+    assertThat(store.claim("abc", TTL)).isFalse();
+    assertThat(store.claim("def", TTL)).isTrue();
+  }
+
+  @Test
+  void shouldClaimKeyAgainAfterItHasExpired() {
+    store.claim("abc", TTL);
+
+    now = now.plus(TTL);
+
+    assertThat(store.claim("abc", TTL)).isTrue();
+  }
+
+  @Test
+  void shouldClaimReleasedKeyAgain() {
+    store.claim("abc", TTL);
+
+    store.release("abc");
+
+    assertThat(store.claim("abc", TTL)).isTrue();
+  }
+
+  @Test
+  void shouldRemoveExpiredKeys() {
+    store.claim("abc", TTL);
+    now = now.plusSeconds(60);
+    store.claim("def", TTL);
+
+    now = now.plus(TTL);
+    store.claim("ghi", TTL);
+
+    assertThat(dataStore.getAll()).containsOnlyKeys("ghi");
+  }
+}
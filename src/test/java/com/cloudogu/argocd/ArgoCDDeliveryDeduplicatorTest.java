@@ -0,0 +1,72 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static com.cloudogu.argocd.HookImplementation.GITHUB;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ArgoCDDeliveryDeduplicatorTest {
+
+  private static final ArgoCDWebhook WEBHOOK = new ArgoCDWebhook(GITHUB, "https://argo-test.com/webhook", "", false);
+
+  @Test
+  void shouldUseSameKeyForSameRefUpdateOnEveryNode() {
+    // each node creates its own delivery for the same push
+    assertThat(key(delivery(), "abc")).isEqualTo(key(delivery(), "abc"));
+  }
+
+  @Test
+  void shouldUseSameKeyForRetries() {
+    ArgoCDDelivery delivery = delivery();
+
+    assertThat(key(delivery, "abc")).isEqualTo(key(delivery.nextAttempt(), "abc"));
+  }
+
+  @Test
+  void shouldUseDifferentKeysForDifferentRevisions() {
+    assertThat(key(delivery(), "abc")).isNotEqualTo(key(delivery(), "def"));
+  }
+
+  @Test
+  void shouldUseDifferentKeysForDifferentWebhooks() {
+    ArgoCDDelivery delivery = delivery();
+    ArgoCDDelivery target = delivery.forTarget(new ArgoCDWebhook(GITHUB, "https://other-argo.com/webhook", "", false));
+
+    assertThat(key(delivery, "abc")).isNotEqualTo(key(target, "abc"));
+  }
+
+  private String key(ArgoCDDelivery delivery, String revision) {
+    return ArgoCDDeliveryDeduplicator.key(delivery, "refs/heads/main", revision);
+  }
+
+  private ArgoCDDelivery delivery() {
+    return new ArgoCDDelivery(WEBHOOK, "1", "space/X", "https://test.de", "main", singletonList("main"))
+      .withRevisions(Map.of("refs/heads/main", "abc"));
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.HandlerEventType;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryEvent;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.store.ConfigurationStore;
+import sonia.scm.store.InMemoryConfigurationStoreFactory;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.cloudogu.argocd.HookImplementation.GITHUB;
+import static com.cloudogu.argocd.HookImplementation.SCMM;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ArgoCDDeliveryHistoryStoreTest {
+
+  private static final ArgoCDWebhook WEBHOOK = new ArgoCDWebhook(GITHUB, "https://argo-test.com/webhook", "", false);
+
+  @Mock
+  private ArgoCDConfigurationStore configurationStore;
+  @Mock
+  private ScheduledExecutorService scheduler;
+
+  private final ArgoCDConfiguration configuration = new ArgoCDConfiguration();
+  private final InMemoryConfigurationStoreFactory storeFactory = new InMemoryConfigurationStoreFactory();
+
+  private ArgoCDDeliveryHistoryStore historyStore;
+
+  @BeforeEach
+  void initStore() {
+    when(configurationStore.get()).thenReturn(configuration);
+    historyStore = new ArgoCDDeliveryHistoryStore(
+      storeFactory,
+      configurationStore,
+      Clock.fixed(Instant.parse("2023-01-01T10:00:00Z"), ZoneOffset.UTC),
+      scheduler
+    );
+  }
+
+  @Test
+  void shouldRecordDelivery() {
+    historyStore.add(delivery(WEBHOOK, "main"), 200, 42, null);
+
+    assertThat(historyStore.get("1")).singleElement().satisfies(record -> {
+      assertThat(record.getTimestamp()).isEqualTo(Instant.parse("2023-01-01T10:00:00Z").toEpochMilli());
+      assertThat(record.getUrl()).isEqualTo("https://argo-test.com/webhook");
+      assertThat(record.getBranches()).containsExactly("main");
+      assertThat(record.getPayloadType()).isEqualTo("GITHUB");
+      assertThat(record.getDuration()).isEqualTo(42);
+      assertThat(record.getStatus()).isEqualTo(200);
+      assertThat(record.getError()).isNull();
+    });
+  }
+
+  @Test
+  void shouldReturnNewestFirstAndEvictOldest() {
+    configuration.setDeliveryHistorySize(2);
+
+    historyStore.add(delivery(WEBHOOK, "first"), 200, 1, null);
+    historyStore.add(delivery(WEBHOOK, "second"), 200, 1, null);
+    historyStore.add(delivery(WEBHOOK, "third"), 503, 1, "ArgoCD webhook responded with status 503");
+
+    assertThat(historyStore.get("1"))
+      .extracting(record -> record.getBranches().get(0))
+      .containsExactly("third", "second");
+  }
+
+  @Test
+  void shouldTruncateLongErrors() {
+    historyStore.add(delivery(WEBHOOK, "main"), 0, 1, "x".repeat(500));
+
+    assertThat(historyStore.get("1").get(0).getError()).hasSize(200);
+  }
+
+  @Test
+  void shouldRecordScmBatchPayloadType() {
+    ArgoCDWebhook webhook = new ArgoCDWebhook(SCMM, "https://argo-test.com/webhook", "", false);
+    webhook.setBatch(true);
+
+    historyStore.add(new ArgoCDDelivery(webhook, "1", "space/X", "https://test.de", "main", asList("main", "develop")), 200, 1, null);
+
+    assertThat(historyStore.get("1").get(0).getPayloadType()).isEqualTo("SCMM_BATCH");
+  }
+
+  @Test
+  void shouldNotRecordIfDisabled() {
+    configuration.setDeliveryHistorySize(0);
+
+    historyStore.add(delivery(WEBHOOK, "main"), 200, 1, null);
+
+    assertThat(historyStore.get("1")).isEmpty();
+  }
+
+  @Test
+  void shouldWriteHistoryOnlyWhenFlushed() {
+    historyStore.add(delivery(WEBHOOK, "first"), 200, 1, null);
+    historyStore.add(delivery(WEBHOOK, "second"), 200, 1, null);
+
+    assertThat(store("1").getOptional()).isEmpty();
+    verify(scheduler, times(1)).schedule(any(Runnable.class), eq(ArgoCDDeliveryHistoryStore.FLUSH_DELAY_MILLIS), eq(TimeUnit.MILLISECONDS));
+
+    historyStore.flush();
+
+    assertThat(store("1").get().getRecords())
+      .extracting(record -> record.getBranches().get(0))
+      .containsExactly("first", "second");
+  }
+
+  @Test
+  void shouldScheduleNextFlushAfterFlush() {
+    historyStore.add(delivery(WEBHOOK, "first"), 200, 1, null);
+    historyStore.flush();
+    historyStore.add(delivery(WEBHOOK, "second"), 200, 1, null);
+
+    verify(scheduler, times(2)).schedule(any(Runnable.class), eq(ArgoCDDeliveryHistoryStore.FLUSH_DELAY_MILLIS), eq(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  void shouldFlushOnClose() {
+    historyStore.add(delivery(WEBHOOK, "main"), 200, 1, null);
+
+    historyStore.close();
+
+    verify(scheduler).shutdown();
+    assertThat(store("1").get().getRecords()).hasSize(1);
+  }
+
+  @Test
+  void shouldLoadStoredHistory() {
+    ArgoCDDeliveryHistory history = new ArgoCDDeliveryHistory();
+    history.add(new ArgoCDDeliveryRecord(1L, WEBHOOK.getUrl(), singletonList("stored"), emptyList(), "GITHUB", 1, 200, 0, null), 10);
+    store("1").set(history);
+
+    historyStore.add(delivery(WEBHOOK, "main"), 200, 1, null);
+
+    assertThat(historyStore.get("1"))
+      .extracting(record -> record.getBranches().get(0))
+      .containsExactly("main", "stored");
+  }
+
+  @Test
+  void shouldNotWriteHistoryOfDeletedRepository() {
+    Repository repository = RepositoryTestData.create42Puzzle();
+    repository.setId("1");
+    historyStore.add(delivery(WEBHOOK, "main"), 200, 1, null);
+
+    historyStore.onRepositoryEvent(new RepositoryEvent(HandlerEventType.DELETE, repository));
+    historyStore.flush();
+
+    assertThat(store("1").getOptional()).isEmpty();
+  }
+
+  private ConfigurationStore<ArgoCDDeliveryHistory> store(String repositoryId) {
+    return storeFactory.withType(ArgoCDDeliveryHistory.class).withName("argocd-delivery-history").forRepository(repositoryId).build();
+  }
+
+  private ArgoCDDelivery delivery(ArgoCDWebhook webhook, String branch) {
+    return new ArgoCDDelivery(webhook, "1", "space/X", "https://test.de", "main", singletonList(branch));
+  }
+}
@@ -0,0 +1,394 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.cloudogu.argocd.HookImplementation.SCMM;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.longThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ArgoCDDeliveryQueueTest {
+
+  private static final ArgoCDWebhook WEBHOOK = new ArgoCDWebhook(SCMM, "https://argo-test.com/webhook", "", false);
+
+  @Mock
+  private ArgoCDConfigurationStore configurationStore;
+  @Mock
+  private ArgoCDWebhookSender sender;
+  @Mock
+  private ArgoCDRetryScheduler retryScheduler;
+  @Mock
+  private ArgoCDCircuitBreaker circuitBreaker;
+  @Mock
+  private ArgoCDDeliveryHistoryStore historyStore;
+  @Mock
+  private ArgoCDRefStateStore refStateStore;
+  @Mock
+  private ArgoCDIdempotencyStore idempotencyStore;
+
+  private final ArgoCDConfiguration configuration = new ArgoCDConfiguration();
+  private final List<Runnable> workerRuns = new ArrayList<>();
+  private final ArgoCDMetrics metrics = new ArgoCDMetrics(new SimpleMeterRegistry());
+
+  private ArgoCDDeliveryQueue queue;
+
+  @BeforeEach
+  void initQueue() {
+    configuration.setQueueCapacity(2);
+    when(configurationStore.get()).thenReturn(configuration);
+    lenient().when(circuitBreaker.tryAcquire(any())).thenReturn(true);
+    queue = new ArgoCDDeliveryQueue(configurationStore, sender, retryScheduler, circuitBreaker, metrics, historyStore, refStateStore, new ArgoCDRateLimiter(configurationStore, metrics), new ArgoCDDeliveryDeduplicator(idempotencyStore, configurationStore, metrics), workerRuns::add, Runnable::run);
+  }
+
+  @Test
+  void shouldDeliverQueuedDeliveries() {
+    ArgoCDDelivery delivery = delivery("1", "main");
+    queue.offer(delivery);
+
+    assertThat(queue.getDepth()).isEqualTo(1);
+
+    runWorkers();
+
+    verify(sender).send(delivery);
+    assertThat(queue.getDepth()).isZero();
+  }
+
+  @Test
+  void shouldRecordDeliveriesInHistory() {
+    ArgoCDDelivery delivery = delivery("1", "main");
+    when(sender.send(delivery)).thenReturn(202);
+
+    queue.offer(delivery);
+    runWorkers();
+
+    verify(historyStore).add(eq(delivery), eq(202), anyLong(), isNull());
+  }
+
+  @Test
+  void shouldRecordFailedDeliveriesInHistory() {
+    ArgoCDDelivery delivery = delivery("1", "main");
+    when(sender.send(delivery)).thenThrow(new ArgoCDHookExecutionException("ArgoCD webhook responded with status 503", 503));
+
+    queue.offer(delivery);
+    runWorkers();
+
+    verify(historyStore).add(eq(delivery), eq(503), anyLong(), eq("ArgoCD webhook responded with status 503"));
+  }
+
+  @Test
+  void shouldRecordNotifiedRefsOfSuccessfulDeliveries() {
+    ArgoCDDelivery delivery = delivery("1", "main");
+    when(sender.send(delivery)).thenReturn(202);
+
+    queue.offer(delivery);
+    runWorkers();
+
+    verify(refStateStore).notified(delivery);
+  }
+
+  @Test
+  void shouldNotRecordNotifiedRefsOfFailedDeliveries() {
+    ArgoCDDelivery delivery = delivery("1", "main");
+    when(sender.send(delivery)).thenThrow(new ArgoCDHookExecutionException("ArgoCD webhook responded with status 503", 503));
+
+    queue.offer(delivery);
+    runWorkers();
+
+    verify(refStateStore, never()).notified(any(ArgoCDDelivery.class));
+  }
+
+  @Test
+  void shouldSkipDeliveriesWhichHaveBeenSentByAnotherNode() {
+    configuration.setDeduplicationMinutes(5);
+    ArgoCDDelivery delivery = delivery("1", "main").withRevisions(Map.of("refs/heads/main", "abc"));
+    when(idempotencyStore.claim(any(), eq(Duration.ofMinutes(5)))).thenReturn(false);
+
+    queue.offer(delivery);
+    runWorkers();
+
+    verify(sender, never()).send(any());
+    verify(refStateStore).notified(delivery);
+    verify(retryScheduler, never()).failed(any(), any());
+  }
+
+  @Test
+  void shouldReleaseIdempotencyKeysOfFailedDeliveries() {
+    configuration.setDeduplicationMinutes(5);
+    ArgoCDDelivery delivery = delivery("1", "main").withRevisions(Map.of("refs/heads/main", "abc"));
+    when(idempotencyStore.claim(any(), any())).thenReturn(true);
+    when(sender.send(delivery)).thenThrow(new ArgoCDHookExecutionException("ArgoCD webhook responded with status 503", 503));
+
+    queue.offer(delivery);
+    runWorkers();
+
+    verify(idempotencyStore).release(ArgoCDDeliveryDeduplicator.key(delivery, "refs/heads/main", "abc"));
+  }
+
+  @Test
+  void shouldNotRetryIfHistoryCouldNotBeStored() {
+    ArgoCDDelivery delivery = delivery("1", "main");
+    doThrow(new IllegalStateException("store failed")).when(historyStore).add(any(), anyInt(), anyLong(), any());
+
+    queue.offer(delivery);
+    runWorkers();
+
+    verify(retryScheduler, never()).failed(any(), any());
+  }
+
+  @Test
+  void shouldDropOldestDeliveryIfQueueIsFull() {
+    queue.offer(delivery("1", "main"));
+    queue.offer(delivery("2", "main"));
+    queue.offer(delivery("3", "main"));
+
+    assertThat(queue.getDepth()).isEqualTo(2);
+    assertThat(queue.getDroppedDeliveries()).isEqualTo(1);
+
+    runWorkers();
+
+    assertThat(sentRepositories()).containsExactly("2", "3");
+  }
+
+  @Test
+  void shouldDeliverDefaultBranchFirst() {
+    queue.offer(delivery("1", "feature"));
+    queue.offer(delivery("2", "main"));
+
+    runWorkers();
+
+    assertThat(sentRepositories()).containsExactly("2", "1");
+  }
+
+  @Test
+  void shouldDropOtherBranchesFirstIfQueueIsFull() {
+    queue.offer(delivery("1", "main"));
+    queue.offer(delivery("2", "feature"));
+    queue.offer(delivery("3", "main"));
+
+    runWorkers();
+
+    assertThat(sentRepositories()).containsExactly("1", "3");
+  }
+
+  @Test
+  void shouldCoalesceDeliveriesForSameWebhookAndRepository() {
+    configuration.setOverflowPolicy(ArgoCDOverflowPolicy.COALESCE);
+
+    queue.offer(delivery("1", "main"));
+    queue.offer(delivery("2", "main"));
+    queue.offer(delivery("1", "develop"));
+
+    assertThat(queue.getDepth()).isEqualTo(2);
+    assertThat(queue.getDroppedDeliveries()).isZero();
+
+    runWorkers();
+
+    ArgumentCaptor<ArgoCDDelivery> captor = ArgumentCaptor.forClass(ArgoCDDelivery.class);
+    verify(sender, times(3)).send(captor.capture());
+    assertThat(captor.getAllValues())
+      .extracting(ArgoCDDelivery::getRepositoryId)
+      .containsExactly("1", "1", "2");
+    assertThat(captor.getAllValues())
+      .extracting(delivery -> delivery.getBranches().get(0))
+      .containsExactly("main", "develop", "main");
+  }
+
+  @Test
+  void shouldPassFailedDeliveryToRetrySchedulerAndContinue() {
+    ArgoCDDelivery failing = delivery("1", "main");
+    ArgoCDHookExecutionException error = new ArgoCDHookExecutionException("failed");
+    lenient().doThrow(error).when(sender).send(failing);
+
+    queue.offer(failing);
+    queue.offer(delivery("2", "main"));
+
+    runWorkers();
+
+    verify(retryScheduler).failed(failing, error);
+    verify(circuitBreaker).recordFailure(WEBHOOK.getUrl());
+    assertThat(sentRepositories()).containsExactly("1", "2");
+  }
+
+  @Test
+  void shouldDeferDeliveriesWithoutAttemptIfCircuitIsOpen() {
+    when(circuitBreaker.tryAcquire(WEBHOOK.getUrl())).thenReturn(false);
+    when(circuitBreaker.getRemainingOpenMillis(WEBHOOK.getUrl())).thenReturn(60_000L);
+    ArgoCDDelivery delivery = delivery("1", "main");
+
+    queue.offer(delivery);
+    runWorkers();
+
+    verify(sender, never()).send(any());
+    verify(retryScheduler).deferred(delivery, 60_000L);
+    verify(retryScheduler, never()).failed(any(), any(), anyLong());
+    verify(retryScheduler, never()).failed(any(), any());
+  }
+
+  @Test
+  void shouldDeferDeliveriesAtLeastByRetryBackoffWhileCircuitIsProbing() {
+    when(circuitBreaker.tryAcquire(WEBHOOK.getUrl())).thenReturn(false);
+    when(circuitBreaker.getRemainingOpenMillis(WEBHOOK.getUrl())).thenReturn(0L);
+    ArgoCDDelivery delivery = delivery("1", "main");
+
+    queue.offer(delivery);
+    runWorkers();
+
+    verify(retryScheduler).deferred(delivery, Math.max(1, WEBHOOK.getRetryBackoffMillis()));
+  }
+
+  @Test
+  void shouldSendPayloadEncodedOnceToAllTargets() {
+    byte[] payload = "{}".getBytes(UTF_8);
+    ArgoCDDelivery delivery = fanOutDelivery();
+    when(sender.encode(delivery)).thenReturn(payload);
+
+    queue.offer(delivery);
+    runWorkers();
+
+    verify(sender).encode(delivery);
+    ArgumentCaptor<ArgoCDWebhook> captor = ArgumentCaptor.forClass(ArgoCDWebhook.class);
+    verify(sender, times(3)).send(captor.capture(), eq(payload), eq(payload.length));
+    assertThat(captor.getAllValues())
+      .extracting(ArgoCDWebhook::getUrl, ArgoCDWebhook::getSecret)
+      .containsExactly(
+        tuple("https://argo-test.com/webhook", "main-secret"),
+        tuple("https://dev.argo-test.com/webhook", "dev-secret"),
+        tuple("https://prod.argo-test.com/webhook", "prod-secret")
+      );
+    verify(retryScheduler, never()).failed(any(), any());
+  }
+
+  @Test
+  void shouldRetryOnlyFailedTargets() {
+    byte[] payload = "{}".getBytes(UTF_8);
+    ArgoCDDelivery delivery = fanOutDelivery();
+    when(sender.encode(delivery)).thenReturn(payload);
+    ArgoCDHookExecutionException error = new ArgoCDHookExecutionException("failed");
+    lenient().doThrow(error).when(sender).send(argThat(webhook -> webhook.getUrl().startsWith("https://dev.")), eq(payload), eq(payload.length));
+
+    queue.offer(delivery);
+    runWorkers();
+
+    ArgumentCaptor<ArgoCDDelivery> captor = ArgumentCaptor.forClass(ArgoCDDelivery.class);
+    verify(retryScheduler).failed(captor.capture(), eq(error));
+    assertThat(captor.getValue().getWebhook().getUrl()).isEqualTo("https://dev.argo-test.com/webhook");
+    assertThat(captor.getValue().getWebhook().getTargets()).isEmpty();
+    verify(circuitBreaker).recordFailure("https://dev.argo-test.com/webhook");
+    verify(circuitBreaker).recordSuccess("https://prod.argo-test.com/webhook");
+  }
+
+  @Test
+  void shouldDeferThrottledDeliveriesInsteadOfWaiting() {
+    configuration.setRateLimitPerSecond(1);
+    configuration.setRateLimitBurst(1);
+    ArgoCDDelivery first = delivery("1", "main");
+    ArgoCDDelivery throttled = delivery("2", "main");
+
+    queue.offer(first);
+    queue.offer(throttled);
+    runWorkers();
+
+    verify(sender).send(first);
+    verify(sender, never()).send(throttled);
+    verify(retryScheduler).deferred(eq(throttled), longThat(delay -> delay > 0 && delay <= 1000));
+    verify(retryScheduler, never()).failed(any(), any());
+  }
+
+  @Test
+  void shouldDeferRemainingBranchesIfDeadlineIsSpent() {
+    ArgoCDWebhook webhook = new ArgoCDWebhook(SCMM, "https://argo-test.com/webhook", "", false);
+    webhook.setDeadlineMillis(1);
+    ArgoCDDelivery delivery = new ArgoCDDelivery(webhook, "1", "space/X1", "https://test.de", "main", asList("main", "develop", "feature"));
+    when(sender.send(any())).thenAnswer(invocation -> {
+      Thread.sleep(5);
+      return 202;
+    });
+
+    queue.offer(delivery);
+    runWorkers();
+
+    verify(sender).send(argThat(sent -> sent.getBranches().equals(singletonList("main"))));
+    ArgumentCaptor<ArgoCDDelivery> deferred = ArgumentCaptor.forClass(ArgoCDDelivery.class);
+    verify(retryScheduler).deferred(deferred.capture(), eq(1L));
+    assertThat(deferred.getValue().getBranches()).containsExactly("develop", "feature");
+    assertThat(deferred.getValue().getAttempt()).isZero();
+  }
+
+  private ArgoCDDelivery fanOutDelivery() {
+    ArgoCDWebhook webhook = new ArgoCDWebhook(SCMM, "https://argo-test.com/webhook", "main-secret", false);
+    webhook.setTargets(asList(
+      new ArgoCDWebhookTarget("https://dev.argo-test.com/webhook", "dev-secret"),
+      new ArgoCDWebhookTarget("https://prod.argo-test.com/webhook", "prod-secret")
+    ));
+    return new ArgoCDDelivery(webhook, "1", "space/X1", "https://test.de", "main", singletonList("main"));
+  }
+
+  private void runWorkers() {
+    workerRuns.forEach(Runnable::run);
+    workerRuns.clear();
+  }
+
+  private List<String> sentRepositories() {
+    ArgumentCaptor<ArgoCDDelivery> captor = ArgumentCaptor.forClass(ArgoCDDelivery.class);
+    verify(sender, atLeastOnce()).send(captor.capture());
+    List<String> repositoryIds = new ArrayList<>();
+    captor.getAllValues().forEach(delivery -> repositoryIds.add(delivery.getRepositoryId()));
+    return repositoryIds;
+  }
+
+  private ArgoCDDelivery delivery(String repositoryId, String branch) {
+    return new ArgoCDDelivery(WEBHOOK, repositoryId, "space/X" + repositoryId, "https://test.de", "main", singletonList(branch));
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.config.ScmConfiguration;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URI;
+import java.net.http.HttpTimeoutException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.lenient;
+
+@ExtendWith(MockitoExtension.class)
+class ArgoCDHttpTransportTest {
+
+  @Mock
+  private ArgoCDConfigurationStore configurationStore;
+
+  private final ArgoCDConfiguration configuration = new ArgoCDConfiguration();
+  private final ScmConfiguration scmConfiguration = new ScmConfiguration();
+  private final List<String> receivedBodies = new CopyOnWriteArrayList<>();
+  private final List<String> receivedSignatures = new CopyOnWriteArrayList<>();
+  private Instant now = Instant.parse("2023-01-01T10:00:00Z");
+
+  private HttpServer server;
+  private ArgoCDHttpTransport transport;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/api/webhook", exchange -> {
+      receivedBodies.add(new String(exchange.getRequestBody().readAllBytes(), UTF_8));
+      receivedSignatures.add(exchange.getRequestHeaders().getFirst("X-SCM-Signature"));
+      exchange.sendResponseHeaders(200, -1);
+      exchange.close();
+    });
+    server.createContext("/api/slow", exchange -> {
+      try {
+        Thread.sleep(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      exchange.sendResponseHeaders(200, -1);
+      exchange.close();
+    });
+    server.start();
+
+    lenient().when(configurationStore.get()).thenReturn(configuration);
+    transport = new ArgoCDHttpTransport(configurationStore, scmConfiguration, new Clock() {
+      @Override
+      public ZoneId getZone() {
+        return ZoneOffset.UTC;
+      }
+
+      @Override
+      public Clock withZone(ZoneId zone) {
+        return this;
+      }
+
+      @Override
+      public Instant instant() {
+        return now;
+      }
+    });
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  void shouldPostPayloadWithHeaders() throws IOException {
+    byte[] payload = "{\"ref\":\"main\"}--unused".getBytes(UTF_8);
+
+    int status = transport.post(webhook(), Map.of("X-SCM-Signature", "sha1=abc"), payload, 14);
+
+    assertThat(status).isEqualTo(200);
+    assertThat(receivedBodies).containsExactly("{\"ref\":\"main\"}");
+    assertThat(receivedSignatures).containsExactly("sha1=abc");
+  }
+
+  @Test
+  void shouldReusePoolForSameEndpoint() throws IOException {
+    transport.post(webhook(), Map.of(), new byte[0], 0);
+    transport.post(webhook(), Map.of(), new byte[0], 0);
+
+    assertThat(transport.getPools()).singleElement().satisfies(pool -> {
+      assertThat(pool.getEndpoint()).isEqualTo("http://" + host() + ":" + server.getAddress().getPort());
+      assertThat(pool.getTotalRequests().get()).isEqualTo(2);
+      assertThat(pool.getActiveRequests().get()).isZero();
+      assertThat(pool.getMaxConnections()).isEqualTo(8);
+    });
+  }
+
+  @Test
+  void shouldDropIdlePools() throws IOException {
+    configuration.setConnectionIdleTimeoutMillis(1000);
+    transport.post(webhook(), Map.of(), new byte[0], 0);
+
+    now = now.plusMillis(1001);
+
+    assertThat(transport.getPools()).isEmpty();
+  }
+
+  @Test
+  void shouldKeepRecentlyUsedPools() throws IOException {
+    configuration.setConnectionIdleTimeoutMillis(1000);
+    transport.post(webhook(), Map.of(), new byte[0], 0);
+
+    now = now.plusMillis(999);
+
+    assertThat(transport.getPools()).hasSize(1);
+  }
+
+  @Test
+  void shouldFailIfArgoCDDoesNotRespondWithinReadTimeout() {
+    ArgoCDWebhook webhook = webhook();
+    webhook.setUrl(webhook.getUrl().replace("/api/webhook", "/api/slow"));
+    webhook.setReadTimeoutMillis(100);
+
+    assertThatThrownBy(() -> transport.post(webhook, Map.of(), new byte[0], 0))
+      .isInstanceOf(HttpTimeoutException.class);
+  }
+
+  @Test
+  void shouldFailIfArgoCDDoesNotRespondWithinDeadline() {
+    ArgoCDWebhook webhook = webhook();
+    webhook.setUrl(webhook.getUrl().replace("/api/webhook", "/api/slow"));
+    webhook.setDeadlineMillis(100);
+
+    assertThatThrownBy(() -> transport.post(webhook, Map.of(), new byte[0], 0))
+      .isInstanceOf(HttpTimeoutException.class);
+  }
+
+  @Test
+  void shouldLimitReadTimeoutByDeadline() {
+    ArgoCDWebhook webhook = webhook();
+    webhook.setReadTimeoutMillis(5000);
+    webhook.setDeadlineMillis(1000);
+
+    assertThat(ArgoCDHttpTransport.requestTimeout(webhook)).isEqualTo(1000);
+
+    webhook.setReadTimeoutMillis(500);
+
+    assertThat(ArgoCDHttpTransport.requestTimeout(webhook)).isEqualTo(500);
+  }
+
+  @Test
+  void shouldUseSeparatePoolsForDifferentConnectTimeouts() throws IOException {
+    ArgoCDWebhook webhook = webhook();
+    webhook.setConnectTimeoutMillis(500);
+
+    transport.post(webhook(), Map.of(), new byte[0], 0);
+    transport.post(webhook, Map.of(), new byte[0], 0);
+
+    assertThat(transport.getPools()).hasSize(2);
+  }
+
+  @Test
+  void shouldSendThroughProxyOfScmConfiguration() throws IOException {
+    enableProxy();
+    ArgoCDWebhook webhook = new ArgoCDWebhook(HookImplementation.SCMM, "http://argocd.invalid/api/webhook", "", false);
+
+    int status = transport.post(webhook, Map.of(), "{}".getBytes(UTF_8), 2);
+
+    assertThat(status).isEqualTo(200);
+    assertThat(receivedBodies).containsExactly("{}");
+  }
+
+  @Test
+  void shouldNotUseProxyIfDisabled() {
+    ArgoCDHttpTransport.ScmProxySelector selector = new ArgoCDHttpTransport.ScmProxySelector(scmConfiguration);
+
+    assertThat(selector.select(URI.create("http://argocd.hitchhiker.com/api/webhook"))).containsExactly(Proxy.NO_PROXY);
+  }
+
+  @Test
+  void shouldNotUseProxyForExcludedHosts() {
+    enableProxy();
+    scmConfiguration.setProxyExcludes(Set.of("*.internal", "localhost"));
+    ArgoCDHttpTransport.ScmProxySelector selector = new ArgoCDHttpTransport.ScmProxySelector(scmConfiguration);
+
+    assertThat(selector.select(URI.create("https://argocd.internal/api/webhook"))).containsExactly(Proxy.NO_PROXY);
+    assertThat(selector.select(URI.create("http://localhost:8080/api/webhook"))).containsExactly(Proxy.NO_PROXY);
+    assertThat(selector.select(URI.create("https://argocd.hitchhiker.com/api/webhook")))
+      .extracting(Proxy::type)
+      .containsExactly(Proxy.Type.HTTP);
+  }
+
+  private void enableProxy() {
+    // the test server answers the proxy requests as well
+    scmConfiguration.setEnableProxy(true);
+    scmConfiguration.setProxyServer(host());
+    scmConfiguration.setProxyPort(server.getAddress().getPort());
+  }
+
+  private ArgoCDWebhook webhook() {
+    return new ArgoCDWebhook(HookImplementation.SCMM, "http://" + host() + ":" + server.getAddress().getPort() + "/api/webhook", "", false);
+  }
+
+  private String host() {
+    return server.getAddress().getHostString();
+  }
+}
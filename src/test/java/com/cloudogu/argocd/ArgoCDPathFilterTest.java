@@ -0,0 +1,227 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Added;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.Modifications;
+import sonia.scm.repository.Modified;
+import sonia.scm.repository.PostReceiveRepositoryHookEvent;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.api.ModificationsCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.repository.api.RepositoryServiceFactory;
+
+import java.io.IOException;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ArgoCDPathFilterTest {
+
+  @Mock
+  private RepositoryServiceFactory serviceFactory;
+  @Mock
+  private RepositoryService service;
+  @Mock
+  private ModificationsCommandBuilder modificationsCommand;
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private PostReceiveRepositoryHookEvent event;
+
+  private final Repository repository = RepositoryTestData.create42Puzzle();
+
+  private ArgoCDPathFilter filter;
+
+  @BeforeEach
+  void init() {
+    lenient().when(serviceFactory.create(repository)).thenReturn(service);
+    lenient().when(service.getModificationsCommand()).thenReturn(modificationsCommand);
+    filter = new ArgoCDPathFilter();
+  }
+
+  @Test
+  void shouldNotOpenRepositoryWithoutFilter() {
+    List<String> branches = asList("main", "develop");
+
+    assertThat(filter.filter(webhook(), context(), branches)).isSameAs(branches);
+
+    verify(serviceFactory, never()).create(any(Repository.class));
+  }
+
+  @Test
+  void shouldKeepBranchesWithRelevantChanges() throws IOException {
+    changesets(changeset("1", "main"), changeset("2", "develop"));
+    modifications("1", new Modifications("1", new Modified("deploy/app.yaml")));
+    modifications("2", new Modifications("2", new Modified("src/Main.java")));
+
+    ArgoCDWebhook webhook = webhook();
+    webhook.setIncludePaths(asList("deploy/**"));
+
+    assertThat(filter.filter(webhook, context(), asList("main", "develop"))).containsExactly("main");
+  }
+
+  @Test
+  void shouldSkipExcludedPaths() throws IOException {
+    changesets(changeset("1", "main"));
+    modifications("1", new Modifications("1", new Modified("deploy/README.md")));
+
+    ArgoCDWebhook webhook = webhook();
+    webhook.setIncludePaths(asList("deploy/**"));
+    webhook.setExcludePaths(asList("**.md"));
+
+    assertThat(filter.filter(webhook, context(), asList("main"))).isEmpty();
+  }
+
+  @Test
+  void shouldOnlyUseExcludes() throws IOException {
+    changesets(changeset("1", "main"));
+    modifications("1", new Modifications("1", new Modified("docs/index.md"), new Added("values.yaml")));
+
+    ArgoCDWebhook webhook = webhook();
+    webhook.setExcludePaths(asList("docs/*"));
+
+    assertThat(filter.filter(webhook, context(), asList("main"))).containsExactly("main");
+  }
+
+  @Test
+  void shouldStopAfterAllBranchesAreRelevant() throws IOException {
+    changesets(changeset("1", "main"), changeset("2", "main"));
+    modifications("1", new Modifications("1", new Added("deploy/app.yaml")));
+
+    ArgoCDWebhook webhook = webhook();
+    webhook.setIncludePaths(asList("deploy/*"));
+
+    assertThat(filter.filter(webhook, context(), asList("main"))).containsExactly("main");
+    verify(modificationsCommand, never()).revision("2");
+  }
+
+  @Test
+  void shouldApplyChangesetsWithoutBranchesToAllBranches() throws IOException {
+    changesets(changeset("1"));
+    modifications("1", new Modifications("1", new Added("deploy/app.yaml")));
+
+    ArgoCDWebhook webhook = webhook();
+    webhook.setIncludePaths(asList("deploy/*"));
+
+    assertThat(filter.filter(webhook, context(), asList("main", "develop"))).containsExactly("main", "develop");
+  }
+
+  @Test
+  void shouldTreatUnreadableChangesetsAsRelevant() throws IOException {
+    changesets(changeset("1", "main"));
+    ModificationsCommandBuilder command = mock(ModificationsCommandBuilder.class);
+    when(modificationsCommand.revision("1")).thenReturn(command);
+    when(command.getModifications()).thenThrow(new IOException("failed"));
+
+    ArgoCDWebhook webhook = webhook();
+    webhook.setIncludePaths(asList("deploy/*"));
+
+    assertThat(filter.filter(webhook, context(), asList("main"))).containsExactly("main");
+  }
+
+  @Test
+  void shouldKeepCreatedBranchOnExistingCommit() {
+    changesets();
+
+    ArgoCDWebhook webhook = webhook();
+    webhook.setIncludePaths(asList("deploy/*"));
+
+    assertThat(filter.filter(webhook, context(), asList("feature"))).containsExactly("feature");
+    verify(modificationsCommand, never()).revision(any(String.class));
+  }
+
+  @Test
+  void shouldKeepBranchResetByForcePush() throws IOException {
+    changesets(changeset("1", "develop"));
+    modifications("1", new Modifications("1", new Modified("src/Main.java")));
+
+    ArgoCDWebhook webhook = webhook();
+    webhook.setIncludePaths(asList("deploy/*"));
+
+    assertThat(filter.filter(webhook, context(), asList("main", "develop"))).containsExactly("main");
+  }
+
+  @Test
+  void shouldKeepBranchFastForwardedToKnownCommits() throws IOException {
+    changesets(changeset("1", "main"));
+    modifications("1", new Modifications("1", new Modified("src/Main.java")));
+
+    ArgoCDWebhook webhook = webhook();
+    webhook.setIncludePaths(asList("deploy/*"));
+
+    assertThat(filter.filter(webhook, context(), asList("main", "release"))).containsExactly("release");
+  }
+
+  @Test
+  void shouldMatchGlobs() {
+    ArgoCDPathFilter.Matcher matcher = new ArgoCDPathFilter.Matcher(asList("deploy/*", "charts/*/values.yaml"), asList("*.md"));
+
+    assertThat(matcher.matches("deploy/app.yaml")).isTrue();
+    assertThat(matcher.matches("/deploy/app.yaml")).isTrue();
+    assertThat(matcher.matches("charts/app/values.yaml")).isTrue();
+    assertThat(matcher.matches("charts/app/Chart.yaml")).isFalse();
+    assertThat(matcher.matches("deploy/README.md")).isFalse();
+    assertThat(matcher.matches("src/Main.java")).isFalse();
+  }
+
+  private void changesets(Changeset... changesets) {
+    when(event.getContext().getChangesetProvider().getChangesets()).thenReturn(asList(changesets));
+  }
+
+  private void modifications(String revision, Modifications modifications) throws IOException {
+    ModificationsCommandBuilder command = mock(ModificationsCommandBuilder.class);
+    when(modificationsCommand.revision(revision)).thenReturn(command);
+    when(command.getModifications()).thenReturn(modifications);
+  }
+
+  private Changeset changeset(String id, String... branches) {
+    Changeset changeset = new Changeset();
+    changeset.setId(id);
+    changeset.setBranches(asList(branches));
+    return changeset;
+  }
+
+  private ArgoCDPushContext context() {
+    return new ArgoCDPushContext(repository, event, serviceFactory, null);
+  }
+
+  private ArgoCDWebhook webhook() {
+    return new ArgoCDWebhook(HookImplementation.SCMM, "https://argo-test.com/webhook", "", false);
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import sonia.scm.repository.RepositoryTestData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.cloudogu.argocd.HookImplementation.GITHUB;
+import static com.cloudogu.argocd.HookImplementation.SCMM;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ArgoCDPayloadEncoderTest {
+
+  private final ArgoCDPayloadEncoder encoder = new ArgoCDPayloadEncoder();
+
+  @Test
+  void shouldEncodeScmPushEvent() {
+    String json = encode(delivery(SCMM, false, "develop"));
+
+    assertThat(json).isEqualTo("{\"html_url\":\"https://test.de\",\"branch\":{\"default_branch\":false,\"name\":\"develop\"}}");
+  }
+
+  @Test
+  void shouldEncodeScmBatchPushEvent() {
+    String json = encode(delivery(SCMM, true, "main", "develop"));
+
+    assertThat(json).isEqualTo(
+      "{\"html_url\":\"https://test.de\",\"branches\":[" +
+        "{\"default_branch\":true,\"name\":\"main\"}," +
+        "{\"default_branch\":false,\"name\":\"develop\"}]}"
+    );
+  }
+
+  @Test
+  void shouldEncodeGitHubPushEvent() {
+    String json = encode(delivery(GITHUB, false, "feature/x"));
+
+    assertThat(json).isEqualTo(
+      "{\"repository\":{\"html_url\":\"https://test.de\",\"default_branch\":\"main\"},\"commits\":[],\"ref\":\"refs/heads/feature/x\"}"
+    );
+  }
+
+  @Test
+  void shouldEncodePreciseGitHubPushEvent() {
+    ArgoCDBranchChanges changes = new ArgoCDBranchChanges("abc", "def", List.of(
+      new ArgoCDBranchChanges.Commit("def", List.of("apps/b/values.yaml"), List.of("apps/a/values.yaml"), List.of())
+    ), 1000);
+    ArgoCDWebhook webhook = new ArgoCDWebhook(GITHUB, "https://argo-test.com/webhook", "", false);
+    ArgoCDDelivery delivery = new ArgoCDDelivery(
+      webhook, RepositoryTestData.create42Puzzle(), "https://test.de", "main", List.of("main"), List.of(), Map.of("main", changes)
+    );
+
+    String json = encode(delivery);
+
+    assertThat(json).isEqualTo(
+      "{\"repository\":{\"html_url\":\"https://test.de\",\"default_branch\":\"main\"}," +
+        "\"before\":\"abc\",\"after\":\"def\"," +
+        "\"commits\":[{\"id\":\"def\",\"added\":[\"apps/b/values.yaml\"],\"modified\":[\"apps/a/values.yaml\"],\"removed\":[]}]," +
+        "\"ref\":\"refs/heads/main\"}"
+    );
+  }
+
+  @Test
+  void shouldMergeChangesOfSameBranch() {
+    ArgoCDWebhook webhook = new ArgoCDWebhook(GITHUB, "https://argo-test.com/webhook", "", false);
+    ArgoCDDelivery first = new ArgoCDDelivery(
+      webhook, RepositoryTestData.create42Puzzle(), "https://test.de", "main", List.of("main"), List.of(),
+      Map.of("main", new ArgoCDBranchChanges("a", "b", List.of(commit("b", "x.yaml")), 2))
+    );
+    ArgoCDDelivery second = new ArgoCDDelivery(
+      webhook, RepositoryTestData.create42Puzzle(), "https://test.de", "main", List.of("main"), List.of(),
+      Map.of("main", new ArgoCDBranchChanges("b", "c", List.of(commit("c", "y.yaml")), 2))
+    );
+    ArgoCDDelivery third = new ArgoCDDelivery(
+      webhook, RepositoryTestData.create42Puzzle(), "https://test.de", "main", List.of("main"), List.of(),
+      Map.of("main", new ArgoCDBranchChanges("c", "d", List.of(commit("d", "z.yaml")), 2))
+    );
+
+    ArgoCDDelivery merged = first.merge(second);
+
+    assertThat(merged.getChanges("main").getBefore()).isEqualTo("a");
+    assertThat(merged.getChanges("main").getAfter()).isEqualTo("c");
+    assertThat(merged.getChanges("main").getCommits()).extracting(ArgoCDBranchChanges.Commit::getId).containsExactly("b", "c");
+    // the path limit of 2 is exceeded, so the branch is sent without commits
+    assertThat(merged.merge(third).getChanges("main")).isNull();
+  }
+
+  @Test
+  void shouldEncodeGitHubTagPushEvent() {
+    String json = encode(tagDelivery(GITHUB, false, "v1.0"));
+
+    assertThat(json).isEqualTo(
+      "{\"repository\":{\"html_url\":\"https://test.de\",\"default_branch\":\"main\"},\"commits\":[],\"ref\":\"refs/tags/v1.0\"}"
+    );
+  }
+
+  @Test
+  void shouldEncodeScmTagPushEvent() {
+    String json = encode(tagDelivery(SCMM, false, "main"));
+
+    assertThat(json).isEqualTo("{\"html_url\":\"https://test.de\",\"branch\":{\"default_branch\":false,\"name\":\"main\"}}");
+  }
+
+  @Test
+  void shouldEncodeTagsInScmBatchPushEvent() {
+    ArgoCDWebhook webhook = new ArgoCDWebhook(SCMM, "https://argo-test.com/webhook", "", false);
+    webhook.setBatch(true);
+    ArgoCDDelivery delivery = new ArgoCDDelivery(webhook, "1", "space/X", "https://test.de", "main", List.of("main"), List.of("v1.0", "v1.1"));
+
+    String json = encode(delivery);
+
+    assertThat(json).isEqualTo(
+      "{\"html_url\":\"https://test.de\",\"branches\":[" +
+        "{\"default_branch\":true,\"name\":\"main\"}," +
+        "{\"default_branch\":false,\"name\":\"v1.0\"}," +
+        "{\"default_branch\":false,\"name\":\"v1.1\"}]}"
+    );
+  }
+
+  @Test
+  void shouldSplitBranchesAndTags() {
+    ArgoCDWebhook webhook = new ArgoCDWebhook(GITHUB, "https://argo-test.com/webhook", "", false);
+    ArgoCDDelivery delivery = new ArgoCDDelivery(webhook, "1", "space/X", "https://test.de", "main", List.of("main"), List.of("v1.0"));
+
+    List<String> json = delivery.split().stream().map(this::encode).collect(Collectors.toList());
+
+    assertThat(json).hasSize(2);
+    assertThat(json.get(0)).endsWith("\"ref\":\"refs/heads/main\"}");
+    assertThat(json.get(1)).endsWith("\"ref\":\"refs/tags/v1.0\"}");
+  }
+
+  @Test
+  void shouldReuseTemplateForOtherBranches() {
+    encode(delivery(GITHUB, false, "main"));
+
+    String json = encode(delivery(GITHUB, false, "develop"));
+
+    assertThat(json).endsWith("\"ref\":\"refs/heads/develop\"}");
+  }
+
+  @Test
+  void shouldEscapeSpecialCharacters() throws IOException {
+    String branch = "fe\"at\\ure\u0001/\u00fcmlaut";
+
+    JsonNode json = new ObjectMapper().readTree(encode(delivery(SCMM, false, branch)));
+
+    assertThat(json.get("branch").get("name").asText()).isEqualTo(branch);
+  }
+
+  @Test
+  void shouldFailForUnsplitDelivery() {
+    ArgoCDDelivery delivery = delivery(GITHUB, true, "main", "develop");
+
+    assertThrows(IllegalStateException.class, () -> encode(delivery));
+  }
+
+  private ArgoCDBranchChanges.Commit commit(String id, String path) {
+    return new ArgoCDBranchChanges.Commit(id, List.of(), List.of(path), List.of());
+  }
+
+  private ArgoCDDelivery tagDelivery(HookImplementation hookImplementation, boolean batch, String... tags) {
+    ArgoCDWebhook webhook = new ArgoCDWebhook(hookImplementation, "https://argo-test.com/webhook", "", false);
+    webhook.setBatch(batch);
+    return new ArgoCDDelivery(webhook, "1", "space/X", "https://test.de", "main", List.of(), List.of(tags));
+  }
+
+  private String encode(ArgoCDDelivery delivery) {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    encoder.encode(delivery, buffer);
+    return buffer.toString(UTF_8);
+  }
+
+  private ArgoCDDelivery delivery(HookImplementation hookImplementation, boolean batch, String... branches) {
+    ArgoCDWebhook webhook = new ArgoCDWebhook(hookImplementation, "https://argo-test.com/webhook", "", false);
+    webhook.setBatch(batch);
+    return new ArgoCDDelivery(webhook, "1", "space/X", "https://test.de", "main", List.of(branches));
+  }
+}
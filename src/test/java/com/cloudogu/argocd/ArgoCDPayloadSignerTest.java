@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ArgoCDPayloadSignerTest {
+
+  private static final byte[] PAYLOAD = "{\"ref\":\"refs/heads/main\"}".getBytes(StandardCharsets.UTF_8);
+
+  private final ArgoCDPayloadSigner signer = new ArgoCDPayloadSigner();
+
+  @Test
+  void shouldComputeSha1Signature() {
+    String digest = signer.sign(HmacAlgorithms.HMAC_SHA_1, "456", PAYLOAD, PAYLOAD.length);
+
+    assertThat(digest).isEqualTo(new HmacUtils(HmacAlgorithms.HMAC_SHA_1, "456").hmacHex(PAYLOAD));
+  }
+
+  @Test
+  void shouldComputeSha256Signature() {
+    String digest = signer.sign(HmacAlgorithms.HMAC_SHA_256, "456", PAYLOAD, PAYLOAD.length);
+
+    assertThat(digest).isEqualTo(new HmacUtils(HmacAlgorithms.HMAC_SHA_256, "456").hmacHex(PAYLOAD));
+  }
+
+  @Test
+  void shouldOnlySignGivenLength() {
+    byte[] buffer = new byte[PAYLOAD.length + 10];
+    System.arraycopy(PAYLOAD, 0, buffer, 0, PAYLOAD.length);
+
+    String digest = signer.sign(HmacAlgorithms.HMAC_SHA_1, "456", buffer, PAYLOAD.length);
+
+    assertThat(digest).isEqualTo(new HmacUtils(HmacAlgorithms.HMAC_SHA_1, "456").hmacHex(PAYLOAD));
+  }
+
+  @Test
+  void shouldReusePooledMacWithoutLeakingState() {
+    String first = signer.sign(HmacAlgorithms.HMAC_SHA_1, "456", PAYLOAD, PAYLOAD.length);
+    String second = signer.sign(HmacAlgorithms.HMAC_SHA_1, "456", PAYLOAD, PAYLOAD.length);
+
+    assertThat(second).isEqualTo(first);
+  }
+
+  @Test
+  void shouldUseNewSecretAfterInvalidation() {
+    String before = signer.sign(HmacAlgorithms.HMAC_SHA_1, "456", PAYLOAD, PAYLOAD.length);
+
+    signer.invalidate("456");
+    String after = signer.sign(HmacAlgorithms.HMAC_SHA_1, "789", PAYLOAD, PAYLOAD.length);
+
+    assertThat(after).isNotEqualTo(before);
+    assertThat(after).isEqualTo(new HmacUtils(HmacAlgorithms.HMAC_SHA_1, "789").hmacHex(PAYLOAD));
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Modifications;
+import sonia.scm.repository.Modified;
+import sonia.scm.repository.PostReceiveRepositoryHookEvent;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.api.ModificationsCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.repository.api.RepositoryServiceFactory;
+
+import java.io.IOException;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ArgoCDPushContextTest {
+
+  @Mock
+  private RepositoryServiceFactory serviceFactory;
+  @Mock
+  private RepositoryService service;
+  @Mock
+  private ModificationsCommandBuilder modificationsCommand;
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private PostReceiveRepositoryHookEvent event;
+  @Mock
+  private ArgoCDRepositoryMetadataCache metadataCache;
+
+  private final Repository repository = RepositoryTestData.create42Puzzle();
+
+  private ArgoCDPushContext context;
+
+  @BeforeEach
+  void init() {
+    context = new ArgoCDPushContext(repository, event, serviceFactory, metadataCache);
+  }
+
+  @Test
+  void shouldReadModificationsOnlyOnce() throws IOException {
+    mockModifications();
+
+    context.retain();
+    context.retain();
+    Modifications first = context.getModifications("1");
+    Modifications second = context.getModifications("1");
+
+    assertThat(second).isSameAs(first);
+    verify(serviceFactory).create(repository);
+    verify(modificationsCommand).getModifications();
+  }
+
+  @Test
+  void shouldCloseServiceWithLastCreatedExecutor() throws IOException {
+    mockModifications();
+
+    context.retain();
+    context.retain();
+    context.getModifications("1");
+    context.release();
+
+    verify(service, never()).close();
+
+    context.release();
+
+    verify(service).close();
+  }
+
+  @Test
+  void shouldKeepModificationsAfterServiceIsClosed() throws IOException {
+    mockModifications();
+
+    context.retain();
+    context.getModifications("1");
+    context.release();
+    context.retain();
+    context.getModifications("1");
+    context.release();
+
+    verify(serviceFactory, times(1)).create(repository);
+  }
+
+  @Test
+  void shouldReadBranchesOnlyOnce() {
+    when(event.getContext().getBranchProvider().getCreatedOrModified()).thenReturn(singletonList("main"));
+
+    context.getCreatedOrModified();
+
+    assertThat(context.getCreatedOrModified()).containsExactly("main");
+    verify(event.getContext().getBranchProvider()).getCreatedOrModified();
+  }
+
+  @Test
+  void shouldReloadMetadataIfDefaultBranchIsDeleted() {
+    when(event.getContext().getBranchProvider().getDeletedOrClosed()).thenReturn(singletonList("main"));
+    when(metadataCache.get(repository)).thenReturn(
+      new ArgoCDRepositoryMetadata("main", "https://scm.hitchhiker.com"),
+      new ArgoCDRepositoryMetadata("develop", "https://scm.hitchhiker.com")
+    );
+
+    assertThat(context.getMetadata().getDefaultBranch()).isEqualTo("develop");
+    assertThat(context.getMetadata().getDefaultBranch()).isEqualTo("develop");
+    verify(metadataCache).invalidate(repository);
+  }
+
+  private void mockModifications() throws IOException {
+    when(serviceFactory.create(repository)).thenReturn(service);
+    when(service.getModificationsCommand()).thenReturn(modificationsCommand);
+    when(modificationsCommand.revision("1")).thenReturn(modificationsCommand);
+    when(modificationsCommand.getModifications()).thenReturn(new Modifications("1", new Modified("deploy/app.yaml")));
+  }
+}
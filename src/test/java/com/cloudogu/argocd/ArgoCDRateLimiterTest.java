@@ -0,0 +1,133 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ArgoCDRateLimiterTest {
+
+  private static final String URL = "https://argo-test.com/webhook";
+
+  @Mock
+  private ArgoCDConfigurationStore configurationStore;
+
+  private final ArgoCDConfiguration configuration = new ArgoCDConfiguration();
+  private final MeterRegistry registry = new SimpleMeterRegistry();
+  private Instant now = Instant.parse("2023-01-01T10:00:00Z");
+
+  private ArgoCDRateLimiter rateLimiter;
+
+  @BeforeEach
+  void initRateLimiter() {
+    configuration.setRateLimitPerSecond(10);
+    configuration.setRateLimitBurst(5);
+    configuration.setRateLimitPriorityReservePercent(40);
+    when(configurationStore.get()).thenReturn(configuration);
+    rateLimiter = new ArgoCDRateLimiter(configurationStore, new ArgoCDMetrics(registry), new Clock() {
+      @Override
+      public ZoneOffset getZone() {
+        return ZoneOffset.UTC;
+      }
+
+      @Override
+      public Clock withZone(ZoneId zone) {
+        return this;
+      }
+
+      @Override
+      public Instant instant() {
+        return now;
+      }
+    });
+  }
+
+  @Test
+  void shouldNotLimitIfDisabled() {
+    configuration.setRateLimitPerSecond(0);
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(rateLimiter.tryAcquire(URL, false)).isZero();
+    }
+  }
+
+  @Test
+  void shouldKeepReserveForPriorityDeliveries() {
+    // burst of 5 with 2 tokens reserved
+    for (int i = 0; i < 3; i++) {
+      assertThat(rateLimiter.tryAcquire(URL, false)).isZero();
+    }
+    assertThat(rateLimiter.tryAcquire(URL, false)).isEqualTo(100);
+
+    assertThat(rateLimiter.tryAcquire(URL, true)).isZero();
+    assertThat(rateLimiter.tryAcquire(URL, true)).isZero();
+    assertThat(rateLimiter.tryAcquire(URL, true)).isEqualTo(100);
+  }
+
+  @Test
+  void shouldRefillTokens() {
+    for (int i = 0; i < 5; i++) {
+      rateLimiter.tryAcquire(URL, true);
+    }
+
+    now = now.plusMillis(100);
+
+    assertThat(rateLimiter.tryAcquire(URL, true)).isZero();
+    assertThat(rateLimiter.tryAcquire(URL, true)).isEqualTo(100);
+  }
+
+  @Test
+  void shouldLimitEachHostSeparately() {
+    for (int i = 0; i < 5; i++) {
+      rateLimiter.tryAcquire(URL, true);
+    }
+
+    assertThat(rateLimiter.tryAcquire("https://argo-test.com:8443/webhook", true)).isZero();
+    assertThat(rateLimiter.tryAcquire("https://other-argo.com/webhook", true)).isZero();
+  }
+
+  @Test
+  void shouldExposeSaturation() {
+    rateLimiter.tryAcquire(URL, false);
+    rateLimiter.tryAcquire(URL, false);
+
+    assertThat(registry.get(ArgoCDMetrics.RATE_LIMIT_SATURATION).tag("host", "argo-test.com").gauge().value())
+      .isCloseTo(0.4, within(0.001));
+  }
+}
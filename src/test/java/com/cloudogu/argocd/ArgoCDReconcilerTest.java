@@ -0,0 +1,336 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Branch;
+import sonia.scm.repository.Branches;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.Tag;
+import sonia.scm.repository.Tags;
+import sonia.scm.repository.api.BranchesCommandBuilder;
+import sonia.scm.repository.api.Command;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.repository.api.RepositoryServiceFactory;
+import sonia.scm.repository.api.TagsCommandBuilder;
+import sonia.scm.store.InMemoryConfigurationStoreFactory;
+import sonia.scm.web.security.AdministrationContext;
+import sonia.scm.web.security.PrivilegedAction;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static com.cloudogu.argocd.HookImplementation.SCMM;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ArgoCDReconcilerTest {
+
+  private static final String URL = "https://argo-test.com/webhook";
+
+  @Mock
+  private ArgoCDConfigurationStore configurationStore;
+  @Mock
+  private RepositoryManager repositoryManager;
+  @Mock
+  private RepositoryServiceFactory serviceFactory;
+  @Mock
+  private RepositoryService service;
+  @Mock
+  private BranchesCommandBuilder branchesCommand;
+  @Mock
+  private TagsCommandBuilder tagsCommand;
+  @Mock
+  private ArgoCDRepositoryMetadataCache metadataCache;
+  @Mock
+  private ArgoCDWebhookLookup webhookLookup;
+  @Mock
+  private ArgoCDDeliveryQueue queue;
+  @Mock
+  private AdministrationContext administrationContext;
+  @Mock
+  private ScheduledExecutorService scheduler;
+
+  private final ArgoCDConfiguration configuration = new ArgoCDConfiguration();
+  private final Repository repository = RepositoryTestData.create42Puzzle();
+
+  private ArgoCDRefStateStore refStateStore;
+  private ArgoCDReconciler reconciler;
+
+  @BeforeEach
+  void initReconciler() {
+    configuration.setReconcileIntervalMinutes(5);
+    lenient().when(configurationStore.get()).thenReturn(configuration);
+    lenient().when(serviceFactory.create(repository)).thenReturn(service);
+    lenient().when(service.getBranchesCommand()).thenReturn(branchesCommand);
+    lenient().when(branchesCommand.setDisableCache(true)).thenReturn(branchesCommand);
+    lenient().when(metadataCache.get(repository)).thenReturn(new ArgoCDRepositoryMetadata("main", "https://scm.hitchhiker.com/repo/hitchhiker/42Puzzle"));
+    lenient().doAnswer(invocation -> {
+      invocation.getArgument(0, PrivilegedAction.class).run();
+      return null;
+    }).when(administrationContext).runAsAdmin(any(PrivilegedAction.class));
+
+    refStateStore = new ArgoCDRefStateStore(new InMemoryConfigurationStoreFactory(), configurationStore);
+    reconciler = new ArgoCDReconciler(
+      configurationStore,
+      refStateStore,
+      repositoryManager,
+      serviceFactory,
+      metadataCache,
+      new ArgoCDBranchMatcherCache(),
+      webhookLookup,
+      () -> queue,
+      administrationContext,
+      scheduler,
+      Runnable::run,
+      Clock.fixed(Instant.parse("2023-01-01T10:00:00Z"), ZoneOffset.UTC)
+    );
+  }
+
+  @Test
+  void shouldIgnoreRepositoriesWithoutState() {
+    assertThat(reconciler.reconcile(repository)).isZero();
+
+    verify(serviceFactory, never()).create(repository);
+  }
+
+  @Test
+  void shouldTakeCurrentRefsAsStartingPoint() throws IOException {
+    ArgoCDWebhook webhook = webhook();
+    register(webhook);
+    mockBranches(Branch.defaultBranch("main", "abc", 0L), Branch.normalBranch("develop", "def", 0L));
+
+    assertThat(reconciler.reconcile(repository)).isZero();
+
+    verify(queue, never()).offer(any());
+    assertThat(snapshot().isInitialized()).isTrue();
+    assertThat(snapshot().getRefs()).containsOnly(
+      Map.entry("refs/heads/main", "abc"),
+      Map.entry("refs/heads/develop", "def")
+    );
+  }
+
+  @Test
+  void shouldNotSendNotifiedRefs() throws IOException {
+    ArgoCDWebhook webhook = webhook();
+    register(webhook);
+    refStateStore.initialize(repository.getId(), URL, Map.of("refs/heads/main", "abc"));
+    mockBranches(Branch.defaultBranch("main", "abc", 0L));
+
+    assertThat(reconciler.reconcile(repository)).isZero();
+
+    verify(queue, never()).offer(any());
+  }
+
+  @Test
+  void shouldSendChangedCreatedAndDeletedBranches() throws IOException {
+    ArgoCDWebhook webhook = webhook();
+    register(webhook);
+    refStateStore.initialize(repository.getId(), URL, Map.of("refs/heads/main", "abc", "refs/heads/old", "def"));
+    mockBranches(Branch.defaultBranch("main", "123", 0L), Branch.normalBranch("develop", "456", 0L));
+
+    assertThat(reconciler.reconcile(repository)).isEqualTo(1);
+
+    ArgoCDDelivery delivery = captureDelivery();
+    assertThat(delivery.getBranches()).containsExactlyInAnyOrder("main", "develop", "old");
+    assertThat(delivery.getRevisions()).containsOnly(
+      Map.entry("refs/heads/main", "123"),
+      Map.entry("refs/heads/develop", "456"),
+      Map.entry("refs/heads/old", "")
+    );
+  }
+
+  @Test
+  void shouldRecordBranchesNotMatchingTheWebhookAsNotified() throws IOException {
+    ArgoCDWebhook webhook = webhook();
+    webhook.setDefaultBranchOnly(true);
+    register(webhook);
+    refStateStore.initialize(repository.getId(), URL, Map.of("refs/heads/main", "abc"));
+    mockBranches(Branch.defaultBranch("main", "abc", 0L), Branch.normalBranch("feature", "def", 0L));
+
+    assertThat(reconciler.reconcile(repository)).isZero();
+
+    verify(queue, never()).offer(any());
+    assertThat(snapshot().getRefs()).containsEntry("refs/heads/feature", "def");
+  }
+
+  @Test
+  void shouldSendToCurrentConfigurationOfWebhook() throws IOException {
+    register(webhook());
+    refStateStore.initialize(repository.getId(), URL, Map.of("refs/heads/main", "abc"));
+    ArgoCDWebhook changed = webhook();
+    changed.setSecret("new-secret");
+    when(webhookLookup.find(repository)).thenReturn(singletonList(changed));
+    mockBranches(Branch.defaultBranch("main", "123", 0L));
+
+    assertThat(reconciler.reconcile(repository)).isEqualTo(1);
+
+    assertThat(captureDelivery().getWebhook().getSecret()).isEqualTo("new-secret");
+  }
+
+  @Test
+  void shouldRemoveSnapshotsOfWebhooksWhichAreNotConfiguredAnymore() {
+    register(webhook());
+    refStateStore.initialize(repository.getId(), URL, Map.of("refs/heads/main", "abc"));
+    when(webhookLookup.find(repository)).thenReturn(singletonList(new ArgoCDWebhook(SCMM, "https://moved.argo-test.com/webhook", "", false)));
+
+    assertThat(reconciler.reconcile(repository)).isZero();
+
+    verify(serviceFactory, never()).create(repository);
+    assertThat(refStateStore.get(repository.getId())).hasValueSatisfying(state -> assertThat(state.getSnapshots()).isEmpty());
+  }
+
+  @Test
+  void shouldSendTagsOnlyIfEnabledForWebhook() throws IOException {
+    ArgoCDWebhook webhook = webhook();
+    webhook.setTags(true);
+    register(webhook);
+    refStateStore.initialize(repository.getId(), URL, Map.of("refs/heads/main", "abc", "refs/tags/1.0", "abc"));
+    mockBranches(Branch.defaultBranch("main", "abc", 0L));
+    when(service.isSupported(Command.TAGS)).thenReturn(true);
+    when(service.getTagsCommand()).thenReturn(tagsCommand);
+    when(tagsCommand.setDisableCache(true)).thenReturn(tagsCommand);
+    when(tagsCommand.getTags()).thenReturn(new Tags(asList(new Tag("1.0", "abc"), new Tag("1.1", "def"))));
+
+    assertThat(reconciler.reconcile(repository)).isEqualTo(1);
+
+    ArgoCDDelivery delivery = captureDelivery();
+    assertThat(delivery.getBranches()).isEmpty();
+    assertThat(delivery.getTags()).containsExactly("1.1");
+  }
+
+  @Test
+  void shouldReconcileAllRepositories() throws IOException {
+    ArgoCDWebhook webhook = webhook();
+    register(webhook);
+    refStateStore.initialize(repository.getId(), URL, Map.of());
+    mockBranches(Branch.defaultBranch("main", "abc", 0L));
+    when(repositoryManager.get(repository.getId())).thenReturn(repository);
+
+    assertThat(reconciler.reconcileAll()).isEqualTo(1);
+
+    verify(queue).offer(any());
+  }
+
+  @Test
+  void shouldForgetStateOfDeletedRepositories() {
+    refStateStore.register(repository, URL);
+
+    assertThat(reconciler.reconcileAll()).isZero();
+
+    assertThat(refStateStore.getRepositoryIds()).isEmpty();
+    verify(serviceFactory, never()).create(repository);
+  }
+
+  @Test
+  void shouldNotRunIfDisabled() {
+    configuration.setReconcileIntervalMinutes(0);
+    refStateStore.register(repository, URL);
+
+    reconciler.tick();
+
+    verify(repositoryManager, never()).get(any());
+  }
+
+  @Test
+  void shouldRunOnlyOncePerInterval() throws IOException {
+    register(webhook());
+    refStateStore.initialize(repository.getId(), URL, Map.of("refs/heads/main", "abc"));
+    mockBranches(Branch.defaultBranch("main", "abc", 0L));
+    when(repositoryManager.get(repository.getId())).thenReturn(repository);
+
+    reconciler.tick();
+    reconciler.tick();
+
+    verify(repositoryManager).get(repository.getId());
+  }
+
+  @Test
+  void shouldShutdownSchedulerAndWorkersOnClose() {
+    ExecutorService workers = Executors.newSingleThreadExecutor();
+    ArgoCDReconciler closable = new ArgoCDReconciler(
+      configurationStore,
+      refStateStore,
+      repositoryManager,
+      serviceFactory,
+      metadataCache,
+      new ArgoCDBranchMatcherCache(),
+      webhookLookup,
+      () -> queue,
+      administrationContext,
+      scheduler,
+      workers,
+      Clock.systemUTC()
+    );
+
+    closable.close();
+
+    verify(scheduler).shutdown();
+    assertThat(workers.isTerminated()).isTrue();
+  }
+
+  private ArgoCDWebhook webhook() {
+    return new ArgoCDWebhook(SCMM, URL, "", false);
+  }
+
+  private void register(ArgoCDWebhook webhook) {
+    refStateStore.register(repository, webhook.getUrl());
+    lenient().when(webhookLookup.find(repository)).thenReturn(singletonList(webhook));
+  }
+
+  private void mockBranches(Branch... branches) throws IOException {
+    when(branchesCommand.getBranches()).thenReturn(new Branches(asList(branches)));
+  }
+
+  private ArgoCDRefState.Snapshot snapshot() {
+    return refStateStore.get(repository.getId()).flatMap(state -> state.find(URL)).orElseThrow();
+  }
+
+  private ArgoCDDelivery captureDelivery() {
+    ArgumentCaptor<ArgoCDDelivery> captor = ArgumentCaptor.forClass(ArgoCDDelivery.class);
+    verify(queue).offer(captor.capture());
+    return captor.getValue();
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Changeset;
+import sonia.scm.repository.PostReceiveRepositoryHookEvent;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.Tag;
+import sonia.scm.repository.api.HookFeature;
+import sonia.scm.store.InMemoryConfigurationStoreFactory;
+
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ArgoCDRefStateStoreTest {
+
+  private static final String URL = "https://argo-test.com/webhook";
+
+  @Mock
+  private ArgoCDConfigurationStore configurationStore;
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private PostReceiveRepositoryHookEvent event;
+
+  private final ArgoCDConfiguration configuration = new ArgoCDConfiguration();
+  private final Repository repository = RepositoryTestData.create42Puzzle();
+
+  private ArgoCDRefStateStore refStateStore;
+
+  @BeforeEach
+  void initStore() {
+    lenient().when(configurationStore.get()).thenReturn(configuration);
+    refStateStore = new ArgoCDRefStateStore(new InMemoryConfigurationStoreFactory(), configurationStore);
+  }
+
+  @Test
+  void shouldBeDisabledByDefault() {
+    assertThat(refStateStore.isEnabled()).isFalse();
+
+    configuration.setReconcileIntervalMinutes(10);
+
+    assertThat(refStateStore.isEnabled()).isTrue();
+  }
+
+  @Test
+  void shouldRecordNotifiedRevisionsOfRegisteredWebhook() {
+    refStateStore.register(repository, URL);
+    refStateStore.initialize(repository.getId(), URL, Map.of("refs/heads/main", "abc", "refs/heads/old", "def"));
+
+    refStateStore.notified(repository.getId(), URL, Map.of("refs/heads/main", "123", "refs/heads/old", ""));
+
+    assertThat(refStateStore.get(repository.getId()).flatMap(state -> state.find(URL)))
+      .hasValueSatisfying(snapshot -> assertThat(snapshot.getRefs()).containsOnly(Map.entry("refs/heads/main", "123")));
+  }
+
+  @Test
+  void shouldRemoveSnapshotsOfOtherUrls() {
+    refStateStore.register(repository, URL);
+    refStateStore.register(repository, "https://old.argo-test.com/webhook");
+
+    refStateStore.retain(repository.getId(), singletonList(URL));
+
+    assertThat(refStateStore.get(repository.getId())).hasValueSatisfying(state ->
+      assertThat(state.getSnapshots()).extracting(ArgoCDRefState.Snapshot::getUrl).containsExactly(URL)
+    );
+  }
+
+  @Test
+  void shouldIndexRepositoriesWithState() {
+    refStateStore.register(repository, URL);
+
+    assertThat(refStateStore.getRepositoryIds()).containsExactly(repository.getId());
+
+    refStateStore.retain(repository.getId(), emptyList());
+
+    assertThat(refStateStore.getRepositoryIds()).isEmpty();
+  }
+
+  @Test
+  void shouldRegisterWebhookAgainAfterItHasBeenRemoved() {
+    refStateStore.register(repository, URL);
+    refStateStore.retain(repository.getId(), emptyList());
+
+    refStateStore.register(repository, URL);
+
+    assertThat(refStateStore.get(repository.getId()).flatMap(state -> state.find(URL))).isPresent();
+  }
+
+  @Test
+  void shouldReportWhetherNotifiedRevisionsChangedTheSnapshot() {
+    ArgoCDRefState.Snapshot snapshot = new ArgoCDRefState.Snapshot(URL);
+
+    assertThat(snapshot.notified(Map.of("refs/heads/main", "abc"))).isTrue();
+    assertThat(snapshot.notified(Map.of("refs/heads/main", "abc"))).isFalse();
+    assertThat(snapshot.notified(Map.of("refs/heads/old", ""))).isFalse();
+    assertThat(snapshot.notified(Map.of("refs/heads/main", ""))).isTrue();
+  }
+
+  @Test
+  void shouldIgnoreNotificationsForUnknownWebhooks() {
+    refStateStore.notified(repository.getId(), URL, Map.of("refs/heads/main", "123"));
+
+    assertThat(refStateStore.get(repository.getId())).isEmpty();
+  }
+
+  @Test
+  void shouldFindHeadOfPushedBranches() {
+    when(event.getContext().getChangesetProvider().getChangesets()).thenReturn(asList(
+      changeset("c3", "main", "c2"),
+      changeset("c2", "main", "c1"),
+      changeset("f1", "feature", "c1")
+    ));
+
+    Map<String, String> revisions = ArgoCDRefStateStore.pushedRevisions(new ArgoCDPushContext(repository, event, null, null), asList("main", "feature"), singletonList("old"), emptyList());
+
+    assertThat(revisions).containsOnly(
+      Map.entry("refs/heads/main", "c3"),
+      Map.entry("refs/heads/feature", "f1"),
+      Map.entry("refs/heads/old", "")
+    );
+  }
+
+  @Test
+  void shouldReturnRevisionsOfCreatedAndDeletedTags() {
+    when(event.getContext().isFeatureSupported(HookFeature.TAG_PROVIDER)).thenReturn(true);
+    when(event.getContext().getTagProvider().getCreatedTags()).thenReturn(singletonList(new Tag("1.1", "abc")));
+    when(event.getContext().getTagProvider().getDeletedTags()).thenReturn(singletonList(new Tag("1.0", "def")));
+
+    Map<String, String> revisions = ArgoCDRefStateStore.pushedRevisions(new ArgoCDPushContext(repository, event, null, null), emptyList(), emptyList(), asList("1.1", "1.0"));
+
+    assertThat(revisions).containsOnly(
+      Map.entry("refs/tags/1.1", "abc"),
+      Map.entry("refs/tags/1.0", "")
+    );
+  }
+
+  private Changeset changeset(String id, String branch, String parent) {
+    Changeset changeset = new Changeset();
+    changeset.setId(id);
+    changeset.setBranches(singletonList(branch));
+    changeset.setParents(List.of(parent));
+    return changeset;
+  }
+}
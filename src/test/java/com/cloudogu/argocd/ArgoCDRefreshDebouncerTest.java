@@ -0,0 +1,144 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.cloudogu.argocd.HookImplementation.SCMM;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ArgoCDRefreshDebouncerTest {
+
+  private static final ArgoCDWebhook WEBHOOK = new ArgoCDWebhook(SCMM, "https://argo-test.com/webhook", "", false);
+
+  @Mock
+  private ArgoCDConfigurationStore configurationStore;
+  @Mock
+  private ArgoCDDeliveryQueue queue;
+  @Mock
+  private ScheduledExecutorService scheduler;
+
+  private final ArgoCDConfiguration configuration = new ArgoCDConfiguration();
+
+  private ArgoCDRefreshDebouncer debouncer;
+
+  @BeforeEach
+  void initDebouncer() {
+    when(configurationStore.get()).thenReturn(configuration);
+    debouncer = new ArgoCDRefreshDebouncer(configurationStore, queue, scheduler);
+  }
+
+  @Test
+  void shouldPassDeliveriesDirectlyIfDisabled() {
+    ArgoCDDelivery delivery = delivery("1", "main");
+
+    debouncer.submit(delivery);
+
+    verify(queue).offer(delivery);
+    verify(scheduler, never()).schedule(any(Runnable.class), anyLong(), any());
+  }
+
+  @Test
+  void shouldCollapseDeliveriesWithinWindow() {
+    configuration.setDebounceMillis(500);
+
+    debouncer.submit(delivery("1", "main"));
+    debouncer.submit(delivery("1", "main"));
+    debouncer.submit(delivery("1", "develop"));
+
+    verify(queue, never()).offer(any());
+    assertThat(debouncer.getPendingDeliveries()).isEqualTo(1);
+    assertThat(debouncer.getSuppressedRefreshes()).isEqualTo(1);
+
+    ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+    verify(scheduler).schedule(flush.capture(), eq(500L), eq(TimeUnit.MILLISECONDS));
+    flush.getValue().run();
+
+    ArgumentCaptor<ArgoCDDelivery> delivered = ArgumentCaptor.forClass(ArgoCDDelivery.class);
+    verify(queue).offer(delivered.capture());
+    assertThat(delivered.getValue().getBranches()).containsExactly("main", "develop");
+    assertThat(debouncer.getPendingDeliveries()).isZero();
+  }
+
+  @Test
+  void shouldDebounceRepositoriesIndependently() {
+    configuration.setDebounceMillis(500);
+
+    debouncer.submit(delivery("1", "main"));
+    debouncer.submit(delivery("2", "main"));
+
+    assertThat(debouncer.getPendingDeliveries()).isEqualTo(2);
+    assertThat(debouncer.getSuppressedRefreshes()).isZero();
+    verify(scheduler, times(2)).schedule(any(Runnable.class), eq(500L), eq(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  void shouldFlushPendingDeliveriesOnClose() {
+    configuration.setDebounceMillis(500);
+    debouncer.submit(delivery("1", "main"));
+
+    debouncer.close();
+
+    verify(scheduler).shutdownNow();
+    verify(queue).offer(any());
+    assertThat(debouncer.getPendingDeliveries()).isZero();
+  }
+
+  @Test
+  void shouldNotFailOnCloseIfQueueIsAlreadyClosed() {
+    configuration.setDebounceMillis(500);
+    debouncer.submit(delivery("1", "main"));
+    debouncer.submit(delivery("2", "main"));
+    doThrow(RejectedExecutionException.class).when(queue).offer(any());
+
+    debouncer.close();
+
+    verify(queue, times(2)).offer(any());
+    assertThat(debouncer.getPendingDeliveries()).isZero();
+  }
+
+  private ArgoCDDelivery delivery(String repositoryId, String branch) {
+    return new ArgoCDDelivery(WEBHOOK, repositoryId, "space/X" + repositoryId, "https://test.de", "main", singletonList(branch));
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.HandlerEventType;
+import sonia.scm.cache.Cache;
+import sonia.scm.cache.CacheManager;
+import sonia.scm.config.ScmConfiguration;
+import sonia.scm.config.ScmConfigurationChangedEvent;
+import sonia.scm.repository.Branch;
+import sonia.scm.repository.Branches;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryModificationEvent;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.api.BranchesCommandBuilder;
+import sonia.scm.repository.api.RepositoryService;
+import sonia.scm.repository.api.RepositoryServiceFactory;
+import sonia.scm.repository.api.ScmProtocol;
+
+import java.io.IOException;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ArgoCDRepositoryMetadataCacheTest {
+
+  @Mock
+  private CacheManager cacheManager;
+  @Mock
+  private Cache<String, ArgoCDRepositoryMetadata> cache;
+  @Mock
+  private RepositoryServiceFactory serviceFactory;
+  @Mock
+  private RepositoryService service;
+  @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+  private BranchesCommandBuilder branchesCommand;
+
+  private final Repository repository = RepositoryTestData.create42Puzzle();
+
+  private ArgoCDRepositoryMetadataCache metadataCache;
+
+  @BeforeEach
+  void initCache() {
+    repository.setId("42");
+    when(cacheManager.<String, ArgoCDRepositoryMetadata>getCache(ArgoCDRepositoryMetadataCache.CACHE_NAME)).thenReturn(cache);
+    metadataCache = new ArgoCDRepositoryMetadataCache(cacheManager, serviceFactory, new ArgoCDMetrics(new SimpleMeterRegistry()), configuration("https://scm.hitchhiker.com"));
+  }
+
+  @Test
+  void shouldLoadAndCacheMetadata() throws IOException {
+    when(serviceFactory.create(repository)).thenReturn(service);
+    when(service.getBranchesCommand()).thenReturn(branchesCommand);
+    when(branchesCommand.getBranches()).thenReturn(new Branches(asList(
+      Branch.normalBranch("feature", "abc", 0L),
+      Branch.defaultBranch("main", "def", 0L)
+    )));
+    when(service.getSupportedProtocols()).thenReturn(Stream.of(protocol("ssh", "ssh://test.de"), protocol("http", "https://test.de")));
+
+    ArgoCDRepositoryMetadata metadata = metadataCache.get(repository);
+
+    assertThat(metadata.getDefaultBranch()).isEqualTo("main");
+    assertThat(metadata.getHtmlUrl()).isEqualTo("https://test.de");
+    verify(cache).put("42", metadata);
+  }
+
+  @Test
+  void shouldNotCacheMetadataOfEmptyRepository() throws IOException {
+    when(serviceFactory.create(repository)).thenReturn(service);
+    when(service.getBranchesCommand()).thenReturn(branchesCommand);
+    when(branchesCommand.getBranches()).thenReturn(new Branches(emptyList()));
+    when(service.getSupportedProtocols()).thenReturn(Stream.of(protocol("http", "https://test.de")));
+
+    ArgoCDRepositoryMetadata metadata = metadataCache.get(repository);
+
+    assertThat(metadata.getDefaultBranch()).isNull();
+    verify(cache, never()).put(any(), any());
+  }
+
+  @Test
+  void shouldUseCachedMetadata() {
+    ArgoCDRepositoryMetadata cached = new ArgoCDRepositoryMetadata("main", "https://test.de");
+    when(cache.get("42")).thenReturn(cached);
+
+    assertThat(metadataCache.get(repository)).isSameAs(cached);
+    verify(serviceFactory, never()).create(repository);
+  }
+
+  @Test
+  void shouldInvalidateOnRepositoryModification() {
+    metadataCache.onRepositoryEvent(new RepositoryModificationEvent(HandlerEventType.MODIFY, repository, repository));
+
+    verify(cache).remove("42");
+  }
+
+  @Test
+  void shouldClearCacheIfBaseUrlChanges() {
+    metadataCache.onConfigurationChanged(new ScmConfigurationChangedEvent(configuration("https://scm.hitchhiker.org")));
+
+    verify(cache).clear();
+  }
+
+  @Test
+  void shouldKeepCacheIfOtherConfigurationChanges() {
+    metadataCache.onConfigurationChanged(new ScmConfigurationChangedEvent(configuration("https://scm.hitchhiker.com")));
+
+    verify(cache, never()).clear();
+  }
+
+  private ScmConfiguration configuration(String baseUrl) {
+    ScmConfiguration configuration = new ScmConfiguration();
+    configuration.setBaseUrl(baseUrl);
+    return configuration;
+  }
+
+  private ScmProtocol protocol(String type, String url) {
+    return new ScmProtocol() {
+      @Override
+      public String getType() {
+        return type;
+      }
+
+      @Override
+      public String getUrl() {
+        return url;
+      }
+    };
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.apache.shiro.authz.AuthorizationException;
+import org.github.sdorra.jse.ShiroExtension;
+import org.github.sdorra.jse.SubjectAware;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.NotFoundException;
+import sonia.scm.repository.NamespaceAndName;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryTestData;
+
+import java.util.List;
+import java.util.Optional;
+
+import static com.cloudogu.argocd.HookImplementation.SCMM;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith({MockitoExtension.class, ShiroExtension.class})
+class ArgoCDResourceTest {
+
+  @Mock
+  private ArgoCDCircuitBreaker circuitBreaker;
+  @Mock
+  private ArgoCDWebhookLookup webhookLookup;
+  @Mock
+  private RepositoryManager repositoryManager;
+
+  @InjectMocks
+  private ArgoCDResource resource;
+
+  private final Repository repository = RepositoryTestData.create42Puzzle();
+
+  @BeforeEach
+  void initRepository() {
+    repository.setId("42");
+    lenient().when(repositoryManager.get(new NamespaceAndName("hitchhiker", "42Puzzle"))).thenReturn(repository);
+    lenient().when(circuitBreaker.getCircuit(anyString())).thenReturn(Optional.empty());
+  }
+
+  @Test
+  @SubjectAware(value = "trillian", permissions = "repository:modify:42")
+  void shouldReturnEndpointStatesOfOwnWebhooks() {
+    ArgoCDWebhook webhook = new ArgoCDWebhook(SCMM, "https://argo-one.com/webhook", "", false);
+    webhook.setTargets(List.of(new ArgoCDWebhookTarget("https://argo-two.com/webhook", "")));
+    when(webhookLookup.find(repository)).thenReturn(List.of(webhook, new ArgoCDWebhook(SCMM, "https://argo-one.com/webhook", "", false)));
+
+    List<ArgoCDEndpointStateDto> states = resource.getEndpointStates("hitchhiker", "42Puzzle");
+
+    assertThat(states)
+      .extracting(ArgoCDEndpointStateDto::getUrl)
+      .containsExactly("https://argo-one.com/webhook", "https://argo-two.com/webhook");
+    assertThat(states)
+      .extracting(ArgoCDEndpointStateDto::getState)
+      .containsOnly(ArgoCDCircuitBreaker.State.CLOSED);
+  }
+
+  @Test
+  @SubjectAware(value = "trillian", permissions = "repository:read:42")
+  void shouldNotReturnEndpointStatesWithoutModifyPermission() {
+    assertThatThrownBy(() -> resource.getEndpointStates("hitchhiker", "42Puzzle"))
+      .isInstanceOf(AuthorizationException.class);
+  }
+
+  @Test
+  @SubjectAware(value = "trillian", permissions = "repository:modify:42")
+  void shouldFailForUnknownRepository() {
+    assertThatThrownBy(() -> resource.getEndpointStates("hitchhiker", "HeartOfGold"))
+      .isInstanceOf(NotFoundException.class);
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import org.github.sdorra.jse.ShiroExtension;
+import org.github.sdorra.jse.SubjectAware;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.repository.Repository;
+import sonia.scm.repository.RepositoryManager;
+import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.web.security.AdministrationContext;
+import sonia.scm.web.security.PrivilegedAction;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import static com.cloudogu.argocd.HookImplementation.SCMM;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith({MockitoExtension.class, ShiroExtension.class})
+@SubjectAware(value = "trillian", permissions = "configuration:write:argocd")
+class ArgoCDResyncTest {
+
+  private static final Instant NOW = Instant.parse("2023-01-01T10:00:00Z");
+
+  @Mock
+  private ArgoCDConfigurationStore configurationStore;
+  @Mock
+  private RepositoryManager repositoryManager;
+  @Mock
+  private ArgoCDWebhookLookup webhookLookup;
+  @Mock
+  private ArgoCDRepositoryMetadataCache metadataCache;
+  @Mock
+  private ArgoCDDeliveryQueue queue;
+  @Mock
+  private AdministrationContext administrationContext;
+
+  private final ArgoCDConfiguration configuration = new ArgoCDConfiguration();
+  private final List<Runnable> runs = new ArrayList<>();
+
+  private ArgoCDResync resync;
+
+  @BeforeEach
+  void initResync() {
+    lenient().when(configurationStore.get()).thenReturn(configuration);
+    lenient().doAnswer(invocation -> {
+      invocation.getArgument(0, PrivilegedAction.class).run();
+      return null;
+    }).when(administrationContext).runAsAdmin(any(PrivilegedAction.class));
+    resync = new ArgoCDResync(
+      configurationStore,
+      repositoryManager,
+      webhookLookup,
+      metadataCache,
+      new ArgoCDBranchMatcherCache(),
+      queue,
+      administrationContext,
+      runs::add,
+      Runnable::run,
+      Clock.fixed(NOW, ZoneOffset.UTC)
+    );
+  }
+
+  @Test
+  void shouldNotifyDefaultBranchOfRepositoriesWithArgoCDWebhook() {
+    Repository heartOfGold = repository(RepositoryTestData.createHeartOfGold("git"), webhook("https://argo-test.com/webhook"));
+    Repository puzzle = repository(RepositoryTestData.create42Puzzle("git"));
+    when(repositoryManager.getAll(any(), anyInt(), anyInt())).thenReturn(List.of(heartOfGold, puzzle));
+
+    resync.start();
+    runs.forEach(Runnable::run);
+
+    ArgumentCaptor<ArgoCDDelivery> delivery = ArgumentCaptor.forClass(ArgoCDDelivery.class);
+    verify(queue).offer(delivery.capture());
+    assertThat(delivery.getValue().getRepositoryId()).isEqualTo(heartOfGold.getId());
+    assertThat(delivery.getValue().getBranches()).containsExactly("main");
+    assertThat(resync.getProgress()).hasValueSatisfying(progress -> {
+      assertThat(progress.getState()).isEqualTo(ArgoCDResync.State.DONE);
+      assertThat(progress.getStartedAt()).isEqualTo(NOW.toEpochMilli());
+      assertThat(progress.getRepositories()).isEqualTo(2);
+      assertThat(progress.getDeliveries()).isEqualTo(1);
+    });
+  }
+
+  @Test
+  void shouldSkipWebhooksWhichIgnoreTheDefaultBranch() {
+    ArgoCDWebhook webhook = webhook("https://argo-test.com/webhook");
+    webhook.setBranchPatterns(List.of("release/*"));
+    Repository heartOfGold = repository(RepositoryTestData.createHeartOfGold("git"), webhook);
+    when(repositoryManager.getAll(any(), anyInt(), anyInt())).thenReturn(List.of(heartOfGold));
+
+    resync.start();
+    runs.forEach(Runnable::run);
+
+    verify(queue, never()).offer(any());
+  }
+
+  @Test
+  void shouldReadRepositoriesPageByPage() {
+    List<Repository> firstPage = new ArrayList<>();
+    for (int i = 0; i < ArgoCDResync.PAGE_SIZE; i++) {
+      Repository repository = RepositoryTestData.create42Puzzle("git");
+      repository.setId("puzzle-" + i);
+      firstPage.add(repository(repository));
+    }
+    Repository heartOfGold = repository(RepositoryTestData.createHeartOfGold("git"));
+    when(repositoryManager.getAll(any(), eq(0), eq(ArgoCDResync.PAGE_SIZE))).thenReturn(firstPage);
+    when(repositoryManager.getAll(any(), eq(ArgoCDResync.PAGE_SIZE), eq(ArgoCDResync.PAGE_SIZE))).thenReturn(List.of(heartOfGold));
+
+    resync.start();
+    runs.forEach(Runnable::run);
+
+    assertThat(resync.getProgress()).hasValueSatisfying(progress -> assertThat(progress.getRepositories()).isEqualTo(ArgoCDResync.PAGE_SIZE + 1));
+  }
+
+  @Test
+  void shouldNotStartSecondResyncWhileRunning() {
+    ArgoCDResync.Progress running = resync.start();
+
+    assertThat(resync.start()).isSameAs(running);
+    assertThat(runs).hasSize(1);
+  }
+
+  @Test
+  void shouldStopCancelledResync() {
+    Repository heartOfGold = repository(RepositoryTestData.createHeartOfGold("git"), webhook("https://argo-test.com/webhook"));
+    when(repositoryManager.getAll(any(), anyInt(), anyInt())).thenReturn(List.of(heartOfGold));
+
+    resync.start();
+    resync.cancel();
+    runs.forEach(Runnable::run);
+
+    verify(queue, never()).offer(any());
+    assertThat(resync.getProgress()).hasValueSatisfying(progress -> {
+      assertThat(progress.getState()).isEqualTo(ArgoCDResync.State.CANCELLED);
+      assertThat(progress.getRepositories()).isZero();
+    });
+  }
+
+  @Test
+  void shouldSkipEmptyRepositories() {
+    Repository heartOfGold = RepositoryTestData.createHeartOfGold("git");
+    when(webhookLookup.find(heartOfGold)).thenReturn(List.of(webhook("https://argo-test.com/webhook")));
+    when(metadataCache.get(heartOfGold)).thenReturn(new ArgoCDRepositoryMetadata(null, "https://scm.hitchhiker.com/repo/hitchhiker/HeartOfGold"));
+    when(repositoryManager.getAll(any(), anyInt(), anyInt())).thenReturn(List.of(heartOfGold));
+
+    resync.start();
+    runs.forEach(Runnable::run);
+
+    verify(queue, never()).offer(any());
+    assertThat(resync.getProgress()).hasValueSatisfying(progress -> {
+      assertThat(progress.getState()).isEqualTo(ArgoCDResync.State.DONE);
+      assertThat(progress.getRepositories()).isEqualTo(1);
+      assertThat(progress.getFailures()).isZero();
+    });
+  }
+
+  @Test
+  void shouldCountFailedRepositories() {
+    Repository heartOfGold = RepositoryTestData.createHeartOfGold("git");
+    when(webhookLookup.find(heartOfGold)).thenThrow(new IllegalStateException("store failed"));
+    when(repositoryManager.getAll(any(), anyInt(), anyInt())).thenReturn(List.of(heartOfGold));
+
+    resync.start();
+    runs.forEach(Runnable::run);
+
+    assertThat(resync.getProgress()).hasValueSatisfying(progress -> {
+      assertThat(progress.getState()).isEqualTo(ArgoCDResync.State.DONE);
+      assertThat(progress.getFailures()).isEqualTo(1);
+    });
+  }
+
+  @Test
+  void shouldShutDownRunnerAndWorkersOnClose() {
+    ExecutorService runner = mock(ExecutorService.class);
+    ExecutorService workers = mock(ExecutorService.class);
+    ArgoCDResync closable = new ArgoCDResync(
+      configurationStore,
+      repositoryManager,
+      webhookLookup,
+      metadataCache,
+      new ArgoCDBranchMatcherCache(),
+      queue,
+      administrationContext,
+      runner,
+      workers,
+      Clock.fixed(NOW, ZoneOffset.UTC)
+    );
+
+    closable.close();
+
+    verify(runner).shutdownNow();
+    verify(workers).shutdownNow();
+  }
+
+  private Repository repository(Repository repository, ArgoCDWebhook... webhooks) {
+    lenient().when(webhookLookup.find(repository)).thenReturn(List.of(webhooks));
+    lenient().when(metadataCache.get(repository)).thenReturn(new ArgoCDRepositoryMetadata("main", "https://scm.hitchhiker.com/repo/" + repository.getNamespaceAndName()));
+    return repository;
+  }
+
+  private static ArgoCDWebhook webhook(String url) {
+    return new ArgoCDWebhook(SCMM, url, "", false);
+  }
+}
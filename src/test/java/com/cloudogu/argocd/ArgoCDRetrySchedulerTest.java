@@ -0,0 +1,127 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.argocd;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.cloudogu.argocd.HookImplementation.SCMM;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class ArgoCDRetrySchedulerTest {
+
+  @Mock
+  private ArgoCDDeliveryQueue queue;
+  @Mock
+  private ArgoCDDeadLetterStore deadLetterStore;
+  @Mock
+  private ScheduledExecutorService scheduler;
+
+  private final ArgoCDWebhook webhook = new ArgoCDWebhook(SCMM, "https://argo-test.com/webhook", "", false);
+
+  private ArgoCDRetryScheduler retryScheduler;
+
+  @BeforeEach
+  void initScheduler() {
+    webhook.setMaxRetries(2);
+    webhook.setRetryBackoffMillis(100);
+    retryScheduler = new ArgoCDRetryScheduler(() -> queue, deadLetterStore, scheduler);
+  }
+
+  @Test
+  void shouldScheduleRetryWithBackoff() {
+    ArgoCDDelivery delivery = delivery();
+
+    retryScheduler.failed(delivery, new ArgoCDHookExecutionException("failed"));
+
+    ArgumentCaptor<Runnable> retry = ArgumentCaptor.forClass(Runnable.class);
+    ArgumentCaptor<Long> delay = ArgumentCaptor.forClass(Long.class);
+    verify(scheduler).schedule(retry.capture(), delay.capture(), eq(TimeUnit.MILLISECONDS));
+    assertThat(delay.getValue()).isBetween(50L, 100L);
+
+    retry.getValue().run();
+
+    ArgumentCaptor<ArgoCDDelivery> retried = ArgumentCaptor.forClass(ArgoCDDelivery.class);
+    verify(queue).offer(retried.capture());
+    assertThat(retried.getValue().getAttempt()).isEqualTo(1);
+    verify(deadLetterStore, never()).add(any(), any());
+  }
+
+  @Test
+  void shouldMoveDeliveryToDeadLettersAfterLastRetry() {
+    ArgoCDDelivery delivery = delivery().nextAttempt().nextAttempt();
+    ArgoCDHookExecutionException error = new ArgoCDHookExecutionException("failed");
+
+    retryScheduler.failed(delivery, error);
+
+    verify(deadLetterStore).add(delivery, error);
+    verify(scheduler, never()).schedule(any(Runnable.class), anyLong(), any());
+  }
+
+  @Test
+  void shouldOfferDeferredDeliveryWithoutCountingAnAttempt() {
+    ArgoCDDelivery delivery = delivery();
+
+    retryScheduler.deferred(delivery, 500);
+
+    ArgumentCaptor<Runnable> deferred = ArgumentCaptor.forClass(Runnable.class);
+    verify(scheduler).schedule(deferred.capture(), eq(500L), eq(TimeUnit.MILLISECONDS));
+
+    deferred.getValue().run();
+
+    verify(queue).offer(delivery);
+  }
+
+  @Test
+  void shouldDoubleBackoffWithEveryAttempt() {
+    for (int i = 0; i < 100; i++) {
+      assertThat(ArgoCDRetryScheduler.computeBackoff(1000, 0)).isBetween(500L, 1000L);
+      assertThat(ArgoCDRetryScheduler.computeBackoff(1000, 3)).isBetween(4000L, 8000L);
+    }
+  }
+
+  @Test
+  void shouldLimitBackoff() {
+    assertThat(ArgoCDRetryScheduler.computeBackoff(1000, 100)).isLessThanOrEqualTo(TimeUnit.MINUTES.toMillis(10));
+  }
+
+  private ArgoCDDelivery delivery() {
+    return new ArgoCDDelivery(webhook, "1", "space/X", "https://test.de", "main", singletonList("main"));
+  }
+}
@@ -24,6 +24,11 @@
 
 package com.cloudogu.argocd;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -31,32 +36,45 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Answers;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.cache.Cache;
+import sonia.scm.cache.CacheManager;
+import sonia.scm.config.ScmConfiguration;
 import sonia.scm.net.ahc.AdvancedHttpClient;
 import sonia.scm.net.ahc.AdvancedHttpRequestWithBody;
-import sonia.scm.net.ahc.Content;
+import sonia.scm.net.ahc.AdvancedHttpResponse;
 import sonia.scm.repository.Branch;
 import sonia.scm.repository.Branches;
+import sonia.scm.repository.Changeset;
 import sonia.scm.repository.InternalRepositoryException;
+import sonia.scm.repository.Modifications;
+import sonia.scm.repository.Modified;
 import sonia.scm.repository.PostReceiveRepositoryHookEvent;
 import sonia.scm.repository.Repository;
 import sonia.scm.repository.RepositoryTestData;
+import sonia.scm.repository.Tag;
 import sonia.scm.repository.api.BranchesCommandBuilder;
+import sonia.scm.repository.api.HookFeature;
+import sonia.scm.repository.api.ModificationsCommandBuilder;
 import sonia.scm.repository.api.RepositoryService;
 import sonia.scm.repository.api.RepositoryServiceFactory;
 import sonia.scm.repository.api.ScmProtocol;
 
 import javax.ws.rs.core.MediaType;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.stream.Stream;
 
 import static com.cloudogu.argocd.HookImplementation.GITHUB;
 import static com.cloudogu.argocd.HookImplementation.SCMM;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -67,12 +85,17 @@ class ArgoCDWebhookExecutorTest {
   @Mock
   private AdvancedHttpClient client;
   @Mock
+  private ArgoCDApplicationRefresher applicationRefresher;
+  @Mock
   private RepositoryServiceFactory serviceFactory;
   @Mock
   private RepositoryService service;
   @Mock(answer = Answers.RETURNS_DEEP_STUBS)
   private BranchesCommandBuilder branchesCommandBuilder;
 
+  @Mock
+  private ModificationsCommandBuilder modificationsCommand;
+
   @Mock(answer = Answers.RETURNS_SELF)
   private AdvancedHttpRequestWithBody request;
 
@@ -80,16 +103,104 @@ class ArgoCDWebhookExecutorTest {
   private PostReceiveRepositoryHookEvent event;
 
   @Mock
-  private Content content;
+  private AdvancedHttpResponse response;
+  @Mock
+  private ArgoCDRetryScheduler retryScheduler;
+  @Mock
+  private ArgoCDDeliveryHistoryStore historyStore;
+  @Mock
+  private ArgoCDRefStateStore refStateStore;
+  @Mock
+  private ArgoCDIdempotencyStore idempotencyStore;
+
+  @Mock
+  private ArgoCDConfigurationStore configurationStore;
+  @Mock
+  private CacheManager cacheManager;
+  @Mock
+  private Cache<String, ArgoCDRepositoryMetadata> metadataCache;
 
   private final Repository repository = RepositoryTestData.create42Puzzle();
+  private final List<JsonNode> payloads = new ArrayList<>();
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final ArgoCDMetrics metrics = new ArgoCDMetrics(meterRegistry);
 
   @BeforeEach
   void initClient() {
     lenient().when(client.post(any())).thenReturn(request);
-    lenient().when(request.getContent()).thenReturn(content);
-    when(serviceFactory.create(repository)).thenReturn(service);
-    when(service.getBranchesCommand()).thenReturn(branchesCommandBuilder);
+    lenient().when(request.rawContent(any(ByteSource.class))).thenAnswer(invocation -> {
+      // the buffer of the byte source is reused for the next request, so we have to read it immediately
+      payloads.add(new ObjectMapper().readTree(invocation.getArgument(0, ByteSource.class).read()));
+      return request;
+    });
+    lenient().when(request.request()).thenReturn(response);
+    lenient().when(response.getStatus()).thenReturn(200);
+    lenient().when(configurationStore.get()).thenReturn(new ArgoCDConfiguration());
+    lenient().when(cacheManager.<String, ArgoCDRepositoryMetadata>getCache(any())).thenReturn(metadataCache);
+    lenient().when(serviceFactory.create(repository)).thenReturn(service);
+    lenient().when(service.getBranchesCommand()).thenReturn(branchesCommandBuilder);
+  }
+
+  @Test
+  void shouldNotOpenRepositoryServiceWithoutBranches() {
+    when(event.getContext().getBranchProvider().getCreatedOrModified()).thenReturn(emptyList());
+    when(event.getContext().getBranchProvider().getDeletedOrClosed()).thenReturn(emptyList());
+    ArgoCDWebhookExecutor executor = createExecutor(batchWebhook(SCMM));
+
+    executor.run();
+
+    verify(serviceFactory, never()).create(any(Repository.class));
+    verify(client, never()).post(any());
+  }
+
+  @Test
+  void shouldRetainPushContextOnCreationAndReleaseItOnceAfterRun() {
+    ArgoCDPushContext context = mock(ArgoCDPushContext.class);
+    when(context.getRepository()).thenReturn(repository);
+    ArgoCDWebhookExecutor executor = createExecutor(batchWebhook(SCMM), context);
+
+    verify(context).retain();
+    verify(context, never()).release();
+
+    executor.run();
+    executor.run();
+
+    verify(context).release();
+  }
+
+  @Test
+  void shouldSkipPushWithoutRelevantPaths() throws IOException {
+    Changeset changeset = new Changeset();
+    changeset.setId("1");
+    changeset.setBranches(singletonList("main"));
+    when(event.getContext().getBranchProvider().getCreatedOrModified()).thenReturn(singletonList("main"));
+    when(event.getContext().getBranchProvider().getDeletedOrClosed()).thenReturn(emptyList());
+    when(event.getContext().getChangesetProvider().getChangesets()).thenReturn(singletonList(changeset));
+    when(service.getModificationsCommand()).thenReturn(modificationsCommand);
+    when(modificationsCommand.revision("1")).thenReturn(modificationsCommand);
+    when(modificationsCommand.getModifications()).thenReturn(new Modifications("1", new Modified("src/Main.java")));
+    ArgoCDWebhook webhook = new ArgoCDWebhook(SCMM, "https://argo-test.com/webhook", "", false);
+    webhook.setIncludePaths(singletonList("deploy/**"));
+    ArgoCDWebhookExecutor executor = createExecutor(webhook);
+
+    executor.run();
+
+    verify(service, never()).getBranchesCommand();
+    verify(client, never()).post(any());
+  }
+
+  @Test
+  void shouldNotLookUpMetadataWithoutMatchingBranches() {
+    when(event.getContext().getBranchProvider().getCreatedOrModified()).thenReturn(singletonList("feature/x"));
+    when(event.getContext().getBranchProvider().getDeletedOrClosed()).thenReturn(singletonList("feature/y"));
+    ArgoCDWebhook webhook = new ArgoCDWebhook(SCMM, "https://argo-test.com/webhook", "", false);
+    webhook.setBranchPatterns(singletonList("main"));
+    ArgoCDWebhookExecutor executor = createExecutor(webhook);
+
+    executor.run();
+
+    verify(serviceFactory, never()).create(any(Repository.class));
+    verify(client, never()).post(any());
   }
 
   @Test
@@ -146,11 +257,38 @@ class ArgoCDWebhookExecutorTest {
         verify(request).header("X-SCM-PushEvent", "Push");
         verify(request).spanKind("Webhook");
         verify(request).contentType(MediaType.APPLICATION_JSON);
-        verify(request).jsonContent(argThat((ScmPushEventPayload p) -> {
-          assertThat(p.getHtmlUrl()).isEqualTo("https://test.de");
-          assertThat(p.getBranch().isDefaultBranch()).isTrue();
-          return true;
-        }));
+        assertThat(payloads).singleElement().satisfies(p -> {
+          assertThat(p.get("html_url").asText()).isEqualTo("https://test.de");
+          assertThat(p.get("branch").get("default_branch").asBoolean()).isTrue();
+        });
+      }
+
+      @Test
+      void shouldOnlyTriggerWebhookForMatchingBranches() {
+        when(event.getContext().getBranchProvider().getCreatedOrModified()).thenReturn(asList("main", "feature/x", "release/1.0"));
+        ArgoCDWebhook webhook = new ArgoCDWebhook(SCMM, "https://argo-test.com/webhook", "", false);
+        webhook.setBranchPatterns(asList("main", "regex:release/\\d+\\.\\d+"));
+        ArgoCDWebhookExecutor executor = createExecutor(webhook);
+
+        executor.run();
+
+        assertThat(payloads)
+          .extracting(p -> p.get("branch").get("name").asText())
+          .containsExactly("main", "release/1.0");
+      }
+
+      @Test
+      void shouldOnlyTriggerWebhookForDefaultBranch() {
+        when(event.getContext().getBranchProvider().getCreatedOrModified()).thenReturn(asList("feature/x", "main"));
+        ArgoCDWebhook webhook = new ArgoCDWebhook(SCMM, "https://argo-test.com/webhook", "", false);
+        webhook.setDefaultBranchOnly(true);
+        ArgoCDWebhookExecutor executor = createExecutor(webhook);
+
+        executor.run();
+
+        assertThat(payloads)
+          .extracting(p -> p.get("branch").get("name").asText())
+          .containsExactly("main");
       }
 
       @Test
@@ -163,11 +301,10 @@ class ArgoCDWebhookExecutorTest {
         verify(request).header("X-SCM-PushEvent", "Push");
         verify(request).spanKind("Webhook");
         verify(request).contentType(MediaType.APPLICATION_JSON);
-        verify(request).jsonContent(argThat((ScmPushEventPayload p) -> {
-          assertThat(p.getHtmlUrl()).isEqualTo("https://test.de");
-          assertThat(p.getBranch().isDefaultBranch()).isFalse();
-          return true;
-        }));
+        assertThat(payloads).singleElement().satisfies(p -> {
+          assertThat(p.get("html_url").asText()).isEqualTo("https://test.de");
+          assertThat(p.get("branch").get("default_branch").asBoolean()).isFalse();
+        });
       }
 
       @Test
@@ -178,14 +315,43 @@ class ArgoCDWebhookExecutorTest {
         executor.run();
 
         verify(request).header("X-SCM-PushEvent", "Push");
-        verify(request).header("X-SCM-Signature", "sha1=22c2bbe31bd7e8cea1169f6cbbf89f7935a6116a");
+        verify(request).header("X-SCM-Signature", "sha1=bccd236d65d25e888600f8be538a8e0fb55c9ac4");
         verify(request).spanKind("Webhook");
         verify(request).contentType(MediaType.APPLICATION_JSON);
-        verify(request).jsonContent(argThat((ScmPushEventPayload p) -> {
-          assertThat(p.getHtmlUrl()).isEqualTo("https://test.de");
-          assertThat(p.getBranch().isDefaultBranch()).isTrue();
-          return true;
-        }));
+        assertThat(payloads).singleElement().satisfies(p -> {
+          assertThat(p.get("html_url").asText()).isEqualTo("https://test.de");
+          assertThat(p.get("branch").get("default_branch").asBoolean()).isTrue();
+        });
+      }
+
+      @Test
+      void shouldRecordMetrics() {
+        when(event.getContext().getBranchProvider().getCreatedOrModified()).thenReturn(singletonList("main"));
+        ArgoCDWebhookExecutor executor = createExecutor(new ArgoCDWebhook(SCMM, "https://argo-test.com/webhook", "456", false));
+
+        executor.run();
+
+        assertThat(meterRegistry.get(ArgoCDMetrics.REQUESTS)
+          .tags("implementation", "SCMM", "host", "argo-test.com", "status", "200", "outcome", "success")
+          .counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get(ArgoCDMetrics.PAYLOAD_SIZE).summary().totalAmount()).isEqualTo(77);
+        assertThat(meterRegistry.get(ArgoCDMetrics.SIGNATURE).tag("algorithm", "HmacSHA1").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get(ArgoCDMetrics.DELIVERY_LATENCY).timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get(ArgoCDMetrics.METADATA_LOOKUP).tag("operation", "defaultBranch").timer().count()).isEqualTo(1);
+      }
+
+      @Test
+      void shouldRecordFailedRequests() {
+        when(response.getStatus()).thenReturn(503);
+        when(event.getContext().getBranchProvider().getCreatedOrModified()).thenReturn(singletonList("main"));
+        ArgoCDWebhookExecutor executor = createExecutor(new ArgoCDWebhook(SCMM, "https://argo-test.com/webhook", "", false));
+
+        executor.run();
+
+        assertThat(meterRegistry.get(ArgoCDMetrics.REQUESTS)
+          .tags("status", "503", "outcome", "failure")
+          .counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.find(ArgoCDMetrics.DELIVERY_LATENCY).timer()).isNull();
       }
 
       @Test
@@ -224,13 +390,59 @@ class ArgoCDWebhookExecutorTest {
         verify(request).header("X-Github-Event", "push");
         verify(request).spanKind("Webhook");
         verify(request).contentType(MediaType.APPLICATION_JSON);
-        verify(request).jsonContent(argThat((GitHubPushEventPayloadDto p) -> {
-          assertThat(p.getCommits()).isEmpty();
-          assertThat(p.getRef()).isEqualTo("refs/heads/main");
-          assertThat(p.getRepository().getHtmlUrl()).isEqualTo("https://test.de");
-          assertThat(p.getRepository().getDefaultBranch()).isEqualTo("main");
-          return true;
-        }));
+        assertThat(payloads).singleElement().satisfies(p -> {
+          assertThat(p.get("commits")).isEmpty();
+          assertThat(p.get("ref").asText()).isEqualTo("refs/heads/main");
+          assertThat(p.get("repository").get("html_url").asText()).isEqualTo("https://test.de");
+          assertThat(p.get("repository").get("default_branch").asText()).isEqualTo("main");
+        });
+      }
+
+      @Test
+      void shouldSendCommitsInPreciseMode() throws IOException {
+        Changeset changeset = new Changeset();
+        changeset.setId("def");
+        changeset.setParents(singletonList("abc"));
+        changeset.setBranches(singletonList("main"));
+        when(event.getContext().getBranchProvider().getCreatedOrModified()).thenReturn(singletonList("main"));
+        when(event.getContext().getChangesetProvider().getChangesets()).thenReturn(singletonList(changeset));
+        when(service.getModificationsCommand()).thenReturn(modificationsCommand);
+        when(modificationsCommand.revision("def")).thenReturn(modificationsCommand);
+        when(modificationsCommand.getModifications()).thenReturn(new Modifications("def", new Modified("apps/a/values.yaml")));
+        ArgoCDWebhook webhook = new ArgoCDWebhook(GITHUB, "https://argo-test.com/webhook", "", false);
+        webhook.setPrecise(true);
+        ArgoCDWebhookExecutor executor = createExecutor(webhook);
+
+        executor.run();
+
+        assertThat(payloads).singleElement().satisfies(p -> {
+          assertThat(p.get("before").asText()).isEqualTo("abc");
+          assertThat(p.get("after").asText()).isEqualTo("def");
+          assertThat(p.get("commits")).singleElement().satisfies(commit -> {
+            assertThat(commit.get("id").asText()).isEqualTo("def");
+            assertThat(commit.get("modified").get(0).asText()).isEqualTo("apps/a/values.yaml");
+            assertThat(commit.get("added")).isEmpty();
+          });
+          assertThat(p.get("ref").asText()).isEqualTo("refs/heads/main");
+        });
+      }
+
+      @Test
+      void shouldTriggerWebhookForTags() {
+        when(event.getContext().getBranchProvider().getCreatedOrModified()).thenReturn(emptyList());
+        when(event.getContext().getBranchProvider().getDeletedOrClosed()).thenReturn(emptyList());
+        when(event.getContext().isFeatureSupported(HookFeature.TAG_PROVIDER)).thenReturn(true);
+        when(event.getContext().getTagProvider().getCreatedTags()).thenReturn(singletonList(new Tag("v1.1", "abc")));
+        when(event.getContext().getTagProvider().getDeletedTags()).thenReturn(singletonList(new Tag("v1.0", "def")));
+        ArgoCDWebhook webhook = new ArgoCDWebhook(GITHUB, "https://argo-test.com/webhook", "", false);
+        webhook.setTags(true);
+        ArgoCDWebhookExecutor executor = createExecutor(webhook);
+
+        executor.run();
+
+        assertThat(payloads)
+          .extracting(p -> p.get("ref").asText())
+          .containsExactly("refs/tags/v1.1", "refs/tags/v1.0");
       }
 
       @Test
@@ -241,21 +453,84 @@ class ArgoCDWebhookExecutorTest {
         executor.run();
 
         verify(request).header("X-Github-Event", "push");
-        verify(request).header("X-Hub-Signature", "sha1=22c2bbe31bd7e8cea1169f6cbbf89f7935a6116a");
+        verify(request).header("X-Hub-Signature", "sha1=93276a0479892decced1ecc76a2b1666433e1255");
+        verify(request).header("X-Hub-Signature-256", "sha256=432d5be7c9ded4983038549ef81908213a3539d76be3774793638c5adffac318");
         verify(request).spanKind("Webhook");
         verify(request).contentType(MediaType.APPLICATION_JSON);
-        verify(request).jsonContent(argThat((GitHubPushEventPayloadDto p) -> {
-          assertThat(p.getCommits()).isEmpty();
-          assertThat(p.getRef()).isEqualTo("refs/heads/main");
-          assertThat(p.getRepository().getHtmlUrl()).isEqualTo("https://test.de");
-          assertThat(p.getRepository().getDefaultBranch()).isEqualTo("main");
-          return true;
-        }));
+        assertThat(payloads).singleElement().satisfies(p -> {
+          assertThat(p.get("commits")).isEmpty();
+          assertThat(p.get("ref").asText()).isEqualTo("refs/heads/main");
+          assertThat(p.get("repository").get("html_url").asText()).isEqualTo("https://test.de");
+          assertThat(p.get("repository").get("default_branch").asText()).isEqualTo("main");
+        });
+      }
+    }
+
+    @Nested
+    class WithBatchMode {
+
+      @Test
+      void shouldSendAllBranchesInOneScmmEvent() {
+        when(event.getContext().getBranchProvider().getCreatedOrModified()).thenReturn(asList("main", "develop"));
+        when(event.getContext().getBranchProvider().getDeletedOrClosed()).thenReturn(asList("feature", "develop"));
+        ArgoCDWebhookExecutor executor = createExecutor(batchWebhook(SCMM));
+
+        executor.run();
+
+        assertThat(payloads).singleElement().satisfies(p -> {
+          assertThat(p.get("html_url").asText()).isEqualTo("https://test.de");
+          assertThat(p.get("branches"))
+            .extracting(b -> b.get("name").asText())
+            .containsExactly("main", "develop", "feature");
+          assertThat(p.get("branches"))
+            .extracting(b -> b.get("default_branch").asBoolean())
+            .containsExactly(true, false, false);
+        });
+      }
+
+      @Test
+      void shouldSendOneGithubEventPerDistinctBranch() {
+        when(event.getContext().getBranchProvider().getCreatedOrModified()).thenReturn(asList("main", "develop"));
+        when(event.getContext().getBranchProvider().getDeletedOrClosed()).thenReturn(singletonList("develop"));
+        ArgoCDWebhookExecutor executor = createExecutor(batchWebhook(GITHUB));
+
+        executor.run();
+
+        assertThat(payloads)
+          .extracting(p -> p.get("ref").asText())
+          .containsExactly("refs/heads/main", "refs/heads/develop");
       }
     }
   }
 
   private ArgoCDWebhookExecutor createExecutor(ArgoCDWebhook webhook) {
-    return new ArgoCDWebhookExecutor(client, serviceFactory, webhook, repository, event);
+    ArgoCDRepositoryMetadataCache repositoryMetadataCache = new ArgoCDRepositoryMetadataCache(cacheManager, serviceFactory, metrics, new ScmConfiguration());
+    return createExecutor(webhook, new ArgoCDPushContext(repository, event, serviceFactory, repositoryMetadataCache));
+  }
+
+  private ArgoCDWebhookExecutor createExecutor(ArgoCDWebhook webhook, ArgoCDPushContext context) {
+    ArgoCDDeliveryDeduplicator deduplicator = new ArgoCDDeliveryDeduplicator(idempotencyStore, configurationStore, metrics);
+    ArgoCDDeliveryQueue queue = new ArgoCDDeliveryQueue(
+      configurationStore, new ArgoCDWebhookSender(
+        () -> client, new ArgoCDHttpTransport(configurationStore, new ScmConfiguration()), applicationRefresher, configurationStore, new ArgoCDPayloadEncoder(), new ArgoCDPayloadSigner(), metrics
+      ), retryScheduler, new ArgoCDCircuitBreaker(configurationStore), metrics, historyStore, refStateStore, new ArgoCDRateLimiter(configurationStore, metrics), deduplicator, Runnable::run, Runnable::run
+    );
+    ArgoCDRefreshDebouncer debouncer = new ArgoCDRefreshDebouncer(configurationStore, queue, null);
+    return new ArgoCDWebhookExecutor(
+      debouncer,
+      new ArgoCDPathFilter(),
+      new ArgoCDBranchMatcherCache().get(webhook),
+      new ArgoCDChangesCollector(configurationStore),
+      refStateStore,
+      deduplicator,
+      webhook,
+      context
+    );
+  }
+
+  private ArgoCDWebhook batchWebhook(HookImplementation hookImplementation) {
+    ArgoCDWebhook webhook = new ArgoCDWebhook(hookImplementation, "https://argo-test.com/webhook", "", false);
+    webhook.setBatch(true);
+    return webhook;
   }
 }
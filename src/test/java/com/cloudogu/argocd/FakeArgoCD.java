@@ -0,0 +1,357 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import org.apache.commons.codec.digest.HmacUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embeddable stand-in for the webhook receiver of Argo CD. It validates the signatures of the requests like Argo CD
+ * and simulates a slow or flapping Argo CD with a latency distribution, a rate of 503 responses and a rate of
+ * connections which are closed without a response. For the api implementation it serves the list of the given
+ * applications and counts their refreshes, the secret is used as api token.
+ */
+public class FakeArgoCD implements Closeable {
+
+  static final String PATH = "/api/webhook";
+  static final String API_PATH = "/api/v1/applications";
+
+  private final HttpServer server;
+  private final ExecutorService threads;
+
+  private volatile String secret;
+  private volatile Latency latency = Latency.none();
+  private volatile double errorRate;
+  private volatile double resetRate;
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong accepted = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong resets = new AtomicLong();
+  private final AtomicLong invalidSignatures = new AtomicLong();
+  private final List<ArgoCDApplication> applications = new CopyOnWriteArrayList<>();
+  private final Map<String, AtomicLong> refreshes = new ConcurrentHashMap<>();
+  private final AtomicLong applicationListings = new AtomicLong();
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private FakeArgoCD(int threadCount) throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext(PATH, this::handle);
+    server.createContext(API_PATH, this::handleApi);
+    threads = Executors.newFixedThreadPool(threadCount);
+    server.setExecutor(threads);
+    server.start();
+  }
+
+  /**
+   * Starts a receiver on a free port of the loopback interface, which handles requests with the given number of
+   * threads. Requests which wait for the simulated latency occupy a thread.
+   */
+  public static FakeArgoCD start(int threadCount) throws IOException {
+    return new FakeArgoCD(threadCount);
+  }
+
+  public String getUrl() {
+    return getApiUrl() + PATH;
+  }
+
+  /**
+   * Returns the url of the server, which is used as url of webhooks using the api of Argo CD.
+   */
+  public String getApiUrl() {
+    return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+  }
+
+  public FakeArgoCD withApplication(String name, String repoUrl, String targetRevision) {
+    applications.add(new ArgoCDApplication(name, "argocd", repoUrl, targetRevision));
+    return this;
+  }
+
+  /**
+   * Requests without the signatures of this secret are rejected with 401. Without secret no signature is required.
+   */
+  public FakeArgoCD withSecret(String secret) {
+    this.secret = secret;
+    return this;
+  }
+
+  public FakeArgoCD withLatency(Latency latency) {
+    this.latency = latency;
+    return this;
+  }
+
+  /**
+   * Share of the requests which are answered with 503, between 0 and 1.
+   */
+  public FakeArgoCD withErrorRate(double errorRate) {
+    this.errorRate = errorRate;
+    return this;
+  }
+
+  /**
+   * Share of the requests whose connection is closed without a response, between 0 and 1.
+   */
+  public FakeArgoCD withResetRate(double resetRate) {
+    this.resetRate = resetRate;
+    return this;
+  }
+
+  public long getRequests() {
+    return requests.get();
+  }
+
+  public long getAccepted() {
+    return accepted.get();
+  }
+
+  public long getErrors() {
+    return errors.get();
+  }
+
+  public long getResets() {
+    return resets.get();
+  }
+
+  public long getInvalidSignatures() {
+    return invalidSignatures.get();
+  }
+
+  public long getApplicationListings() {
+    return applicationListings.get();
+  }
+
+  public long getRefreshes(String application) {
+    AtomicLong counter = refreshes.get(application);
+    return counter == null ? 0 : counter.get();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    byte[] body;
+    try (InputStream input = exchange.getRequestBody()) {
+      body = input.readAllBytes();
+    }
+    Random random = ThreadLocalRandom.current();
+    delay(random);
+    double chance = random.nextDouble();
+    if (chance < resetRate) {
+      resets.incrementAndGet();
+      // without response headers the http server closes the connection
+      exchange.close();
+    } else if (!hasValidSignature(exchange.getRequestHeaders(), body)) {
+      invalidSignatures.incrementAndGet();
+      respond(exchange, 401);
+    } else if (chance < resetRate + errorRate) {
+      errors.incrementAndGet();
+      respond(exchange, 503);
+    } else {
+      accepted.incrementAndGet();
+      respond(exchange, 200);
+    }
+  }
+
+  private void handleApi(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    Random random = ThreadLocalRandom.current();
+    delay(random);
+    double chance = random.nextDouble();
+    if (chance < resetRate) {
+      resets.incrementAndGet();
+      exchange.close();
+    } else if (!hasValidToken(exchange.getRequestHeaders())) {
+      invalidSignatures.incrementAndGet();
+      respond(exchange, 401);
+    } else if (chance < resetRate + errorRate) {
+      errors.incrementAndGet();
+      respond(exchange, 503);
+    } else {
+      String path = exchange.getRequestURI().getPath();
+      if (path.equals(API_PATH)) {
+        applicationListings.incrementAndGet();
+        accepted.incrementAndGet();
+        respond(exchange, 200, applicationList());
+      } else {
+        refresh(exchange, path.substring(API_PATH.length() + 1));
+      }
+    }
+  }
+
+  private void refresh(HttpExchange exchange, String name) throws IOException {
+    if (applications.stream().noneMatch(application -> application.getName().equals(name))) {
+      respond(exchange, 404);
+      return;
+    }
+    refreshes.computeIfAbsent(name, key -> new AtomicLong()).incrementAndGet();
+    accepted.incrementAndGet();
+    ObjectNode application = mapper.createObjectNode();
+    application.putObject("metadata").put("name", name);
+    respond(exchange, 200, application);
+  }
+
+  private ObjectNode applicationList() {
+    ObjectNode list = mapper.createObjectNode();
+    ArrayNode items = list.putArray("items");
+    for (ArgoCDApplication application : applications) {
+      ObjectNode item = items.addObject();
+      item.putObject("metadata")
+        .put("name", application.getName())
+        .put("namespace", application.getNamespace());
+      item.putObject("spec").putObject("source")
+        .put("repoURL", application.getRepoUrl())
+        .put("targetRevision", application.getTargetRevision());
+    }
+    return list;
+  }
+
+  private boolean hasValidToken(Headers headers) {
+    String currentSecret = secret;
+    if (currentSecret == null || currentSecret.isEmpty()) {
+      return true;
+    }
+    return ("Bearer " + currentSecret).equals(headers.getFirst("Authorization"));
+  }
+
+  private void delay(Random random) {
+    try {
+      long millis = latency.nextMillis(random);
+      if (millis > 0) {
+        TimeUnit.MILLISECONDS.sleep(millis);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private boolean hasValidSignature(Headers headers, byte[] body) {
+    String currentSecret = secret;
+    if (currentSecret == null || currentSecret.isEmpty()) {
+      return true;
+    }
+    if (headers.containsKey("X-SCM-PushEvent")) {
+      return matches(headers.getFirst("X-SCM-Signature"), "sha1=", HmacAlgorithms.HMAC_SHA_1, currentSecret, body);
+    }
+    return matches(headers.getFirst("X-Hub-Signature"), "sha1=", HmacAlgorithms.HMAC_SHA_1, currentSecret, body)
+      && matches(headers.getFirst("X-Hub-Signature-256"), "sha256=", HmacAlgorithms.HMAC_SHA_256, currentSecret, body);
+  }
+
+  private static boolean matches(String signature, String prefix, HmacAlgorithms algorithm, String secret, byte[] body) {
+    if (signature == null) {
+      return false;
+    }
+    String expected = prefix + new HmacUtils(algorithm, secret).hmacHex(body);
+    return MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII), signature.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static void respond(HttpExchange exchange, int status) throws IOException {
+    exchange.sendResponseHeaders(status, -1);
+    exchange.close();
+  }
+
+  private void respond(HttpExchange exchange, int status, ObjectNode json) throws IOException {
+    byte[] body = mapper.writeValueAsBytes(json);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, body.length);
+    exchange.getResponseBody().write(body);
+    exchange.close();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    threads.shutdownNow();
+  }
+
+  /**
+   * Distribution of the time until the receiver responds.
+   */
+  @FunctionalInterface
+  public interface Latency {
+
+    long nextMillis(Random random);
+
+    static Latency none() {
+      return random -> 0;
+    }
+
+    static Latency fixed(long millis) {
+      return random -> millis;
+    }
+
+    static Latency uniform(long minMillis, long maxMillis) {
+      return random -> minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+    }
+
+    /**
+     * Mostly fast responses with a long tail, as seen from a loaded server.
+     */
+    static Latency exponential(long meanMillis) {
+      return random -> (long) (-meanMillis * Math.log(1 - random.nextDouble()));
+    }
+
+    /**
+     * Parses the distribution from a string like <code>fixed:100</code>, <code>uniform:10-200</code> or
+     * <code>exponential:50</code>.
+     */
+    static Latency parse(String value) {
+      String[] parts = value.split(":", 2);
+      switch (parts[0]) {
+        case "none":
+          return none();
+        case "fixed":
+          return fixed(Long.parseLong(parts[1]));
+        case "uniform":
+          String[] range = parts[1].split("-", 2);
+          return uniform(Long.parseLong(range[0]), Long.parseLong(range[1]));
+        case "exponential":
+          return exponential(Long.parseLong(parts[1]));
+        default:
+          throw new IllegalArgumentException("unknown latency distribution " + value);
+      }
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.cloudogu.argocd;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.config.ScmConfiguration;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static com.cloudogu.argocd.HookImplementation.GITHUB;
+import static com.cloudogu.argocd.HookImplementation.SCMM;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the fake against the real sender, so that load tests with the fake use the same requests as SCM-Manager.
+ */
+@ExtendWith(MockitoExtension.class)
+class FakeArgoCDTest {
+
+  @Mock
+  private ArgoCDConfigurationStore configurationStore;
+
+  private final ArgoCDConfiguration configuration = new ArgoCDConfiguration();
+
+  private FakeArgoCD argoCD;
+  private ArgoCDWebhookSender sender;
+
+  @BeforeEach
+  void start() throws IOException {
+    configuration.setPooledTransport(true);
+    when(configurationStore.get()).thenReturn(configuration);
+    argoCD = FakeArgoCD.start(2);
+    ArgoCDHttpTransport transport = new ArgoCDHttpTransport(configurationStore, new ScmConfiguration());
+    ArgoCDMetrics metrics = new ArgoCDMetrics(new SimpleMeterRegistry());
+    ArgoCDApiClient apiClient = new ArgoCDApiClient(
+      () -> {
+        throw new IllegalStateException("the pooled transport is used");
+      },
+      transport,
+      configurationStore,
+      metrics
+    );
+    sender = new ArgoCDWebhookSender(
+      () -> {
+        throw new IllegalStateException("the pooled transport is used");
+      },
+      transport,
+      new ArgoCDApplicationRefresher(new ArgoCDApplicationIndex(apiClient, configurationStore), apiClient),
+      configurationStore,
+      new ArgoCDPayloadEncoder(),
+      new ArgoCDPayloadSigner(),
+      metrics
+    );
+  }
+
+  @AfterEach
+  void stop() {
+    argoCD.close();
+  }
+
+  @Test
+  void shouldAcceptSignedPayloads() {
+    argoCD.withSecret("towel");
+
+    assertThat(sender.send(delivery(SCMM, "towel"))).isEqualTo(200);
+    assertThat(sender.send(delivery(GITHUB, "towel"))).isEqualTo(200);
+
+    assertThat(argoCD.getAccepted()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldRejectPayloadsWithWrongSignature() {
+    argoCD.withSecret("towel");
+
+    ArgoCDHookExecutionException scmm = assertThrows(ArgoCDHookExecutionException.class, () -> sender.send(delivery(SCMM, "babel fish")));
+    ArgoCDHookExecutionException github = assertThrows(ArgoCDHookExecutionException.class, () -> sender.send(delivery(GITHUB, "")));
+
+    assertThat(scmm.getStatus()).isEqualTo(401);
+    assertThat(github.getStatus()).isEqualTo(401);
+    assertThat(argoCD.getInvalidSignatures()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldSimulateErrors() {
+    argoCD.withErrorRate(1);
+
+    ArgoCDHookExecutionException exception = assertThrows(ArgoCDHookExecutionException.class, () -> sender.send(delivery(SCMM, "")));
+
+    assertThat(exception.getStatus()).isEqualTo(503);
+    assertThat(argoCD.getErrors()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldSimulateClosedConnections() {
+    argoCD.withResetRate(1);
+
+    ArgoCDHookExecutionException exception = assertThrows(ArgoCDHookExecutionException.class, () -> sender.send(delivery(GITHUB, "")));
+
+    assertThat(exception.getStatus()).isZero();
+    assertThat(argoCD.getResets()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldDelayResponses() {
+    argoCD.withLatency(FakeArgoCD.Latency.fixed(100));
+
+    long start = System.nanoTime();
+    sender.send(delivery(SCMM, ""));
+
+    assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(100_000_000L);
+  }
+
+  @Test
+  void shouldRefreshApplicationsOfPushedBranch() {
+    argoCD
+      .withSecret("towel")
+      .withApplication("heart-of-gold", "https://scm.example.com/repo/hitchhiker/heart-of-gold.git", "main")
+      .withApplication("heart-of-gold-develop", "https://scm.example.com/repo/hitchhiker/heart-of-gold", "develop")
+      .withApplication("vogon", "https://scm.example.com/repo/hitchhiker/vogon", "main");
+    ArgoCDWebhook webhook = new ArgoCDWebhook(HookImplementation.API, argoCD.getApiUrl(), "towel", false);
+
+    sender.send(new ArgoCDDelivery(webhook, "42", "hitchhiker/heart-of-gold", "https://scm.example.com/repo/hitchhiker/heart-of-gold", "main", singletonList("main")));
+    sender.send(new ArgoCDDelivery(webhook, "42", "hitchhiker/heart-of-gold", "https://scm.example.com/repo/hitchhiker/heart-of-gold", "main", singletonList("main")));
+
+    assertThat(argoCD.getRefreshes("heart-of-gold")).isEqualTo(2);
+    assertThat(argoCD.getRefreshes("heart-of-gold-develop")).isZero();
+    assertThat(argoCD.getRefreshes("vogon")).isZero();
+    assertThat(argoCD.getApplicationListings()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldRejectApiRequestsWithWrongToken() {
+    argoCD.withSecret("towel");
+    ArgoCDWebhook webhook = new ArgoCDWebhook(HookImplementation.API, argoCD.getApiUrl(), "babel fish", false);
+
+    ArgoCDHookExecutionException exception = assertThrows(
+      ArgoCDHookExecutionException.class,
+      () -> sender.send(new ArgoCDDelivery(webhook, "42", "hitchhiker/heart-of-gold", "https://scm.example.com/repo/hitchhiker/heart-of-gold", "main", singletonList("main")))
+    );
+
+    assertThat(exception.getStatus()).isEqualTo(401);
+  }
+
+  @Test
+  void shouldParseLatencyDistributions() {
+    assertThat(FakeArgoCD.Latency.parse("fixed:42").nextMillis(null)).isEqualTo(42);
+    assertThat(FakeArgoCD.Latency.parse("uniform:10-20").nextMillis(new Random(1))).isBetween(10L, 20L);
+    assertThat(FakeArgoCD.Latency.parse("exponential:50").nextMillis(new Random(1))).isNotNegative();
+  }
+
+  private ArgoCDDelivery delivery(HookImplementation implementation, String secret) {
+    ArgoCDWebhook webhook = new ArgoCDWebhook(implementation, argoCD.getUrl(), secret, false);
+    return new ArgoCDDelivery(webhook, "42", "hitchhiker/heart-of-gold", "https://scm.example.com/repo/hitchhiker/heart-of-gold", "main", singletonList("main"));
+  }
+}